@@ -23,7 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.cloudformation.CloudFormationClient;
-import software.amazon.awssdk.services.cloudformation.model.ListStackResourcesResponse;
 import software.amazon.awssdk.services.cloudformation.model.ResourceStatus;
 import software.amazon.awssdk.services.cloudformation.model.StackResourceSummary;
 import software.amazon.awssdk.services.ecr.EcrClient;
@@ -31,7 +30,12 @@ import software.amazon.awssdk.services.ecr.model.ListTagsForResourceResponse;
 import software.amazon.awssdk.services.ecr.model.Tag;
 import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
 
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 public class CoreStackListener implements RequestHandler<SNSEvent, Object> {
 
@@ -42,9 +46,17 @@ public class CoreStackListener implements RequestHandler<SNSEvent, Object> {
     private static final String EVENT_SOURCE = "saas-boost";
     private static final Collection<String> EVENTS_OF_INTEREST = Collections.unmodifiableCollection(
             Arrays.asList("CREATE_COMPLETE", "UPDATE_COMPLETE"));
+    // ListTagsForResource shares the account's ECR API quota with deploys, so keep the fan out modest
+    private static final int DEFAULT_TAG_LOOKUP_CONCURRENCY = 4;
+    private static final int MAX_TAG_LOOKUP_ATTEMPTS = 5;
+    private static final long RETRY_BASE_DELAY_MILLIS = 200L;
     private final CloudFormationClient cfn;
     private final EventBridgeClient eventBridge;
     private final EcrClient ecr;
+    private final ExecutorService executor;
+    // Survives across invocations in a warm container. A repository's Name tag is set by the template,
+    // so it can only change when CloudFormation updates the repository resource.
+    private final Map<String, ServiceName> serviceNames = new ConcurrentHashMap<>();
 
     public CoreStackListener() {
         final long startTimeMillis = System.currentTimeMillis();
@@ -57,9 +69,19 @@ public class CoreStackListener implements RequestHandler<SNSEvent, Object> {
         this.cfn = Utils.sdkClient(CloudFormationClient.builder(), CloudFormationClient.SERVICE_NAME);
         this.eventBridge = Utils.sdkClient(EventBridgeClient.builder(), EventBridgeClient.SERVICE_NAME);
         this.ecr = Utils.sdkClient(EcrClient.builder(), EcrClient.SERVICE_NAME);
+        this.executor = Utils.daemonThreadPool(
+                Utils.intFromEnvironment("TAG_LOOKUP_CONCURRENCY", DEFAULT_TAG_LOOKUP_CONCURRENCY), "ecr-tags");
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    CoreStackListener(CloudFormationClient cfn, EventBridgeClient eventBridge, EcrClient ecr, int concurrency) {
+        this.cfn = cfn;
+        this.eventBridge = eventBridge;
+        this.ecr = ecr;
+        this.executor = Utils.daemonThreadPool(concurrency, "ecr-tags");
+    }
+
     @Override
     public Object handleRequest(SNSEvent event, Context context) {
         LOGGER.info(Utils.toJson(event));
@@ -70,95 +92,160 @@ public class CoreStackListener implements RequestHandler<SNSEvent, Object> {
         final String region = thisLambdaArn[3];
         final String accountId = thisLambdaArn[4];
 
-        List<SNSEvent.SNSRecord> records = event.getRecords();
-        SNSEvent.SNS sns = records.get(0).getSNS();
-        String message = sns.getMessage();
-
-        CloudFormationEvent cloudFormationEvent = CloudFormationEventDeserializer.deserialize(message);
-
         // CloudFormation sends SNS notifications for every resource in a stack going through each status change.
         // We want to process the resources of the saas-boost-core.yaml CloudFormation stack only after the stack
-        // has finished being created or updated so we don't trigger anything downstream prematurely.
-        if (filter(cloudFormationEvent)) {
-            String stackName = cloudFormationEvent.getStackName();
-            String stackStatus = cloudFormationEvent.getResourceStatus();
-            LOGGER.info("Stack " + stackName + " is in status " + stackStatus);
-
-            // We're looking for ECR repository resources in a CREATE_COMPLETE state. There could be multiple
-            // ECR repos provisioned depending on how the application services are configured.
-            try {
-                ListStackResourcesResponse resources = cfn.listStackResources(req -> req
-                        .stackName(cloudFormationEvent.getStackId())
-                );
-                Map<String, Object> appConfig = new HashMap<>();
-                Map<String, Object> services = new HashMap<>();
-                String tenantStorageBucketName = null;
-                for (StackResourceSummary resource : resources.stackResourceSummaries()) {
-                    if (ResourceStatus.CREATE_COMPLETE.equals(resource.resourceStatus())
-                            || ResourceStatus.UPDATE_COMPLETE.equals(resource.resourceStatus())) {
-                        if (AwsResource.ECR_REPO.getResourceType().equals(resource.resourceType())) {
-                            String ecrRepo = resource.physicalResourceId();
-                            String ecrResourceArn = AwsResource.ECR_REPO.formatArn(
-                                    partition, region, accountId, ecrRepo);
-                            LOGGER.info("Listing tags for ECR repo {}", ecrRepo);
-                            ListTagsForResourceResponse response = ecr.listTagsForResource(request -> request
-                                    .resourceArn(ecrResourceArn));
-                            String serviceName = resource.logicalResourceId();
-                            String serviceNameContext = "Read from Template";
-                            if (response.hasTags()) {
-                                for (Tag tag : response.tags()) {
-                                    if ("Name".equalsIgnoreCase(tag.key())) {
-                                        serviceName = tag.value();
-                                        serviceNameContext = "Read from Tag";
-                                    }
-                                }
-                            }
-                            LOGGER.info("Publishing appConfig update event for ECR repository {}({}) {}",
-                                    serviceName,
-                                    serviceNameContext,
-                                    ecrRepo);
-                            // TODO if in the future we support alternate compute options, ECS may not be
-                            // TODO the right one to specify here however, this coreStackListener has no
-                            // TODO extra information about the container type without the macro providing
-                            // TODO more information when adding the ECR repo to the stack
-                            services.put(serviceName, Map.of("compute", Map.of(
-                                    "type", "ECS", 
-                                    "containerRepo", ecrRepo)));
-                        }
-                        // The object storage extension creates a single S3 bucket for the entire application
-                        // with a separate "folder" for each service.
-                        if ("AWS::S3::Bucket".equals(resource.resourceType())
-                                && "TenantStorage".equals(resource.logicalResourceId())) {
-                            tenantStorageBucketName = resource.physicalResourceId();
-                            LOGGER.info("Updating appConfig for TenantStorageBucket {}",
-                                    tenantStorageBucketName);
-                        }
+        // has finished being created or updated so we don't trigger anything downstream prematurely. A batch
+        // can carry more than one notification for the same stack, which only needs to be read once.
+        Map<String, CloudFormationEvent> stacks = new LinkedHashMap<>();
+        for (SNSEvent.SNSRecord record : event.getRecords()) {
+            CloudFormationEvent cloudFormationEvent = CloudFormationEventDeserializer.deserialize(
+                    record.getSNS().getMessage());
+            if (filter(cloudFormationEvent)) {
+                stacks.put(cloudFormationEvent.getStackId(), cloudFormationEvent);
+            }
+        }
+        for (CloudFormationEvent cloudFormationEvent : stacks.values()) {
+            LOGGER.info("Stack " + cloudFormationEvent.getStackName() + " is in status "
+                    + cloudFormationEvent.getResourceStatus());
+            processStack(cloudFormationEvent, partition, region, accountId);
+        }
+        return null;
+    }
+
+    protected void processStack(CloudFormationEvent cloudFormationEvent, String partition, String region,
+                                String accountId) {
+        final long startTimeMillis = System.currentTimeMillis();
+        final String stackId = cloudFormationEvent.getStackId();
+        // We're looking for ECR repository resources in a CREATE_COMPLETE state. There could be multiple
+        // ECR repos provisioned depending on how the application services are configured.
+        List<StackResourceSummary> repos = new ArrayList<>();
+        String tenantStorageBucketName = null;
+        try {
+            for (StackResourceSummary resource : cfn.listStackResourcesPaginator(req -> req.stackName(stackId))
+                    .stackResourceSummaries()) {
+                if (ResourceStatus.CREATE_COMPLETE.equals(resource.resourceStatus())
+                        || ResourceStatus.UPDATE_COMPLETE.equals(resource.resourceStatus())) {
+                    if (AwsResource.ECR_REPO.getResourceType().equals(resource.resourceType())) {
+                        repos.add(resource);
                     }
-                }
-                // add the tenantStorageBucketName to each ServiceConfig
-                if (tenantStorageBucketName != null) {
-                    for (String serviceName : services.keySet()) {
-                        Map<String, Object> service = new HashMap((Map<String, Object>) services.get(serviceName));
-                        service.put("s3", Map.of("bucketName", tenantStorageBucketName));
-                        services.put(serviceName, service);
+                    // The object storage extension creates a single S3 bucket for the entire application
+                    // with a separate "folder" for each service.
+                    if ("AWS::S3::Bucket".equals(resource.resourceType())
+                            && "TenantStorage".equals(resource.logicalResourceId())) {
+                        tenantStorageBucketName = resource.physicalResourceId();
+                        LOGGER.info("Updating appConfig for TenantStorageBucket {}", tenantStorageBucketName);
                     }
                 }
-                // Only fire one event for all the app config resources changes by this stack
-                if (!services.isEmpty()) {
-                    appConfig.put("services", services);
+            }
+        } catch (SdkServiceException cfnError) {
+            LOGGER.error("cfn:ListStackResources error", cfnError);
+            LOGGER.error(Utils.getFullStackTrace(cfnError));
+            throw cfnError;
+        }
+
+        Map<String, Object> services = new HashMap<>();
+        Map<String, String> serviceNamesByRepo = serviceNames(repos, partition, region, accountId);
+        for (StackResourceSummary resource : repos) {
+            String ecrRepo = resource.physicalResourceId();
+            // TODO if in the future we support alternate compute options, ECS may not be
+            // TODO the right one to specify here however, this coreStackListener has no
+            // TODO extra information about the container type without the macro providing
+            // TODO more information when adding the ECR repo to the stack
+            Map<String, Object> service = new HashMap<>();
+            service.put("compute", Map.of(
+                    "type", "ECS",
+                    "containerRepo", ecrRepo));
+            // add the tenantStorageBucketName to each ServiceConfig
+            if (tenantStorageBucketName != null) {
+                service.put("s3", Map.of("bucketName", tenantStorageBucketName));
+            }
+            services.put(serviceNamesByRepo.get(ecrRepo), service);
+        }
+
+        // Only fire one event for all the app config resources changes by this stack
+        Map<String, Object> appConfig = new HashMap<>();
+        if (!services.isEmpty()) {
+            appConfig.put("services", services);
+        }
+        if (!appConfig.isEmpty()) {
+            LOGGER.info("Publishing appConfig update event for {} services", services.size());
+            Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
+                    "Application Configuration Resource Changed",
+                    appConfig);
+        }
+        LOGGER.info("CoreStackListener::processStack exec " + (System.currentTimeMillis() - startTimeMillis));
+    }
+
+    /**
+     * Resolves the application service name for each ECR repository, keyed by repository name. Repositories
+     * CloudFormation hasn't touched since the last lookup reuse the cached name; the rest have their tags read
+     * concurrently.
+     */
+    protected Map<String, String> serviceNames(List<StackResourceSummary> repos, String partition, String region,
+                                               String accountId) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, CompletableFuture<ServiceName>> lookups = new LinkedHashMap<>();
+        for (StackResourceSummary resource : repos) {
+            String ecrRepo = resource.physicalResourceId();
+            ServiceName cached = serviceNames.get(ecrRepo);
+            if (cached != null && cached.isCurrent(resource)) {
+                names.put(ecrRepo, cached.name);
+            } else {
+                String ecrResourceArn = AwsResource.ECR_REPO.formatArn(partition, region, accountId, ecrRepo);
+                lookups.put(ecrRepo, CompletableFuture.supplyAsync(
+                        () -> serviceName(resource, ecrResourceArn), executor));
+            }
+        }
+        LOGGER.info("Reading tags for {} of {} ECR repositories", lookups.size(), repos.size());
+        for (Map.Entry<String, CompletableFuture<ServiceName>> lookup : lookups.entrySet()) {
+            ServiceName serviceName;
+            try {
+                serviceName = lookup.getValue().join();
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof SdkServiceException) {
+                    LOGGER.error("ecr:ListTagsForResource error", ce.getCause());
+                    throw (SdkServiceException) ce.getCause();
                 }
-                if (!appConfig.isEmpty()) {
-                    Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
-                            "Application Configuration Resource Changed",
-                            appConfig);
+                throw ce;
+            }
+            serviceNames.put(lookup.getKey(), serviceName);
+            names.put(lookup.getKey(), serviceName.name);
+        }
+        return names;
+    }
+
+    private ServiceName serviceName(StackResourceSummary resource, String ecrResourceArn) {
+        String ecrRepo = resource.physicalResourceId();
+        LOGGER.info("Listing tags for ECR repo {}", ecrRepo);
+        ListTagsForResourceResponse response = SdkRetry.call(() -> ecr.listTagsForResource(request -> request
+                .resourceArn(ecrResourceArn)
+        ), SdkRetry::isThrottledOrServerError, MAX_TAG_LOOKUP_ATTEMPTS, RETRY_BASE_DELAY_MILLIS);
+        String serviceName = resource.logicalResourceId();
+        String serviceNameContext = "Read from Template";
+        if (response.hasTags()) {
+            for (Tag tag : response.tags()) {
+                if ("Name".equalsIgnoreCase(tag.key())) {
+                    serviceName = tag.value();
+                    serviceNameContext = "Read from Tag";
                 }
-            } catch (SdkServiceException cfnError) {
-                LOGGER.error("cfn:ListStackResources error", cfnError);
-                LOGGER.error(Utils.getFullStackTrace(cfnError));
-                throw cfnError;
             }
         }
-        return null;
+        LOGGER.info("ECR repository {} is service {}({})", ecrRepo, serviceName, serviceNameContext);
+        return new ServiceName(serviceName, resource.lastUpdatedTimestamp());
+    }
+
+    private static final class ServiceName {
+        private final String name;
+        private final Instant lastUpdated;
+
+        private ServiceName(String name, Instant lastUpdated) {
+            this.name = name;
+            this.lastUpdated = lastUpdated;
+        }
+
+        private boolean isCurrent(StackResourceSummary resource) {
+            return lastUpdated != null && lastUpdated.equals(resource.lastUpdatedTimestamp());
+        }
     }
 
     protected static boolean filter(CloudFormationEvent cloudFormationEvent) {
@@ -0,0 +1,186 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.cloudformation.CloudFormationClient;
+import software.amazon.awssdk.services.cloudformation.model.ListStackResourcesRequest;
+import software.amazon.awssdk.services.cloudformation.model.ListStackResourcesResponse;
+import software.amazon.awssdk.services.cloudformation.model.ResourceStatus;
+import software.amazon.awssdk.services.cloudformation.model.StackResourceSummary;
+import software.amazon.awssdk.services.cloudformation.paginators.ListStackResourcesIterable;
+import software.amazon.awssdk.services.ecr.EcrClient;
+import software.amazon.awssdk.services.ecr.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.ecr.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.ecr.model.Tag;
+import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsRequest;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsResponse;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class CoreStackListenerTest {
+
+    private static final String STACK_ID = "arn:aws:cloudformation:us-east-1:123456789012:stack/sb-test-core-x/1";
+    private static final Instant CREATED = Instant.parse("2022-03-01T00:00:00Z");
+
+    private CloudFormationClient cfn;
+    private EventBridgeClient eventBridge;
+    private EcrClient ecr;
+    private List<StackResourceSummary> resources;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        cfn = mock(CloudFormationClient.class);
+        eventBridge = mock(EventBridgeClient.class);
+        ecr = mock(EcrClient.class);
+        resources = new ArrayList<>();
+        resources.add(repo("ServiceA", "sb-test-core-servicea", CREATED));
+        resources.add(repo("ServiceB", "sb-test-core-serviceb", CREATED));
+        resources.add(StackResourceSummary.builder()
+                .logicalResourceId("TenantStorage")
+                .physicalResourceId("tenant-storage-bucket")
+                .resourceType("AWS::S3::Bucket")
+                .resourceStatus(ResourceStatus.CREATE_COMPLETE)
+                .build());
+        when(cfn.listStackResourcesPaginator(any(Consumer.class))).thenAnswer(invocation ->
+                new ListStackResourcesIterable(cfn, ListStackResourcesRequest.builder().stackName(STACK_ID).build()));
+        when(cfn.listStackResources(any(ListStackResourcesRequest.class))).thenAnswer(invocation ->
+                ListStackResourcesResponse.builder().stackResourceSummaries(resources).build());
+        when(ecr.listTagsForResource(any(Consumer.class))).thenAnswer(invocation -> {
+            ListTagsForResourceRequest.Builder request = ListTagsForResourceRequest.builder();
+            ((Consumer<ListTagsForResourceRequest.Builder>) invocation.getArgument(0)).accept(request);
+            String arn = request.build().resourceArn();
+            // Only the first service has a Name tag, the other falls back to its logical id
+            return arn.endsWith("/sb-test-core-servicea")
+                    ? ListTagsForResourceResponse.builder().tags(Tag.builder().key("Name").value("api").build())
+                            .build()
+                    : ListTagsForResourceResponse.builder().build();
+        });
+        when(eventBridge.putEvents(any(Consumer.class))).thenReturn(PutEventsResponse.builder().build());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessStackPublishesServices() {
+        listener().processStack(stackEvent(), "aws", "us-east-1", "123456789012");
+
+        Map<String, Object> detail = publishedDetails().get(0);
+        Map<String, Object> services = (Map<String, Object>) detail.get("services");
+        assertEquals(2, services.size());
+        Map<String, Object> api = (Map<String, Object>) services.get("api");
+        assertEquals("sb-test-core-servicea", ((Map<String, Object>) api.get("compute")).get("containerRepo"));
+        assertEquals("ECS", ((Map<String, Object>) api.get("compute")).get("type"));
+        assertEquals("tenant-storage-bucket", ((Map<String, Object>) api.get("s3")).get("bucketName"));
+        assertTrue(services.containsKey("ServiceB"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessStackReusesTagsUntilRepoChanges() {
+        CoreStackListener listener = listener();
+        listener.processStack(stackEvent(), "aws", "us-east-1", "123456789012");
+        verify(ecr, times(2)).listTagsForResource(any(Consumer.class));
+
+        // Nothing changed, so no new tag lookups but the event still goes out every time
+        listener.processStack(stackEvent(), "aws", "us-east-1", "123456789012");
+        verify(ecr, times(2)).listTagsForResource(any(Consumer.class));
+        assertEquals(2, publishedDetails().size());
+
+        // CloudFormation updated one of the repositories
+        resources.set(1, repo("ServiceB", "sb-test-core-serviceb", CREATED.plusSeconds(60)));
+        listener.processStack(stackEvent(), "aws", "us-east-1", "123456789012");
+        verify(ecr, times(3)).listTagsForResource(any(Consumer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessStackRetriesThrottledTagLookups() {
+        reset(ecr);
+        when(ecr.listTagsForResource(any(Consumer.class)))
+                .thenThrow(SdkServiceException.builder().statusCode(429).build())
+                .thenReturn(ListTagsForResourceResponse.builder().build());
+        resources.remove(1);
+
+        listener().processStack(stackEvent(), "aws", "us-east-1", "123456789012");
+
+        verify(ecr, times(2)).listTagsForResource(any(Consumer.class));
+        Map<String, Object> services = (Map<String, Object>) publishedDetails().get(0).get("services");
+        assertTrue(services.containsKey("ServiceA"));
+    }
+
+    @Test(expected = SdkServiceException.class)
+    @SuppressWarnings("unchecked")
+    public void testProcessStackFailsOnClientErrors() {
+        reset(ecr);
+        when(ecr.listTagsForResource(any(Consumer.class)))
+                .thenThrow(SdkServiceException.builder().statusCode(400).build());
+        try {
+            listener().processStack(stackEvent(), "aws", "us-east-1", "123456789012");
+        } finally {
+            verify(eventBridge, never()).putEvents(any(Consumer.class));
+        }
+    }
+
+    private CoreStackListener listener() {
+        return new CoreStackListener(cfn, eventBridge, ecr, 2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> publishedDetails() {
+        ArgumentCaptor<Consumer<PutEventsRequest.Builder>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(eventBridge, atLeastOnce()).putEvents(captor.capture());
+        List<Map<String, Object>> details = new ArrayList<>();
+        for (Consumer<PutEventsRequest.Builder> consumer : captor.getAllValues()) {
+            PutEventsRequest.Builder request = PutEventsRequest.builder();
+            consumer.accept(request);
+            details.add(Utils.fromJson(request.build().entries().get(0).detail(), Map.class));
+        }
+        return details;
+    }
+
+    private static CloudFormationEvent stackEvent() {
+        return CloudFormationEvent.builder()
+                .stackId(STACK_ID)
+                .stackName("sb-test-core-x")
+                .resourceType("AWS::CloudFormation::Stack")
+                .resourceStatus("UPDATE_COMPLETE")
+                .build();
+    }
+
+    private static StackResourceSummary repo(String logicalId, String repoName, Instant lastUpdated) {
+        return StackResourceSummary.builder()
+                .logicalResourceId(logicalId)
+                .physicalResourceId(repoName)
+                .resourceType("AWS::ECR::Repository")
+                .resourceStatus(ResourceStatus.CREATE_COMPLETE)
+                .lastUpdatedTimestamp(lastUpdated)
+                .build();
+    }
+}
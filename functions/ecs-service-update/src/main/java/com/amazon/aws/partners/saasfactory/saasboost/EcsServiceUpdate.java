@@ -25,67 +25,115 @@ import software.amazon.awssdk.services.codepipeline.model.FailureType;
 import software.amazon.awssdk.services.ecs.EcsClient;
 import software.amazon.awssdk.services.ecs.model.DescribeServicesResponse;
 import software.amazon.awssdk.services.ecs.model.Service;
-import software.amazon.awssdk.services.ecs.model.UpdateServiceResponse;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 public class EcsServiceUpdate implements RequestHandler<Map<String, Object>, Object> {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(EcsServiceUpdate.class);
+    // DescribeServices accepts at most 10 services from one cluster per call
+    static final int DESCRIBE_SERVICES_BATCH_SIZE = 10;
+    private static final int UPDATE_CONCURRENCY = 4;
+    private static final long MIN_POLL_MILLIS = 2000L;
+    private static final long MAX_POLL_MILLIS = 15000L;
+    // Hand the wait back to CodePipeline this close to the Lambda timeout
+    private static final long DEADLINE_MARGIN_MILLIS = 20000L;
+    private static final String WAIT_FOR_STEADY_STATE = "waitForSteadyState";
     private final EcsClient ecs;
     private final CodePipelineClient codepipeline;
+    private final ExecutorService executor;
 
     public EcsServiceUpdate() {
-        long startTimeMillis = System.currentTimeMillis();
+        final long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
         this.ecs = Utils.sdkClient(EcsClient.builder(), EcsClient.SERVICE_NAME);
         this.codepipeline = Utils.sdkClient(CodePipelineClient.builder(), CodePipelineClient.SERVICE_NAME);
+        this.executor = Utils.daemonThreadPool(UPDATE_CONCURRENCY, "ecs-update");
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    EcsServiceUpdate(EcsClient ecs, CodePipelineClient codepipeline) {
+        this.ecs = ecs;
+        this.codepipeline = codepipeline;
+        this.executor = Utils.daemonThreadPool(UPDATE_CONCURRENCY, "ecs-update");
+    }
+
+    /**
+     * UserParameters name either a single service:
+     * <pre>{"cluster":"c","service":"s","desiredCount":1}</pre>
+     * or several, optionally waiting for all of them to reach a steady state before the action succeeds:
+     * <pre>{"services":[{"cluster":"c","service":"s1","desiredCount":1}, ...],"waitForSteadyState":true}</pre>
+     * Services already at or above their desired count are left alone, so the action can safely be retried.
+     */
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         //logRequestEvent(event);
 
         Map<String, Object> job = (Map<String, Object>) event.get("CodePipeline.job");
         String jobId = (String) job.get("id");
+        Map<String, Object> data = (Map<String, Object>) job.get("data");
 
-        String json = (String) ((Map) ((Map) ((Map) job.get("data")).get("actionConfiguration")).get("configuration")).get("UserParameters");
+        Map<String, Object> configuration = (Map<String, Object>) ((Map<String, Object>) data
+                .get("actionConfiguration")).get("configuration");
+        String json = (String) configuration.get("UserParameters");
         Map<String, Object> params = Utils.fromJson(json, HashMap.class);
-        if (null == params) {
-            throw new RuntimeException("json for params is invalid");
-        }        
-        String cluster = (String) params.get("cluster");
-        String service = (String) params.get("service");
-        Integer count = (Integer) params.get("desiredCount");
+        List<ServiceTarget> targets;
         try {
-            DescribeServicesResponse existingServiceSettings = ecs.describeServices(r -> r
-                    .cluster(cluster)
-                    .services(service)
-            );
-            for (Service ecsService : existingServiceSettings.services()) {
-                if (ecsService.desiredCount() < count) {
-                    LOGGER.info("Updating desired count for service " + service + " to " + count);
-                    try {
-                        UpdateServiceResponse updateServiceResponse = ecs.updateService(r -> r
-                                .cluster(cluster)
-                                .service(service)
-                                .desiredCount(count)
-                        );
-                    } catch (SdkServiceException ecsError) {
-                        LOGGER.error("ecs::UpdateService", ecsError);
-                        LOGGER.error(Utils.getFullStackTrace(ecsError));
-                        failJob(jobId, "Error calling ecs::UpdateService for " + service + " in cluster " + cluster, context);
-                        throw ecsError;
-                    }
+            if (null == params) {
+                throw new IllegalArgumentException("json for params is invalid");
+            }
+            targets = targets(params);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            // Retrying won't fix the pipeline's configuration, so fail the action instead of the invocation
+            LOGGER.error("Invalid UserParameters {} {}", json, e.getMessage());
+            failJob(jobId, "Invalid UserParameters: " + e.getMessage(), context);
+            return null;
+        }
+        boolean waitForSteadyState = Boolean.TRUE.equals(params.get(WAIT_FOR_STEADY_STATE));
+
+        // CodePipeline invokes us again with our continuation token while we're waiting on a steady state
+        String continuationToken = (String) data.get("continuationToken");
+        if (continuationToken == null) {
+            Map<ServiceTarget, Service> existing = describe(jobId, targets, context);
+            List<ServiceTarget> updates = new ArrayList<>();
+            for (ServiceTarget target : targets) {
+                Service ecsService = existing.get(target);
+                if (ecsService == null) {
+                    LOGGER.warn("Service " + target.service + " not found in cluster " + target.cluster);
+                } else if (ecsService.desiredCount() < target.desiredCount) {
+                    updates.add(target);
                 }
             }
-        } catch (SdkServiceException ecsError) {
-            LOGGER.error("ecs::DescribeServices", ecsError);
-            LOGGER.error(Utils.getFullStackTrace(ecsError));
-            failJob(jobId, "Error calling ecs::DescribeServices for " + service + " in cluster " + cluster, context);
-            throw ecsError;
+            update(jobId, updates, context);
+        } else {
+            LOGGER.info("Continuing to wait for steady state");
+        }
+
+        if (waitForSteadyState) {
+            boolean steady;
+            try {
+                steady = waitForSteadyState(jobId, targets, context);
+            } catch (IllegalStateException e) {
+                // A service that doesn't exist will never reach a steady state, so don't wait out the pipeline
+                LOGGER.error(e.getMessage());
+                failJob(jobId, e.getMessage(), context);
+                return null;
+            }
+            if (!steady) {
+                LOGGER.info("Services not yet steady, returning continuation token to CodePipeline");
+                codepipeline.putJobSuccessResult(r -> r.jobId(jobId).continuationToken(WAIT_FOR_STEADY_STATE));
+                return null;
+            }
         }
 
         // Tell CodePipeline that it can continue
@@ -93,6 +141,176 @@ public class EcsServiceUpdate implements RequestHandler<Map<String, Object>, Obj
         return null;
     }
 
+    protected Map<ServiceTarget, Service> describe(String jobId, List<ServiceTarget> targets, Context context) {
+        Map<ServiceTarget, Service> services = new HashMap<>();
+        for (Map.Entry<String, List<ServiceTarget>> cluster : byCluster(targets).entrySet()) {
+            for (List<ServiceTarget> batch : batches(cluster.getValue(), DESCRIBE_SERVICES_BATCH_SIZE)) {
+                List<String> names = batch.stream().map(t -> t.service).collect(Collectors.toList());
+                try {
+                    DescribeServicesResponse response = ecs.describeServices(r -> r
+                            .cluster(cluster.getKey())
+                            .services(names)
+                    );
+                    for (Service ecsService : response.services()) {
+                        for (ServiceTarget target : batch) {
+                            if (target.service.equals(ecsService.serviceName())
+                                    || target.service.equals(ecsService.serviceArn())) {
+                                services.put(target, ecsService);
+                            }
+                        }
+                    }
+                } catch (SdkServiceException ecsError) {
+                    LOGGER.error("ecs::DescribeServices", ecsError);
+                    LOGGER.error(Utils.getFullStackTrace(ecsError));
+                    failJob(jobId, "Error calling ecs::DescribeServices for " + names + " in cluster "
+                            + cluster.getKey(), context);
+                    throw ecsError;
+                }
+            }
+        }
+        return services;
+    }
+
+    protected void update(String jobId, List<ServiceTarget> updates, Context context) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (ServiceTarget target : updates) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                LOGGER.info("Updating desired count for service " + target.service + " to " + target.desiredCount);
+                ecs.updateService(r -> r
+                        .cluster(target.cluster)
+                        .service(target.service)
+                        .desiredCount(target.desiredCount)
+                );
+            }, executor));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            ServiceTarget target = updates.get(i);
+            try {
+                futures.get(i).join();
+            } catch (CompletionException ce) {
+                LOGGER.error("ecs::UpdateService", ce.getCause());
+                LOGGER.error(Utils.getFullStackTrace(ce));
+                failJob(jobId, "Error calling ecs::UpdateService for " + target.service + " in cluster "
+                        + target.cluster, context);
+                throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+            }
+        }
+    }
+
+    /**
+     * Polls until every service is running its desired count on a single deployment, backing the poll
+     * interval off while nothing changes and tightening it again as services settle. Returns false if the
+     * Lambda is about to run out of time first. Throws IllegalStateException if any service can't be found.
+     */
+    protected boolean waitForSteadyState(String jobId, List<ServiceTarget> targets, Context context) {
+        long interval = MIN_POLL_MILLIS;
+        int lastSteady = -1;
+        while (true) {
+            Map<ServiceTarget, Service> services = describe(jobId, targets, context);
+            List<String> missing = new ArrayList<>();
+            int steady = 0;
+            for (ServiceTarget target : targets) {
+                Service ecsService = services.get(target);
+                if (ecsService == null) {
+                    missing.add(target.cluster + "/" + target.service);
+                } else if (isSteady(ecsService)) {
+                    steady++;
+                }
+            }
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException("Services not found: " + missing);
+            }
+            LOGGER.info("{} of {} services steady", steady, targets.size());
+            if (steady == targets.size()) {
+                return true;
+            }
+            interval = steady > lastSteady ? MIN_POLL_MILLIS : Math.min(MAX_POLL_MILLIS, interval * 2);
+            lastSteady = steady;
+            if (context.getRemainingTimeInMillis() - interval < DEADLINE_MARGIN_MILLIS) {
+                return false;
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    static boolean isSteady(Service ecsService) {
+        return ecsService != null
+                && ecsService.deployments().size() == 1
+                && ecsService.runningCount() >= ecsService.desiredCount();
+    }
+
+    static List<ServiceTarget> targets(Map<String, Object> params) {
+        List<ServiceTarget> targets = new ArrayList<>();
+        if (params.containsKey("services")) {
+            for (Map<String, Object> service : (List<Map<String, Object>>) params.get("services")) {
+                targets.add(ServiceTarget.of(service));
+            }
+        } else {
+            targets.add(ServiceTarget.of(params));
+        }
+        return targets;
+    }
+
+    static Map<String, List<ServiceTarget>> byCluster(List<ServiceTarget> targets) {
+        Map<String, List<ServiceTarget>> clusters = new LinkedHashMap<>();
+        for (ServiceTarget target : targets) {
+            clusters.computeIfAbsent(target.cluster, k -> new ArrayList<>()).add(target);
+        }
+        return clusters;
+    }
+
+    static <T> List<List<T>> batches(List<T> items, int batchSize) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += batchSize) {
+            batches.add(items.subList(i, Math.min(i + batchSize, items.size())));
+        }
+        return batches;
+    }
+
+    static final class ServiceTarget {
+        final String cluster;
+        final String service;
+        final int desiredCount;
+
+        ServiceTarget(String cluster, String service, int desiredCount) {
+            this.cluster = cluster;
+            this.service = service;
+            this.desiredCount = desiredCount;
+        }
+
+        static ServiceTarget of(Map<String, Object> params) {
+            String cluster = (String) params.get("cluster");
+            String service = (String) params.get("service");
+            Object count = params.get("desiredCount");
+            if (Utils.isBlank(cluster) || Utils.isBlank(service) || !(count instanceof Number)) {
+                throw new IllegalArgumentException("Each service needs a cluster, service and desiredCount");
+            }
+            return new ServiceTarget(cluster, service, ((Number) count).intValue());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ServiceTarget)) {
+                return false;
+            }
+            ServiceTarget other = (ServiceTarget) obj;
+            return cluster.equals(other.cluster) && service.equals(other.service);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cluster, service);
+        }
+    }
+
     private void failJob(String jobId, String message, Context context) {
         try {
             codepipeline.putJobFailureResult(r -> r
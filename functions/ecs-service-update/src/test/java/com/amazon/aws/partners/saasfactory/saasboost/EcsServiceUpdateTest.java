@@ -15,13 +15,27 @@
  */
 package com.amazon.aws.partners.saasfactory.saasboost;
 
+import com.amazonaws.services.lambda.runtime.Context;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.codepipeline.CodePipelineClient;
+import software.amazon.awssdk.services.codepipeline.model.PutJobFailureResultRequest;
+import software.amazon.awssdk.services.codepipeline.model.PutJobSuccessResultRequest;
+import software.amazon.awssdk.services.ecs.EcsClient;
+import software.amazon.awssdk.services.ecs.model.Deployment;
+import software.amazon.awssdk.services.ecs.model.DescribeServicesResponse;
+import software.amazon.awssdk.services.ecs.model.Service;
+import software.amazon.awssdk.services.ecs.model.UpdateServiceRequest;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 public class EcsServiceUpdateTest {
 
@@ -65,4 +79,192 @@ public class EcsServiceUpdateTest {
 //        data.get("actionConfiguration").get("configuration").get("UserParameters");
     }
 
+    @Test
+    public void targetsSingleService() {
+        Map<String, Object> params = Utils.fromJson(
+                "{\"cluster\":\"tenant-5ff91f82\",\"service\":\"svc\",\"desiredCount\":2}", HashMap.class);
+        List<EcsServiceUpdate.ServiceTarget> targets = EcsServiceUpdate.targets(params);
+        assertEquals(1, targets.size());
+        assertEquals("tenant-5ff91f82", targets.get(0).cluster);
+        assertEquals("svc", targets.get(0).service);
+        assertEquals(2, targets.get(0).desiredCount);
+    }
+
+    @Test
+    public void targetsServiceList() {
+        Map<String, Object> params = Utils.fromJson("{\"services\":["
+                + "{\"cluster\":\"a\",\"service\":\"s1\",\"desiredCount\":1},"
+                + "{\"cluster\":\"b\",\"service\":\"s2\",\"desiredCount\":3},"
+                + "{\"cluster\":\"a\",\"service\":\"s3\",\"desiredCount\":1}"
+                + "],\"waitForSteadyState\":true}", HashMap.class);
+        List<EcsServiceUpdate.ServiceTarget> targets = EcsServiceUpdate.targets(params);
+        assertEquals(3, targets.size());
+
+        Map<String, List<EcsServiceUpdate.ServiceTarget>> clusters = EcsServiceUpdate.byCluster(targets);
+        assertEquals(List.of("a", "b"), new ArrayList<>(clusters.keySet()));
+        assertEquals(2, clusters.get("a").size());
+        assertEquals("s3", clusters.get("a").get(1).service);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void targetsMissingDesiredCount() {
+        EcsServiceUpdate.targets(Map.of("cluster", "a", "service", "s1"));
+    }
+
+    @Test
+    public void batchesOfTen() {
+        List<Integer> items = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+        List<List<Integer>> batches = EcsServiceUpdate.batches(items, EcsServiceUpdate.DESCRIBE_SERVICES_BATCH_SIZE);
+        assertEquals(3, batches.size());
+        assertEquals(10, batches.get(0).size());
+        assertEquals(5, batches.get(2).size());
+        assertEquals(Integer.valueOf(24), batches.get(2).get(4));
+        assertTrue(EcsServiceUpdate.batches(new ArrayList<Integer>(), 10).isEmpty());
+    }
+
+    @Test
+    public void steadyState() {
+        Deployment deployment = Deployment.builder().id("1").build();
+        assertFalse(EcsServiceUpdate.isSteady(null));
+        assertTrue(EcsServiceUpdate.isSteady(Service.builder()
+                .desiredCount(2).runningCount(2).deployments(deployment).build()));
+        assertFalse(EcsServiceUpdate.isSteady(Service.builder()
+                .desiredCount(2).runningCount(1).deployments(deployment).build()));
+        assertFalse(EcsServiceUpdate.isSteady(Service.builder()
+                .desiredCount(2).runningCount(2).deployments(deployment, Deployment.builder().id("2").build())
+                .build()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handleRequestOnlyUpdatesServicesBelowDesiredCount() {
+        EcsClient ecs = mock(EcsClient.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(ecs.describeServices(any(Consumer.class))).thenReturn(DescribeServicesResponse.builder()
+                .services(
+                        Service.builder().serviceName("s1").desiredCount(0).build(),
+                        Service.builder().serviceName("s2").desiredCount(2).build())
+                .build());
+
+        new EcsServiceUpdate(ecs, codepipeline).handleRequest(job("{\"services\":["
+                + "{\"cluster\":\"a\",\"service\":\"s1\",\"desiredCount\":1},"
+                + "{\"cluster\":\"a\",\"service\":\"s2\",\"desiredCount\":1},"
+                + "{\"cluster\":\"a\",\"service\":\"missing\",\"desiredCount\":1}"
+                + "]}", null), context(600000));
+
+        ArgumentCaptor<Consumer<UpdateServiceRequest.Builder>> update = ArgumentCaptor.forClass(Consumer.class);
+        verify(ecs, times(1)).updateService(update.capture());
+        UpdateServiceRequest.Builder request = UpdateServiceRequest.builder();
+        update.getValue().accept(request);
+        assertEquals("s1", request.build().service());
+        assertEquals(Integer.valueOf(1), request.build().desiredCount());
+        assertNull(successResult(codepipeline).continuationToken());
+        verify(codepipeline, never()).putJobFailureResult(any(Consumer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handleRequestContinuationOnlyWaits() {
+        EcsClient ecs = mock(EcsClient.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(ecs.describeServices(any(Consumer.class))).thenReturn(DescribeServicesResponse.builder()
+                .services(Service.builder().serviceName("s1").desiredCount(1).runningCount(1)
+                        .deployments(Deployment.builder().id("1").build()).build())
+                .build());
+
+        new EcsServiceUpdate(ecs, codepipeline).handleRequest(job("{\"services\":["
+                + "{\"cluster\":\"a\",\"service\":\"s1\",\"desiredCount\":1}"
+                + "],\"waitForSteadyState\":true}", "waitForSteadyState"), context(600000));
+
+        verify(ecs, never()).updateService(any(Consumer.class));
+        assertNull(successResult(codepipeline).continuationToken());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handleRequestReturnsContinuationTokenWhenOutOfTime() {
+        EcsClient ecs = mock(EcsClient.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(ecs.describeServices(any(Consumer.class))).thenReturn(DescribeServicesResponse.builder()
+                .services(Service.builder().serviceName("s1").desiredCount(1).runningCount(0)
+                        .deployments(Deployment.builder().id("1").build()).build())
+                .build());
+
+        new EcsServiceUpdate(ecs, codepipeline).handleRequest(job("{\"services\":["
+                + "{\"cluster\":\"a\",\"service\":\"s1\",\"desiredCount\":1}"
+                + "],\"waitForSteadyState\":true}", "waitForSteadyState"), context(1000));
+
+        assertEquals("waitForSteadyState", successResult(codepipeline).continuationToken());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handleRequestFailsJobWhenWaitingOnMissingService() {
+        EcsClient ecs = mock(EcsClient.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(ecs.describeServices(any(Consumer.class))).thenReturn(DescribeServicesResponse.builder()
+                .services(Service.builder().serviceName("s1").desiredCount(1).runningCount(1)
+                        .deployments(Deployment.builder().id("1").build()).build())
+                .build());
+
+        new EcsServiceUpdate(ecs, codepipeline).handleRequest(job("{\"services\":["
+                + "{\"cluster\":\"a\",\"service\":\"s1\",\"desiredCount\":1},"
+                + "{\"cluster\":\"a\",\"service\":\"missing\",\"desiredCount\":1}"
+                + "],\"waitForSteadyState\":true}", "waitForSteadyState"), context(600000));
+
+        ArgumentCaptor<Consumer<PutJobFailureResultRequest.Builder>> failure =
+                ArgumentCaptor.forClass(Consumer.class);
+        verify(codepipeline, times(1)).putJobFailureResult(failure.capture());
+        PutJobFailureResultRequest.Builder request = PutJobFailureResultRequest.builder();
+        failure.getValue().accept(request);
+        assertEquals("Services not found: [a/missing]", request.build().failureDetails().message());
+        verify(codepipeline, never()).putJobSuccessResult(any(Consumer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handleRequestFailsJobForInvalidParameters() {
+        EcsClient ecs = mock(EcsClient.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        EcsServiceUpdate handler = new EcsServiceUpdate(ecs, codepipeline);
+
+        handler.handleRequest(job("{\"cluster\":\"a\",\"service\":\"s1\"}", null), context(600000));
+        handler.handleRequest(job("not json", null), context(600000));
+        handler.handleRequest(job("{\"services\":\"s1\"}", null), context(600000));
+
+        ArgumentCaptor<Consumer<PutJobFailureResultRequest.Builder>> failure =
+                ArgumentCaptor.forClass(Consumer.class);
+        verify(codepipeline, times(3)).putJobFailureResult(failure.capture());
+        PutJobFailureResultRequest.Builder request = PutJobFailureResultRequest.builder();
+        failure.getAllValues().get(0).accept(request);
+        assertEquals("job-1", request.build().jobId());
+        assertTrue(request.build().failureDetails().message().startsWith("Invalid UserParameters"));
+        verify(codepipeline, never()).putJobSuccessResult(any(Consumer.class));
+        verifyNoInteractions(ecs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PutJobSuccessResultRequest successResult(CodePipelineClient codepipeline) {
+        ArgumentCaptor<Consumer<PutJobSuccessResultRequest.Builder>> success = ArgumentCaptor.forClass(Consumer.class);
+        verify(codepipeline, times(1)).putJobSuccessResult(success.capture());
+        PutJobSuccessResultRequest.Builder request = PutJobSuccessResultRequest.builder();
+        success.getValue().accept(request);
+        return request.build();
+    }
+
+    private static Map<String, Object> job(String userParameters, String continuationToken) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("actionConfiguration", Map.of("configuration", Map.of("UserParameters", userParameters)));
+        if (continuationToken != null) {
+            data.put("continuationToken", continuationToken);
+        }
+        return Map.of("CodePipeline.job", Map.of("id", "job-1", "data", data));
+    }
+
+    private static Context context(int remainingMillis) {
+        Context context = mock(Context.class);
+        when(context.getRemainingTimeInMillis()).thenReturn(remainingMillis);
+        when(context.getAwsRequestId()).thenReturn("request-1");
+        return context;
+    }
 }
\ No newline at end of file
@@ -26,7 +26,11 @@ import software.amazon.awssdk.services.ecs.model.DescribeServicesResponse;
 import software.amazon.awssdk.services.ecs.model.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class EcsShutdownServices implements RequestHandler<Map<String, Object>, Object> {
@@ -38,6 +42,8 @@ public class EcsShutdownServices implements RequestHandler<Map<String, Object>,
     private static final String API_GATEWAY_STAGE = System.getenv("API_GATEWAY_STAGE");
     private static final String API_TRUST_ROLE = System.getenv("API_TRUST_ROLE");
     private final EcsClient ecs;
+    private final int concurrency;
+    private final RateLimiter rateLimiter;
 
     public EcsShutdownServices() {
         final long startTimeMillis = System.currentTimeMillis();
@@ -59,10 +65,19 @@ public class EcsShutdownServices implements RequestHandler<Map<String, Object>,
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
 
         this.ecs = Utils.sdkClient(EcsClient.builder(), EcsClient.SERVICE_NAME);
+        this.concurrency = Utils.intFromEnvironment("ECS_CONCURRENCY", 10);
+        this.rateLimiter = new RateLimiter(Utils.intFromEnvironment("ECS_REQUESTS_PER_SECOND", 20));
 
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    EcsShutdownServices(EcsClient ecs, int concurrency, RateLimiter rateLimiter) {
+        this.ecs = ecs;
+        this.concurrency = concurrency;
+        this.rateLimiter = rateLimiter;
+    }
+
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
@@ -87,51 +102,89 @@ public class EcsShutdownServices implements RequestHandler<Map<String, Object>,
                     )
                     .values();
 
+            // Tenant clusters are independent, so work through them in parallel
+            final long startTimeMillis = System.currentTimeMillis();
+            ExecutorService executor = Utils.daemonThreadPool(Math.min(concurrency, provisionedTenants.size()),
+                    "ecs-shutdown");
+            Map<String, CompletableFuture<Long>> results = new LinkedHashMap<>();
             for (Map<String, Object> tenant : provisionedTenants) {
-                Map<String, Map<String, String>> tenantResources = (Map<String, Map<String, String>>) tenant.get("resources");
-                String cluster = tenantResources.get("ECS_CLUSTER").get("name");
-                LOGGER.info("Shutting down services in cluster {}", cluster);
-
-                // For each batch of services (will only be 1 batch unless there are more than 10 services
-                // in the app config), update each service's desired count to zero. Setting the service's
-                // desired count to 0 will gracefully remove all running tasks
-                final Integer count = 0;
-                for (List<String> describeServiceBatch : describeServiceBatches) {
-                    try {
-                        DescribeServicesResponse existingServiceSettings = ecs.describeServices(request -> request
+                results.put((String) tenant.get("id"), CompletableFuture.supplyAsync(
+                        () -> shutdownServices(tenant, describeServiceBatches), executor));
+            }
+            int failed = 0;
+            for (Map.Entry<String, CompletableFuture<Long>> result : results.entrySet()) {
+                try {
+                    LOGGER.info("Tenant {} shut down in {} ms", result.getKey(), result.getValue().join());
+                } catch (CompletionException e) {
+                    failed++;
+                    LOGGER.error("Tenant {} shut down failed", result.getKey());
+                    LOGGER.error(Utils.getFullStackTrace(e));
+                }
+            }
+            executor.shutdown();
+            LOGGER.info("EcsShutdownServices::handleRequest {} tenants exec {}", results.size(),
+                    System.currentTimeMillis() - startTimeMillis);
+            if (failed > 0) {
+                throw new RuntimeException(failed + " of " + results.size() + " tenants failed to shut down");
+            }
+        }
+
+        return null;
+    }
+
+    // Package private for testing
+    long shutdownServices(Map<String, Object> tenant, Collection<List<String>> describeServiceBatches) {
+        final long startTimeMillis = System.currentTimeMillis();
+        Map<String, Map<String, String>> tenantResources = (Map<String, Map<String, String>>) tenant.get("resources");
+        String cluster = tenantResources.get("ECS_CLUSTER").get("name");
+        LOGGER.info("Shutting down services in cluster {}", cluster);
+
+        // For each batch of services (will only be 1 batch unless there are more than 10 services
+        // in the app config), update each service's desired count to zero. Setting the service's
+        // desired count to 0 will gracefully remove all running tasks
+        final Integer count = 0;
+        for (List<String> describeServiceBatch : describeServiceBatches) {
+            try {
+                DescribeServicesResponse existingServiceSettings = withRetry(() -> ecs.describeServices(
+                        request -> request
                                 .cluster(cluster)
                                 .services(describeServiceBatch)
-                        );
-                        for (Service ecsService : existingServiceSettings.services()) {
-                            if (ecsService.desiredCount() > count) {
-                                LOGGER.info("Updating desired count for service {} to {}", ecsService.serviceName(),
-                                        count);
-                                try {
-                                    ecs.updateService(request -> request
-                                            .cluster(cluster)
-                                            .service(ecsService.serviceName())
-                                            .desiredCount(count)
-                                    );
-                                } catch (SdkServiceException ecsError) {
-                                    LOGGER.error("ecs::UpdateService", ecsError);
-                                    LOGGER.error(Utils.getFullStackTrace(ecsError));
-                                    throw ecsError;
-                                }
-                            } else {
-                                LOGGER.info("Skipping desired count for service {} already at {}",
-                                        ecsService.serviceName(), ecsService.desiredCount());
-                            }
+                ));
+                for (Service ecsService : existingServiceSettings.services()) {
+                    if (ecsService.desiredCount() > count) {
+                        LOGGER.info("Updating desired count for service {} to {}", ecsService.serviceName(),
+                                count);
+                        try {
+                            withRetry(() -> ecs.updateService(request -> request
+                                    .cluster(cluster)
+                                    .service(ecsService.serviceName())
+                                    .desiredCount(count)
+                            ));
+                        } catch (SdkServiceException ecsError) {
+                            LOGGER.error("ecs::UpdateService", ecsError);
+                            LOGGER.error(Utils.getFullStackTrace(ecsError));
+                            throw ecsError;
                         }
-                    } catch (SdkServiceException ecsError) {
-                        LOGGER.error("ecs::DescribeServices", ecsError);
-                        LOGGER.error(Utils.getFullStackTrace(ecsError));
-                        throw ecsError;
+                    } else {
+                        LOGGER.info("Skipping desired count for service {} already at {}",
+                                ecsService.serviceName(), ecsService.desiredCount());
                     }
                 }
+            } catch (SdkServiceException ecsError) {
+                LOGGER.error("ecs::DescribeServices", ecsError);
+                LOGGER.error(Utils.getFullStackTrace(ecsError));
+                throw ecsError;
             }
         }
+        return System.currentTimeMillis() - startTimeMillis;
+    }
 
-        return null;
+    private <T> T withRetry(Supplier<T> ecsCall) {
+        // All workers share one ECS request rate so a large fleet doesn't trip account level API throttling
+        return SdkRetry.call(() -> {
+            rateLimiter.acquire();
+            return ecsCall.get();
+        }, SdkRetry::isThrottled);
     }
 
     protected Map<String, Object> getAppConfig(Context context) {
@@ -27,7 +27,11 @@ import software.amazon.awssdk.services.ecs.model.Service;
 import software.amazon.awssdk.services.ecs.model.UpdateServiceRequest;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class EcsStartupServices implements RequestHandler<Map<String, Object>, Object> {
@@ -39,7 +43,9 @@ public class EcsStartupServices implements RequestHandler<Map<String, Object>, O
     private static final String API_GATEWAY_STAGE = System.getenv("API_GATEWAY_STAGE");
     private static final String API_TRUST_ROLE = System.getenv("API_TRUST_ROLE");
     private final EcsClient ecs;
-    
+    private final int concurrency;
+    private final RateLimiter rateLimiter;
+
     public EcsStartupServices() {
         final long startTimeMillis = System.currentTimeMillis();
         if (Utils.isBlank(AWS_REGION)) {
@@ -60,10 +66,19 @@ public class EcsStartupServices implements RequestHandler<Map<String, Object>, O
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
 
         this.ecs = Utils.sdkClient(EcsClient.builder(), EcsClient.SERVICE_NAME);
+        this.concurrency = Utils.intFromEnvironment("ECS_CONCURRENCY", 10);
+        this.rateLimiter = new RateLimiter(Utils.intFromEnvironment("ECS_REQUESTS_PER_SECOND", 20));
 
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    EcsStartupServices(EcsClient ecs, int concurrency, RateLimiter rateLimiter) {
+        this.ecs = ecs;
+        this.concurrency = concurrency;
+        this.rateLimiter = rateLimiter;
+    }
+
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
@@ -88,55 +103,97 @@ public class EcsStartupServices implements RequestHandler<Map<String, Object>, O
                     )
                     .values();
 
+            // Tenant clusters are independent, so work through them in parallel
+            final long startTimeMillis = System.currentTimeMillis();
+            ExecutorService executor = Utils.daemonThreadPool(Math.min(concurrency, provisionedTenants.size()),
+                    "ecs-startup");
+            Map<String, CompletableFuture<Long>> results = new LinkedHashMap<>();
             for (Map<String, Object> tenant : provisionedTenants) {
-                Map<String, Map<String, String>> tenantResources = (Map<String, Map<String, String>>) tenant.get("resources");
-                String cluster = tenantResources.get("ECS_CLUSTER").get("name");
-                LOGGER.info("Starting up services in cluster {}", cluster);
-                String tier = (String) tenant.get("tier");
-
-                // For each batch of services (will only be 1 batch unless there are more than 10 services
-                // in the app config), update each service's desired count to the minimum for the tier that
-                // the tenant is in.
-                for (List<String> describeServiceBatch : describeServiceBatches) {
-                    try {
-                        DescribeServicesResponse existingServiceSettings = ecs.describeServices(request -> request
+                results.put((String) tenant.get("id"), CompletableFuture.supplyAsync(
+                        () -> startupServices(tenant, services, describeServiceBatches), executor));
+            }
+            int failed = 0;
+            for (Map.Entry<String, CompletableFuture<Long>> result : results.entrySet()) {
+                try {
+                    LOGGER.info("Tenant {} started up in {} ms", result.getKey(), result.getValue().join());
+                } catch (CompletionException e) {
+                    failed++;
+                    LOGGER.error("Tenant {} start up failed", result.getKey());
+                    LOGGER.error(Utils.getFullStackTrace(e));
+                }
+            }
+            executor.shutdown();
+            LOGGER.info("EcsStartupServices::handleRequest {} tenants exec {}", results.size(),
+                    System.currentTimeMillis() - startTimeMillis);
+            if (failed > 0) {
+                throw new RuntimeException(failed + " of " + results.size() + " tenants failed to start up");
+            }
+        }
+
+        return null;
+    }
+
+    // Package private for testing
+    long startupServices(Map<String, Object> tenant, Map<String, Object> services,
+                                 Collection<List<String>> describeServiceBatches) {
+        final long startTimeMillis = System.currentTimeMillis();
+        Map<String, Map<String, String>> tenantResources = (Map<String, Map<String, String>>) tenant.get("resources");
+        String cluster = tenantResources.get("ECS_CLUSTER").get("name");
+        LOGGER.info("Starting up services in cluster {}", cluster);
+        String tier = (String) tenant.get("tier");
+
+        // For each batch of services (will only be 1 batch unless there are more than 10 services
+        // in the app config), update each service's desired count to the minimum for the tier that
+        // the tenant is in.
+        for (List<String> describeServiceBatch : describeServiceBatches) {
+            try {
+                DescribeServicesResponse existingServiceSettings = withRetry(() -> ecs.describeServices(
+                        request -> request
                                 .cluster(cluster)
                                 .services(describeServiceBatch)
-                        );
-                        for (Service ecsService : existingServiceSettings.services()) {
-                            Map<String, Object> service = (Map<String, Object>) services.get(ecsService.serviceName());
-                            Map<String, Object> tiers = (Map<String, Object>) service.get("tiers");
-                            Map<String, Object> tierConfig = (Map<String, Object>) tiers.get(tier);
-                            Integer count = (Integer) tierConfig.get("min");
-                            if (ecsService.desiredCount() < count) {
-                                LOGGER.info("Updating desired count for service {} from {} to {}",
-                                        ecsService.serviceName(),
-                                        ecsService.desiredCount(),
-                                        count);
-                                try {
-                                    ecs.updateService(UpdateServiceRequest.builder()
-                                            .cluster(cluster)
-                                            .service(ecsService.serviceName())
-                                            .desiredCount(count)
-                                            .build()
-                                    );
-                                } catch (SdkServiceException ecsError) {
-                                    LOGGER.error("ecs::UpdateService", ecsError);
-                                    LOGGER.error(Utils.getFullStackTrace(ecsError));
-                                    throw ecsError;
-                                }
-                            }
+                ));
+                for (Service ecsService : existingServiceSettings.services()) {
+                    Map<String, Object> service = (Map<String, Object>) services.get(ecsService.serviceName());
+                    Map<String, Object> tiers = (Map<String, Object>) service.get("tiers");
+                    Map<String, Object> tierConfig = (Map<String, Object>) tiers.get(tier);
+                    Integer count = (Integer) tierConfig.get("min");
+                    if (ecsService.desiredCount() < count) {
+                        LOGGER.info("Updating desired count for service {} from {} to {}",
+                                ecsService.serviceName(),
+                                ecsService.desiredCount(),
+                                count);
+                        try {
+                            withRetry(() -> ecs.updateService(UpdateServiceRequest.builder()
+                                    .cluster(cluster)
+                                    .service(ecsService.serviceName())
+                                    .desiredCount(count)
+                                    .build()
+                            ));
+                        } catch (SdkServiceException ecsError) {
+                            LOGGER.error("ecs::UpdateService", ecsError);
+                            LOGGER.error(Utils.getFullStackTrace(ecsError));
+                            throw ecsError;
                         }
-                    } catch (SdkServiceException ecsError) {
-                        LOGGER.error("ecs::DescribeServices", ecsError);
-                        LOGGER.error(Utils.getFullStackTrace(ecsError));
-                        throw ecsError;
+                    } else {
+                        LOGGER.info("Skipping desired count for service {} already at {}",
+                                ecsService.serviceName(), ecsService.desiredCount());
                     }
                 }
+            } catch (SdkServiceException ecsError) {
+                LOGGER.error("ecs::DescribeServices", ecsError);
+                LOGGER.error(Utils.getFullStackTrace(ecsError));
+                throw ecsError;
             }
         }
+        return System.currentTimeMillis() - startTimeMillis;
+    }
 
-        return null;
+    private <T> T withRetry(Supplier<T> ecsCall) {
+        // All workers share one ECS request rate so a large fleet doesn't trip account level API throttling
+        return SdkRetry.call(() -> {
+            rateLimiter.acquire();
+            return ecsCall.get();
+        }, SdkRetry::isThrottled);
     }
 
     protected Map<String, Object> getAppConfig(Context context) {
@@ -0,0 +1,98 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.ecs.EcsClient;
+import software.amazon.awssdk.services.ecs.model.DescribeServicesResponse;
+import software.amazon.awssdk.services.ecs.model.Service;
+import software.amazon.awssdk.services.ecs.model.UpdateServiceRequest;
+import software.amazon.awssdk.services.ecs.model.UpdateServiceResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class EcsStartupServicesTest {
+
+    private static final Map<String, Object> TENANT = Map.of(
+            "id", "tenant-1",
+            "tier", "gold",
+            "resources", Map.of("ECS_CLUSTER", Map.of("name", "cluster-1")));
+    private static final Map<String, Object> SERVICES = Map.of(
+            "api", Map.of("tiers", Map.of("gold", Map.of("min", 2))),
+            "web", Map.of("tiers", Map.of("gold", Map.of("min", 1))));
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnlyServicesBelowMinimumAreUpdated() {
+        EcsClient ecs = mock(EcsClient.class);
+        when(ecs.describeServices(any(Consumer.class))).thenReturn(DescribeServicesResponse.builder()
+                .services(
+                        Service.builder().serviceName("api").desiredCount(0).build(),
+                        Service.builder().serviceName("web").desiredCount(1).build())
+                .build());
+        when(ecs.updateService(any(UpdateServiceRequest.class))).thenReturn(UpdateServiceResponse.builder().build());
+
+        new EcsStartupServices(ecs, 2, new RateLimiter(1000)).startupServices(TENANT, SERVICES,
+                List.of(List.of("api", "web")));
+
+        ArgumentCaptor<UpdateServiceRequest> update = ArgumentCaptor.forClass(UpdateServiceRequest.class);
+        verify(ecs, times(1)).updateService(update.capture());
+        assertEquals("cluster-1", update.getValue().cluster());
+        assertEquals("api", update.getValue().service());
+        assertEquals(Integer.valueOf(2), update.getValue().desiredCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testThrottledCallsAreRetried() {
+        EcsClient ecs = mock(EcsClient.class);
+        when(ecs.describeServices(any(Consumer.class)))
+                .thenThrow(SdkServiceException.builder().statusCode(429).build())
+                .thenReturn(DescribeServicesResponse.builder()
+                        .services(Service.builder().serviceName("web").desiredCount(0).build())
+                        .build());
+        when(ecs.updateService(any(UpdateServiceRequest.class))).thenReturn(UpdateServiceResponse.builder().build());
+
+        new EcsStartupServices(ecs, 2, new RateLimiter(1000)).startupServices(TENANT, SERVICES,
+                List.of(List.of("web")));
+
+        verify(ecs, times(2)).describeServices(any(Consumer.class));
+        verify(ecs, times(1)).updateService(any(UpdateServiceRequest.class));
+    }
+
+    @Test(expected = SdkServiceException.class)
+    @SuppressWarnings("unchecked")
+    public void testOtherErrorsFailTheTenant() {
+        EcsClient ecs = mock(EcsClient.class);
+        when(ecs.describeServices(any(Consumer.class)))
+                .thenThrow(SdkServiceException.builder().statusCode(400).build());
+        try {
+            new EcsStartupServices(ecs, 2, new RateLimiter(1000)).startupServices(TENANT, SERVICES,
+                    List.of(List.of("web")));
+        } finally {
+            verify(ecs, times(1)).describeServices(any(Consumer.class));
+        }
+    }
+}
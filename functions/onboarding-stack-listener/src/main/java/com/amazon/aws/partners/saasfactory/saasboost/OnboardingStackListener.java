@@ -49,6 +49,15 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
             .compile("^sb-" + SAAS_BOOST_ENV + "-tenant-[a-z0-9]{8}$");
     private static final Collection<String> EVENTS_OF_INTEREST = Collections.unmodifiableCollection(
             Arrays.asList("CREATE_COMPLETE", "CREATE_FAILED", "UPDATE_COMPLETE", "DELETE_COMPLETE", "DELETE_FAILED"));
+    private static final int MAX_DISCOVERED_STACKS = 1000;
+    // Last stack version (creation or last updated time) we published resources for, by stack id
+    private static final Map<String, String> DISCOVERED_STACKS = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_DISCOVERED_STACKS;
+                }
+            });
     private final CloudFormationClient cfn;
     private final EventBridgeClient eventBridge;
 
@@ -78,13 +87,19 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
         // CloudFormation sends SNS notifications for every resource in a stack going through each status change.
         // We want to process the resources of the tenant-onboarding.yaml CloudFormation stack only after the
         // stack has finished being created or updated so we don't trigger anything downstream prematurely.
-        if (filter(cloudFormationEvent)) {
-            LOGGER.info(Utils.toJson(event));
-            String stackName = cloudFormationEvent.getStackName();
-            String stackStatus = cloudFormationEvent.getResourceStatus();
-            String stackId = cloudFormationEvent.getStackId();
-            LOGGER.info("Stack " + stackName + " is in status " + stackStatus);
+        if (!filter(cloudFormationEvent)) {
+            //LOGGER.info("Skipping CloudFormation notification {} {} {} {}", stackId, type, stackName, stackStatus);
+            return null;
+        }
+        LOGGER.info(Utils.toJson(event));
+        String stackName = cloudFormationEvent.getStackName();
+        String stackStatus = cloudFormationEvent.getResourceStatus();
+        String stackId = cloudFormationEvent.getStackId();
+        LOGGER.info("Stack " + stackName + " is in status " + stackStatus);
 
+        // Coalesce everything this notification publishes into a single PutEvents call
+        try (EventBridgePublisher publisher = new EventBridgePublisher(eventBridge)) {
+            Stack stack;
             String tenantId = null;
             String domainName = null;
             String hostedZone = null;
@@ -93,7 +108,7 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
                 DescribeStacksResponse stacks = cfn.describeStacks(req -> req
                         .stackName(stackId)
                 );
-                Stack stack = stacks.stacks().get(0);
+                stack = stacks.stacks().get(0);
                 for (Parameter parameter : stack.parameters()) {
                     if ("TenantId".equals(parameter.parameterKey())) {
                         tenantId = parameter.parameterValue();
@@ -127,7 +142,7 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
                     }
                 }
                 // Fire a tenant hostname changed event
-                Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE, "Tenant Hostname Changed",
+                publisher.publish(SAAS_BOOST_EVENT_BUS, EVENT_SOURCE, "Tenant Hostname Changed",
                         Map.of("tenantId", tenantId, "hostname", hostname));
             } catch (SdkServiceException cfnError) {
                 LOGGER.error("cfn:DescribeStacks error", cfnError);
@@ -135,7 +150,14 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
                 throw cfnError;
             }
 
-            if ("CREATE_COMPLETE".equals(stackStatus) || "UPDATE_COMPLETE".equals(stackStatus)) {
+            // Resource discovery only runs when a create or update has finished. SNS can deliver the same
+            // notification more than once, so skip stacks we've already processed at this version.
+            String stackVersion = String.valueOf(stack.lastUpdatedTime() != null
+                    ? stack.lastUpdatedTime() : stack.creationTime());
+            boolean complete = "CREATE_COMPLETE".equals(stackStatus) || "UPDATE_COMPLETE".equals(stackStatus);
+            if (complete && stackVersion.equals(DISCOVERED_STACKS.get(stackId))) {
+                LOGGER.info("Resources for stack {} version {} already published", stackName, stackVersion);
+            } else if (complete) {
                 // We'll use these to build the ARN string for resources that CloudFormation doesn't return the ARN
                 // as either the physical or logical resource id
                 final String[] lambdaArn = context.getInvokedFunctionArn().split(":");
@@ -153,8 +175,9 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
                 );
 
                 // Loop through all of the resources and grab the ones we need to save to the tenant record.
-                ListStackResourcesResponse resources = cfn.listStackResources(req -> req.stackName(stackIdName));
-                for (StackResourceSummary resource : resources.stackResourceSummaries()) {
+                // Stacks with more than 100 resources span multiple pages
+                for (StackResourceSummary resource : cfn.listStackResourcesPaginator(req -> req
+                        .stackName(stackIdName)).stackResourceSummaries()) {
                     String resourceType = resource.resourceType();
                     String physicalResourceId = resource.physicalResourceId();
                     String resourceStatus = resource.resourceStatusAsString();
@@ -295,7 +318,7 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
 
                 // Fire a tenant resources updated event
                 LOGGER.info("Updating tenant resources AWS console links");
-                Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
+                publisher.publish(SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
                         "Tenant Resources Changed",
                         Map.of("tenantId", tenantId, "resources", Utils.toJson(tenantResources))
                 );
@@ -313,14 +336,18 @@ public class OnboardingStackListener implements RequestHandler<SNSEvent, Object>
             }
 
             // Fire a stack status change event
-            Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
+            publisher.publish(SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
                     "Onboarding Stack Status Changed",
                     Map.of("tenantId", tenantId, "stackId", stackId, "stackStatus", stackStatus));
+            publisher.flush();
+            if (complete) {
+                DISCOVERED_STACKS.put(stackId, stackVersion);
+            } else if (stackStatus.startsWith("DELETE_")) {
+                DISCOVERED_STACKS.remove(stackId);
+            }
 
             //TODO deal with a deleted stack canceling billing subscription
             //TODO deal with a created stack creating a billing subscription
-        } else {
-            //LOGGER.info("Skipping CloudFormation notification {} {} {} {}", stackId, type, stackName, stackStatus);
         }
         return null;
     }
@@ -31,6 +31,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -43,6 +45,10 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
     private static final String API_GATEWAY_STAGE = System.getenv("API_GATEWAY_STAGE");
     private static final String API_TRUST_ROLE = System.getenv("API_TRUST_ROLE");
     private static final String CODE_PIPELINE_BUCKET = System.getenv("CODE_PIPELINE_BUCKET");
+    private static final String DEPLOY_CANARY_TIER = System.getenv("DEPLOY_CANARY_TIER");
+    private static final int DEFAULT_DEPLOY_CONCURRENCY = 10;
+    private static final int MAX_THROTTLED_ATTEMPTS = 5;
+    private static final long THROTTLE_BACKOFF_MILLIS = 250L;
     private final S3Client s3;
     private final CodePipelineClient codepipeline;
 
@@ -70,6 +76,12 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
         this.codepipeline = Utils.sdkClient(CodePipelineClient.builder(), CodePipelineClient.SERVICE_NAME);
     }
 
+    // Package private for testing
+    WorkloadDeploy(S3Client s3, CodePipelineClient codepipeline) {
+        this.s3 = s3;
+        this.codepipeline = codepipeline;
+    }
+
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
@@ -77,23 +89,7 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
             List<Deployment> deployments = getDeployments(event, context);
             if (!deployments.isEmpty()) {
                 LOGGER.info("Deploying for " + deployments.size() + " tenants");
-                for (Deployment deployment : deployments) {
-                    try {
-                        String tenantId = deployment.getTenantId();
-
-                        // Create an imagedefinitions.json document for the newly pushed image
-                        byte[] zip = codePipelineArtifact(deployment.getImageName(), deployment.getImageUri());
-
-                        // Write the imagedefinitions.json document to the artifact bucket
-                        writeToArtifactBucket(s3, CODE_PIPELINE_BUCKET, tenantId, deployment.getImageName(), zip);
-
-                        // Trigger CodePipeline for this tenant
-                        triggerPipeline(codepipeline, tenantId, deployment.getPipeline());
-                    } catch (Exception e) {
-                        LOGGER.error("Deployment failed {}", Utils.toJson(deployment));
-                        LOGGER.error(Utils.getFullStackTrace(e));
-                    }
-                }
+                deploy(deployments);
             } else {
                 LOGGER.warn("No deployments to trigger");
             }
@@ -103,6 +99,87 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
         return null;
     }
 
+    protected void deploy(List<Deployment> deployments) {
+        deploy(deployments, DEPLOY_CANARY_TIER);
+    }
+
+    protected void deploy(List<Deployment> deployments, String canaryTier) {
+        final long startTimeMillis = System.currentTimeMillis();
+        List<List<Deployment>> waves = waves(deployments, canaryTier);
+        int concurrency = Math.min(Utils.intFromEnvironment("DEPLOY_CONCURRENCY", DEFAULT_DEPLOY_CONCURRENCY),
+                deployments.size());
+        ExecutorService executor = Utils.daemonThreadPool(concurrency, "workload-deploy");
+        try {
+            for (int wave = 0; wave < waves.size(); wave++) {
+                final long waveStartTimeMillis = System.currentTimeMillis();
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+                for (Deployment deployment : waves.get(wave)) {
+                    results.add(CompletableFuture.supplyAsync(() -> deploy(deployment), executor));
+                }
+                long failed = results.stream()
+                        .map(CompletableFuture::join)
+                        .filter(success -> !success)
+                        .count();
+                LOGGER.info("Wave {} of {} deployed {} of {} tenants in {} ms", wave + 1, waves.size(),
+                        results.size() - failed, results.size(), System.currentTimeMillis() - waveStartTimeMillis);
+                if (failed > 0 && wave < waves.size() - 1) {
+                    LOGGER.error("Halting rollout after {} failed deployments in wave {}", failed, wave + 1);
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LOGGER.info("WorkloadDeploy::deploy exec " + (System.currentTimeMillis() - startTimeMillis));
+    }
+
+    private boolean deploy(Deployment deployment) {
+        try {
+            String tenantId = deployment.getTenantId();
+
+            // Create an imagedefinitions.json document for the newly pushed image. The name has to match
+            // the container in this tenant's task definition, so each tenant gets its own artifact.
+            byte[] zip = codePipelineArtifact(deployment.getImageName(), deployment.getImageUri());
+
+            // Write the imagedefinitions.json document to the artifact bucket. The SDK has already retried
+            // with its own backoff by the time we see a throttle, so back off harder when the whole fleet
+            // is hitting the API.
+            SdkRetry.run(() -> writeToArtifactBucket(s3, CODE_PIPELINE_BUCKET, tenantId,
+                    deployment.getImageName(), zip), SdkRetry::isThrottled, MAX_THROTTLED_ATTEMPTS,
+                    THROTTLE_BACKOFF_MILLIS);
+
+            // Trigger CodePipeline for this tenant
+            SdkRetry.run(() -> triggerPipeline(codepipeline, tenantId, deployment.getPipeline()),
+                    SdkRetry::isThrottled, MAX_THROTTLED_ATTEMPTS, THROTTLE_BACKOFF_MILLIS);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Deployment failed {}", Utils.toJson(deployment));
+            LOGGER.error(Utils.getFullStackTrace(e));
+            return false;
+        }
+    }
+
+    protected static List<List<Deployment>> waves(List<Deployment> deployments, String canaryTier) {
+        // Tenants in the canary tier go first, everyone else follows once the canaries succeed
+        List<Deployment> canaries = new ArrayList<>();
+        List<Deployment> rest = new ArrayList<>();
+        for (Deployment deployment : deployments) {
+            if (Utils.isNotBlank(canaryTier) && canaryTier.equals(deployment.getTier())) {
+                canaries.add(deployment);
+            } else {
+                rest.add(deployment);
+            }
+        }
+        List<List<Deployment>> waves = new ArrayList<>();
+        if (!canaries.isEmpty()) {
+            waves.add(canaries);
+        }
+        if (!rest.isEmpty()) {
+            waves.add(rest);
+        }
+        return waves;
+    }
+
     List<Deployment> getDeployments(Map<String, Object> event, Context context) {
         Map<String, Object> detail = (Map<String, Object>) event.get("detail");
         String repo = (String) detail.get("repository-name");
@@ -151,7 +228,8 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
                         String imageName = imageName(tenantId, serviceName);
                         String imageUri = imageUri(event);
                         String pipeline = codePipelineResource.get("name");
-                        Deployment deployment = new Deployment(tenantId, imageName, imageUri, pipeline);
+                        String tier = (String) tenant.get("tier");
+                        Deployment deployment = new Deployment(tenantId, tier, imageName, imageUri, pipeline);
                         deployments.add(deployment);
                     } else {
                         LOGGER.error("Can't find CodePipeline resource {} for tenant {}", pipelineKey, tenantId);
@@ -313,14 +391,16 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
         }
     }
 
-    private static class Deployment {
+    protected static class Deployment {
         private final String tenantId;
+        private final String tier;
         private final String imageName;
         private final String imageUri;
         private final String pipeline;
 
-        public Deployment(String tenantId, String imageName, String imageUri, String pipeline) {
+        public Deployment(String tenantId, String tier, String imageName, String imageUri, String pipeline) {
             this.tenantId = tenantId;
+            this.tier = tier;
             this.imageName = imageName;
             this.imageUri = imageUri;
             this.pipeline = pipeline;
@@ -330,6 +410,10 @@ public class WorkloadDeploy implements RequestHandler<Map<String, Object>, Objec
             return tenantId;
         }
 
+        public String getTier() {
+            return tier;
+        }
+
         public String getImageName() {
             return imageName;
         }
@@ -0,0 +1,147 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.codepipeline.CodePipelineClient;
+import software.amazon.awssdk.services.codepipeline.model.StartPipelineExecutionResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class WorkloadDeployTest {
+
+    private static final String IMAGE_URI = "123456789012.dkr.ecr.us-east-1.amazonaws.com/app:v2";
+
+    @Test
+    public void testWavesCanaryTierFirst() {
+        List<WorkloadDeploy.Deployment> deployments = List.of(
+                deployment("t1", "gold"), deployment("t2", "canary"), deployment("t3", null),
+                deployment("t4", "canary"));
+        List<List<WorkloadDeploy.Deployment>> waves = WorkloadDeploy.waves(deployments, "canary");
+        assertEquals(2, waves.size());
+        assertEquals(List.of("t2", "t4"), tenantIds(waves.get(0)));
+        assertEquals(List.of("t1", "t3"), tenantIds(waves.get(1)));
+    }
+
+    @Test
+    public void testWavesWithoutCanaries() {
+        List<WorkloadDeploy.Deployment> deployments = List.of(deployment("t1", "gold"), deployment("t2", null));
+        assertEquals(1, WorkloadDeploy.waves(deployments, null).size());
+        assertEquals(1, WorkloadDeploy.waves(deployments, "").size());
+        assertEquals(1, WorkloadDeploy.waves(deployments, "platinum").size());
+        // A rollout that is all canaries is a single wave
+        assertEquals(1, WorkloadDeploy.waves(List.of(deployment("t1", "canary")), "canary").size());
+        assertTrue(WorkloadDeploy.waves(List.of(), "canary").isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEachTenantGetsItsOwnImageDefinitions() throws IOException {
+        S3Client s3 = mock(S3Client.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(codepipeline.startPipelineExecution(any(Consumer.class)))
+                .thenReturn(StartPipelineExecutionResponse.builder().pipelineExecutionId("1").build());
+        List<WorkloadDeploy.Deployment> deployments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            deployments.add(deployment("t" + i, null));
+        }
+
+        new WorkloadDeploy(s3, codepipeline).deploy(deployments, null);
+
+        ArgumentCaptor<PutObjectRequest> requests = ArgumentCaptor.forClass(PutObjectRequest.class);
+        ArgumentCaptor<RequestBody> bodies = ArgumentCaptor.forClass(RequestBody.class);
+        verify(s3, times(5)).putObject(requests.capture(), bodies.capture());
+        verify(codepipeline, times(5)).startPipelineExecution(any(Consumer.class));
+        Map<String, String> imageDefinitionsByKey = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            imageDefinitionsByKey.put(requests.getAllValues().get(i).key(),
+                    unzip(bodies.getAllValues().get(i).contentStreamProvider().newStream()));
+        }
+        // The ECS deploy action matches on container name, which is tenant specific, so one image
+        // pushed to N tenants has to produce N different artifacts
+        for (int i = 0; i < 5; i++) {
+            String imageDefinitions = imageDefinitionsByKey.get("t" + i + "/container-t" + i);
+            assertNotNull(imageDefinitions);
+            assertTrue(imageDefinitions.contains("\"name\":\"container-t" + i + "\""));
+            assertTrue(imageDefinitions.contains(IMAGE_URI));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailedCanaryHaltsRollout() {
+        S3Client s3 = mock(S3Client.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(codepipeline.startPipelineExecution(any(Consumer.class)))
+                .thenThrow(SdkServiceException.builder().statusCode(400).build());
+        List<WorkloadDeploy.Deployment> deployments = List.of(
+                deployment("t1", "canary"), deployment("t2", "gold"), deployment("t3", "gold"));
+
+        new WorkloadDeploy(s3, codepipeline).deploy(deployments, "canary");
+
+        // Only the canary was attempted
+        verify(s3, times(1)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(codepipeline, times(1)).startPipelineExecution(any(Consumer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testThrottledDeploymentIsRetried() {
+        S3Client s3 = mock(S3Client.class);
+        CodePipelineClient codepipeline = mock(CodePipelineClient.class);
+        when(codepipeline.startPipelineExecution(any(Consumer.class)))
+                .thenThrow(SdkServiceException.builder().statusCode(429).build())
+                .thenReturn(StartPipelineExecutionResponse.builder().pipelineExecutionId("1").build());
+
+        new WorkloadDeploy(s3, codepipeline).deploy(List.of(deployment("t1", null)), null);
+
+        verify(s3, times(1)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(codepipeline, times(2)).startPipelineExecution(any(Consumer.class));
+    }
+
+    private static WorkloadDeploy.Deployment deployment(String tenantId, String tier) {
+        return new WorkloadDeploy.Deployment(tenantId, tier, "container-" + tenantId, IMAGE_URI,
+                "pipeline-" + tenantId);
+    }
+
+    private static List<String> tenantIds(List<WorkloadDeploy.Deployment> deployments) {
+        List<String> tenantIds = new ArrayList<>();
+        deployments.forEach(deployment -> tenantIds.add(deployment.getTenantId()));
+        return tenantIds;
+    }
+
+    private static String unzip(InputStream stream) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(stream)) {
+            assertEquals("imagedefinitions.json", zip.getNextEntry().getName());
+            return new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs the work for a CloudFormation custom resource and takes care of answering CloudFormation. The work gets a
+ * parallel executor and can check how much of the Lambda timeout is left. Work that can't finish before the
+ * deadline returns {@link Result#resume(Map)} with whatever it needs to carry on. The runtime then invokes the
+ * same function again with the original event plus that continuation, and only the last invocation responds.
+ *
+ * The continuation travels in the event payload, so it has to serialize to JSON and stay well under the 256 KB
+ * async invoke limit. Handlers whose work is naturally idempotent (deleting things) can keep it to a few counters.
+ * The function's role needs lambda:InvokeFunction on itself.
+ */
+public class CustomResourceRuntime {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CustomResourceRuntime.class);
+    public static final String CONTINUATION = "SaaSBoostContinuation";
+    public static final String INVOCATION = "SaaSBoostInvocation";
+    private static final long DEFAULT_DEADLINE_MARGIN_MILLIS = 30000L;
+    // CloudFormation gives up on a custom resource after an hour, so 12 back to back 15 minute
+    // invocations is already more than we'll ever get
+    private static final int DEFAULT_MAX_INVOCATIONS = 12;
+
+    private final int parallelism;
+    private final long deadlineMarginMillis;
+    private final int maxInvocations;
+    private final Responder responder;
+    private final Reinvoker reinvoker;
+
+    public CustomResourceRuntime(int parallelism) {
+        this(parallelism, DEFAULT_DEADLINE_MARGIN_MILLIS);
+    }
+
+    public CustomResourceRuntime(int parallelism, long deadlineMarginMillis) {
+        this(parallelism, deadlineMarginMillis, DEFAULT_MAX_INVOCATIONS, CloudFormationResponse::send,
+                new LambdaReinvoker());
+    }
+
+    // Package private for testing
+    CustomResourceRuntime(int parallelism, long deadlineMarginMillis, int maxInvocations, Responder responder,
+                          Reinvoker reinvoker) {
+        if (parallelism < 1 || deadlineMarginMillis < 0 || maxInvocations < 1) {
+            throw new IllegalArgumentException("Invalid custom resource runtime settings");
+        }
+        this.parallelism = parallelism;
+        this.deadlineMarginMillis = deadlineMarginMillis;
+        this.maxInvocations = maxInvocations;
+        this.responder = responder;
+        this.reinvoker = reinvoker;
+    }
+
+    public void handle(Map<String, Object> event, Context context, Work work) {
+        Invocation invocation = new Invocation(event, context);
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        Result result;
+        try {
+            Future<Result> f = service.submit(() -> work.run(invocation));
+            result = f.get(context.getRemainingTimeInMillis() - 1000, TimeUnit.MILLISECONDS);
+            if (result == null) {
+                result = Result.done(null);
+            }
+        } catch (final TimeoutException | InterruptedException | ExecutionException e) {
+            // Timed out or the work blew up
+            LOGGER.error("FAILED unexpected error or request timed out {}", e.getMessage());
+            LOGGER.error(Utils.getFullStackTrace(e));
+            result = Result.failed(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } finally {
+            service.shutdownNow();
+            invocation.shutdown();
+        }
+
+        if (result.continuation != null) {
+            if (invocation.number() >= maxInvocations) {
+                LOGGER.error("FAILED work still unfinished after {} invocations", invocation.number());
+                result = Result.failed("Work unfinished after " + invocation.number() + " invocations");
+            } else {
+                Map<String, Object> next = new HashMap<>(event);
+                next.put(CONTINUATION, result.continuation);
+                next.put(INVOCATION, invocation.number() + 1);
+                try {
+                    LOGGER.info("Continuing in invocation {} with {}", invocation.number() + 1,
+                            result.continuation);
+                    reinvoker.invoke(next, context);
+                    return;
+                } catch (Exception e) {
+                    LOGGER.error("FAILED could not re-invoke {}", context.getInvokedFunctionArn());
+                    LOGGER.error(Utils.getFullStackTrace(e));
+                    result = Result.failed("Could not continue work: " + e.getMessage());
+                }
+            }
+        }
+        Map<String, Object> responseData = new HashMap<>(result.data);
+        if (result.reason != null) {
+            responseData.put("Reason", result.reason);
+        }
+        responder.send(event, context, result.reason != null ? "FAILED" : "SUCCESS", responseData);
+    }
+
+    @FunctionalInterface
+    public interface Work {
+        Result run(Invocation invocation) throws Exception;
+    }
+
+    // Package private for testing
+    @FunctionalInterface
+    interface Responder {
+        void send(Map<String, Object> event, Context context, String responseStatus,
+                  Map<String, Object> responseData);
+    }
+
+    // Package private for testing
+    @FunctionalInterface
+    interface Reinvoker {
+        void invoke(Map<String, Object> event, Context context);
+    }
+
+    public static final class Result {
+
+        private final Map<String, Object> data;
+        private final String reason;
+        private final Map<String, Object> continuation;
+
+        private Result(Map<String, Object> data, String reason, Map<String, Object> continuation) {
+            this.data = data != null ? data : Collections.emptyMap();
+            this.reason = reason;
+            this.continuation = continuation;
+        }
+
+        public static Result done(Map<String, Object> responseData) {
+            return new Result(responseData, null, null);
+        }
+
+        public static Result failed(String reason) {
+            return new Result(null, reason != null ? reason : "Unknown error", null);
+        }
+
+        public static Result resume(Map<String, Object> continuation) {
+            return new Result(null, null, continuation != null ? continuation : Collections.emptyMap());
+        }
+    }
+
+    /**
+     * What the work sees of the current invocation.
+     */
+    public final class Invocation {
+
+        private final Map<String, Object> event;
+        private final Context context;
+        private ExecutorService executor;
+
+        private Invocation(Map<String, Object> event, Context context) {
+            this.event = event;
+            this.context = context;
+        }
+
+        public Map<String, Object> event() {
+            return event;
+        }
+
+        public Context context() {
+            return context;
+        }
+
+        public String requestType() {
+            return (String) event.get("RequestType");
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> resourceProperties() {
+            Map<String, Object> resourceProperties = (Map<String, Object>) event.get("ResourceProperties");
+            return resourceProperties != null ? resourceProperties : Collections.emptyMap();
+        }
+
+        /**
+         * State handed over by the previous invocation, empty on the first one.
+         */
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> continuation() {
+            Map<String, Object> continuation = (Map<String, Object>) event.get(CONTINUATION);
+            return continuation != null ? continuation : Collections.emptyMap();
+        }
+
+        public int number() {
+            Object number = event.get(INVOCATION);
+            return number != null ? Integer.parseInt(String.valueOf(number)) : 1;
+        }
+
+        public long remainingMillis() {
+            return context.getRemainingTimeInMillis();
+        }
+
+        /**
+         * True once there's no longer enough time left to safely start more work.
+         */
+        public boolean deadlineReached() {
+            return context.getRemainingTimeInMillis() < deadlineMarginMillis;
+        }
+
+        public synchronized ExecutorService executor() {
+            if (executor == null) {
+                executor = Utils.daemonThreadPool(parallelism, "custom-resource-worker");
+            }
+            return executor;
+        }
+
+        /**
+         * Runs the task for every item on the parallel executor. Items that haven't started by the time the
+         * deadline is reached are skipped and handed back, in their original order, for the next invocation.
+         * The first task failure is rethrown once everything has settled.
+         */
+        public <T> List<T> forEach(Collection<T> items, Consumer<T> task) {
+            List<T> ordered = new ArrayList<>(items);
+            boolean[] skipped = new boolean[ordered.size()];
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < ordered.size(); i++) {
+                final int index = i;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    if (deadlineReached()) {
+                        skipped[index] = true;
+                        return;
+                    }
+                    task.accept(ordered.get(index));
+                }, executor()));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ce.getCause();
+                }
+                throw ce;
+            }
+            List<T> unfinished = new ArrayList<>();
+            for (int i = 0; i < ordered.size(); i++) {
+                if (skipped[i]) {
+                    unfinished.add(ordered.get(i));
+                }
+            }
+            return unfinished;
+        }
+
+        private synchronized void shutdown() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static final class LambdaReinvoker implements Reinvoker {
+
+        private LambdaClient lambda;
+
+        @Override
+        public synchronized void invoke(Map<String, Object> event, Context context) {
+            if (lambda == null) {
+                lambda = Utils.sdkClient(LambdaClient.builder(), LambdaClient.SERVICE_NAME);
+            }
+            lambda.invoke(request -> request
+                    .functionName(context.getInvokedFunctionArn())
+                    .invocationType(InvocationType.EVENT)
+                    .payload(SdkBytes.fromUtf8String(Utils.toJson(event)))
+            );
+        }
+    }
+}
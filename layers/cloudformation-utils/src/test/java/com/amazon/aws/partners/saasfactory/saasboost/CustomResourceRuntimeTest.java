@@ -0,0 +1,246 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CustomResourceRuntimeTest {
+
+    private FakeContext context;
+    private List<String> statuses;
+    private List<Map<String, Object>> responses;
+    private List<Map<String, Object>> reinvocations;
+    private CustomResourceRuntime runtime;
+
+    @Before
+    public void setup() {
+        context = new FakeContext(60000L);
+        statuses = new ArrayList<>();
+        responses = new ArrayList<>();
+        reinvocations = new ArrayList<>();
+        runtime = new CustomResourceRuntime(4, 10000L, 3,
+                (event, ctx, status, data) -> {
+                    statuses.add(status);
+                    responses.add(data);
+                },
+                (event, ctx) -> reinvocations.add(event));
+    }
+
+    @Test
+    public void testDoneSendsSuccess() {
+        runtime.handle(event(), context, invocation -> {
+            assertEquals("Delete", invocation.requestType());
+            assertEquals("bucket", invocation.resourceProperties().get("Bucket"));
+            assertEquals(1, invocation.number());
+            assertTrue(invocation.continuation().isEmpty());
+            return CustomResourceRuntime.Result.done(Map.of("Answer", 42));
+        });
+        assertEquals(List.of("SUCCESS"), statuses);
+        assertEquals(42, responses.get(0).get("Answer"));
+        assertTrue(reinvocations.isEmpty());
+    }
+
+    @Test
+    public void testFailedAndExceptionsSendFailed() {
+        runtime.handle(event(), context, invocation -> CustomResourceRuntime.Result.failed("nope"));
+        runtime.handle(event(), context, invocation -> {
+            throw new IllegalStateException("boom");
+        });
+        assertEquals(List.of("FAILED", "FAILED"), statuses);
+        assertEquals("nope", responses.get(0).get("Reason"));
+        assertEquals("boom", responses.get(1).get("Reason"));
+    }
+
+    @Test
+    public void testResumeReinvokesWithContinuation() {
+        Map<String, Object> event = event();
+        runtime.handle(event, context, invocation -> CustomResourceRuntime.Result.resume(Map.of("deleted", 10)));
+        assertTrue("Only the last invocation answers CloudFormation", statuses.isEmpty());
+        assertEquals(1, reinvocations.size());
+        Map<String, Object> next = reinvocations.get(0);
+        assertEquals(2, next.get(CustomResourceRuntime.INVOCATION));
+        assertEquals(Map.of("deleted", 10), next.get(CustomResourceRuntime.CONTINUATION));
+        assertEquals(event.get("ResponseURL"), next.get("ResponseURL"));
+        assertFalse("The original event isn't modified", event.containsKey(CustomResourceRuntime.CONTINUATION));
+
+        runtime.handle(next, context, invocation -> {
+            assertEquals(2, invocation.number());
+            assertEquals(10, invocation.continuation().get("deleted"));
+            return CustomResourceRuntime.Result.done(null);
+        });
+        assertEquals(List.of("SUCCESS"), statuses);
+    }
+
+    @Test
+    public void testResumeGivesUpAfterMaxInvocations() {
+        Map<String, Object> event = event();
+        event.put(CustomResourceRuntime.INVOCATION, 3);
+        runtime.handle(event, context, invocation -> CustomResourceRuntime.Result.resume(Map.of()));
+        assertTrue(reinvocations.isEmpty());
+        assertEquals(List.of("FAILED"), statuses);
+    }
+
+    @Test
+    public void testReinvokeFailureSendsFailed() {
+        runtime = new CustomResourceRuntime(4, 10000L, 3,
+                (event, ctx, status, data) -> statuses.add(status),
+                (event, ctx) -> {
+                    throw new RuntimeException("AccessDenied");
+                });
+        runtime.handle(event(), context, invocation -> CustomResourceRuntime.Result.resume(Map.of()));
+        assertEquals(List.of("FAILED"), statuses);
+    }
+
+    @Test
+    public void testForEachRunsEverythingInParallel() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        AtomicInteger sum = new AtomicInteger();
+        runtime.handle(event(), context, invocation -> {
+            List<Integer> unfinished = invocation.forEach(items, sum::addAndGet);
+            assertTrue(unfinished.isEmpty());
+            return CustomResourceRuntime.Result.done(null);
+        });
+        assertEquals(4950, sum.get());
+        assertEquals(List.of("SUCCESS"), statuses);
+    }
+
+    @Test
+    public void testForEachSkipsWorkPastTheDeadline() {
+        List<Integer> items = List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        List<Integer> done = new ArrayList<>();
+        runtime.handle(event(), context, invocation -> {
+            List<Integer> unfinished = invocation.forEach(items, item -> {
+                synchronized (done) {
+                    done.add(item);
+                    // Burn through the clock once a few items are finished
+                    if (done.size() == 3) {
+                        context.remaining = 5000L;
+                    }
+                }
+            });
+            assertFalse(unfinished.isEmpty());
+            assertEquals(items.size(), done.size() + unfinished.size());
+            for (int i = 1; i < unfinished.size(); i++) {
+                assertTrue(unfinished.get(i - 1) < unfinished.get(i));
+            }
+            return CustomResourceRuntime.Result.resume(Map.of("unfinished", unfinished));
+        });
+        assertEquals(1, reinvocations.size());
+    }
+
+    @Test
+    public void testForEachRethrowsTaskFailure() {
+        runtime.handle(event(), context, invocation -> {
+            invocation.forEach(List.of(1, 2, 3), item -> {
+                if (item == 2) {
+                    throw new IllegalArgumentException("bad item");
+                }
+            });
+            return CustomResourceRuntime.Result.done(null);
+        });
+        assertEquals(List.of("FAILED"), statuses);
+        assertEquals("bad item", responses.get(0).get("Reason"));
+    }
+
+    private static Map<String, Object> event() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("RequestType", "Delete");
+        event.put("ResponseURL", "https://example.com/response");
+        event.put("ResourceProperties", Map.of("Bucket", "bucket"));
+        return event;
+    }
+
+    private static class FakeContext implements Context {
+
+        volatile long remaining;
+
+        FakeContext(long remaining) {
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return (int) remaining;
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return "arn:aws:lambda:us-east-1:111122223333:function:sb-test-clear-bucket";
+        }
+
+        @Override
+        public String getAwsRequestId() {
+            return "request";
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return null;
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return null;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "sb-test-clear-bucket";
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return "$LATEST";
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            return 1024;
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsRequest;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsRequestEntry;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsResponse;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsResultEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Buffers EventBridge events and sends them with as few PutEvents calls as possible. Each call carries at most
+ * 10 entries and stays under the 256 KB request limit. Only the entries EventBridge reports as failed are retried.
+ *
+ * <p>Events are sent when a batch fills up, when {@link #flush()} is called and when the publisher is closed, so
+ * handlers should use it in a try-with-resources block. In async mode full batches are sent on a background thread
+ * and {@link #flush()} waits for them to finish.
+ */
+public class EventBridgePublisher implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventBridgePublisher.class);
+    // PutEvents service limits
+    static final int MAX_ENTRIES = 10;
+    static final int MAX_REQUEST_BYTES = 256 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 100L;
+
+    private final EventBridgeClient eventBridge;
+    private final ExecutorService executor;
+    private final List<PutEventsRequestEntry> buffer = new ArrayList<>();
+    private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private int bufferBytes = 0;
+
+    public EventBridgePublisher(EventBridgeClient eventBridge) {
+        this(eventBridge, false);
+    }
+
+    /**
+     * Creates a publisher that sends full batches on the calling thread, or on a background thread when async is
+     * true. Only use async mode when the caller always reaches {@link #flush()} or {@link #close()}.
+     *
+     * @param eventBridge the client used for PutEvents calls
+     * @param async whether full batches are sent on a background thread
+     */
+    public EventBridgePublisher(EventBridgeClient eventBridge, boolean async) {
+        if (eventBridge == null) {
+            throw new IllegalArgumentException("EventBridgeClient is required");
+        }
+        this.eventBridge = eventBridge;
+        this.executor = async ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eventbridge-publisher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Buffers an event with the same arguments as {@link Utils#publishEvent}.
+     */
+    public void publish(String eventBus, String source, String detailType, Map<String, Object> detail) {
+        PutEventsRequestEntry.Builder eventBuilder = PutEventsRequestEntry.builder();
+        if (Utils.isNotBlank(eventBus)) {
+            eventBuilder.eventBusName(eventBus);
+        }
+        eventBuilder.source(source);
+        eventBuilder.detailType(detailType);
+        eventBuilder.detail(Utils.toJson(detail));
+        publish(eventBuilder.build());
+    }
+
+    /**
+     * Buffers a prepared entry, sending the current batch first if the entry would push it over the request size
+     * limit and sending it afterwards once it holds the maximum number of entries.
+     *
+     * @param entry the event to send
+     */
+    public synchronized void publish(PutEventsRequestEntry entry) {
+        int entryBytes = entrySize(entry);
+        if (!buffer.isEmpty() && bufferBytes + entryBytes > MAX_REQUEST_BYTES) {
+            send();
+        }
+        buffer.add(entry);
+        bufferBytes += entryBytes;
+        if (buffer.size() == MAX_ENTRIES) {
+            send();
+        }
+    }
+
+    /**
+     * Sends everything buffered so far and, in async mode, waits for all outstanding batches.
+     */
+    public void flush() {
+        List<CompletableFuture<Void>> outstanding;
+        synchronized (this) {
+            send();
+            outstanding = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            CompletableFuture.allOf(outstanding.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private void send() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        final List<PutEventsRequestEntry> batch = new ArrayList<>(buffer);
+        buffer.clear();
+        bufferBytes = 0;
+        if (executor != null) {
+            pending.removeIf(CompletableFuture::isDone);
+            pending.add(CompletableFuture.runAsync(() -> putEvents(batch), executor));
+        } else {
+            putEvents(batch);
+        }
+    }
+
+    // Package private for testing
+    void putEvents(List<PutEventsRequestEntry> batch) {
+        List<PutEventsRequestEntry> entries = batch;
+        for (int attempt = 1; !entries.isEmpty(); attempt++) {
+            PutEventsResponse response;
+            try {
+                response = eventBridge.putEvents(PutEventsRequest.builder().entries(entries).build());
+            } catch (SdkServiceException eventBridgeError) {
+                LOGGER.error("events::PutEvents", eventBridgeError);
+                LOGGER.error(Utils.getFullStackTrace(eventBridgeError));
+                throw eventBridgeError;
+            }
+            // Result entries are in the same order as the request entries
+            List<PutEventsRequestEntry> failed = new ArrayList<>();
+            List<PutEventsResultEntry> results = response.entries();
+            for (int i = 0; i < results.size() && i < entries.size(); i++) {
+                PutEventsResultEntry result = results.get(i);
+                if (Utils.isNotEmpty(result.eventId())) {
+                    LOGGER.info("Put event success {} {}", result, entries.get(i));
+                } else {
+                    failed.add(entries.get(i));
+                    if (attempt == MAX_ATTEMPTS) {
+                        LOGGER.error("Put event failed {} {}", result, entries.get(i));
+                    }
+                }
+            }
+            if (failed.isEmpty() || attempt == MAX_ATTEMPTS) {
+                break;
+            }
+            LOGGER.warn("Retrying {} of {} events that failed PutEvents", failed.size(), entries.size());
+            entries = failed;
+            try {
+                Thread.sleep(BASE_BACKOFF_MILLIS * (1L << (attempt - 1)));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    // Package private for testing
+    static int entrySize(PutEventsRequestEntry entry) {
+        // https://docs.aws.amazon.com/eventbridge/latest/userguide/eb-putevent-size.html
+        int size = entry.time() != null ? 14 : 0;
+        size += utf8Length(entry.source());
+        size += utf8Length(entry.detailType());
+        size += utf8Length(entry.detail());
+        if (entry.hasResources()) {
+            for (String resource : entry.resources()) {
+                size += utf8Length(resource);
+            }
+        }
+        return size;
+    }
+
+    private static int utf8Length(String str) {
+        return str != null ? str.getBytes(StandardCharsets.UTF_8).length : 0;
+    }
+}
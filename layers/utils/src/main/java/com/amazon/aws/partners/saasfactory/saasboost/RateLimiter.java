@@ -0,0 +1,68 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces calls evenly at a fixed rate across every thread sharing the limiter. Use one per handler so parallel
+ * workers together stay under an account level API rate instead of each getting the full rate.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private long nextPermitNanos = Long.MIN_VALUE;
+
+    /**
+     * Creates a limiter for the given rate. Rates above one call per nanosecond are clamped to that.
+     *
+     * @param permitsPerSecond how many calls per second to allow
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    }
+
+    /**
+     * Blocks until the caller's turn comes up.
+     */
+    public void acquire() {
+        long waitNanos = reserve(System.nanoTime());
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ie);
+            }
+        }
+    }
+
+    // Package private for testing
+    long intervalNanos() {
+        return intervalNanos;
+    }
+
+    // Package private for testing
+    synchronized long reserve(long nowNanos) {
+        long permit = Math.max(nowNanos, nextPermitNanos);
+        nextPermitNanos = permit + intervalNanos;
+        return permit - nowNanos;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Retries AWS SDK calls with capped, fully jittered exponential backoff. The SDK client has already retried
+ * with its own short backoff by the time an error reaches us, so this is the slower outer layer for code that
+ * fans out over many tenants or objects at once and can push a whole account into throttling.
+ */
+public final class SdkRetry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SdkRetry.class);
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 200L;
+    static final long MAX_DELAY_MILLIS = 20_000L;
+
+    private SdkRetry() {
+    }
+
+    /**
+     * Throttling and server side errors are worth retrying, anything else is the caller's problem.
+     */
+    public static boolean isThrottledOrServerError(SdkServiceException awsError) {
+        return awsError.isThrottlingException() || awsError.statusCode() >= 500;
+    }
+
+    /**
+     * Only throttling errors are worth retrying.
+     */
+    public static boolean isThrottled(SdkServiceException awsError) {
+        return awsError.isThrottlingException();
+    }
+
+    public static <T> T call(Supplier<T> call, Predicate<SdkServiceException> retryable) {
+        return call(call, retryable, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS);
+    }
+
+    /**
+     * Runs the call until it succeeds, fails with an error the predicate doesn't retry or runs out of attempts.
+     * The last error is rethrown as is, so callers keep their existing SDK exception handling.
+     *
+     * @param call the SDK call, run once per attempt
+     * @param retryable which errors are worth another attempt
+     * @param maxAttempts total number of attempts, including the first
+     * @param baseDelayMillis backoff before the second attempt, doubled for each attempt after that
+     * @return the result of the first successful attempt
+     */
+    public static <T> T call(Supplier<T> call, Predicate<SdkServiceException> retryable, int maxAttempts,
+                             long baseDelayMillis) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.get();
+            } catch (SdkServiceException awsError) {
+                if (attempt >= maxAttempts || !retryable.test(awsError)) {
+                    throw awsError;
+                }
+                long backoff = backoffMillis(attempt, baseDelayMillis);
+                LOGGER.warn("Retrying {} error in {} ms, attempt {} of {}", awsError.statusCode(), backoff,
+                        attempt, maxAttempts);
+                sleep(backoff);
+            }
+        }
+    }
+
+    public static void run(Runnable call, Predicate<SdkServiceException> retryable) {
+        run(call, retryable, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS);
+    }
+
+    /**
+     * Same as {@link #call(Supplier, Predicate, int, long)} for calls without a result.
+     */
+    public static void run(Runnable call, Predicate<SdkServiceException> retryable, int maxAttempts,
+                           long baseDelayMillis) {
+        call(() -> {
+            call.run();
+            return null;
+        }, retryable, maxAttempts, baseDelayMillis);
+    }
+
+    /**
+     * A random delay between zero and the exponential backoff for this attempt, capped at 20 seconds.
+     */
+    public static long backoffMillis(int attempt, long baseDelayMillis) {
+        int shift = Math.max(0, Math.min(attempt - 1, 30));
+        long ceiling = Math.min(MAX_DELAY_MILLIS, baseDelayMillis << shift);
+        return ThreadLocalRandom.current().nextLong(Math.max(0L, ceiling) + 1);
+    }
+
+    /**
+     * Sleeps for {@link #backoffMillis(int, long)}. For callers that retry on something other than an
+     * exception, like the partial failures returned by the batch delete APIs.
+     */
+    public static void backoff(int attempt, long baseDelayMillis) {
+        sleep(backoffMillis(attempt, baseDelayMillis));
+    }
+
+    static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        }
+    }
+}
@@ -47,7 +47,10 @@ import java.io.*;
 import java.net.URI;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 public class Utils {
@@ -442,6 +445,64 @@ public class Utils {
         return version;
     }
 
+    /**
+     * A duration set in whole seconds by an environment variable, or the default when it's missing or invalid.
+     */
+    public static Duration durationFromEnvironment(String variable, Duration defaultValue) {
+        return durationFromSeconds(variable, System.getenv(variable), defaultValue);
+    }
+
+    // Package private for testing
+    static Duration durationFromSeconds(String variable, String seconds, Duration defaultValue) {
+        if (isNotBlank(seconds)) {
+            try {
+                long value = Long.parseLong(seconds.trim());
+                if (value >= 0) {
+                    return Duration.ofSeconds(value);
+                }
+            } catch (NumberFormatException nfe) {
+                // fall through to the warning
+            }
+            LOGGER.warn("Ignoring invalid value {} for {}", seconds, variable);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * A positive integer set by an environment variable, or the default when it's missing or invalid.
+     */
+    public static int intFromEnvironment(String variable, int defaultValue) {
+        return positiveInt(variable, System.getenv(variable), defaultValue);
+    }
+
+    // Package private for testing
+    static int positiveInt(String variable, String value, int defaultValue) {
+        if (isNotBlank(value)) {
+            try {
+                int parsed = Integer.parseInt(value.trim());
+                if (parsed > 0) {
+                    return parsed;
+                }
+            } catch (NumberFormatException nfe) {
+                // fall through to the warning
+            }
+            LOGGER.warn("Ignoring invalid value {} for {}", value, variable);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * A fixed size pool of daemon threads. Lambda freezes the container between invocations, so worker threads
+     * must never be what keeps the JVM alive.
+     */
+    public static ExecutorService daemonThreadPool(int threads, String name) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     public static boolean nullableEquals(Object o1, Object o2) {
         // same reference or both null
         if (o1 == o2) {
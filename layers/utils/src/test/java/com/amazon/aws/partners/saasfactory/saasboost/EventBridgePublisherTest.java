@@ -0,0 +1,143 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsRequest;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsRequestEntry;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsResponse;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsResultEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class EventBridgePublisherTest {
+
+    @Test
+    public void testBatchesOfTen() {
+        FakeEventBridge eventBridge = new FakeEventBridge(Collections.emptySet());
+        try (EventBridgePublisher publisher = new EventBridgePublisher(eventBridge)) {
+            for (int i = 0; i < 25; i++) {
+                publisher.publish("bus", "test", "Test Event", Map.of("i", i));
+            }
+            assertEquals("Full batches go out as soon as they fill", 2, eventBridge.requests.size());
+        }
+        assertEquals("Close flushes the remainder", 3, eventBridge.requests.size());
+        assertEquals(List.of(10, 10, 5), eventBridge.requests.stream()
+                .map(request -> request.entries().size())
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testRequestSizeLimit() {
+        FakeEventBridge eventBridge = new FakeEventBridge(Collections.emptySet());
+        String payload = "x".repeat(100 * 1024);
+        try (EventBridgePublisher publisher = new EventBridgePublisher(eventBridge)) {
+            for (int i = 0; i < 5; i++) {
+                publisher.publish("bus", "test", "Test Event", Map.of("payload", payload));
+            }
+        }
+        for (PutEventsRequest request : eventBridge.requests) {
+            int size = request.entries().stream().mapToInt(EventBridgePublisher::entrySize).sum();
+            assertTrue("Request over 256 KB", size <= EventBridgePublisher.MAX_REQUEST_BYTES);
+        }
+        assertEquals(List.of(2, 2, 1), eventBridge.requests.stream()
+                .map(request -> request.entries().size())
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testRetriesOnlyFailedEntries() {
+        // Fail detail "3" and "7" once each
+        FakeEventBridge eventBridge = new FakeEventBridge(new HashSet<>(Set.of("{\"i\":3}", "{\"i\":7}")));
+        try (EventBridgePublisher publisher = new EventBridgePublisher(eventBridge)) {
+            for (int i = 0; i < 10; i++) {
+                publisher.publish("bus", "test", "Test Event", Map.of("i", i));
+            }
+        }
+        assertEquals(2, eventBridge.requests.size());
+        assertEquals(List.of("{\"i\":3}", "{\"i\":7}"), eventBridge.requests.get(1).entries().stream()
+                .map(PutEventsRequestEntry::detail)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testAsyncFlush() {
+        FakeEventBridge eventBridge = new FakeEventBridge(Collections.emptySet());
+        try (EventBridgePublisher publisher = new EventBridgePublisher(eventBridge, true)) {
+            for (int i = 0; i < 15; i++) {
+                publisher.publish("bus", "test", "Test Event", Map.of("i", i));
+            }
+            publisher.flush();
+            assertEquals(2, eventBridge.requests.size());
+            assertEquals(15, eventBridge.requests.stream().mapToInt(request -> request.entries().size()).sum());
+        }
+    }
+
+    @Test
+    public void testEntrySize() {
+        PutEventsRequestEntry entry = PutEventsRequestEntry.builder()
+                .source("abc")
+                .detailType("de")
+                .detail("{\"é\":1}")
+                .resources("r1", "r2")
+                .build();
+        assertEquals(3 + 2 + 8 + 4, EventBridgePublisher.entrySize(entry));
+    }
+
+    private static class FakeEventBridge implements EventBridgeClient {
+        final List<PutEventsRequest> requests = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> failOnce;
+
+        FakeEventBridge(Set<String> failOnce) {
+            this.failOnce = failOnce;
+        }
+
+        @Override
+        public PutEventsResponse putEvents(PutEventsRequest request) {
+            requests.add(request);
+            List<PutEventsResultEntry> results = new ArrayList<>();
+            int failed = 0;
+            for (PutEventsRequestEntry entry : request.entries()) {
+                if (failOnce.remove(entry.detail())) {
+                    results.add(PutEventsResultEntry.builder().errorCode("InternalFailure").build());
+                    failed++;
+                } else {
+                    results.add(PutEventsResultEntry.builder().eventId(String.valueOf(results.size())).build());
+                }
+            }
+            return PutEventsResponse.builder().entries(results).failedEntryCount(failed).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return EventBridgeClient.SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testReserveSpacesCallsEvenly() {
+        RateLimiter limiter = new RateLimiter(20);
+        long interval = TimeUnit.MILLISECONDS.toNanos(50);
+        assertEquals(interval, limiter.intervalNanos());
+        long now = 1_000_000L;
+        assertEquals(0L, limiter.reserve(now));
+        assertEquals(interval, limiter.reserve(now));
+        assertEquals(2 * interval, limiter.reserve(now));
+        // Idle time isn't banked as a burst allowance
+        long later = now + 10 * interval;
+        assertEquals(0L, limiter.reserve(later));
+        assertEquals(interval, limiter.reserve(later));
+    }
+
+    @Test
+    public void testHighRatesStillSpaceCalls() {
+        // 1000 requests per second and up used to round down to a zero millisecond interval
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(500), new RateLimiter(2000).intervalNanos());
+        assertEquals(1L, new RateLimiter(1e12).intervalNanos());
+        RateLimiter limiter = new RateLimiter(5000);
+        assertEquals(0L, limiter.reserve(0L));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(200), limiter.reserve(0L));
+    }
+
+    @Test
+    public void testNegativeNanoTime() {
+        // System.nanoTime can be negative
+        RateLimiter limiter = new RateLimiter(10);
+        assertEquals(0L, limiter.reserve(-5_000_000_000L));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve(-5_000_000_000L));
+    }
+
+    @Test
+    public void testInvalidRates() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(-1));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(Double.NaN));
+    }
+
+    @Test
+    public void testAcquire() {
+        RateLimiter limiter = new RateLimiter(100);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+        }
+        // Four intervals of 10 ms after the first free permit
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SdkRetryTest {
+
+    @Test
+    public void testIsThrottledOrServerError() {
+        assertTrue(SdkRetry.isThrottledOrServerError(error(429)));
+        assertTrue(SdkRetry.isThrottledOrServerError(error(500)));
+        assertTrue(SdkRetry.isThrottledOrServerError(error(503)));
+        assertTrue(SdkRetry.isThrottledOrServerError(throttled(400)));
+        assertFalse(SdkRetry.isThrottledOrServerError(error(400)));
+        assertFalse(SdkRetry.isThrottledOrServerError(error(404)));
+    }
+
+    @Test
+    public void testIsThrottled() {
+        assertTrue(SdkRetry.isThrottled(error(429)));
+        assertTrue(SdkRetry.isThrottled(throttled(400)));
+        assertFalse(SdkRetry.isThrottled(error(500)));
+    }
+
+    @Test
+    public void testCallRetriesUntilSuccess() {
+        AtomicInteger calls = new AtomicInteger();
+        String result = SdkRetry.call(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw error(503);
+            }
+            return "done";
+        }, SdkRetry::isThrottledOrServerError, 5, 1L);
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testCallGivesUpAfterMaxAttempts() {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            SdkRetry.run(() -> {
+                calls.incrementAndGet();
+                throw error(500);
+            }, SdkRetry::isThrottledOrServerError, 4, 1L);
+            fail("Expected SdkServiceException");
+        } catch (SdkServiceException e) {
+            assertEquals(500, e.statusCode());
+        }
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testCallDoesNotRetryClientErrors() {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            SdkRetry.run(() -> {
+                calls.incrementAndGet();
+                throw error(403);
+            }, SdkRetry::isThrottledOrServerError, 4, 1L);
+            fail("Expected SdkServiceException");
+        } catch (SdkServiceException e) {
+            assertEquals(403, e.statusCode());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testBackoffMillis() {
+        for (int i = 0; i < 100; i++) {
+            long first = SdkRetry.backoffMillis(1, 200L);
+            assertTrue(first >= 0 && first <= 200L);
+            long fourth = SdkRetry.backoffMillis(4, 200L);
+            assertTrue(fourth >= 0 && fourth <= 1600L);
+            // Never overflows or exceeds the cap, however many attempts are allowed
+            long late = SdkRetry.backoffMillis(64, 200L);
+            assertTrue(late >= 0 && late <= SdkRetry.MAX_DELAY_MILLIS);
+        }
+    }
+
+    private static SdkServiceException error(int statusCode) {
+        return SdkServiceException.builder().statusCode(statusCode).build();
+    }
+
+    private static SdkServiceException throttled(int statusCode) {
+        return AwsServiceException.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                .build();
+    }
+}
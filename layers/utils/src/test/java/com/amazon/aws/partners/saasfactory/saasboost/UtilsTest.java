@@ -18,6 +18,9 @@ package com.amazon.aws.partners.saasfactory.saasboost;
 
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+
 import static org.junit.Assert.*;
 
 public class UtilsTest {
@@ -62,4 +65,39 @@ public class UtilsTest {
         assertEquals("foo_bar_baz", Utils.toSnakeCase("fooBarBaz"));
         assertEquals("foo_bar_baz", Utils.toSnakeCase("fooBarBAZ"));
     }
+
+    @Test
+    public void testDurationFromSeconds() {
+        Duration fallback = Duration.ofMinutes(5);
+        assertEquals(Duration.ofSeconds(90), Utils.durationFromSeconds("TTL", "90", fallback));
+        assertEquals(Duration.ofSeconds(90), Utils.durationFromSeconds("TTL", " 90 ", fallback));
+        assertEquals(Duration.ZERO, Utils.durationFromSeconds("TTL", "0", fallback));
+        assertEquals(fallback, Utils.durationFromSeconds("TTL", null, fallback));
+        assertEquals(fallback, Utils.durationFromSeconds("TTL", "", fallback));
+        assertEquals(fallback, Utils.durationFromSeconds("TTL", "-1", fallback));
+        assertEquals(fallback, Utils.durationFromSeconds("TTL", "5m", fallback));
+    }
+
+    @Test
+    public void testPositiveInt() {
+        assertEquals(12, Utils.positiveInt("CONCURRENCY", "12", 4));
+        assertEquals(12, Utils.positiveInt("CONCURRENCY", " 12 ", 4));
+        assertEquals(4, Utils.positiveInt("CONCURRENCY", null, 4));
+        assertEquals(4, Utils.positiveInt("CONCURRENCY", "", 4));
+        assertEquals(4, Utils.positiveInt("CONCURRENCY", "0", 4));
+        assertEquals(4, Utils.positiveInt("CONCURRENCY", "-3", 4));
+        assertEquals(4, Utils.positiveInt("CONCURRENCY", "ten", 4));
+    }
+
+    @Test
+    public void testDaemonThreadPool() throws Exception {
+        ExecutorService pool = Utils.daemonThreadPool(0, "test-pool");
+        try {
+            Thread worker = pool.submit(Thread::currentThread).get();
+            assertTrue(worker.isDaemon());
+            assertEquals("test-pool", worker.getName());
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
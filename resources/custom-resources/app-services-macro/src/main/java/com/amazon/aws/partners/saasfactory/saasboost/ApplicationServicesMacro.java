@@ -33,6 +33,16 @@ public class ApplicationServicesMacro implements RequestHandler<Map<String, Obje
     private static final String SUCCESS = "SUCCESS";
     private static final String FAILURE = "FAILURE";
     private static final String ERROR_MSG = "errorMessage";
+    private static final int MAX_CACHED_FRAGMENTS = 1024;
+    // Expanded per-service resources survive across invocations in a warm container. The resources
+    // are a pure function of the service name, so the name is the whole cache key.
+    private static final Map<String, ServiceFragment> FRAGMENTS = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ServiceFragment> eldest) {
+                    return size() > MAX_CACHED_FRAGMENTS;
+                }
+            });
 
     /**
      * CloudFormation macro to create resources based on SaaS Boost appConfig objects:
@@ -192,22 +202,27 @@ public class ApplicationServicesMacro implements RequestHandler<Map<String, Obje
             if (template.containsKey("Resources")) {
                 String servicesList = (String) templateParameters.get("ApplicationServices");
                 if (Utils.isNotEmpty(servicesList)) {
+                    final long startTimeMillis = System.currentTimeMillis();
+                    Map<String, Object> resources = (Map<String, Object>) template.get("Resources");
                     String[] services = servicesList.split(",");
+                    int expanded = 0;
                     for (String service : services) {
-                        // Each application service needs its own ECR repository
-                        String ecrResourceName = ecrResourceName(service);
-                        ((Map<String, Object>) template.get("Resources")).put(ecrResourceName, ecrResource(service));
-
-                        // Define an EventBridge rule to capture image events on the repo
-                        String eventRuleResourceName = eventRuleResourceName(service);
-                        ((Map<String, Object>) template.get("Resources")).put(eventRuleResourceName,
-                                eventRuleResource(service, ecrResourceName));
-
-                        // And we need a Lambda permission for this rule to invoke the workload deploy function
-                        ((Map<String, Object>) template.get("Resources")).put(eventRulePermissionName(service),
-                                eventRulePermissionResource(eventRuleResourceName));
+                        // Each application service needs its own ECR repository, an EventBridge rule to
+                        // capture image events on the repo and a Lambda permission for this rule to invoke
+                        // the workload deploy function
+                        ServiceFragment fragment = FRAGMENTS.get(service);
+                        if (fragment == null) {
+                            fragment = ServiceFragment.of(service);
+                            FRAGMENTS.put(service, fragment);
+                            expanded++;
+                        }
+                        fragment.addTo(resources);
+                    }
+                    LOGGER.info("ApplicationServicesMacro::updateTemplateForEcr {} services, {} expanded, {} ms",
+                            services.length, expanded, System.currentTimeMillis() - startTimeMillis);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(Utils.toJson(template));
                     }
-                    LOGGER.info(Utils.toJson(template));
                 } else {
                     LOGGER.info("Empty ApplicationServices list. Skipping template modification.");
                 }
@@ -222,6 +237,16 @@ public class ApplicationServicesMacro implements RequestHandler<Map<String, Obje
         return null;
     }
 
+    // VisibleForTesting
+    static int cachedFragments() {
+        return FRAGMENTS.size();
+    }
+
+    // VisibleForTesting
+    static void clearCachedFragments() {
+        FRAGMENTS.clear();
+    }
+
     protected static String cloudFormationResourceName(String name) {
         return name != null ? name.replaceAll("[^A-Za-z0-9]", "") : null;
     }
@@ -0,0 +1,80 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resources one application service adds to the template: its ECR repository, the EventBridge rule
+ * watching that repository and the Lambda permission for the rule. The resources depend only on the
+ * service name, so a fragment is built once per name and shared by every later macro invocation in the
+ * same container. The resource maps are read only all the way down, so nothing that handles one
+ * response can change what a later response gets.
+ */
+final class ServiceFragment {
+
+    private final String ecrResourceName;
+    private final Map<String, Object> ecrResource;
+    private final String eventRuleResourceName;
+    private final Map<String, Object> eventRuleResource;
+    private final String eventRulePermissionName;
+    private final Map<String, Object> eventRulePermissionResource;
+
+    private ServiceFragment(String serviceName) {
+        this.ecrResourceName = ApplicationServicesMacro.ecrResourceName(serviceName);
+        this.ecrResource = readOnly(ApplicationServicesMacro.ecrResource(serviceName));
+        this.eventRuleResourceName = ApplicationServicesMacro.eventRuleResourceName(serviceName);
+        this.eventRuleResource = readOnly(ApplicationServicesMacro.eventRuleResource(serviceName,
+                ecrResourceName));
+        this.eventRulePermissionName = ApplicationServicesMacro.eventRulePermissionName(serviceName);
+        this.eventRulePermissionResource = readOnly(ApplicationServicesMacro.eventRulePermissionResource(
+                eventRuleResourceName));
+    }
+
+    static ServiceFragment of(String serviceName) {
+        return new ServiceFragment(serviceName);
+    }
+
+    void addTo(Map<String, Object> resources) {
+        resources.put(ecrResourceName, ecrResource);
+        resources.put(eventRuleResourceName, eventRuleResource);
+        resources.put(eventRulePermissionName, eventRulePermissionResource);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readOnly(Map<String, Object> resource) {
+        return (Map<String, Object>) readOnlyCopy(resource);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object readOnlyCopy(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<Object, Object>) value).forEach((k, v) -> copy.put(k, readOnlyCopy(v)));
+            return Collections.unmodifiableMap(copy);
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            ((List<Object>) value).forEach(v -> copy.add(readOnlyCopy(v)));
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Compares the memoized service expansion with rebuilding every service's resources (and logging the whole
+ * template) on each macro invocation, for an application with 60 services.
+ * Not run by the build; run main from the test classpath when changing the macro.
+ */
+public final class ApplicationServicesMacroBenchmark {
+    private static final int SERVICES = 60;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 200;
+
+    public static void main(String[] args) {
+        StringJoiner services = new StringJoiner(",");
+        for (int i = 0; i < SERVICES; i++) {
+            services.add("Service " + i);
+        }
+        Map<String, Object> parameters = Map.of("ApplicationServices", services.toString());
+        run("rebuild", () -> rebuild(parameters));
+        run("memoized", () -> memoized(parameters));
+    }
+
+    private static void run(String name, Expansion expansion) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += expansion.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += expansion.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s %8.3f ms per %d services (%d)%n", name, best / 1_000_000.0, SERVICES, sink);
+    }
+
+    private static int memoized(Map<String, Object> parameters) {
+        Map<String, Object> template = template();
+        ApplicationServicesMacro.updateTemplateForEcr(parameters, template);
+        return ((Map<String, Object>) template.get("Resources")).size();
+    }
+
+    // The previous expansion, kept here as the baseline
+    private static int rebuild(Map<String, Object> parameters) {
+        Map<String, Object> template = template();
+        Map<String, Object> resources = (Map<String, Object>) template.get("Resources");
+        for (String service : ((String) parameters.get("ApplicationServices")).split(",")) {
+            String ecrResourceName = ApplicationServicesMacro.ecrResourceName(service);
+            resources.put(ecrResourceName, ApplicationServicesMacro.ecrResource(service));
+            String eventRuleResourceName = ApplicationServicesMacro.eventRuleResourceName(service);
+            resources.put(eventRuleResourceName,
+                    ApplicationServicesMacro.eventRuleResource(service, ecrResourceName));
+            resources.put(ApplicationServicesMacro.eventRulePermissionName(service),
+                    ApplicationServicesMacro.eventRulePermissionResource(eventRuleResourceName));
+        }
+        return Utils.toJson(template).length() > 0 ? resources.size() : 0;
+    }
+
+    private static Map<String, Object> template() {
+        Map<String, Object> template = new LinkedHashMap<>();
+        template.put("Resources", new LinkedHashMap<String, Object>());
+        return template;
+    }
+
+    @FunctionalInterface
+    private interface Expansion {
+        int run();
+    }
+}
@@ -113,12 +113,61 @@ public class ApplicationServicesMacroTest {
 
             // There should be a single tag for Name and it should have the non-modified application service name
             // for its Value
-            List<Map<String, Object>> tags = (List<Map<String, Object>>) ((LinkedHashMap<String, Object>) ((LinkedHashMap<String, Object>) resources.get("bazOole")).get("Properties")).get("Tags");
+            // Expanded resources are shared read only maps, so don't assume a concrete map type
+            List<Map<String, Object>> tags = (List<Map<String, Object>>) ((Map<String, Object>) ((Map<String, Object>) resources.get("bazOole")).get("Properties")).get("Tags");
             assertEquals(1, tags.size());
             assertEquals("baz Oole", tags.get(0).get("Value"));
         }
     }
 
+    @Test
+    public void testUpdateTemplateForEcrReusesExpandedServices() {
+        ApplicationServicesMacro.clearCachedFragments();
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("Resources", new LinkedHashMap<String, Object>());
+        ApplicationServicesMacro.updateTemplateForEcr(Map.of("ApplicationServices", "foo,Bar"), first);
+        assertEquals(2, ApplicationServicesMacro.cachedFragments());
+
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("Resources", new LinkedHashMap<String, Object>());
+        ApplicationServicesMacro.updateTemplateForEcr(Map.of("ApplicationServices", "foo,Bar,baz"), second);
+        assertEquals(3, ApplicationServicesMacro.cachedFragments());
+
+        Map<String, Object> firstResources = (Map<String, Object>) first.get("Resources");
+        Map<String, Object> secondResources = (Map<String, Object>) second.get("Resources");
+        assertEquals(6, firstResources.size());
+        assertEquals(9, secondResources.size());
+        assertSame(firstResources.get("foo"), secondResources.get("foo"));
+        assertSame(firstResources.get("ImageEventRuleBar"), secondResources.get("ImageEventRuleBar"));
+
+        // Memoized resources are the same as building them directly
+        assertEquals(ApplicationServicesMacro.ecrResource("baz"), secondResources.get("baz"));
+        assertEquals(ApplicationServicesMacro.eventRuleResource("baz", "baz"),
+                secondResources.get("ImageEventRulebaz"));
+        assertEquals(ApplicationServicesMacro.eventRulePermissionResource("ImageEventRulebaz"),
+                secondResources.get("ImageEventPermissionbaz"));
+    }
+
+    @Test
+    public void testCachedFragmentsAreReadOnly() {
+        ApplicationServicesMacro.clearCachedFragments();
+        Map<String, Object> template = new LinkedHashMap<>();
+        template.put("Resources", new LinkedHashMap<String, Object>());
+        ApplicationServicesMacro.updateTemplateForEcr(Map.of("ApplicationServices", "foo"), template);
+        Map<String, Object> resources = (Map<String, Object>) template.get("Resources");
+
+        // The template's own resources map is still the caller's to change
+        resources.put("Extra", Map.of());
+        Map<String, Object> ecr = (Map<String, Object>) resources.get("foo");
+        assertThrows(UnsupportedOperationException.class, () -> ecr.put("DependsOn", "Extra"));
+        Map<String, Object> properties = (Map<String, Object>) ecr.get("Properties");
+        assertThrows(UnsupportedOperationException.class, () -> properties.remove("Tags"));
+        Map<String, Object> rule = (Map<String, Object>) resources.get("ImageEventRulefoo");
+        List<Object> targets = (List<Object>) ((Map<String, Object>) rule.get("Properties")).get("Targets");
+        assertThrows(UnsupportedOperationException.class, () -> targets.add(Map.of()));
+        assertThrows(UnsupportedOperationException.class, () -> ((Map<String, Object>) targets.get(0)).clear());
+    }
+
     static Map<String, Object> buildEvent(LinkedHashMap<String, Object> template) {
         Map<String, Object> event = new HashMap<>();
         event.put("requestId", UUID.randomUUID().toString());
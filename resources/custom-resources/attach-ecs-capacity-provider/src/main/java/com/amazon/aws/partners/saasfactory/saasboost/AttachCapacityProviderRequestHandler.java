@@ -88,7 +88,7 @@ public final class AttachCapacityProviderRequestHandler implements Callable<Hand
             Function<List<String>, List<String>> capacityProvidersMutationFunction) {
         HandleResult result = new HandleResult();
         // lock ddb
-        lock.lock(requestContext);
+        CapacityProviderLock.Lease lease = lock.lock(requestContext);
         try {
             // read capacity providers into list
             List<String> existingCapacityProviders = getExistingCapacityProviders();
@@ -104,6 +104,12 @@ public final class AttachCapacityProviderRequestHandler implements Callable<Hand
                 result.setSucceeded();
             }
             while (!successful) {
+                // make sure nobody took the lock over while we were reading or waiting on ECS
+                if (!lock.renew(requestContext, lease)) {
+                    result.putFailureReason("Lost the lock on ecs cluster " + requestContext.ecsCluster);
+                    result.setFailed();
+                    break;
+                }
                 try {
                     // set capacity providers. response doesn't really give us anything but a 
                     // description of the new cluster. exceptions are thrown on failure
@@ -134,7 +140,7 @@ public final class AttachCapacityProviderRequestHandler implements Callable<Hand
             result.setFailed();
         } finally {
             // unlock ddb
-            lock.unlock(requestContext);
+            lock.unlock(requestContext, lease);
         }
         return result;
     }
@@ -6,123 +6,228 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
-import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 
+import java.time.Clock;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Lease based lock on a tenant's ECS cluster, stored on the tenant's onboarding record.
+ *
+ * Whoever holds the lock is identified by a random owner id and only holds it until the lease expires, so a
+ * Lambda that dies mid-update can't leave the cluster locked for good. Every acquisition bumps a fencing token.
+ * Holders call {@link #renew} right before they write, which both extends the lease and proves nobody else has
+ * taken the lock over in the meantime.
+ *
+ * The onboarding service only ever updates its own attributes on the record, never with a full PutItem, so the
+ * lease and the fencing token survive onboarding status changes while the lock is held.
+ */
 public class CapacityProviderLock {
+
     private static final Logger LOGGER = LoggerFactory.getLogger(CapacityProviderLock.class);
+    static final String ONBOARDING_TENANT_INDEX = "tenant_id-index";
+    static final long DEFAULT_LEASE_MILLIS = 60 * 1000L;
+    private static final long MIN_BACKOFF_MILLIS = 50L;
+    private static final long MAX_BACKOFF_MILLIS = 2000L;
 
     private final DynamoDbClient ddb;
-    private AttributeValue onboardingId = null;
+    private final long leaseMillis;
+    private final Clock clock;
+    // Warm containers serve many tenants, so remember each tenant's onboarding record separately
+    private final Map<String, AttributeValue> onboardingIds = new ConcurrentHashMap<>();
 
     public CapacityProviderLock(DynamoDbClient ddb) {
+        this(ddb, DEFAULT_LEASE_MILLIS, Clock.systemUTC());
+    }
+
+    // VisibleForTesting
+    protected CapacityProviderLock(DynamoDbClient ddb, long leaseMillis, Clock clock) {
         this.ddb = ddb;
+        this.leaseMillis = leaseMillis;
+        this.clock = clock;
     }
 
     /**
      * Locks the distributed lock for reading/writing CapacityProviders.
-     * 
-     * This function blocks indefinitely until the operation is successful, relying on outside
-     * timeouts to prevent us from actually blocking forever.
+     *
+     * This function blocks until the lock is free or the current holder's lease runs out, relying on outside
+     * timeouts to prevent us from actually blocking forever. Waiters back off with decorrelated jitter, starting
+     * small so the lock is picked up quickly once it's released.
      */
-    public void lock(RequestContext requestContext) {
-        boolean locked = false;
-        while (!locked) {
-            locked = tryLockUnlock(requestContext, true);
-            if (!locked) {
-                // self-throttle so we don't blow up DDB trying to attain the lock
-                try {
-                    Thread.sleep(5 * 1000); // 5 seconds
-                } catch (InterruptedException ie) {
-                    // do nothing, keep trying
-                }
+    public Lease lock(RequestContext requestContext) {
+        final String owner = UUID.randomUUID().toString();
+        long backoff = MIN_BACKOFF_MILLIS;
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            Lease lease = tryLock(requestContext, owner);
+            if (lease != null) {
+                LOGGER.info("Locked ecs cluster {} for tenant {} as {} with fencing token {} after {} attempts",
+                        requestContext.ecsCluster, requestContext.tenantId, owner, lease.fencingToken, attempts);
+                return lease;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS,
+                    ThreadLocalRandom.current().nextLong(MIN_BACKOFF_MILLIS, backoff * 3 + 1));
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ie);
             }
         }
     }
 
     /**
      * Unlocks the distributed lock for reading/writing CapacityProviders.
-     * 
-     * This function blocks indefinitely until the operation is successful, relying on outside
-     * timeouts to prevent us from actually blocking forever. We don't allow unlocking an unlocked
-     * lock, since it is an invalid operation: we should only be unlocking after our own lock.
+     *
+     * Only the holder of the lease can unlock. If our lease already expired and someone else took the lock,
+     * there's nothing left for us to release.
      */
-    public void unlock(RequestContext requestContext) {
-        boolean success = false;
-        while (!success) {
-            success = tryLockUnlock(requestContext, false);
-            if (!success) {
-                // self-throttle so we don't blow up DDB trying to relinquish the lock
-                try {
-                    Thread.sleep(5 * 1000); // 5 seconds
-                } catch (InterruptedException ie) {
-                    // do nothing, keep trying
-                }
-            }
+    public void unlock(RequestContext requestContext, Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        try {
+            ddb.updateItem(UpdateItemRequest.builder()
+                    .tableName(requestContext.onboardingDdbTable)
+                    .key(Map.of("id", currentOnboardingId(requestContext)))
+                    .conditionExpression("ecs_cluster_lock_owner = :owner AND ecs_cluster_lock_fence = :fence")
+                    .updateExpression("SET ecs_cluster_locked = :unlocked "
+                            + "REMOVE ecs_cluster_lock_owner, ecs_cluster_lock_expires")
+                    .expressionAttributeValues(Map.of(
+                            ":owner", AttributeValue.builder().s(lease.owner).build(),
+                            ":fence", AttributeValue.builder().n(String.valueOf(lease.fencingToken)).build(),
+                            ":unlocked", AttributeValue.builder().bool(false).build()))
+                    .build());
+            LOGGER.info("Unlocked ecs cluster {} for tenant {}", requestContext.ecsCluster, requestContext.tenantId);
+        } catch (ConditionalCheckFailedException ccfe) {
+            LOGGER.warn("Lease {} on ecs cluster {} expired before it was released", lease.owner,
+                    requestContext.ecsCluster);
+        } catch (DynamoDbException ddbe) {
+            // The lease will run out on its own
+            LOGGER.error("Error trying to unlock for current onboarding id: {}", ddbe.getMessage());
+            LOGGER.error(Utils.getFullStackTrace(ddbe));
+        }
+    }
+
+    /**
+     * Extends the lease if we still hold it. Returns false if the lease expired and another owner has taken the
+     * lock, or if the onboarding record was rewritten underneath us, in which case the caller must not write.
+     */
+    public boolean renew(RequestContext requestContext, Lease lease) {
+        try {
+            final long expires = clock.millis() + leaseMillis;
+            ddb.updateItem(UpdateItemRequest.builder()
+                    .tableName(requestContext.onboardingDdbTable)
+                    .key(Map.of("id", currentOnboardingId(requestContext)))
+                    .conditionExpression("ecs_cluster_lock_owner = :owner AND ecs_cluster_lock_fence = :fence")
+                    .updateExpression("SET ecs_cluster_lock_expires = :expires")
+                    .expressionAttributeValues(Map.of(
+                            ":owner", AttributeValue.builder().s(lease.owner).build(),
+                            ":fence", AttributeValue.builder().n(String.valueOf(lease.fencingToken)).build(),
+                            ":expires", AttributeValue.builder().n(String.valueOf(expires)).build()))
+                    .build());
+            lease.expiresAt = expires;
+            return true;
+        } catch (ConditionalCheckFailedException ccfe) {
+            LOGGER.error("Lost lease {} on ecs cluster {}", lease.owner, requestContext.ecsCluster);
+            return false;
+        } catch (DynamoDbException ddbe) {
+            LOGGER.error("Error trying to renew lock for current onboarding id: {}", ddbe.getMessage());
+            LOGGER.error(Utils.getFullStackTrace(ddbe));
+            throw new RuntimeException(ddbe);
         }
     }
 
     // VisibleForTesting
     protected AttributeValue currentOnboardingId(RequestContext requestContext) {
-        if (onboardingId == null) {
+        return onboardingIds.computeIfAbsent(requestContext.tenantId, tenantId -> {
             try {
-                ScanRequest scanRequest = ScanRequest.builder()
-                        .tableName(requestContext.onboardingDdbTable)
-                        .filterExpression("tenant_id = :tenantid")
-                        .expressionAttributeValues((Map<String, AttributeValue>) Map.of(
-                                ":tenantid", AttributeValue.builder().s(requestContext.tenantId).build()))
-                        .build();
-                LOGGER.debug("sending scan with ScanRequest {}", scanRequest);
-                ScanResponse scanResponse = ddb.scan(ScanRequest.builder()
+                // Straight to the tenant's record through the index instead of scanning the whole table
+                QueryResponse query = ddb.query(QueryRequest.builder()
                         .tableName(requestContext.onboardingDdbTable)
-                        .filterExpression("tenant_id = :tenantid")
-                        .expressionAttributeValues((Map<String, AttributeValue>) Map.of(
-                                ":tenantid", AttributeValue.builder().s(requestContext.tenantId).build()))
+                        .indexName(ONBOARDING_TENANT_INDEX)
+                        .keyConditionExpression("tenant_id = :tenantid")
+                        .expressionAttributeValues(Map.of(
+                                ":tenantid", AttributeValue.builder().s(tenantId).build()))
+                        .projectionExpression("id")
                         .build());
-                this.onboardingId = scanResponse.items().get(0).get("id");
+                if (!query.hasItems() || query.items().isEmpty()) {
+                    throw new IllegalStateException("No onboarding record for tenant " + tenantId);
+                }
+                return query.items().get(0).get("id");
             } catch (DynamoDbException ddbe) {
-                LOGGER.error("Error trying to scan for current onboarding id: {}", ddbe.getMessage());
+                LOGGER.error("Error trying to query for current onboarding id: {}", ddbe.getMessage());
                 LOGGER.error(Utils.getFullStackTrace(ddbe));
                 throw new RuntimeException(ddbe);
             }
-        }
-        return this.onboardingId;
+        });
     }
 
     // VisibleForTesting
-    protected boolean tryLockUnlock(RequestContext requestContext, boolean tryLock) {
+    protected Lease tryLock(RequestContext requestContext, String owner) {
+        final long now = clock.millis();
+        final long expires = now + leaseMillis;
         try {
-            UpdateItemRequest updateItemRequest = UpdateItemRequest.builder()
-                    .tableName(requestContext.onboardingDdbTable)
-                    .key(Map.of("id", currentOnboardingId(requestContext)))
-                    .conditionExpression("ecs_cluster_locked = :lock_expected")
-                    .updateExpression("SET ecs_cluster_locked = :new_lock")
-                    .expressionAttributeValues(Map.of(
-                            ":lock_expected", AttributeValue.builder().bool(!tryLock).build(),
-                            ":new_lock", AttributeValue.builder().bool(tryLock).build()))
-                    .build();
-            LOGGER.debug("trying to {} with updateItemRequest {}", tryLock ? "lock" : "unlock", updateItemRequest);
-            ddb.updateItem(UpdateItemRequest.builder()
+            // Free, expired, or a lock from before leases existed which has no expiry we could wait for
+            UpdateItemResponse response = ddb.updateItem(UpdateItemRequest.builder()
                     .tableName(requestContext.onboardingDdbTable)
                     .key(Map.of("id", currentOnboardingId(requestContext)))
-                    .conditionExpression("ecs_cluster_locked = :lock_expected")
-                    .updateExpression("SET ecs_cluster_locked = :new_lock")
+                    .conditionExpression("attribute_not_exists(ecs_cluster_locked) "
+                            + "OR ecs_cluster_locked = :unlocked "
+                            + "OR attribute_not_exists(ecs_cluster_lock_expires) "
+                            + "OR ecs_cluster_lock_expires < :now")
+                    .updateExpression("SET ecs_cluster_locked = :locked, ecs_cluster_lock_owner = :owner, "
+                            + "ecs_cluster_lock_expires = :expires ADD ecs_cluster_lock_fence :one")
                     .expressionAttributeValues(Map.of(
-                            ":lock_expected", AttributeValue.builder().bool(!tryLock).build(),
-                            ":new_lock", AttributeValue.builder().bool(tryLock).build()))
+                            ":unlocked", AttributeValue.builder().bool(false).build(),
+                            ":locked", AttributeValue.builder().bool(true).build(),
+                            ":now", AttributeValue.builder().n(String.valueOf(now)).build(),
+                            ":owner", AttributeValue.builder().s(owner).build(),
+                            ":expires", AttributeValue.builder().n(String.valueOf(expires)).build(),
+                            ":one", AttributeValue.builder().n("1").build()))
+                    .returnValues(ReturnValue.UPDATED_NEW)
                     .build());
+            long fencingToken = Long.parseLong(response.attributes().get("ecs_cluster_lock_fence").n());
+            return new Lease(owner, fencingToken, expires);
         } catch (ConditionalCheckFailedException ccfe) {
-            LOGGER.error("Could not {} ecs_cluster_locked, conditional check failed: {}",
-                    tryLock ? "lock" : "unlock", ccfe.getMessage());
-            return false;
+            LOGGER.debug("ecs_cluster_locked is held by another owner");
+            return null;
         } catch (DynamoDbException ddbe) {
             LOGGER.error("Error trying to update lock for current onboarding id: {}", ddbe.getMessage());
             LOGGER.error(Utils.getFullStackTrace(ddbe));
             throw new RuntimeException(ddbe);
         }
-        return true;
+    }
+
+    public static final class Lease {
+        final String owner;
+        final long fencingToken;
+        volatile long expiresAt;
+
+        Lease(String owner, long fencingToken, long expiresAt) {
+            this.owner = owner;
+            this.fencingToken = fencingToken;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
     }
 }
@@ -60,6 +60,9 @@ public class AttachEcsCapacityProviderRequestHandlerTest {
         doReturn(DescribeClustersResponse.builder()
                 .clusters(Cluster.builder().capacityProviders(EXISTING_PROVIDERS).build())
                 .build()).when(mockEcs).describeClusters(any(DescribeClustersRequest.class));
+        doReturn(new CapacityProviderLock.Lease("owner", 1L, Long.MAX_VALUE))
+                .when(mockLock).lock(any(RequestContext.class));
+        doReturn(true).when(mockLock).renew(any(RequestContext.class), any(CapacityProviderLock.Lease.class));
         // right now response is ignored
         doReturn(null).when(mockEcs).putClusterCapacityProviders(putRequestCaptor.capture());
     }
@@ -117,6 +120,17 @@ public class AttachEcsCapacityProviderRequestHandlerTest {
         testCall(testHandler, true, null);
     }
 
+    @Test
+    public void testCall_lostLease() {
+        doReturn(false).when(mockLock).renew(any(RequestContext.class), any(CapacityProviderLock.Lease.class));
+        AttachCapacityProviderRequestHandler testHandler = new AttachCapacityProviderRequestHandler(
+                BASE_REQUEST_CONTEXT, mockLock, mockEcs);
+        HandleResult result = testHandler.call();
+        assertEquals(false, result.succeeded());
+        verify(mockEcs, times(0)).putClusterCapacityProviders(any(PutClusterCapacityProvidersRequest.class));
+        verify(mockLock, times(1)).unlock(any(RequestContext.class), any(CapacityProviderLock.Lease.class));
+    }
+
     @Test
     public void testCall_unknownRequestType() {
         AttachCapacityProviderRequestHandler testHandler = new AttachCapacityProviderRequestHandler(
@@ -134,7 +148,7 @@ public class AttachEcsCapacityProviderRequestHandlerTest {
         assertEquals(expectSuccess, result.succeeded());
         if (expectSuccess) {
             verify(mockLock, times(1)).lock(any(RequestContext.class));
-            verify(mockLock, times(1)).unlock(any(RequestContext.class));
+            verify(mockLock, times(1)).unlock(any(RequestContext.class), any(CapacityProviderLock.Lease.class));
             if (expectedPassedCapacityProviders != null) {
                 assertEquals(expectedPassedCapacityProviders, putRequestCaptor.getValue().capacityProviders());
             } else {
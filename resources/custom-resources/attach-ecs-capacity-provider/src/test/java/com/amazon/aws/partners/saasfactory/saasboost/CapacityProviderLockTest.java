@@ -2,6 +2,8 @@ package com.amazon.aws.partners.saasfactory.saasboost;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
@@ -10,6 +12,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Map;
 
@@ -21,9 +26,10 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.InternalServerErrorException;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 
@@ -31,6 +37,8 @@ public final class CapacityProviderLockTest {
     private static final String ONBOARDING_DDB_TABLE = "onboarding";
     private static final String TENANT_ID = "123-456";
     private static final String ONBOARDING_ID = "onb-123-456";
+    private static final long NOW = 1_600_000_000_000L;
+    private static final long LEASE_MILLIS = 30_000L;
     private static final RequestContext TEST_CONTEXT = RequestContext.builder()
             .requestType("Create")
             .ecsCluster("ecsCluster")
@@ -38,6 +46,7 @@ public final class CapacityProviderLockTest {
             .capacityProvider("capacityProvider")
             .tenantId(TENANT_ID)
             .build();
+    private static final AttributeValue ONBOARDING_ID_VALUE = AttributeValue.builder().s(ONBOARDING_ID).build();
 
     private DynamoDbClient mockDdb;
     private CapacityProviderLock testLock;
@@ -45,90 +54,149 @@ public final class CapacityProviderLockTest {
     @Before
     public void setup() {
         mockDdb = mock(DynamoDbClient.class);
-        testLock = new CapacityProviderLock(mockDdb);
+        testLock = new CapacityProviderLock(mockDdb, LEASE_MILLIS,
+                Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
     }
 
-    /**
-     * trylock something already locked
-     * tryunlock something not locked
-     * trylock happy case
-     * tryunlock happy case
-     * verify each test does a scan
-     * verify each test does an update
-     * verify a conditional update fail means false
-     */
-
     @Test
     public void getOnboardingId_basic() {
-        final ArgumentCaptor<ScanRequest> scanCaptor = ArgumentCaptor.forClass(ScanRequest.class);
-        final AttributeValue onboardingId = AttributeValue.builder().s("onb-123-456").build();
+        final ArgumentCaptor<QueryRequest> queryCaptor = ArgumentCaptor.forClass(QueryRequest.class);
         final AttributeValue tenantIdAttributeValue = AttributeValue.builder().s(TENANT_ID).build();
-        doReturn(ScanResponse.builder().items(List.of(Map.of("id", onboardingId))).build())
-                .when(mockDdb).scan(scanCaptor.capture());
+        doReturn(QueryResponse.builder().items(List.of(Map.of("id", ONBOARDING_ID_VALUE))).build())
+                .when(mockDdb).query(queryCaptor.capture());
         AttributeValue foundOnboardingId = testLock.currentOnboardingId(TEST_CONTEXT);
-        assertEquals(onboardingId, foundOnboardingId);
-        assertTrue("scan for onboarding ID should include the tenant id passed in request context", 
-                scanCaptor.getValue().expressionAttributeValues().values().contains(tenantIdAttributeValue));
-        
-        doReturn(ScanResponse.builder().build()).when(mockDdb).scan(any(ScanRequest.class));
+        assertEquals(ONBOARDING_ID_VALUE, foundOnboardingId);
+        assertEquals(CapacityProviderLock.ONBOARDING_TENANT_INDEX, queryCaptor.getValue().indexName());
+        assertTrue("query for onboarding ID should include the tenant id passed in request context",
+                queryCaptor.getValue().expressionAttributeValues().values().contains(tenantIdAttributeValue));
+
+        doReturn(QueryResponse.builder().build()).when(mockDdb).query(any(QueryRequest.class));
         // assert that we cache onboardingId, since it should not change for the lifetime of the lambda
-        assertEquals(onboardingId, testLock.currentOnboardingId(TEST_CONTEXT));
-        verify(mockDdb, times(1)).scan(any(ScanRequest.class));
+        assertEquals(ONBOARDING_ID_VALUE, testLock.currentOnboardingId(TEST_CONTEXT));
+        verify(mockDdb, times(1)).query(any(QueryRequest.class));
+        verify(mockDdb, times(0)).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    public void getOnboardingId_cachedPerTenant() {
+        final AttributeValue otherOnboardingId = AttributeValue.builder().s("onb-789").build();
+        doReturn(QueryResponse.builder().items(List.of(Map.of("id", ONBOARDING_ID_VALUE))).build())
+                .doReturn(QueryResponse.builder().items(List.of(Map.of("id", otherOnboardingId))).build())
+                .when(mockDdb).query(any(QueryRequest.class));
+        assertEquals(ONBOARDING_ID_VALUE, testLock.currentOnboardingId(TEST_CONTEXT));
+        assertEquals(otherOnboardingId, testLock.currentOnboardingId(
+                RequestContext.builder(TEST_CONTEXT).tenantId("789").build()));
+        assertEquals(ONBOARDING_ID_VALUE, testLock.currentOnboardingId(TEST_CONTEXT));
+        verify(mockDdb, times(2)).query(any(QueryRequest.class));
     }
 
     @Test(expected = RuntimeException.class)
-    public void getOnboardingId_scanFailure() {
-        doThrow(ResourceNotFoundException.builder().build()).when(mockDdb).scan(any(ScanRequest.class));
+    public void getOnboardingId_queryFailure() {
+        doThrow(ResourceNotFoundException.builder().build()).when(mockDdb).query(any(QueryRequest.class));
+        testLock.currentOnboardingId(TEST_CONTEXT);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getOnboardingId_noOnboarding() {
+        doReturn(QueryResponse.builder().items(List.of()).build()).when(mockDdb).query(any(QueryRequest.class));
         testLock.currentOnboardingId(TEST_CONTEXT);
     }
 
     @Test
-    public void tryLockUnlock_basic() {
-        final AttributeValue onboardingId = AttributeValue.builder().s(ONBOARDING_ID).build();
-        doReturn(ScanResponse.builder().items(List.of(Map.of("id", onboardingId))).build())
-                .when(mockDdb).scan(any(ScanRequest.class));
-        
+    public void tryLock_basic() {
+        mockOnboardingId();
         final ArgumentCaptor<UpdateItemRequest> updateCaptor = ArgumentCaptor.forClass(UpdateItemRequest.class);
-        doReturn(UpdateItemResponse.builder().build()).when(mockDdb).updateItem(updateCaptor.capture());
-        
-        boolean success = testLock.tryLockUnlock(TEST_CONTEXT, true);
+        doReturn(lockResponse(7)).when(mockDdb).updateItem(updateCaptor.capture());
+
+        CapacityProviderLock.Lease lease = testLock.tryLock(TEST_CONTEXT, "owner-1");
+        assertNotNull(lease);
+        assertEquals("owner-1", lease.getOwner());
+        assertEquals(7L, lease.getFencingToken());
+        assertEquals(NOW + LEASE_MILLIS, lease.getExpiresAt());
+
         UpdateItemRequest actualRequest = updateCaptor.getValue();
-        assertEquals(onboardingId, actualRequest.key().get("id"));
-        assertEquals("ecs_cluster_locked = :lock_expected", actualRequest.conditionExpression());
-        assertEquals("SET ecs_cluster_locked = :new_lock", actualRequest.updateExpression());
-        assertEquals(AttributeValue.builder().bool(false).build(), actualRequest.expressionAttributeValues().get(":lock_expected"));
-        assertEquals(AttributeValue.builder().bool(true).build(), actualRequest.expressionAttributeValues().get(":new_lock"));
-        assertTrue(success);
-        
-        success = testLock.tryLockUnlock(TEST_CONTEXT, false);
-        actualRequest = updateCaptor.getValue();
-        assertEquals(onboardingId, actualRequest.key().get("id"));
-        assertEquals("ecs_cluster_locked = :lock_expected", actualRequest.conditionExpression());
-        assertEquals("SET ecs_cluster_locked = :new_lock", actualRequest.updateExpression());
-        assertEquals(AttributeValue.builder().bool(true).build(), actualRequest.expressionAttributeValues().get(":lock_expected"));
-        assertEquals(AttributeValue.builder().bool(false).build(), actualRequest.expressionAttributeValues().get(":new_lock"));
-        assertTrue(success);
+        assertEquals(ONBOARDING_ID_VALUE, actualRequest.key().get("id"));
+        assertTrue(actualRequest.conditionExpression().contains("ecs_cluster_locked = :unlocked"));
+        assertTrue(actualRequest.conditionExpression().contains("ecs_cluster_lock_expires < :now"));
+        assertTrue(actualRequest.updateExpression().contains("ADD ecs_cluster_lock_fence :one"));
+        Map<String, AttributeValue> values = actualRequest.expressionAttributeValues();
+        assertEquals(AttributeValue.builder().bool(false).build(), values.get(":unlocked"));
+        assertEquals(AttributeValue.builder().bool(true).build(), values.get(":locked"));
+        assertEquals(String.valueOf(NOW), values.get(":now").n());
+        assertEquals(String.valueOf(NOW + LEASE_MILLIS), values.get(":expires").n());
+        assertEquals("owner-1", values.get(":owner").s());
     }
 
     @Test
-    public void tryLockUnlock_conditionNotMet() {
-        final AttributeValue onboardingId = AttributeValue.builder().s(ONBOARDING_ID).build();
-        doReturn(ScanResponse.builder().items(List.of(Map.of("id", onboardingId))).build())
-                .when(mockDdb).scan(any(ScanRequest.class));
-        
-        doThrow(ConditionalCheckFailedException.builder().build()).when(mockDdb).updateItem(any(UpdateItemRequest.class));
-        
-        boolean success = testLock.tryLockUnlock(TEST_CONTEXT, true);
-        assertFalse(success);
+    public void tryLock_conditionNotMet() {
+        mockOnboardingId();
+        doThrow(ConditionalCheckFailedException.builder().build()).when(mockDdb)
+                .updateItem(any(UpdateItemRequest.class));
+        assertNull(testLock.tryLock(TEST_CONTEXT, "owner-1"));
     }
 
     @Test(expected = RuntimeException.class)
-    public void tryLockUnlock_unexpectedException() {
-        final AttributeValue onboardingId = AttributeValue.builder().s(ONBOARDING_ID).build();
-        doReturn(ScanResponse.builder().items(List.of(Map.of("id", onboardingId))).build())
-                .when(mockDdb).scan(any(ScanRequest.class));
-        
-        doThrow(InternalServerErrorException.builder().build()).when(mockDdb).updateItem(any(UpdateItemRequest.class));
-        testLock.tryLockUnlock(TEST_CONTEXT, true);
+    public void tryLock_unexpectedException() {
+        mockOnboardingId();
+        doThrow(InternalServerErrorException.builder().build()).when(mockDdb)
+                .updateItem(any(UpdateItemRequest.class));
+        testLock.tryLock(TEST_CONTEXT, "owner-1");
+    }
+
+    @Test
+    public void lock_waitsForRelease() {
+        mockOnboardingId();
+        doThrow(ConditionalCheckFailedException.builder().build())
+                .doThrow(ConditionalCheckFailedException.builder().build())
+                .doReturn(lockResponse(3))
+                .when(mockDdb).updateItem(any(UpdateItemRequest.class));
+        CapacityProviderLock.Lease lease = testLock.lock(TEST_CONTEXT);
+        assertEquals(3L, lease.getFencingToken());
+        verify(mockDdb, times(3)).updateItem(any(UpdateItemRequest.class));
+    }
+
+    @Test
+    public void unlock_onlyOwnLease() {
+        mockOnboardingId();
+        final ArgumentCaptor<UpdateItemRequest> updateCaptor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        doReturn(UpdateItemResponse.builder().build()).when(mockDdb).updateItem(updateCaptor.capture());
+        testLock.unlock(TEST_CONTEXT, new CapacityProviderLock.Lease("owner-1", 4L, NOW + LEASE_MILLIS));
+        UpdateItemRequest actualRequest = updateCaptor.getValue();
+        assertEquals("ecs_cluster_lock_owner = :owner AND ecs_cluster_lock_fence = :fence",
+                actualRequest.conditionExpression());
+        assertEquals("owner-1", actualRequest.expressionAttributeValues().get(":owner").s());
+        assertEquals("4", actualRequest.expressionAttributeValues().get(":fence").n());
+        assertEquals(AttributeValue.builder().bool(false).build(),
+                actualRequest.expressionAttributeValues().get(":unlocked"));
+
+        // Someone else already took over our expired lease, which is not an error for us
+        doThrow(ConditionalCheckFailedException.builder().build()).when(mockDdb)
+                .updateItem(any(UpdateItemRequest.class));
+        testLock.unlock(TEST_CONTEXT, new CapacityProviderLock.Lease("owner-1", 4L, NOW + LEASE_MILLIS));
+    }
+
+    @Test
+    public void renew_basic() {
+        mockOnboardingId();
+        CapacityProviderLock.Lease lease = new CapacityProviderLock.Lease("owner-1", 4L, NOW);
+        doReturn(UpdateItemResponse.builder().build()).when(mockDdb).updateItem(any(UpdateItemRequest.class));
+        assertTrue(testLock.renew(TEST_CONTEXT, lease));
+        assertEquals(NOW + LEASE_MILLIS, lease.getExpiresAt());
+
+        doThrow(ConditionalCheckFailedException.builder().build()).when(mockDdb)
+                .updateItem(any(UpdateItemRequest.class));
+        assertFalse(testLock.renew(TEST_CONTEXT, lease));
+    }
+
+    private void mockOnboardingId() {
+        doReturn(QueryResponse.builder().items(List.of(Map.of("id", ONBOARDING_ID_VALUE))).build())
+                .when(mockDdb).query(any(QueryRequest.class));
+    }
+
+    private static UpdateItemResponse lockResponse(long fencingToken) {
+        return UpdateItemResponse.builder()
+                .attributes(Map.of("ecs_cluster_lock_fence",
+                        AttributeValue.builder().n(String.valueOf(fencingToken)).build()))
+                .build();
     }
 }
@@ -29,6 +29,19 @@ import java.util.concurrent.*;
 public class CidrDynamoDB implements RequestHandler<Map<String, Object>, Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CidrDynamoDB.class);
+    private static final String DEFAULT_SUPERNET = "10.0.0.0/8";
+    // The tenant VPC template builds a /16 from the first two octets of the assigned block
+    private static final int DEFAULT_PREFIX_LENGTH = 16;
+    private static final int MAX_PREFIX_LENGTH = 16;
+    private static final int BATCH_WRITE_ITEM_LIMIT = 25;
+    private static final int WRITE_CONCURRENCY = 8;
+    private static final int MAX_WRITE_ATTEMPTS = 8;
+    private static final long RETRY_BASE_DELAY_MILLIS = 50L;
+    private static final long RETRY_MAX_DELAY_MILLIS = 2000L;
+    // Must match the allocation keys the onboarding service queries on the allocation-index
+    private static final String AVAILABLE_PREFIX = "available#";
+    private static final String TENANT_PREFIX = "tenant#";
+    private static final int AVAILABLE_SHARDS = 8;
     private final DynamoDbClient ddb;
 
     public CidrDynamoDB() {
@@ -36,6 +49,11 @@ public class CidrDynamoDB implements RequestHandler<Map<String, Object>, Object>
         this.ddb = Utils.sdkClient(DynamoDbClient.builder(), DynamoDbClient.SERVICE_NAME);
     }
 
+    // Package private for testing
+    CidrDynamoDB(DynamoDbClient ddb) {
+        this.ddb = ddb;
+    }
+
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
@@ -43,6 +61,8 @@ public class CidrDynamoDB implements RequestHandler<Map<String, Object>, Object>
         final String requestType = (String) event.get("RequestType");
         Map<String, Object> resourceProperties = (Map<String, Object>) event.get("ResourceProperties");
         final String table = (String) resourceProperties.get("Table");
+        final String supernet = Utils.isNotBlank((String) resourceProperties.get("Supernet"))
+                ? (String) resourceProperties.get("Supernet") : DEFAULT_SUPERNET;
 
         ExecutorService service = Executors.newSingleThreadExecutor();
         Map<String, Object> responseData = new HashMap<>();
@@ -51,28 +71,25 @@ public class CidrDynamoDB implements RequestHandler<Map<String, Object>, Object>
                 if ("Create".equalsIgnoreCase(requestType) || "Update".equalsIgnoreCase(requestType)) {
                     LOGGER.info("CREATE or UPDATE");
                     try {
-                        ScanResponse scan = ddb.scan(request -> request.tableName(table));
-                        // ScanResponse::hasItems will return true even with an empty list
-                        if (scan.hasItems() && !scan.items().isEmpty()) {
-                            LOGGER.info("CIDR table {} is already populated with {} items", table, scan.count());
-                        } else {
-                            LOGGER.info("Populating CIDR table");
-                            List<List<WriteRequest>> batches = generateBatches();
-                            for (List<WriteRequest> batch : batches) {
-                                try {
-                                    ddb.batchWriteItem(request -> request.requestItems(Map.of(table, batch)));
-                                } catch (DynamoDbException e) {
-                                    LOGGER.error(Utils.getFullStackTrace(e));
-                                    responseData.put("Reason", e.awsErrorDetails().errorMessage());
-                                    CloudFormationResponse.send(event, context, "FAILED", responseData);
-                                }
-                            }
-                        }
+                        // Parsed in here so a bad value still gets a FAILED response back to CloudFormation
+                        final int prefixLength = prefixLength(resourceProperties.get("PrefixLength"));
+                        final long startTimeMillis = System.currentTimeMillis();
+                        int total = seedTable(table, supernet, prefixLength);
+                        LOGGER.info("CidrDynamoDB::seedTable exec " + (System.currentTimeMillis() - startTimeMillis));
+                        int migrated = migrateAllocations(table);
+                        LOGGER.info("CidrDynamoDB::migrateAllocations exec "
+                                + (System.currentTimeMillis() - startTimeMillis));
+                        responseData.put("CidrBlocks", total);
+                        responseData.put("Migrated", migrated);
                         CloudFormationResponse.send(event, context, "SUCCESS", responseData);
                     } catch (DynamoDbException e) {
                         LOGGER.error(Utils.getFullStackTrace(e));
                         responseData.put("Reason", e.awsErrorDetails().errorMessage());
                         CloudFormationResponse.send(event, context, "FAILED", responseData);
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        LOGGER.error(Utils.getFullStackTrace(e));
+                        responseData.put("Reason", e.getMessage());
+                        CloudFormationResponse.send(event, context, "FAILED", responseData);
                     }
                 } else if ("Delete".equalsIgnoreCase(requestType)) {
                     LOGGER.info("DELETE");
@@ -98,26 +115,224 @@ public class CidrDynamoDB implements RequestHandler<Map<String, Object>, Object>
         return null;
     }
 
+    static int prefixLength(Object value) {
+        if (value == null || Utils.isBlank(String.valueOf(value))) {
+            return DEFAULT_PREFIX_LENGTH;
+        }
+        try {
+            return Integer.parseInt(String.valueOf(value).trim());
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid PrefixLength " + value);
+        }
+    }
+
+    /**
+     * Writes one row per CIDR block in the supernet that the table doesn't already have and verifies
+     * the table ends up with all of them. Existing rows are left alone so blocks already assigned to
+     * tenants keep their state, which also lets an Update grow the pool by widening the supernet.
+     *
+     * @return the number of CIDR blocks in the table for this supernet
+     */
+    protected int seedTable(String table, String supernet, int prefixLength) {
+        List<String> cidrBlocks = cidrBlocks(supernet, prefixLength);
+        Set<String> existing = existingCidrBlocks(table);
+        List<String> missing = new ArrayList<>();
+        for (String cidr : cidrBlocks) {
+            if (!existing.contains(cidr)) {
+                missing.add(cidr);
+            }
+        }
+        if (missing.isEmpty()) {
+            LOGGER.info("CIDR table {} is already populated with {} items", table, existing.size());
+            return cidrBlocks.size();
+        }
+        LOGGER.info("Populating CIDR table {} with {} of {} blocks from {}", table, missing.size(),
+                cidrBlocks.size(), supernet);
+
+        List<List<WriteRequest>> batches = generateBatches(missing);
+        ExecutorService writers = Utils.daemonThreadPool(Math.min(WRITE_CONCURRENCY, batches.size()),
+                "cidr-dynamodb");
+        try {
+            CompletableFuture.allOf(batches.stream()
+                    .map(batch -> CompletableFuture.runAsync(() -> writeBatch(table, batch), writers))
+                    .toArray(CompletableFuture[]::new)
+            ).join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        } finally {
+            writers.shutdownNow();
+        }
+
+        // Don't report success on a partially filled pool or onboarding will fail much later on
+        Set<String> written = existingCidrBlocks(table);
+        long found = cidrBlocks.stream().filter(written::contains).count();
+        if (found != cidrBlocks.size()) {
+            throw new IllegalStateException("CIDR table " + table + " has " + found + " of "
+                    + cidrBlocks.size() + " expected blocks");
+        }
+        return cidrBlocks.size();
+    }
+
+    protected void writeBatch(String table, List<WriteRequest> batch) {
+        Map<String, List<WriteRequest>> requestItems = Map.of(table, batch);
+        for (int attempt = 1; attempt <= MAX_WRITE_ATTEMPTS; attempt++) {
+            final Map<String, List<WriteRequest>> items = requestItems;
+            BatchWriteItemResponse response = ddb.batchWriteItem(request -> request.requestItems(items));
+            if (!response.hasUnprocessedItems() || response.unprocessedItems().isEmpty()) {
+                return;
+            }
+            requestItems = response.unprocessedItems();
+            int unprocessed = requestItems.values().stream().mapToInt(List::size).sum();
+            LOGGER.warn("Retrying {} unprocessed CIDR blocks after attempt {}", unprocessed, attempt);
+            try {
+                long backoff = Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << attempt);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ie);
+            }
+        }
+        throw new IllegalStateException("Unprocessed CIDR blocks remain after " + MAX_WRITE_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * Gives rows written before the allocation index existed their allocation key. This runs as part
+     * of the custom resource Create or Update, so the onboarding service never has to fall back to
+     * scanning the table. Rows the onboarding service has touched since are skipped by the condition.
+     *
+     * @return the number of rows migrated
+     */
+    protected int migrateAllocations(String table) {
+        int migrated = 0;
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            final Map<String, AttributeValue> exclusiveStartKey = lastEvaluatedKey;
+            ScanResponse scan = ddb.scan(request -> request
+                    .tableName(table)
+                    .filterExpression("attribute_not_exists(allocation)")
+                    .consistentRead(Boolean.TRUE)
+                    .exclusiveStartKey(exclusiveStartKey)
+            );
+            for (Map<String, AttributeValue> item : scan.items()) {
+                String cidr = item.get("cidr_block").s();
+                String tenantId = item.containsKey("tenant_id") ? item.get("tenant_id").s() : null;
+                Map<String, AttributeValue> values = new HashMap<>();
+                String condition;
+                if (tenantId != null) {
+                    values.put(":allocation", AttributeValue.builder().s(TENANT_PREFIX + tenantId).build());
+                    values.put(":tenantId", AttributeValue.builder().s(tenantId).build());
+                    condition = "attribute_not_exists(allocation) AND tenant_id = :tenantId";
+                } else {
+                    values.put(":allocation", AttributeValue.builder().s(availableAllocation(cidr)).build());
+                    condition = "attribute_not_exists(allocation) AND attribute_not_exists(tenant_id)";
+                }
+                try {
+                    ddb.updateItem(request -> request
+                            .tableName(table)
+                            .key(Map.of("cidr_block", AttributeValue.builder().s(cidr).build()))
+                            .updateExpression("SET allocation = :allocation REMOVE available")
+                            .conditionExpression(condition)
+                            .expressionAttributeValues(values)
+                    );
+                    migrated++;
+                } catch (ConditionalCheckFailedException ccfe) {
+                    LOGGER.info("CIDR block {} changed during migration, skipping", cidr);
+                }
+            }
+            lastEvaluatedKey = scan.hasLastEvaluatedKey() ? scan.lastEvaluatedKey() : null;
+        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+        if (migrated > 0) {
+            LOGGER.info("Migrated {} CIDR blocks in {} to the allocation index", migrated, table);
+        }
+        return migrated;
+    }
+
+    protected static String availableAllocation(String cidrBlock) {
+        return AVAILABLE_PREFIX + Math.floorMod(cidrBlock.hashCode(), AVAILABLE_SHARDS);
+    }
+
+    protected Set<String> existingCidrBlocks(String table) {
+        Set<String> existing = new HashSet<>();
+        ddb.scanPaginator(request -> request
+                .tableName(table)
+                .projectionExpression("cidr_block")
+                .consistentRead(Boolean.TRUE)
+        ).items().forEach(item -> existing.add(item.get("cidr_block").s()));
+        return existing;
+    }
+
+    /**
+     * Splits a supernet like 10.0.0.0/8 into every block of the given prefix length, formatted the
+     * way the onboarding service expects them (network address only, no suffix).
+     */
+    protected static List<String> cidrBlocks(String supernet, int prefixLength) {
+        String[] parts = supernet != null ? supernet.trim().split("/") : new String[0];
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Supernet must be in CIDR notation: " + supernet);
+        }
+        String[] octets = parts[0].split("\\.");
+        int supernetLength;
+        long address = 0;
+        try {
+            supernetLength = Integer.parseInt(parts[1]);
+            if (octets.length != 4) {
+                throw new NumberFormatException();
+            }
+            for (String octet : octets) {
+                int value = Integer.parseInt(octet);
+                if (value < 0 || value > 255) {
+                    throw new NumberFormatException();
+                }
+                address = (address << 8) | value;
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid supernet " + supernet);
+        }
+        if (supernetLength < 1 || prefixLength < supernetLength || prefixLength > MAX_PREFIX_LENGTH) {
+            throw new IllegalArgumentException("Prefix length " + prefixLength + " must be between the supernet "
+                    + "length " + supernetLength + " and " + MAX_PREFIX_LENGTH);
+        }
+        long network = address & (0xFFFFFFFFL << (32 - supernetLength)) & 0xFFFFFFFFL;
+        long blockSize = 1L << (32 - prefixLength);
+        long blocks = 1L << (prefixLength - supernetLength);
+        List<String> cidrBlocks = new ArrayList<>();
+        for (long block = 0; block < blocks; block++) {
+            long start = network + (block * blockSize);
+            cidrBlocks.add(String.format("%d.%d.%d.%d", (start >> 24) & 0xFF, (start >> 16) & 0xFF,
+                    (start >> 8) & 0xFF, start & 0xFF));
+        }
+        return cidrBlocks;
+    }
+
     protected static List<List<WriteRequest>> generateBatches() {
-        final int batchWriteItemLimit = 25;
-        final int maxOctet = 255;
-        int octet = -1;
+        return generateBatches(cidrBlocks(DEFAULT_SUPERNET, DEFAULT_PREFIX_LENGTH));
+    }
+
+    protected static List<List<WriteRequest>> generateBatches(List<String> cidrBlocks) {
         List<List<WriteRequest>> batches = new ArrayList<>();
         List<WriteRequest> batch = new ArrayList<>();
-        while (octet <= maxOctet) {
-            octet++;
-            if (batch.size() == batchWriteItemLimit || octet > maxOctet) {
-                batches.add(new ArrayList<>(batch)); // shallow copy is ok here
-                batch.clear(); // clear out our working batch so we can fill it up again to the limit
+        for (String cidr : cidrBlocks) {
+            if (batch.size() == BATCH_WRITE_ITEM_LIMIT) {
+                batches.add(batch);
+                batch = new ArrayList<>();
             }
-            String cidr = String.format("10.%d.0.0", octet);
             WriteRequest putRequest = WriteRequest.builder()
                     .putRequest(PutRequest.builder()
-                            .item(Map.of("cidr_block", AttributeValue.builder().s(cidr).build()))
+                            .item(Map.of(
+                                    "cidr_block", AttributeValue.builder().s(cidr).build(),
+                                    // Free blocks are spread over the onboarding service's allocation index shards
+                                    "allocation", AttributeValue.builder().s(availableAllocation(cidr)).build()
+                            ))
                             .build())
                     .build();
             batch.add(putRequest);
         }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
         return batches;
     }
-}
\ No newline at end of file
+}
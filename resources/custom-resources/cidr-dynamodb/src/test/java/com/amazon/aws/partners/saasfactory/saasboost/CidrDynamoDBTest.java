@@ -20,11 +20,16 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
-import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 public class CidrDynamoDBTest {
 
@@ -41,4 +46,134 @@ public class CidrDynamoDBTest {
         // and one remainder batch of 6
         assertEquals(6, batches.get(10).size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCidrBlocksDefaultSupernet() {
+        List<String> blocks = CidrDynamoDB.cidrBlocks("10.0.0.0/8", 16);
+        assertEquals(256, blocks.size());
+        assertEquals("10.0.0.0", blocks.get(0));
+        assertEquals("10.1.0.0", blocks.get(1));
+        assertEquals("10.255.0.0", blocks.get(255));
+    }
+
+    @Test
+    public void testCidrBlocksOtherSupernets() {
+        List<String> blocks = CidrDynamoDB.cidrBlocks("172.16.0.0/12", 16);
+        assertEquals(16, blocks.size());
+        assertEquals("172.16.0.0", blocks.get(0));
+        assertEquals("172.31.0.0", blocks.get(15));
+
+        // Host bits in the supernet are ignored
+        blocks = CidrDynamoDB.cidrBlocks("100.64.12.7/10", 15);
+        assertEquals(32, blocks.size());
+        assertEquals("100.64.0.0", blocks.get(0));
+        assertEquals("100.66.0.0", blocks.get(1));
+        assertEquals("100.126.0.0", blocks.get(31));
+    }
+
+    @Test
+    public void testPrefixLength() {
+        assertEquals(16, CidrDynamoDB.prefixLength(null));
+        assertEquals(16, CidrDynamoDB.prefixLength(""));
+        assertEquals(15, CidrDynamoDB.prefixLength("15"));
+        assertEquals(12, CidrDynamoDB.prefixLength(12));
+        try {
+            CidrDynamoDB.prefixLength("sixteen");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            assertTrue(iae.getMessage().contains("sixteen"));
+        }
+    }
+
+    @Test
+    public void testCidrBlocksInvalid() {
+        for (String supernet : Arrays.asList(null, "10.0.0.0", "10.0.0/8", "10.0.0.256/8", "ten.0.0.0/8")) {
+            try {
+                CidrDynamoDB.cidrBlocks(supernet, 16);
+                fail("Expected IllegalArgumentException for " + supernet);
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+        // The tenant VPC template can't use anything smaller than a /16
+        try {
+            CidrDynamoDB.cidrBlocks("10.0.0.0/8", 20);
+            fail("Expected IllegalArgumentException for a /20 prefix");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            CidrDynamoDB.cidrBlocks("10.0.0.0/16", 8);
+            fail("Expected IllegalArgumentException for a prefix wider than the supernet");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGenerateBatchesOnlyMissingBlocks() {
+        List<List<WriteRequest>> batches = CidrDynamoDB.generateBatches(List.of("10.4.0.0", "10.9.0.0"));
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals("10.9.0.0", batches.get(0).get(1).putRequest().item().get("cidr_block").s());
+        assertEquals(CidrDynamoDB.availableAllocation("10.9.0.0"),
+                batches.get(0).get(1).putRequest().item().get("allocation").s());
+        assertFalse(batches.get(0).get(1).putRequest().item().containsKey("available"));
+        assertTrue(CidrDynamoDB.generateBatches(List.of()).isEmpty());
+    }
+
+    @Test
+    public void testAvailableAllocationSpreadsAcrossShards() {
+        Map<String, Integer> shards = new HashMap<>();
+        for (String cidr : CidrDynamoDB.cidrBlocks("10.0.0.0/8", 16)) {
+            String allocation = CidrDynamoDB.availableAllocation(cidr);
+            assertTrue(allocation.startsWith("available#"));
+            shards.merge(allocation, 1, Integer::sum);
+        }
+        assertEquals(8, shards.size());
+        // No single shard should hold a disproportionate share of the pool
+        shards.values().forEach(count -> assertTrue(count < 256 / 4));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMigrateAllocations() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        Map<String, AttributeValue> lastKey = Map.of("cidr_block", AttributeValue.builder().s("10.1.0.0").build());
+        when(ddb.scan(any(Consumer.class)))
+                .thenReturn(ScanResponse.builder()
+                        .items(List.of(
+                                Map.of("cidr_block", AttributeValue.builder().s("10.0.0.0").build(),
+                                        "available", AttributeValue.builder().s("Y").build()),
+                                Map.of("cidr_block", AttributeValue.builder().s("10.1.0.0").build(),
+                                        "tenant_id", AttributeValue.builder().s("tenant-1").build())))
+                        .lastEvaluatedKey(lastKey)
+                        .build())
+                .thenReturn(ScanResponse.builder()
+                        .items(List.of(Map.of("cidr_block", AttributeValue.builder().s("10.2.0.0").build())))
+                        .build());
+        when(ddb.updateItem(any(Consumer.class)))
+                .thenReturn(UpdateItemResponse.builder().build())
+                .thenReturn(UpdateItemResponse.builder().build())
+                .thenThrow(ConditionalCheckFailedException.builder().build());
+
+        assertEquals(2, new CidrDynamoDB(ddb).migrateAllocations("cidr-table"));
+
+        ArgumentCaptor<Consumer<UpdateItemRequest.Builder>> updates = ArgumentCaptor.forClass(Consumer.class);
+        verify(ddb, times(3)).updateItem(updates.capture());
+        UpdateItemRequest.Builder free = UpdateItemRequest.builder();
+        updates.getAllValues().get(0).accept(free);
+        assertEquals(CidrDynamoDB.availableAllocation("10.0.0.0"),
+                free.build().expressionAttributeValues().get(":allocation").s());
+        assertTrue(free.build().conditionExpression().contains("attribute_not_exists(tenant_id)"));
+        UpdateItemRequest.Builder assigned = UpdateItemRequest.builder();
+        updates.getAllValues().get(1).accept(assigned);
+        assertEquals("tenant#tenant-1", assigned.build().expressionAttributeValues().get(":allocation").s());
+
+        ArgumentCaptor<Consumer<ScanRequest.Builder>> scans = ArgumentCaptor.forClass(Consumer.class);
+        verify(ddb, times(2)).scan(scans.capture());
+        ScanRequest.Builder second = ScanRequest.builder();
+        scans.getAllValues().get(1).accept(second);
+        assertEquals(lastKey, second.build().exclusiveStartKey());
+    }
+}
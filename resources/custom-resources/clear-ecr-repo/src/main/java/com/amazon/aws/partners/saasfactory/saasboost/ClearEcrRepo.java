@@ -22,95 +22,147 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.ecr.EcrClient;
 import software.amazon.awssdk.services.ecr.model.EcrException;
+import software.amazon.awssdk.services.ecr.model.ImageFailure;
+import software.amazon.awssdk.services.ecr.model.ImageFailureCode;
 import software.amazon.awssdk.services.ecr.model.ImageIdentifier;
-import software.amazon.awssdk.services.ecr.model.ListImagesResponse;
 import software.amazon.awssdk.services.ecr.model.RepositoryNotFoundException;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 public class ClearEcrRepo implements RequestHandler<Map<String, Object>, Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ClearEcrRepo.class);
+    private static final int LIST_IMAGES_PAGE_SIZE = 1000;
+    private static final int BATCH_DELETE_IMAGE_BATCH_SIZE = 100;
+    // BatchDeleteImage has a low per-account TPS quota, so keep the fan out modest
+    private static final int DEFAULT_DELETE_CONCURRENCY = 4;
+    private static final int MAX_DELETE_ATTEMPTS = 5;
+    private static final long RETRY_BASE_DELAY_MILLIS = 250L;
+    // Don't start new batches this close to the Lambda timeout so we can still hand off
+    private static final long DEADLINE_MARGIN_MILLIS = 15000L;
     private final EcrClient ecr;
+    private final CustomResourceRuntime runtime;
 
     public ClearEcrRepo() {
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
         this.ecr = Utils.sdkClient(EcrClient.builder(), EcrClient.SERVICE_NAME);
+        this.runtime = new CustomResourceRuntime(
+                Utils.intFromEnvironment("DELETE_CONCURRENCY", DEFAULT_DELETE_CONCURRENCY), DEADLINE_MARGIN_MILLIS);
     }
 
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
+        runtime.handle(event, context, this::clearRepo);
+        return null;
+    }
 
-        final String requestType = (String) event.get("RequestType");
-        Map<String, Object> resourceProperties = (Map<String, Object>) event.get("ResourceProperties");
-        final String repo = (String) resourceProperties.get("Repo");
+    protected CustomResourceRuntime.Result clearRepo(CustomResourceRuntime.Invocation invocation) {
+        final String requestType = invocation.requestType();
+        final String repo = (String) invocation.resourceProperties().get("Repo");
 
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        Map<String, Object> responseData = new HashMap<>();
+        if ("Create".equalsIgnoreCase(requestType) || "Update".equalsIgnoreCase(requestType)) {
+            LOGGER.info("CREATE or UPDATE");
+            return CustomResourceRuntime.Result.done(null);
+        } else if ("Delete".equalsIgnoreCase(requestType)) {
+            LOGGER.info("DELETE");
+            try {
+                final long startTimeMillis = System.currentTimeMillis();
+                boolean complete = clearRepo(repo, invocation);
+                LOGGER.info("ClearEcrRepo::clearRepo exec " + (System.currentTimeMillis() - startTimeMillis));
+                if (complete) {
+                    return CustomResourceRuntime.Result.done(null);
+                }
+                // Deleted images don't come back so the next invocation's listing is the checkpoint
+                LOGGER.info("Continuing to clear repository {} in a new invocation", repo);
+                return CustomResourceRuntime.Result.resume(Map.of("Repo", repo));
+            } catch (RepositoryNotFoundException rnfe) {
+                LOGGER.error("FAILED repository {} not found", repo);
+                LOGGER.error(Utils.getFullStackTrace(rnfe));
+                return CustomResourceRuntime.Result.done(Map.of("Reason", "Passed repository does not exist: " + repo));
+            } catch (EcrException ecrException) {
+                LOGGER.error("FAILED unexpected error {}", ecrException.getMessage());
+                LOGGER.error(Utils.getFullStackTrace(ecrException));
+                return CustomResourceRuntime.Result.failed(ecrException.getMessage());
+            }
+        } else {
+            LOGGER.error("FAILED unknown requestType {}", requestType);
+            return CustomResourceRuntime.Result.failed("Unknown RequestType " + requestType);
+        }
+    }
 
-        try {
-            Runnable r = () -> {
-                if ("Create".equalsIgnoreCase(requestType) || "Update".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("CREATE or UPDATE");
-                    CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                } else if ("Delete".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("DELETE");
-                    try {
-                        List<ImageIdentifier> imagesToDelete = new ArrayList<>();
-                        String token = null;
-                        do {
-                            ListImagesResponse response = ecr.listImages(request -> request.repositoryName(repo));
-                            token = response.nextToken();
-                            imagesToDelete.addAll(response.imageIds());
-                        } while (token != null);
+    protected boolean clearRepo(String repo, CustomResourceRuntime.Invocation invocation) {
+        // Image ids are small and a repository tops out at a few thousand images, so list them all
+        // up front. Deleting while holding a list token risks invalidating the token.
+        List<ImageIdentifier> images = new ArrayList<>();
+        ecr.listImagesPaginator(request -> request
+                .repositoryName(repo)
+                .maxResults(LIST_IMAGES_PAGE_SIZE)
+        ).imageIds().forEach(images::add);
+        if (images.isEmpty()) {
+            LOGGER.info("Repository {} is empty. No images to clean up.", repo);
+            return true;
+        }
+        LOGGER.info("Deleting {} images from repository {}", images.size(), repo);
 
-                        final int batchDeleteImageBatchSize = 100;
-                        List<ImageIdentifier> imagesToDeleteBatch = new ArrayList<>();
-                        for (ImageIdentifier image : imagesToDelete) {
-                            imagesToDeleteBatch.add(image);
-                            if (imagesToDeleteBatch.size() == batchDeleteImageBatchSize) {
-                                ecr.batchDeleteImage(request -> request
-                                        .repositoryName(repo).imageIds(imagesToDeleteBatch));
-                                imagesToDeleteBatch.clear();
-                            }
-                        }
-                        // final batch
-                        ecr.batchDeleteImage(request -> request.repositoryName(repo).imageIds(imagesToDeleteBatch));
+        List<List<ImageIdentifier>> batches = new ArrayList<>();
+        for (int batchStart = 0; batchStart < images.size(); batchStart += BATCH_DELETE_IMAGE_BATCH_SIZE) {
+            batches.add(images.subList(batchStart, Math.min(batchStart + BATCH_DELETE_IMAGE_BATCH_SIZE,
+                    images.size())));
+        }
+        AtomicLong deleted = new AtomicLong();
+        // Batches still queued when we near the deadline are left for the next invocation
+        List<List<ImageIdentifier>> unfinished = invocation.forEach(batches,
+                batch -> deleted.addAndGet(deleteImages(repo, batch)));
+        LOGGER.info("Cleaned up {} of {} images in repository {}", deleted.get(), images.size(), repo);
+        return unfinished.isEmpty();
+    }
 
-                        CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                    } catch (RepositoryNotFoundException rnfe) {
-                        LOGGER.error("FAILED repository {} not found", repo);
-                        LOGGER.error(Utils.getFullStackTrace(rnfe));
-                        responseData.put("Reason", "Passed repository does not exist: " + repo);
-                        CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                    } catch (EcrException ecrException) {
-                        LOGGER.error("FAILED unexpected error {}", ecrException.getMessage());
-                        LOGGER.error(Utils.getFullStackTrace(ecrException));
-                        responseData.put("Reason", ecrException.getMessage());
-                        CloudFormationResponse.send(event, context, "FAILED", responseData);
-                    }
-                } else {
-                    LOGGER.error("FAILED unknown requestType {}", requestType);
-                    responseData.put("Reason", "Unknown RequestType " + requestType);
-                    CloudFormationResponse.send(event, context, "FAILED", responseData);
+    protected int deleteImages(String repo, List<ImageIdentifier> images) {
+        List<ImageIdentifier> remaining = images;
+        int deleted = 0;
+        for (int attempt = 1; ; attempt++) {
+            final List<ImageIdentifier> batch = remaining;
+            List<ImageFailure> failures = new ArrayList<>();
+            for (ImageFailure failure : SdkRetry.call(() -> ecr.batchDeleteImage(request -> request
+                    .repositoryName(repo)
+                    .imageIds(batch)
+            ), SdkRetry::isThrottledOrServerError, MAX_DELETE_ATTEMPTS, RETRY_BASE_DELAY_MILLIS).failures()) {
+                // Another tag on the same digest may have taken the image with it already
+                if (ImageFailureCode.IMAGE_NOT_FOUND != failure.failureCode()) {
+                    failures.add(failure);
                 }
-            };
-            Future<?> f = service.submit(r);
-            f.get(context.getRemainingTimeInMillis() - 1000, TimeUnit.MILLISECONDS);
-        } catch (final TimeoutException | InterruptedException | ExecutionException e) {
-            // Timed out
-            LOGGER.error("FAILED unexpected error or request timed out {}", e.getMessage());
-            LOGGER.error(Utils.getFullStackTrace(e));
-            responseData.put("Reason", e.getMessage());
-            CloudFormationResponse.send(event, context, "FAILED", responseData);
-        } finally {
-            service.shutdown();
+            }
+            deleted += batch.size() - failures.size();
+            if (failures.isEmpty()) {
+                return deleted;
+            }
+            // ECR may echo back only the digest or only the tag we asked for, so match on either
+            Set<String> failed = new HashSet<>();
+            for (ImageFailure failure : failures) {
+                if (failure.imageId() != null) {
+                    failed.add(failure.imageId().imageDigest());
+                    failed.add(failure.imageId().imageTag());
+                }
+            }
+            failed.remove(null);
+            remaining = batch.stream()
+                    .filter(image -> failed.contains(image.imageDigest()) || failed.contains(image.imageTag()))
+                    .collect(Collectors.toList());
+            if (remaining.isEmpty() || attempt >= MAX_DELETE_ATTEMPTS) {
+                ImageFailure first = failures.get(0);
+                throw new RuntimeException("Failed to delete " + failures.size() + " images from " + repo
+                        + " after " + attempt + " attempts. " + first.failureCode() + ": "
+                        + first.failureReason());
+            }
+            LOGGER.warn("Retrying {} of {} images that failed to delete", remaining.size(), images.size());
+            SdkRetry.backoff(attempt, RETRY_BASE_DELAY_MILLIS);
         }
-        return null;
     }
-}
\ No newline at end of file
+}
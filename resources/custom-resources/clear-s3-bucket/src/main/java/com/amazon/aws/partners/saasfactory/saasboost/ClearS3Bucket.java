@@ -24,159 +24,198 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 public class ClearS3Bucket implements RequestHandler<Map<String, Object>, Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ClearS3Bucket.class);
+    private static final int MAX_KEYS_PER_PAGE = 1000;
+    private static final int DEFAULT_DELETE_CONCURRENCY = 8;
+    private static final int MAX_DELETE_ATTEMPTS = 5;
+    private static final long RETRY_BASE_DELAY_MILLIS = 200L;
+    // Stop listing new pages this close to the Lambda timeout so in-flight deletes can drain
+    // and we still have time to hand off to the next invocation
+    private static final long DEADLINE_MARGIN_MILLIS = 30000L;
     private final S3Client s3;
+    private final int deleteConcurrency;
+    private final CustomResourceRuntime runtime;
 
     public ClearS3Bucket() {
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
         this.s3 = Utils.sdkClient(S3Client.builder(), S3Client.SERVICE_NAME);
+        this.deleteConcurrency = Utils.intFromEnvironment("DELETE_CONCURRENCY", DEFAULT_DELETE_CONCURRENCY);
+        this.runtime = new CustomResourceRuntime(deleteConcurrency, DEADLINE_MARGIN_MILLIS);
     }
 
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
+        runtime.handle(event, context, this::clearBucket);
+        return null;
+    }
 
-        final String requestType = (String) event.get("RequestType");
-        Map<String, Object> resourceProperties = (Map<String, Object>) event.get("ResourceProperties");
-        final String bucket = (String) resourceProperties.get("Bucket");
-        final String passedPrefix = (String) resourceProperties.get("Prefix");
+    protected CustomResourceRuntime.Result clearBucket(CustomResourceRuntime.Invocation invocation) {
+        final String requestType = invocation.requestType();
+        final String bucket = (String) invocation.resourceProperties().get("Bucket");
+        final String passedPrefix = (String) invocation.resourceProperties().get("Prefix");
         final String prefix = passedPrefix == null ? "" : passedPrefix.replaceFirst("^/", "");
 
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        Map<String, Object> responseData = new HashMap<>();
-        try {
-            Runnable r = () -> {
-                if ("Create".equalsIgnoreCase(requestType) || "Update".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("CREATE or UPDATE");
-                    CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                } else if ("Delete".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("DELETE");
+        if ("Create".equalsIgnoreCase(requestType) || "Update".equalsIgnoreCase(requestType)) {
+            LOGGER.info("CREATE or UPDATE");
+            return CustomResourceRuntime.Result.done(null);
+        } else if ("Delete".equalsIgnoreCase(requestType)) {
+            LOGGER.info("DELETE");
+            final long startTimeMillis = System.currentTimeMillis();
+            ClearProgress progress = clearBucket(bucket, prefix, invocation);
+            LOGGER.info("ClearS3Bucket::clearBucket exec " + (System.currentTimeMillis() - startTimeMillis));
+            long deleted = progress.deleted.get() + ((Number) invocation.continuation()
+                    .getOrDefault("Deleted", 0)).longValue();
+            if (progress.complete) {
+                LOGGER.info("Cleaned up {} objects in bucket {}", deleted, bucket);
+                return CustomResourceRuntime.Result.done(null);
+            }
+            // Every page we finished is gone from the bucket, so the listing itself is our checkpoint
+            // and the next invocation starts at the first object left behind
+            LOGGER.info("Deleted {} objects from bucket {} so far, continuing in a new invocation", deleted, bucket);
+            return CustomResourceRuntime.Result.resume(Map.of("Deleted", deleted));
+        } else {
+            LOGGER.error("FAILED unknown requestType {}", requestType);
+            return CustomResourceRuntime.Result.failed("Unknown RequestType " + requestType);
+        }
+    }
 
-                    // The list of objects in the bucket to delete
-                    List<ObjectIdentifier> toDelete = new ArrayList<>();
+    protected ClearProgress clearBucket(String bucket, String prefix, CustomResourceRuntime.Invocation invocation) {
+        ClearProgress progress = new ClearProgress();
 
-                    // Is the bucket versioned?
-                    GetBucketVersioningResponse versioningResponse = s3.getBucketVersioning(request -> request
-                            .bucket(bucket)
-                    );
-                    if (BucketVersioningStatus.ENABLED == versioningResponse.status()
-                            || BucketVersioningStatus.SUSPENDED == versioningResponse.status()) {
-                        LOGGER.info("Bucket {} is versioned ({})", bucket, versioningResponse.status());
-                        ListObjectVersionsResponse response;
-                        String keyMarker = null;
-                        String versionIdMarker = null;
-                        do {
-                            ListObjectVersionsRequest request;
-                            if (Utils.isNotBlank(keyMarker) && Utils.isNotBlank(versionIdMarker)) {
-                                request = ListObjectVersionsRequest.builder()
-                                        .bucket(bucket)
-                                        .prefix(prefix)
-                                        .keyMarker(keyMarker)
-                                        .versionIdMarker(versionIdMarker)
-                                        .build();
-                            } else if (Utils.isNotBlank(keyMarker)) {
-                                request = ListObjectVersionsRequest.builder()
-                                        .bucket(bucket)
-                                        .prefix(prefix)
-                                        .keyMarker(keyMarker)
-                                        .build();
-                            } else {
-                                request = ListObjectVersionsRequest.builder()
-                                        .bucket(bucket)
-                                        .prefix(prefix)
-                                        .build();
-                            }
-                            response = s3.listObjectVersions(request);
-                            keyMarker = response.nextKeyMarker();
-                            versionIdMarker = response.nextVersionIdMarker();
-                            response.versions()
-                                    .stream()
-                                    .map(version ->
-                                        ObjectIdentifier.builder()
-                                                .key(version.key())
-                                                .versionId(version.versionId())
-                                                .build()
-                                    )
-                                    .forEachOrdered(toDelete::add);
-                        } while (response.isTruncated());
-                    } else {
-                        LOGGER.info("Bucket {} is not versioned ({})", bucket, versioningResponse.status());
-                        ListObjectsV2Response response;
-                        String token = null;
-                        do {
-                            ListObjectsV2Request request;
-                            if (Utils.isNotBlank(token)) {
-                                request = ListObjectsV2Request.builder()
-                                        .bucket(bucket)
-                                        .prefix(prefix)
-                                        .continuationToken(token)
-                                        .build();
-                            } else {
-                                request = ListObjectsV2Request.builder()
-                                        .bucket(bucket)
-                                        .prefix(prefix)
-                                        .build();
-                            }
-                            response = s3.listObjectsV2(request);
-                            token = response.nextContinuationToken();
-                            response.contents()
-                                    .stream()
-                                    .map(obj ->
-                                            ObjectIdentifier.builder()
-                                                    .key(obj.key())
-                                                    .build()
-                                    )
-                                    .forEachOrdered(toDelete::add);
-                        } while (response.isTruncated());
-                    }
-                    if (!toDelete.isEmpty()) {
-                        LOGGER.info("Deleting {} objects", toDelete.size());
-                        final int maxBatchSize = 1000;
-                        int batchStart = 0;
-                        int batchEnd = 0;
-                        while (batchEnd < toDelete.size()) {
-                            batchStart = batchEnd;
-                            batchEnd += maxBatchSize;
-                            if (batchEnd > toDelete.size()) {
-                                batchEnd = toDelete.size();
-                            }
-                            Delete delete = Delete.builder()
-                                    .objects(toDelete.subList(batchStart, batchEnd))
-                                    .build();
-                            DeleteObjectsResponse deleteResponse = s3.deleteObjects(builder -> builder
-                                    .bucket(bucket)
-                                    .delete(delete)
-                            );
-                            LOGGER.info("Cleaned up {} objects in bucket {}", deleteResponse.deleted().size(), bucket);
-                        }
-                    } else {
-                        LOGGER.info("Bucket {} is empty. No objects to clean up.", bucket);
-                    }
-                    CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                } else {
-                    LOGGER.error("FAILED unknown requestType {}", requestType);
-                    responseData.put("Reason", "Unknown RequestType " + requestType);
-                    CloudFormationResponse.send(event, context, "FAILED", responseData);
+        // Is the bucket versioned?
+        GetBucketVersioningResponse versioningResponse = s3.getBucketVersioning(request -> request
+                .bucket(bucket)
+        );
+        Iterator<List<ObjectIdentifier>> pages;
+        if (BucketVersioningStatus.ENABLED == versioningResponse.status()
+                || BucketVersioningStatus.SUSPENDED == versioningResponse.status()) {
+            LOGGER.info("Bucket {} is versioned ({})", bucket, versioningResponse.status());
+            // Delete markers have to go too or the bucket will never be empty
+            pages = s3.listObjectVersionsPaginator(request -> request
+                    .bucket(bucket)
+                    .prefix(prefix)
+                    .maxKeys(MAX_KEYS_PER_PAGE)
+            ).stream().map(page -> {
+                List<ObjectIdentifier> objects = new ArrayList<>();
+                page.versions().forEach(version -> objects.add(ObjectIdentifier.builder()
+                        .key(version.key())
+                        .versionId(version.versionId())
+                        .build())
+                );
+                page.deleteMarkers().forEach(marker -> objects.add(ObjectIdentifier.builder()
+                        .key(marker.key())
+                        .versionId(marker.versionId())
+                        .build())
+                );
+                return objects;
+            }).iterator();
+        } else {
+            LOGGER.info("Bucket {} is not versioned ({})", bucket, versioningResponse.status());
+            pages = s3.listObjectsV2Paginator(request -> request
+                    .bucket(bucket)
+                    .prefix(prefix)
+                    .maxKeys(MAX_KEYS_PER_PAGE)
+            ).stream().map(page -> page.contents()
+                    .stream()
+                    .map(obj -> ObjectIdentifier.builder()
+                            .key(obj.key())
+                            .build()
+                    )
+                    .collect(Collectors.toList())
+            ).iterator();
+        }
+
+        // Each page is handed off to the delete pool as soon as it's listed so the next list call
+        // overlaps with the deletes. The semaphore keeps the listing from running too far ahead.
+        Semaphore inFlight = new Semaphore(deleteConcurrency);
+        List<CompletableFuture<Void>> deletes = new ArrayList<>();
+        boolean outOfTime = false;
+        try {
+            int pageNumber = 0;
+            while (pages.hasNext()) {
+                if (invocation.deadlineReached()) {
+                    outOfTime = true;
+                    break;
+                }
+                List<ObjectIdentifier> objects = pages.next();
+                if (objects.isEmpty()) {
+                    continue;
                 }
-            };
-            Future<?> f = service.submit(r);
-            f.get(context.getRemainingTimeInMillis() - 1000, TimeUnit.MILLISECONDS);
-        } catch (final TimeoutException | InterruptedException | ExecutionException e) {
-            // Timed out
-            LOGGER.error("FAILED unexpected error or request timed out {}", e.getMessage());
-            LOGGER.error(Utils.getFullStackTrace(e));
-            responseData.put("Reason", e.getMessage());
-            CloudFormationResponse.send(event, context, "FAILED", responseData);
-        } finally {
-            service.shutdown();
+                final int page = ++pageNumber;
+                inFlight.acquire();
+                deletes.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        long deleted = progress.deleted.addAndGet(deleteObjects(bucket, objects));
+                        LOGGER.info("Deleted page {} of {} objects from {} ({} total)", page, objects.size(),
+                                bucket, deleted);
+                    } finally {
+                        inFlight.release();
+                    }
+                }, invocation.executor()));
+            }
+            CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (CompletionException ce) {
+            LOGGER.error(Utils.getFullStackTrace(ce));
+            throw ce;
         }
-        return null;
+        if (progress.deleted.get() == 0 && !outOfTime) {
+            LOGGER.info("Bucket {} is empty. No objects to clean up.", bucket);
+        }
+        progress.complete = !outOfTime;
+        return progress;
+    }
+
+    protected int deleteObjects(String bucket, List<ObjectIdentifier> objects) {
+        List<ObjectIdentifier> remaining = objects;
+        for (int attempt = 1; ; attempt++) {
+            final List<ObjectIdentifier> batch = remaining;
+            // Quiet mode only returns the keys that failed
+            List<S3Error> errors = SdkRetry.call(() -> s3.deleteObjects(request -> request
+                    .bucket(bucket)
+                    .delete(delete -> delete.objects(batch).quiet(Boolean.TRUE))
+            ).errors(), SdkRetry::isThrottledOrServerError, MAX_DELETE_ATTEMPTS, RETRY_BASE_DELAY_MILLIS);
+            if (errors.isEmpty()) {
+                return objects.size();
+            }
+            Set<String> failed = new HashSet<>();
+            for (S3Error error : errors) {
+                failed.add(objectKey(error.key(), error.versionId()));
+            }
+            remaining = batch.stream()
+                    .filter(obj -> failed.contains(objectKey(obj.key(), obj.versionId())))
+                    .collect(Collectors.toList());
+            if (attempt >= MAX_DELETE_ATTEMPTS) {
+                S3Error first = errors.get(0);
+                throw new RuntimeException("Failed to delete " + errors.size() + " objects from " + bucket
+                        + " after " + attempt + " attempts. " + first.key() + " " + first.code() + ": "
+                        + first.message());
+            }
+            LOGGER.warn("Retrying {} of {} objects that failed to delete", remaining.size(), objects.size());
+            SdkRetry.backoff(attempt, RETRY_BASE_DELAY_MILLIS);
+        }
+    }
+
+    private static String objectKey(String key, String versionId) {
+        return versionId != null ? key + "?versionId=" + versionId : key;
+    }
+
+    protected static class ClearProgress {
+        final AtomicLong deleted = new AtomicLong();
+        volatile boolean complete;
     }
-}
\ No newline at end of file
+}
@@ -26,20 +26,22 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.ssm.SsmClient;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.regex.Pattern;
 
 public class RdsBootstrap implements RequestHandler<Map<String, Object>, Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RdsBootstrap.class);
     private static final String AWS_REGION = System.getenv("AWS_REGION");
-    static final String SQL_STATEMENT_DELIMITER = ";\r?\n";
     static final int MAX_SQL_BATCH_SIZE = 25;
+    // Leave enough time to finish the batch in flight and hand off to the next invocation
+    private static final long DEADLINE_MARGIN_MILLIS = 60000L;
     private final S3Client s3;
     private final SsmClient ssm;
+    private final CustomResourceRuntime runtime;
 
     public RdsBootstrap() {
         if (Utils.isBlank(AWS_REGION)) {
@@ -48,14 +50,19 @@ public class RdsBootstrap implements RequestHandler<Map<String, Object>, Object>
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
         this.s3 = Utils.sdkClient(S3Client.builder(), S3Client.SERVICE_NAME);
         this.ssm = Utils.sdkClient(SsmClient.builder(), SsmClient.SERVICE_NAME);
+        this.runtime = new CustomResourceRuntime(1, DEADLINE_MARGIN_MILLIS);
     }
 
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
+        runtime.handle(event, context, this::bootstrap);
+        return null;
+    }
 
-        final String requestType = (String) event.get("RequestType");
-        final Map<String, Object> resourceProperties = (Map<String, Object>) event.get("ResourceProperties");
+    protected CustomResourceRuntime.Result bootstrap(CustomResourceRuntime.Invocation invocation) {
+        final String requestType = invocation.requestType();
+        final Map<String, Object> resourceProperties = invocation.resourceProperties();
         final String host = (String) resourceProperties.get("Host");
         final String port = (String) resourceProperties.get("Port");
         final String database = (String) resourceProperties.get("Database");
@@ -67,125 +74,108 @@ public class RdsBootstrap implements RequestHandler<Map<String, Object>, Object>
         final String type = typeFromPort(port);
         final boolean createAndBootstrap = Utils.isNotBlank(bootstrapFileBucket) && Utils.isNotBlank(bootstrapFileKey);
 
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        Map<String, Object> responseData = new HashMap<>();
-        try {
-            Runnable r = () -> {
-                if ("Create".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("CREATE");
+        if ("Create".equalsIgnoreCase(requestType)) {
+            LOGGER.info("CREATE");
 
-                    LOGGER.info("Getting database password secret from Parameter Store");
-                    String password;
-                    try {
-                        password = ssm.getParameter(request -> request
-                                .withDecryption(true)
-                                .name(passwordParam)
-                        ).parameter().value();
-                    } catch (SdkServiceException ssmError) {
-                        LOGGER.error("ssm:GetParameter error", ssmError);
-                        throw ssmError;
-                    }
-                    if (password == null) {
-                        throw new RuntimeException("Password is null");
-                    }
+            LOGGER.info("Getting database password secret from Parameter Store");
+            String password;
+            try {
+                password = ssm.getParameter(request -> request
+                        .withDecryption(true)
+                        .name(passwordParam)
+                ).parameter().value();
+            } catch (SdkServiceException ssmError) {
+                LOGGER.error("ssm:GetParameter error", ssmError);
+                throw ssmError;
+            }
+            if (password == null) {
+                throw new RuntimeException("Password is null");
+            }
 
-                    // We need a connection that doesn't specify the database name since we may be creating it right now
-                    String dbCheck = null;
+            // We need a connection that doesn't specify the database name since we may be creating it right now
+            String dbCheck = null;
 
-                    // Unlike MySQL/MariaDB, you have to specify a database name to get a connection to postgres...
-                    // And you should connect to dbo.master in SQL Server to check for a database
-                    if (type.equals("postgresql")) {
-                        dbCheck = "template1";
-                    } else if (type.equals("sqlserver")) {
-                        dbCheck = "master";
-                    }
+            // Unlike MySQL/MariaDB, you have to specify a database name to get a connection to postgres...
+            // And you should connect to dbo.master in SQL Server to check for a database
+            if (type.equals("postgresql")) {
+                dbCheck = "template1";
+            } else if (type.equals("sqlserver")) {
+                dbCheck = "master";
+            }
 
-                    // Create the database if it doesn't exist - this is helpful for SQL Server because
-                    // RDS/CloudFormation won't create a database when you bring up an instance.
+            Connection conn = null;
+            try {
+                conn = DriverManager.getConnection(jdbcUrl(type, driverClassName, host, port, dbCheck),
+                        username, password);
+                // Create the database if it doesn't exist - this is helpful for SQL Server because
+                // RDS/CloudFormation won't create a database when you bring up an instance.
+                // A continued invocation already did this.
+                if (invocation.number() == 1) {
                     LOGGER.info("Checking if database {} exists", database);
-                    try (Connection dbCheckConn = DriverManager.getConnection(
-                            jdbcUrl(type, driverClassName, host, port, dbCheck), username, password)) {
-                        String engine = dbCheckConn.getMetaData().getDatabaseProductName().toLowerCase();
-                        if (!databaseExists(dbCheckConn, engine, database)) {
-                            createdb(dbCheckConn, engine, database);
-                        } else {
-                            LOGGER.info("Database {} exists", database);
-                        }
-                    } catch (SQLException e) {
-                        LOGGER.error("Can't connect to database host", e);
-                        throw new RuntimeException(e);
-                    }
-
-                    if (createAndBootstrap) {
-                        LOGGER.info("Getting SQL file from S3 s3://{}/{}", bootstrapFileBucket, bootstrapFileKey);
-                        try {
-                            ResponseInputStream<GetObjectResponse> bootstrapSql = s3.getObject(request -> request
-                                    .bucket(bootstrapFileBucket)
-                                    .key(bootstrapFileKey)
-                            );
-                            // We have a database. Execute the SQL commands in the bootstrap file stored in S3.
-                            LOGGER.info("Executing bootstrap SQL");
-                            try (Connection conn = DriverManager.getConnection(
-                                    jdbcUrl(type, driverClassName, host, port, database), username, password);
-                                    Statement sql = conn.createStatement()) {
-                                conn.setAutoCommit(false);
-                                int batch = 0;
-                                Scanner sqlScanner = new Scanner(bootstrapSql, StandardCharsets.UTF_8);
-                                sqlScanner.useDelimiter(Pattern.compile(SQL_STATEMENT_DELIMITER));
-                                while (sqlScanner.hasNext()) {
-                                    String ddl = sqlScanner.next().trim();
-                                    if (!ddl.isEmpty()) {
-                                        //LOGGER.info(String.format("%02d %s", ++batch, ddl));
-                                        sql.addBatch(ddl);
-                                        batch++;
-                                        if (batch % MAX_SQL_BATCH_SIZE == 0) {
-                                            sql.executeBatch();
-                                            conn.commit();
-                                            sql.clearBatch();
-                                        }
-                                    }
-                                }
-                                sql.executeBatch();
-                                conn.commit();
-
-                                LOGGER.info("Finished initializing database");
-                                CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                            } catch (SQLException e) {
-                                LOGGER.error("Error executing bootstrap SQL", e);
-                                throw new RuntimeException(e);
-                            }
-                        } catch (SdkServiceException s3Error) {
-                            LOGGER.error("s3:GetObject error", s3Error);
-                            throw s3Error;
-                        }
+                    String engine = conn.getMetaData().getDatabaseProductName().toLowerCase();
+                    if (!databaseExists(conn, engine, database)) {
+                        createdb(conn, engine, database);
                     } else {
-                        // We were just creating a database and there isn't a SQL file to execute
-                        CloudFormationResponse.send(event, context, "SUCCESS", responseData);
+                        LOGGER.info("Database {} exists", database);
                     }
-                } else if ("Update".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("UPDATE");
-                    CloudFormationResponse.send(event, context, "SUCCESS", responseData);
-                } else if ("Delete".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("DELETE");
-                    CloudFormationResponse.send(event, context, "SUCCESS", responseData);
+                }
+                if (!createAndBootstrap) {
+                    // We were just creating a database and there isn't a SQL file to execute
+                    return CustomResourceRuntime.Result.done(null);
+                }
+
+                // Postgres can't switch databases on an open connection and Oracle ignores setCatalog,
+                // so those two need a new connection. Everyone else can keep using this one.
+                if (!switchesCatalog(type)) {
+                    closeQuietly(conn);
+                    conn = DriverManager.getConnection(jdbcUrl(type, driverClassName, host, port, database),
+                            username, password);
                 } else {
-                    LOGGER.error("FAILED unknown requestType " + requestType);
-                    responseData.put("Reason", "Unknown RequestType " + requestType);
-                    CloudFormationResponse.send(event, context, "FAILED", responseData);
+                    conn.setCatalog(database);
                 }
-            };
-            Future<?> f = service.submit(r);
-            f.get(context.getRemainingTimeInMillis() - 1000, TimeUnit.MILLISECONDS);
-        } catch (final TimeoutException | InterruptedException | ExecutionException e) {
-            // Timed out
-            LOGGER.error("FAILED unexpected error or request timed out " + e.getMessage());
-            LOGGER.error(Utils.getFullStackTrace(e));
-            responseData.put("Reason", e.getMessage());
-            CloudFormationResponse.send(event, context, "FAILED", responseData);
-        } finally {
-            service.shutdown();
+
+                long checkpoint = ((Number) invocation.continuation().getOrDefault("Statements", 0)).longValue();
+                LOGGER.info("Getting SQL file from S3 s3://{}/{}", bootstrapFileBucket, bootstrapFileKey);
+                SqlBootstrapExecutor.Progress progress;
+                try (ResponseInputStream<GetObjectResponse> bootstrapSql = s3.getObject(request -> request
+                        .bucket(bootstrapFileBucket)
+                        .key(bootstrapFileKey)
+                );
+                        SqlStatementReader statements = SqlStatementReader.forEngine(
+                                new InputStreamReader(bootstrapSql, StandardCharsets.UTF_8), type)) {
+                    // We have a database. Execute the SQL commands in the bootstrap file stored in S3.
+                    LOGGER.info("Executing bootstrap SQL");
+                    progress = new SqlBootstrapExecutor(conn, MAX_SQL_BATCH_SIZE)
+                            .execute(statements, checkpoint, invocation::deadlineReached);
+                } catch (SdkServiceException s3Error) {
+                    LOGGER.error("s3:GetObject error", s3Error);
+                    throw s3Error;
+                }
+                if (!progress.isComplete()) {
+                    return CustomResourceRuntime.Result.resume(Map.of("Statements", progress.getStatements()));
+                }
+                LOGGER.info("Finished initializing database");
+                return CustomResourceRuntime.Result.done(Map.of("Statements", progress.getStatements()));
+            } catch (SQLException e) {
+                LOGGER.error("Error executing bootstrap SQL", e);
+                LOGGER.error(Utils.getFullStackTrace(e));
+                return CustomResourceRuntime.Result.failed(e.getMessage());
+            } catch (IOException e) {
+                LOGGER.error(Utils.getFullStackTrace(e));
+                throw new RuntimeException(e);
+            } finally {
+                closeQuietly(conn);
+            }
+        } else if ("Update".equalsIgnoreCase(requestType)) {
+            LOGGER.info("UPDATE");
+            return CustomResourceRuntime.Result.done(null);
+        } else if ("Delete".equalsIgnoreCase(requestType)) {
+            LOGGER.info("DELETE");
+            return CustomResourceRuntime.Result.done(null);
+        } else {
+            LOGGER.error("FAILED unknown requestType " + requestType);
+            return CustomResourceRuntime.Result.failed("Unknown RequestType " + requestType);
         }
-        return null;
     }
 
     static boolean databaseExists(Connection conn, String engine, String database) throws SQLException {
@@ -292,6 +282,11 @@ public class RdsBootstrap implements RequestHandler<Map<String, Object>, Object>
         return type;
     }
 
+    // Whether Connection.setCatalog actually moves an open connection to another database
+    static boolean switchesCatalog(String type) {
+        return "mariadb".equals(type) || "sqlserver".equals(type);
+    }
+
     static String driverClassNameFromPort(String port) {
         String driverClassName;
         switch (port) {
@@ -0,0 +1,172 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs a stream of bootstrap statements on a single connection in batches, committing after every batch. The
+ * number of committed statements is the checkpoint: handing it back in as {@code skip} picks up right after the
+ * last commit. Engines that auto-commit DDL (MySQL, MariaDB) can still leave a partially applied batch behind
+ * if a statement fails, so bootstrap scripts should be idempotent (IF NOT EXISTS and friends).
+ */
+public class SqlBootstrapExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlBootstrapExecutor.class);
+    private static final int MAX_LOGGED_SQL_LENGTH = 200;
+
+    private final Connection conn;
+    private final int batchSize;
+
+    public SqlBootstrapExecutor(Connection conn, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.conn = conn;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Executes every statement after the first {@code skip}. Stops early, between batches, once
+     * {@code deadlineReached} says so.
+     */
+    public Progress execute(Iterator<String> statements, long skip, BooleanSupplier deadlineReached)
+            throws SQLException {
+        final long startTimeMillis = System.currentTimeMillis();
+        Progress progress = new Progress();
+        while (progress.statements < skip && statements.hasNext()) {
+            statements.next();
+            progress.statements++;
+        }
+        if (skip > 0) {
+            LOGGER.info("Resuming bootstrap after statement {}", progress.statements);
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement sql = conn.createStatement()) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while (statements.hasNext()) {
+                if (batch.isEmpty() && deadlineReached.getAsBoolean()) {
+                    LOGGER.info("Stopping bootstrap at the deadline after statement {}", progress.statements);
+                    progress.elapsedMillis = System.currentTimeMillis() - startTimeMillis;
+                    return progress;
+                }
+                String statement = statements.next();
+                sql.addBatch(statement);
+                batch.add(statement);
+                if (batch.size() == batchSize) {
+                    executeBatch(sql, batch, progress);
+                }
+            }
+            if (!batch.isEmpty()) {
+                executeBatch(sql, batch, progress);
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        progress.complete = true;
+        progress.elapsedMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("Executed {} statements affecting {} rows in {} ms ({} rows/sec)", progress.statements,
+                progress.rows, progress.elapsedMillis, progress.rowsPerSecond());
+        return progress;
+    }
+
+    private void executeBatch(Statement sql, List<String> batch, Progress progress) throws SQLException {
+        try {
+            int[] updateCounts = sql.executeBatch();
+            conn.commit();
+            for (int count : updateCounts) {
+                if (count > 0) {
+                    progress.rows += count;
+                }
+            }
+            progress.statements += batch.size();
+        } catch (BatchUpdateException bue) {
+            rollbackQuietly();
+            int failed = failedStatement(bue.getUpdateCounts(), batch.size());
+            String statement = batch.get(failed);
+            if (statement.length() > MAX_LOGGED_SQL_LENGTH) {
+                statement = statement.substring(0, MAX_LOGGED_SQL_LENGTH) + "...";
+            }
+            throw new SQLException("Bootstrap statement " + (progress.statements + failed + 1) + " failed: "
+                    + bue.getMessage() + " [" + statement + "]", bue.getSQLState(), bue.getErrorCode(), bue);
+        } catch (SQLException e) {
+            rollbackQuietly();
+            throw e;
+        } finally {
+            sql.clearBatch();
+            batch.clear();
+        }
+    }
+
+    // Package private for testing
+    static int failedStatement(int[] updateCounts, int batchSize) {
+        // Drivers either stop at the failure, so everything before it has a count, or keep going and mark
+        // the failures with EXECUTE_FAILED
+        if (updateCounts == null) {
+            return 0;
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return Math.min(updateCounts.length, batchSize - 1);
+    }
+
+    private void rollbackQuietly() {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            LOGGER.warn("Rollback failed", e);
+        }
+    }
+
+    public static final class Progress {
+        long statements;
+        long rows;
+        long elapsedMillis;
+        boolean complete;
+
+        public long getStatements() {
+            return statements;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public long rowsPerSecond() {
+            return elapsedMillis > 0 ? (rows * 1000) / elapsedMillis : rows;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads SQL statements one at a time from a script without buffering the whole thing. Statements end at a
+ * semicolon that isn't inside a quoted string, identifier, comment or PostgreSQL dollar quoted body, so function
+ * definitions and string literals with semicolons in them come through intact. Comments are passed through with
+ * the statement they precede. Anything that is only whitespace and comments is skipped.
+ */
+public class SqlStatementReader implements Iterator<String>, AutoCloseable {
+
+    private final BufferedReader reader;
+    // MySQL and MariaDB treat backslash as an escape inside string literals, standard SQL doesn't
+    private final boolean backslashEscapes;
+    // Only PostgreSQL has $tag$ quoting. Oracle and SQL Server allow $ inside identifiers like V$SESSION.
+    private final boolean dollarQuotes;
+    private String next;
+    private int pushback = -2;
+
+    public SqlStatementReader(Reader reader, boolean backslashEscapes, boolean dollarQuotes) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.backslashEscapes = backslashEscapes;
+        this.dollarQuotes = dollarQuotes;
+    }
+
+    /**
+     * Reader with the quoting rules of the given JDBC subprotocol, as returned by
+     * {@link RdsBootstrap#typeFromPort(String)}.
+     */
+    public static SqlStatementReader forEngine(Reader reader, String type) {
+        return new SqlStatementReader(reader, "mariadb".equals(type), "postgresql".equals(type));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readStatement();
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String statement = next;
+        next = null;
+        return statement;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private String readStatement() {
+        StringBuilder sql = new StringBuilder();
+        boolean hasCode = false;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ';') {
+                if (hasCode) {
+                    return sql.toString().trim();
+                }
+                sql.setLength(0);
+                continue;
+            }
+            sql.append((char) c);
+            if (c == '\'' || c == '"' || c == '`') {
+                hasCode = true;
+                readQuoted(sql, c);
+            } else if (c == '-' && peek() == '-') {
+                readLineComment(sql);
+            } else if (c == '#' && backslashEscapes) {
+                readLineComment(sql);
+            } else if (c == '/' && peek() == '*') {
+                sql.append((char) read());
+                readBlockComment(sql);
+            } else if (c == '$' && dollarQuotes) {
+                hasCode = true;
+                readDollarQuoted(sql);
+            } else if (!Character.isWhitespace(c)) {
+                hasCode = true;
+            }
+        }
+        // Last statement doesn't need a trailing semicolon
+        return hasCode ? sql.toString().trim() : null;
+    }
+
+    private void readQuoted(StringBuilder sql, int quote) {
+        int c;
+        while ((c = read()) != -1) {
+            sql.append((char) c);
+            if (c == '\\' && backslashEscapes && quote == '\'') {
+                int escaped = read();
+                if (escaped != -1) {
+                    sql.append((char) escaped);
+                }
+            } else if (c == quote) {
+                // A doubled quote is an escaped quote, not the end of the string
+                if (peek() == quote) {
+                    sql.append((char) read());
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readLineComment(StringBuilder sql) {
+        int c;
+        while ((c = read()) != -1) {
+            sql.append((char) c);
+            if (c == '\n') {
+                return;
+            }
+        }
+    }
+
+    private void readBlockComment(StringBuilder sql) {
+        int c;
+        int previous = -1;
+        while ((c = read()) != -1) {
+            sql.append((char) c);
+            if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private void readDollarQuoted(StringBuilder sql) {
+        // $tag$ ... $tag$ where the tag may be empty. A $ followed by anything else (like a $1 parameter)
+        // is just a character.
+        StringBuilder tag = new StringBuilder("$");
+        int c;
+        while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == '_')) {
+            if (tag.length() == 1 && Character.isDigit(c)) {
+                return;
+            }
+            tag.append((char) read());
+        }
+        if (peek() != '$') {
+            sql.append(tag.substring(1));
+            return;
+        }
+        tag.append((char) read());
+        sql.append(tag.substring(1));
+        String delimiter = tag.toString();
+        StringBuilder body = new StringBuilder();
+        while ((c = read()) != -1) {
+            sql.append((char) c);
+            body.append((char) c);
+            if (c == '$' && body.length() >= delimiter.length()
+                    && body.substring(body.length() - delimiter.length()).equals(delimiter)) {
+                return;
+            }
+        }
+    }
+
+    private int read() {
+        if (pushback != -2) {
+            int c = pushback;
+            pushback = -2;
+            return c;
+        }
+        try {
+            return reader.read();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private int peek() {
+        if (pushback == -2) {
+            try {
+                pushback = reader.read();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        return pushback;
+    }
+}
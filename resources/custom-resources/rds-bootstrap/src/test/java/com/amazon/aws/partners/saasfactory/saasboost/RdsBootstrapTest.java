@@ -19,55 +19,173 @@ package com.amazon.aws.partners.saasfactory.saasboost;
 import org.junit.Test;
 
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
 
 public class RdsBootstrapTest {
 
     @Test
     public void testSqlScanner() {
         InputStream bootstrapSQL = Thread.currentThread().getContextClassLoader().getResourceAsStream("bootstrap.sql");
-        Scanner sqlScanner = new Scanner(bootstrapSQL, "UTF-8");
-        sqlScanner.useDelimiter(Pattern.compile(RdsBootstrap.SQL_STATEMENT_DELIMITER));
-        List<String> sql = new ArrayList<>();
-        while (sqlScanner.hasNext()) {
-            String ddl = sqlScanner.next().trim();
-            if (!ddl.isEmpty()) {
-                sql.add(ddl);
-            }
-        }
+        List<String> sql = readAll(SqlStatementReader.forEngine(
+                new InputStreamReader(bootstrapSQL, StandardCharsets.UTF_8), "mariadb"));
         assertEquals(6, sql.size());
+        assertTrue(sql.get(0).endsWith("ENGINE 'InnoDB'"));
     }
 
     @Test
-    public void testBatch() {
+    public void testBatch() throws SQLException {
         InputStream bootstrapSQL = Thread.currentThread().getContextClassLoader().getResourceAsStream("large.sql");
-        Scanner sqlScanner = new Scanner(bootstrapSQL, "UTF-8");
-        sqlScanner.useDelimiter(Pattern.compile(RdsBootstrap.SQL_STATEMENT_DELIMITER));
-        List<String> sql = new ArrayList<>();
-        int batch = 0;
-        int executedBatches = 0;
-        while (sqlScanner.hasNext()) {
-            String ddl = sqlScanner.next().trim();
-            if (!ddl.isEmpty()) {
-                sql.add(ddl);
-                batch++;
-                if (batch % 25 == 0) {
-                    executedBatches++;
-                    //System.out.println("Executing batch of " + sql.size());
-                    assertEquals(25, sql.size());
-                    sql.clear();
-                    assertEquals(0, sql.size());
-                }
-            }
-        }
-        executedBatches++;
+        Connection conn = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        doReturn(statement).when(conn).createStatement();
+        List<Integer> batchSizes = new ArrayList<>();
+        AtomicInteger pending = new AtomicInteger();
+        doAnswer(invocation -> pending.incrementAndGet()).when(statement).addBatch(anyString());
+        doAnswer(invocation -> {
+            batchSizes.add(pending.getAndSet(0));
+            return new int[batchSizes.get(batchSizes.size() - 1)];
+        }).when(statement).executeBatch();
+
+        SqlBootstrapExecutor.Progress progress = new SqlBootstrapExecutor(conn, 25).execute(SqlStatementReader.forEngine(
+                new InputStreamReader(bootstrapSQL, StandardCharsets.UTF_8), "postgresql"), 0, () -> false);
+        assertTrue(progress.isComplete());
+        assertEquals(52, progress.getStatements());
+        assertEquals(List.of(25, 25, 2), batchSizes);
+        verify(conn, times(3)).commit();
+    }
+
+    @Test
+    public void testStatementReaderQuotesAndComments() {
+        String script = "-- leading comment;\n"
+                + "INSERT INTO t VALUES ('a;b', 'it''s');\n"
+                + "/* block; comment */ SELECT \"odd;name\" FROM `x;y`;\n"
+                + "CREATE FUNCTION f() RETURNS int AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql;\n"
+                + "SELECT $$a;b$$; SELECT $1;\n"
+                + "   ;\n"
+                + "-- trailing comment only\n";
+        List<String> sql = readAll(SqlStatementReader.forEngine(new StringReader(script), "postgresql"));
+        assertEquals(5, sql.size());
+        assertEquals("-- leading comment;\nINSERT INTO t VALUES ('a;b', 'it''s')", sql.get(0));
+        assertEquals("/* block; comment */ SELECT \"odd;name\" FROM `x;y`", sql.get(1));
+        assertEquals("CREATE FUNCTION f() RETURNS int AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql",
+                sql.get(2));
+        assertEquals("SELECT $$a;b$$", sql.get(3));
+        assertEquals("SELECT $1", sql.get(4));
+    }
+
+    @Test
+    public void testStatementReaderBackslashEscapes() {
+        String script = "INSERT INTO t VALUES ('O\\'Brien; Esq.');\n# hash comment;\nSELECT 1";
+        List<String> sql = readAll(SqlStatementReader.forEngine(new StringReader(script), "mariadb"));
         assertEquals(2, sql.size());
-        //System.out.println("Executing batch of " + sql.size());
-        assertEquals(3, executedBatches);
+        assertEquals("INSERT INTO t VALUES ('O\\'Brien; Esq.')", sql.get(0));
+        assertEquals("# hash comment;\nSELECT 1", sql.get(1));
+    }
+
+    @Test
+    public void testStatementReaderOracle() {
+        // Oracle identifiers can have $ in them, which must not open a dollar quoted body
+        String script = "SELECT sid FROM V$SESSION WHERE username = 'a;b';\n"
+                + "GRANT SELECT ON SYS$X$Y TO app;\n"
+                + "SELECT 1 FROM DUAL";
+        List<String> sql = readAll(SqlStatementReader.forEngine(new StringReader(script), "oracle:thin"));
+        assertEquals(3, sql.size());
+        assertEquals("SELECT sid FROM V$SESSION WHERE username = 'a;b'", sql.get(0));
+        assertEquals("GRANT SELECT ON SYS$X$Y TO app", sql.get(1));
+        assertEquals("SELECT 1 FROM DUAL", sql.get(2));
+    }
+
+    @Test
+    public void testStatementReaderSqlServer() {
+        String script = "CREATE TABLE t (price$usd$ money, name nvarchar(10));\n"
+                + "INSERT INTO t VALUES ($1.50, N'it''s; fine');\n"
+                + "# not a comment in SQL Server\n"
+                + "SELECT \"a\\\" FROM t";
+        List<String> sql = readAll(SqlStatementReader.forEngine(new StringReader(script), "sqlserver"));
+        assertEquals(3, sql.size());
+        assertEquals("CREATE TABLE t (price$usd$ money, name nvarchar(10))", sql.get(0));
+        assertEquals("INSERT INTO t VALUES ($1.50, N'it''s; fine')", sql.get(1));
+        assertEquals("# not a comment in SQL Server\nSELECT \"a\\\" FROM t", sql.get(2));
+    }
+
+    @Test
+    public void testSwitchesCatalog() {
+        assertTrue(RdsBootstrap.switchesCatalog(RdsBootstrap.typeFromPort("3306")));
+        assertTrue(RdsBootstrap.switchesCatalog(RdsBootstrap.typeFromPort("1433")));
+        // setCatalog is a no-op on these, so bootstrap has to reconnect to the database
+        assertFalse(RdsBootstrap.switchesCatalog(RdsBootstrap.typeFromPort("5432")));
+        assertFalse(RdsBootstrap.switchesCatalog(RdsBootstrap.typeFromPort("1521")));
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws SQLException {
+        Connection conn = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        doReturn(statement).when(conn).createStatement();
+        List<String> executed = new ArrayList<>();
+        doAnswer(invocation -> executed.add(invocation.getArgument(0))).when(statement).addBatch(anyString());
+        doReturn(new int[] {1, 1}).when(statement).executeBatch();
+
+        // First invocation runs out of time after one batch
+        AtomicInteger checks = new AtomicInteger();
+        SqlBootstrapExecutor executor = new SqlBootstrapExecutor(conn, 2);
+        SqlBootstrapExecutor.Progress progress = executor.execute(statements(5), 0,
+                () -> checks.incrementAndGet() > 1);
+        assertFalse(progress.isComplete());
+        assertEquals(2, progress.getStatements());
+        assertEquals(2, progress.getRows());
+
+        progress = executor.execute(statements(5), progress.getStatements(), () -> false);
+        assertTrue(progress.isComplete());
+        assertEquals(5, progress.getStatements());
+        assertEquals(List.of("SELECT 0", "SELECT 1", "SELECT 2", "SELECT 3", "SELECT 4"), executed);
+    }
+
+    @Test
+    public void testFailedStatementIsReported() throws SQLException {
+        Connection conn = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        doReturn(statement).when(conn).createStatement();
+        doThrow(new BatchUpdateException("syntax error", new int[] {1})).when(statement).executeBatch();
+        try {
+            new SqlBootstrapExecutor(conn, 3).execute(statements(3), 0, () -> false);
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Bootstrap statement 2 failed: syntax error"));
+            assertTrue(e.getMessage(), e.getMessage().contains("[SELECT 1]"));
+        }
+        verify(conn).rollback();
+        verify(conn, never()).commit();
+
+        assertEquals(2, SqlBootstrapExecutor.failedStatement(new int[] {1, 1, Statement.EXECUTE_FAILED, 1}, 4));
+        assertEquals(0, SqlBootstrapExecutor.failedStatement(null, 4));
+    }
+
+    private static Iterator<String> statements(int count) {
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            statements.add("SELECT " + i);
+        }
+        return statements.iterator();
+    }
+
+    private static List<String> readAll(Iterator<String> reader) {
+        List<String> sql = new ArrayList<>();
+        reader.forEachRemaining(sql::add);
+        return sql;
     }
-}
\ No newline at end of file
+}
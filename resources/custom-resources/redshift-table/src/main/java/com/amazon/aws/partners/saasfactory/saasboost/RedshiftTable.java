@@ -30,6 +30,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
@@ -38,6 +39,10 @@ import java.util.concurrent.*;
 public class RedshiftTable implements RequestHandler<Map<String, Object>, Object> {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(RedshiftTable.class);
+    static final long CONNECT_BASE_DELAY_MILLIS = 1000L;
+    static final long CONNECT_MAX_DELAY_MILLIS = 30 * 1000L;
+    static final long DEADLINE_MARGIN_MILLIS = 30 * 1000L;
+    static final int LOGIN_TIMEOUT_SECONDS = 15;
     private SsmClient ssm;
     public RedshiftTable()  {
             LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
@@ -45,6 +50,11 @@ public class RedshiftTable implements RequestHandler<Map<String, Object>, Object
             //LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    RedshiftTable(SsmClient ssm) {
+        this.ssm = ssm;
+    }
+
     @Override
     public Object handleRequest(Map<String, Object> event, Context context) {
         Utils.logRequestEvent(event);
@@ -60,11 +70,14 @@ public class RedshiftTable implements RequestHandler<Map<String, Object>, Object
         ObjectNode responseData = JsonNodeFactory.instance.objectNode();
         try {
             Runnable r = () -> {
-                if ("Create".equalsIgnoreCase(requestType)) {
-                    LOGGER.info("CREATE");
-                    Connection connection = null;
-                    Statement statement = null;
-
+                // The metrics bucket is created by this same stack and the installer only uploads the
+                // JSONPath file after the stack exists, so there is never anything to load on Create.
+                // Loading existing metrics happens on a stack update instead.
+                final String copyFrom = (String) resourceProperties.get("CopyFromS3Prefix");
+                final boolean create = "Create".equalsIgnoreCase(requestType);
+                final boolean load = "Update".equalsIgnoreCase(requestType) && Utils.isNotBlank(copyFrom);
+                if (create || load) {
+                    LOGGER.info(requestType.toUpperCase());
                     LOGGER.info("Getting database password secret from Parameter Store");
                     String password = null;
                     try {
@@ -73,87 +86,32 @@ public class RedshiftTable implements RequestHandler<Map<String, Object>, Object
                         LOGGER.error("ssm:GetParameter error", ssmError.getMessage());
                         throw ssmError;
                     }
-                    //LOGGER.info("Password is '" + password + "'");
                     if (password == null) {
                         throw new RuntimeException("Password is null");
                     }
 
-                    try {
-                        LOGGER.info("Using JDBC Url: {}", jdbcUrl);
-                        Class.forName("com.amazon.redshift.jdbc42.Driver");
-                        Properties properties = new Properties();
-                        properties.setProperty("user", username);
-                        properties.setProperty("password", password);
-                        int attempts = 1;
-                        do {
-                            try {
-                                connection = DriverManager.getConnection(jdbcUrl, properties);
-                                LOGGER.info("Connected to Redshift database");
-                            } catch (Exception e) {
-                                LOGGER.error("Error connecting {}", e.getMessage());
-                                LOGGER.error(Utils.getFullStackTrace(e));
-                                attempts++;
-                                try {
-                                    LOGGER.info("Sleep one minute for dns to resolve");
-                                    Thread.sleep(60 * 1000);
-                                } catch (InterruptedException te) {
-                                    //
-                                }
-                            }
-                        } while (null == connection && attempts < 5);
-
-                        if (null == connection) {
-                            throw new RuntimeException("Unable to connect to Redshift database after 5 attempts.");
-                        }
-
-                        //Execute a query
+                    Properties properties = new Properties();
+                    properties.setProperty("user", username);
+                    properties.setProperty("password", password);
+                    properties.setProperty("loginTimeout", String.valueOf(LOGIN_TIMEOUT_SECONDS));
+                    LOGGER.info("Using JDBC Url: {}", jdbcUrl);
+                    try (Connection connection = connect(jdbcUrl, properties, context)) {
                         LOGGER.info("Creating table in given database {}", jdbcUrl);
-                        statement = connection.createStatement();
-
-                        String sql = "CREATE TABLE IF NOT EXISTS public." +
-                                tableName +
-                                "(\n" +
-                                "\"type\" VARCHAR(256) ENCODE lzo\n" +
-                                ",workload VARCHAR(256) ENCODE lzo\n" +
-                                ",context VARCHAR(256) ENCODE lzo\n" +
-                                ",tenant_id VARCHAR(256) ENCODE lzo\n" +
-                                ",tenant_name VARCHAR(256) ENCODE lzo\n" +
-                                ",tenant_tier VARCHAR(256) ENCODE lzo\n" +
-                                ",timerecorded TIMESTAMP WITH TIME ZONE ENCODE az64\n" +
-                                ",metric_name VARCHAR(256) ENCODE lzo\n" +
-                                ",metric_unit VARCHAR(256) ENCODE lzo\n" +
-                                ",metric_value NUMERIC(18,0) ENCODE az64\n" +
-                                ",meta_data VARCHAR(256) ENCODE lzo\n" +
-                                ")\n" +
-                                "DISTSTYLE AUTO";
-                        statement.executeUpdate(sql);
-                        // Further code to follow
-                    } catch(ClassNotFoundException cnfe) {
-                        String stackTrace = Utils.getFullStackTrace(cnfe);
-                        LOGGER.error(stackTrace);
-                        responseData.put("Reason", stackTrace);
-                        sendResponse(event, context, "FAILED", responseData);
-                    } catch (SQLException sqle) {
-                        String stackTrace = Utils.getFullStackTrace(sqle);
+                        executeDdl(connection, tableDdl(tableName));
+
+                        if (load) {
+                            long rows = loadExistingMetrics(connection, tableName, copyFromS3(tableName, copyFrom,
+                                    (String) resourceProperties.get("CopyIamRole"),
+                                    (String) resourceProperties.get("CopyOptions")), context);
+                            responseData.put("RowsCopied", rows);
+                        }
+                    } catch (ClassNotFoundException | SQLException e) {
+                        String stackTrace = Utils.getFullStackTrace(e);
                         LOGGER.error(stackTrace);
                         responseData.put("Reason", stackTrace);
                         sendResponse(event, context, "FAILED", responseData);
-                    }  finally{
-                    //finally block used to close resources
-                        try{
-                            if(statement != null) {
-                                connection.close();
-                            }
-                        } catch(SQLException se){
-                        }// do nothing
-                        try {
-                            if (connection != null) {
-                                connection.close();
-                            }
-                        } catch(SQLException se){
-                            se.printStackTrace();
-                        } //end finally try
-                    } //end try
+                        return;
+                    }
 
                     // Tell CloudFormation we're done
                     sendResponse(event, context, "SUCCESS", responseData);
@@ -184,6 +142,152 @@ public class RedshiftTable implements RequestHandler<Map<String, Object>, Object
         return null;
     }
 
+    /**
+     * Connects to the cluster, backing off exponentially with jitter while the cluster endpoint's DNS
+     * settles. Gives up once another attempt could not finish before the Lambda runs out of time,
+     * leaving enough of the invocation to do the work and respond to CloudFormation.
+     */
+    protected Connection connect(String jdbcUrl, Properties properties, Context context)
+            throws ClassNotFoundException, SQLException {
+        Class.forName("com.amazon.redshift.jdbc42.Driver");
+        int attempt = 0;
+        while (true) {
+            try {
+                Connection connection = DriverManager.getConnection(jdbcUrl, properties);
+                LOGGER.info("Connected to Redshift database after {} attempt(s)", attempt + 1);
+                return connection;
+            } catch (SQLException e) {
+                long delay = backoffMillis(attempt++);
+                long budget = context.getRemainingTimeInMillis() - DEADLINE_MARGIN_MILLIS
+                        - (LOGIN_TIMEOUT_SECONDS * 1000L);
+                LOGGER.error("Error connecting on attempt {} {}", attempt, e.getMessage());
+                if (delay > budget) {
+                    LOGGER.error("Out of time to connect to Redshift database after {} attempts", attempt);
+                    throw e;
+                }
+                LOGGER.info("Retrying connection in {} ms", delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter, so a retry always waits at least half of the window.
+     */
+    static long backoffMillis(int attempt) {
+        long window = Math.min(CONNECT_MAX_DELAY_MILLIS, CONNECT_BASE_DELAY_MILLIS << Math.min(attempt, 16));
+        return (window / 2) + ThreadLocalRandom.current().nextLong((window / 2) + 1);
+    }
+
+    /**
+     * Runs all of the DDL statements as one batch in a single transaction on the open connection.
+     */
+    static void executeDdl(Connection connection, List<String> ddl) throws SQLException {
+        final long startTimeMillis = System.currentTimeMillis();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : ddl) {
+                statement.addBatch(sql);
+            }
+            statement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        LOGGER.info("RedshiftTable::executeDdl {} statement(s) in {} ms", ddl.size(),
+                System.currentTimeMillis() - startTimeMillis);
+    }
+
+    static List<String> tableDdl(String tableName) {
+        return List.of("CREATE TABLE IF NOT EXISTS public." +
+                tableName +
+                "(\n" +
+                "\"type\" VARCHAR(256) ENCODE lzo\n" +
+                ",workload VARCHAR(256) ENCODE lzo\n" +
+                ",context VARCHAR(256) ENCODE lzo\n" +
+                ",tenant_id VARCHAR(256) ENCODE lzo\n" +
+                ",tenant_name VARCHAR(256) ENCODE lzo\n" +
+                ",tenant_tier VARCHAR(256) ENCODE lzo\n" +
+                ",timerecorded TIMESTAMP WITH TIME ZONE ENCODE az64\n" +
+                ",metric_name VARCHAR(256) ENCODE lzo\n" +
+                ",metric_unit VARCHAR(256) ENCODE lzo\n" +
+                ",metric_value NUMERIC(18,0) ENCODE az64\n" +
+                ",meta_data VARCHAR(256) ENCODE lzo\n" +
+                ")\n" +
+                "DISTSTYLE AUTO"
+        );
+    }
+
+    /**
+     * A single COPY from a key prefix. Redshift splits the matching objects across every slice in the
+     * cluster, so one statement already loads in parallel; several client side COPYs into the same
+     * table would only queue behind each other's table lock.
+     */
+    static String copyFromS3(String tableName, String s3Prefix, String iamRole, String copyOptions) {
+        if (Utils.isBlank(iamRole)) {
+            throw new IllegalArgumentException("CopyIamRole is required with CopyFromS3Prefix");
+        }
+        StringBuilder sql = new StringBuilder("COPY public.")
+                .append(tableName)
+                .append(" FROM '").append(s3Prefix.replace("'", "''")).append("'")
+                .append(" IAM_ROLE '").append(iamRole.replace("'", "''")).append("'");
+        if (Utils.isNotBlank(copyOptions)) {
+            sql.append(" ").append(copyOptions);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Loads the metrics already in S3, but only into an empty table. Firehose COPYs everything it delivers
+     * from the same prefix, so loading on top of delivered rows would count those metrics twice.
+     */
+    protected long loadExistingMetrics(Connection connection, String tableName, String sql, Context context)
+            throws SQLException {
+        String probe = "SELECT 1 FROM public." + tableName + " LIMIT 1";
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(probe)) {
+            if (rs.next()) {
+                LOGGER.info("Table {} already has metrics, skipping the load from S3", tableName);
+                return 0;
+            }
+        }
+        return copy(connection, sql, context);
+    }
+
+    /**
+     * Runs the COPY with a query timeout bounded by what's left of the invocation. An empty prefix
+     * just means there is nothing to load yet.
+     */
+    protected long copy(Connection connection, String sql, Context context) throws SQLException {
+        final long startTimeMillis = System.currentTimeMillis();
+        long budget = context.getRemainingTimeInMillis() - DEADLINE_MARGIN_MILLIS;
+        if (budget < 1000) {
+            throw new SQLException("Not enough time left to COPY into the metrics table");
+        }
+        long rows = 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) (budget / 1000));
+            rows = statement.executeUpdate(sql);
+        } catch (SQLException e) {
+            String message = String.valueOf(e.getMessage());
+            if (message.contains("S3 prefix") && message.contains("does not exist")) {
+                LOGGER.info("No existing metrics to load {}", message);
+                return 0;
+            }
+            throw e;
+        }
+        LOGGER.info("RedshiftTable::copy {} rows in {} ms", rows, System.currentTimeMillis() - startTimeMillis);
+        return rows;
+    }
+
     /**
      * Send a response to CloudFormation regarding progress in creating resource.
      *
@@ -0,0 +1,116 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.junit.Test;
+import software.amazon.awssdk.services.ssm.SsmClient;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class RedshiftTableTest {
+
+    private static final String COPY = "COPY public.sb_metrics FROM 's3://bucket/RedshiftDelivery/' "
+            + "IAM_ROLE 'arn:aws:iam::123456789012:role/redshift'";
+
+    @Test
+    public void testBackoffMillis() {
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long window = Math.min(RedshiftTable.CONNECT_MAX_DELAY_MILLIS,
+                    RedshiftTable.CONNECT_BASE_DELAY_MILLIS << Math.min(attempt, 16));
+            for (int i = 0; i < 20; i++) {
+                long delay = RedshiftTable.backoffMillis(attempt);
+                // Equal jitter always waits at least half of the window and never more than the cap
+                assertTrue(delay >= window / 2);
+                assertTrue(delay <= window);
+                assertTrue(delay <= RedshiftTable.CONNECT_MAX_DELAY_MILLIS);
+            }
+        }
+        assertTrue(RedshiftTable.backoffMillis(0) >= RedshiftTable.CONNECT_BASE_DELAY_MILLIS / 2);
+    }
+
+    @Test
+    public void testCopyFromS3() {
+        assertEquals(COPY, RedshiftTable.copyFromS3("sb_metrics", "s3://bucket/RedshiftDelivery/",
+                "arn:aws:iam::123456789012:role/redshift", null));
+        assertEquals(COPY + " GZIP JSON 'auto'", RedshiftTable.copyFromS3("sb_metrics",
+                "s3://bucket/RedshiftDelivery/", "arn:aws:iam::123456789012:role/redshift", "GZIP JSON 'auto'"));
+        // Quotes in the prefix can't break out of the string literal
+        assertEquals("COPY public.t FROM 's3://b/it''s/' IAM_ROLE 'role'",
+                RedshiftTable.copyFromS3("t", "s3://b/it's/", "role", ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCopyFromS3RequiresRole() {
+        RedshiftTable.copyFromS3("sb_metrics", "s3://bucket/RedshiftDelivery/", " ", null);
+    }
+
+    @Test
+    public void testLoadExistingMetricsSkipsTableWithRows() throws SQLException {
+        Connection connection = connection(true);
+        long rows = new RedshiftTable(mock(SsmClient.class)).loadExistingMetrics(connection, "sb_metrics", COPY, context(600_000));
+        assertEquals(0, rows);
+        verify(connection.createStatement(), never()).executeUpdate(anyString());
+    }
+
+    @Test
+    public void testLoadExistingMetricsCopiesIntoEmptyTable() throws SQLException {
+        Connection connection = connection(false);
+        Statement statement = connection.createStatement();
+        when(statement.executeUpdate(COPY)).thenReturn(42);
+        long rows = new RedshiftTable(mock(SsmClient.class)).loadExistingMetrics(connection, "sb_metrics", COPY, context(600_000));
+        assertEquals(42, rows);
+        // Bounded by what's left of the invocation after the deadline margin
+        verify(statement).setQueryTimeout(570);
+    }
+
+    @Test
+    public void testCopyWithMissingPrefixLoadsNothing() throws SQLException {
+        Connection connection = connection(false);
+        when(connection.createStatement().executeUpdate(COPY))
+                .thenThrow(new SQLException("The specified S3 prefix 'RedshiftDelivery' does not exist"));
+        assertEquals(0, new RedshiftTable(mock(SsmClient.class)).copy(connection, COPY, context(600_000)));
+    }
+
+    @Test(expected = SQLException.class)
+    public void testCopyWithoutTimeLeftFails() throws SQLException {
+        new RedshiftTable(mock(SsmClient.class)).copy(connection(false), COPY, context(RedshiftTable.DEADLINE_MARGIN_MILLIS));
+    }
+
+    private static Connection connection(boolean hasRows) throws SQLException {
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(rs);
+        when(rs.next()).thenReturn(hasRows);
+        return connection;
+    }
+
+    private static Context context(long remainingMillis) {
+        Context context = mock(Context.class);
+        when(context.getRemainingTimeInMillis()).thenReturn((int) remainingMillis);
+        return context;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Top 10 paths query over the ALB access logs table. The statement is a fixed template with ? placeholders
+ * and every value from the caller is bound as a parameter. The time window always comes from
+ * MetricHelper::getTimeRangeForQuery and is applied to both the projected day partition and the time column,
+ * so Athena only lists and reads the S3 prefixes for the days in the window.
+ */
+public class AccessLogQuery {
+
+    // Must match projection.day.format on the access logs table, which is the ALB log prefix layout
+    public static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd")
+            .withZone(ZoneOffset.UTC);
+    // ALB log lines look like 2022-08-01T12:34:56.123456Z, keep the same width so strings compare in order
+    static final DateTimeFormatter LOG_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'")
+            .withZone(ZoneOffset.UTC);
+    // ALB delivers a file every 5 minutes under the day the interval ends, so the last few minutes of one day
+    // can be in the next day's prefix
+    static final Duration DELIVERY_INTERVAL = Duration.ofMinutes(5);
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z0-9_]+");
+    private static final Map<String, String> METRIC_COLUMNS = Map.of(
+            "PATH_REQUEST_COUNT", "count(1) AS request_count",
+            "PATH_RESPONSE_TIME", "avg(target_processing_time) AS avg_target_time"
+    );
+
+    private final String sql;
+    private final List<String> parameters;
+    private final Instant start;
+    private final Instant end;
+
+    private AccessLogQuery(Builder builder) {
+        if (builder.table == null || !TABLE_NAME.matcher(builder.table).matches()) {
+            throw new IllegalArgumentException("Invalid access logs table name " + builder.table);
+        }
+        if (builder.metricType == null || !METRIC_COLUMNS.containsKey(builder.metricType.toUpperCase())) {
+            throw new IllegalArgumentException("Unknown metricType " + builder.metricType);
+        }
+        Instant[] times = MetricHelper.getTimeRangeForQuery(builder.timeRange, 0, null, null, builder.clock);
+        if (times[0] == null || times[1] == null) {
+            throw new IllegalArgumentException("Invalid time range " + builder.timeRange);
+        }
+        this.start = times[0];
+        this.end = times[1];
+
+        List<String> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder()
+                .append("SELECT\n")
+                .append("concat(url_extract_path(request_url), '+', request_verb) AS url, ")
+                .append(METRIC_COLUMNS.get(builder.metricType.toUpperCase()))
+                .append("\nFROM \"")
+                .append(builder.table)
+                .append("\"\n")
+                .append("WHERE day >= ? AND day <= ?\n")
+                .append("AND time >= ? AND time <= ?\n")
+                .append("AND target_status_code = '200'\n");
+        parameters.add(getFirstPartition());
+        parameters.add(getLastPartition());
+        parameters.add(LOG_TIME_FORMAT.format(start));
+        parameters.add(LOG_TIME_FORMAT.format(end));
+        if (Utils.isNotBlank(builder.loadBalancer)) {
+            sql.append("AND elb = ?\n");
+            parameters.add(builder.loadBalancer);
+        }
+        sql.append("GROUP BY concat(url_extract_path(request_url), '+', request_verb)\n")
+                .append("ORDER BY 2 DESC\n")
+                .append("LIMIT 10");
+        this.sql = sql.toString();
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The statement with ? placeholders.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public String getFirstPartition() {
+        return PARTITION_FORMAT.format(start);
+    }
+
+    public String getLastPartition() {
+        return PARTITION_FORMAT.format(end.plus(DELIVERY_INTERVAL));
+    }
+
+    /**
+     * Every day partition the query can read, in order.
+     */
+    public List<String> getPartitions() {
+        List<String> partitions = new ArrayList<>();
+        LocalDate last = LocalDate.ofInstant(end.plus(DELIVERY_INTERVAL), ZoneOffset.UTC);
+        for (LocalDate day = LocalDate.ofInstant(start, ZoneOffset.UTC); !day.isAfter(last); day = day.plusDays(1)) {
+            partitions.add(PARTITION_FORMAT.format(day.atStartOfDay(ZoneOffset.UTC)));
+        }
+        return partitions;
+    }
+
+    /**
+     * The statement with each parameter bound as a quoted string literal, for StartQueryExecution.
+     */
+    public String toQueryString() {
+        StringBuilder query = new StringBuilder(sql.length() + 32 * parameters.size());
+        int parameter = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                query.append('\'').append(parameters.get(parameter++).replace("'", "''")).append('\'');
+            } else {
+                query.append(c);
+            }
+        }
+        return query.toString();
+    }
+
+    public static final class Builder {
+
+        private String table;
+        private String timeRange;
+        private String metricType;
+        private String loadBalancer;
+        private Clock clock = Clock.systemDefaultZone();
+
+        private Builder() {
+        }
+
+        public Builder table(String table) {
+            this.table = table;
+            return this;
+        }
+
+        /**
+         * One of the TimeRange names.
+         */
+        public Builder timeRange(String timeRange) {
+            this.timeRange = timeRange;
+            return this;
+        }
+
+        /**
+         * PATH_REQUEST_COUNT or PATH_RESPONSE_TIME.
+         */
+        public Builder metricType(String metricType) {
+            this.metricType = metricType;
+            return this;
+        }
+
+        /**
+         * Limit the results to one tenant's load balancer.
+         */
+        public Builder loadBalancer(String loadBalancer) {
+            this.loadBalancer = loadBalancer;
+            return this;
+        }
+
+        // Package private for testing
+        Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public AccessLogQuery build() {
+            return new AccessLogQuery(this);
+        }
+    }
+}
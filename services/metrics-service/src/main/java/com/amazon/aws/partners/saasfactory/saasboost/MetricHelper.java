@@ -36,6 +36,7 @@ import software.amazon.awssdk.utils.StringUtils;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
+import java.time.Clock;
 import java.time.DayOfWeek;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -82,8 +83,15 @@ public class MetricHelper {
     }
 
     public static Instant[] getTimeRangeForQuery(String timeRangeName, int offSet, Instant startTime, Instant endTime) {
-        final Instant curDateTime = Instant.ofEpochMilli(new Date().getTime());
-        LocalDateTime localStartDateTime = LocalDateTime.ofInstant(curDateTime.now(), ZoneId.systemDefault());
+        return getTimeRangeForQuery(timeRangeName, offSet, startTime, endTime, Clock.systemDefaultZone());
+    }
+
+    // Package private for testing
+    static Instant[] getTimeRangeForQuery(String timeRangeName, int offSet, Instant startTime, Instant endTime,
+                                          Clock clock) {
+        final Instant curDateTime = clock.instant();
+        final ZoneId zone = clock.getZone();
+        LocalDateTime localStartDateTime = LocalDateTime.ofInstant(curDateTime, zone);
         if (Utils.isNotBlank(timeRangeName)) {
             //LOGGER.debug("getStartDateTime: Using provided query TimeRangeName: " + query.getTimeRangeName());
             try {
@@ -108,7 +116,7 @@ public class MetricHelper {
                                 .withNano(0);
                         localStartDateTime = localStartDateTime
                                 .minusMinutes(offSet);
-                        startTime = localStartDateTime.atZone(ZoneId.systemDefault()).toInstant();
+                        startTime = localStartDateTime.atZone(zone).toInstant();
                         break;
                     case THIS_MONTH:
                         localStartDateTime = localStartDateTime
@@ -119,7 +127,7 @@ public class MetricHelper {
                                 .withNano(0);
                         localStartDateTime = localStartDateTime
                                 .minusMinutes(offSet);
-                        startTime = localStartDateTime.atZone(ZoneId.systemDefault()).toInstant();
+                        startTime = localStartDateTime.atZone(zone).toInstant();
                         break;
                     case DAY_7:
                     case DAY_30:
@@ -131,7 +139,7 @@ public class MetricHelper {
                                 .withNano(0);
                         localStartDateTime = localStartDateTime
                                 .minusMinutes(offSet);
-                        startTime = localStartDateTime.atZone(ZoneId.systemDefault()).toInstant();
+                        startTime = localStartDateTime.atZone(zone).toInstant();
                         break;
                     case TODAY:
                         localStartDateTime = localStartDateTime
@@ -141,7 +149,7 @@ public class MetricHelper {
                                 .withNano(0);
                         localStartDateTime = localStartDateTime
                                 .minusMinutes(offSet);
-                        startTime = localStartDateTime.atZone(ZoneId.systemDefault()).toInstant();
+                        startTime = localStartDateTime.atZone(zone).toInstant();
                         break;
                 }
                 endTime = curDateTime;
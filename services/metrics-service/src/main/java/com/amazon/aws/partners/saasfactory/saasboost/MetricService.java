@@ -196,17 +196,6 @@ public class MetricService implements RequestHandler<Map<String, Object>, APIGat
         dal.publishAccessLogMetrics(PATH_RESPONSE_TIME_7_DAY_FILE, TimeRange.DAY_7, PATH_RESPONSE_TIME);
     }
 
-    // Creates a new partition for the day
-    public void addAthenaPartition(InputStream inputStream, OutputStream outputStream, Context context) {
-        try {
-            dal.addAthenaPartition();
-        } catch (Exception e) {
-            LOGGER.error("addAthenaPartition: Error with function. {}", e.getMessage());
-            LOGGER.error(Utils.getFullStackTrace(e));
-            //*TODO: should we send a SNS message
-        }
-    }
-
     public APIGatewayProxyResponseEvent getAccessMetricsSignedUrls(Map<String, Object> event, Context context) {
         final long startTimeMillis = System.currentTimeMillis();
         if (Utils.warmup(event)) {
@@ -53,7 +53,6 @@ public class MetricServiceDAL {
     private static final String S3_ATHENA_OUTPUT_PATH = System.getenv("S3_ATHENA_OUTPUT_PATH");
     private static final String S3_ATHENA_BUCKET = System.getenv("S3_ATHENA_BUCKET");
     private static final String ACCESS_LOGS_TABLE = System.getenv("ACCESS_LOGS_TABLE");
-    private static final String ACCESS_LOGS_PATH = System.getenv("ACCESS_LOGS_PATH");
     private final ApplicationAutoScalingClient autoScaling;
     private final CloudWatchClient cloudWatch;
     private final S3Client s3;
@@ -334,40 +333,21 @@ public class MetricServiceDAL {
         List<MetricValue> metricValueList;
         try {
             //Query based on Access Logs requested. REQUEST_COUNT or RESPONSE_TIME
-            //get time range
-            Instant[] times = MetricHelper.getTimeRangeForQuery(timeRange, 0,null, null);
-            String where = "WHERE target_status_code = '200' AND time >= '" + times[0] + "' AND time <= '" + times[1] + "'\n";
-
+            AccessLogQuery.Builder builder = AccessLogQuery.builder()
+                    .table(ACCESS_LOGS_TABLE)
+                    .timeRange(timeRange)
+                    .metricType(metricType);
             if (tenantId != null) {
                 String tenantAlb = getTenantLoadBalancerId(tenantId);
                 if (Utils.isEmpty(tenantAlb)) {
                     throw new RuntimeException("queryAccessLogs: No ALB found for tenantId: " + tenantId);
                 }
-                where += " AND elb = '" + tenantAlb + "'\n";
-            }
-
-            String metricCol;
-            if ("PATH_REQUEST_COUNT".equalsIgnoreCase(metricType)) {
-                metricCol = ", count(1) AS request_count\n";
-            } else if ("PATH_RESPONSE_TIME".equalsIgnoreCase(metricType)) {
-                metricCol = ", avg(target_processing_time) AS avg_target_time\n";
-            } else {
-                LOGGER.warn("Unknown metricType {}", metricType);
-                metricCol = "\n";
+                builder.loadBalancer(tenantAlb);
             }
-
-            String query = new StringBuilder().append("SELECT\n")
-                    .append("concat(url_extract_path(request_url), '+', request_verb) AS url")
-                    .append(metricCol)
-                    .append("FROM \"")
-                    .append(ACCESS_LOGS_TABLE)
-                    .append("\"\n")
-                    .append(where)
-                    .append("GROUP BY concat(url_extract_path(request_url), '+', request_verb)\n")
-                    .append("ORDER BY 2 DESC\n")
-                    .append("LIMIT 10;")
-                    .toString();
-
+            AccessLogQuery accessLogQuery = builder.build();
+            String query = accessLogQuery.toQueryString();
+            LOGGER.info("queryAccessLogs: {} partitions {} to {}", accessLogQuery.getPartitions().size(),
+                    accessLogQuery.getFirstPartition(), accessLogQuery.getLastPartition());
             LOGGER.info("queryAccessLogs: athena query \n" + query);
 
             //now that query is built let's execute and get resultant data
@@ -636,7 +616,7 @@ public class MetricServiceDAL {
                 DescribeScalableTargetsResponse resp = autoScaling.describeScalableTargets(dscRequest);
                 nextToken = resp.nextToken();
                 LOGGER.info("getTaskMaxCapacity: DescribeScalableTargets result in " + (System.currentTimeMillis() - start) + " ms, : ");
-               // LOGGER.info(String.valueOf(resp));
+                // LOGGER.info(String.valueOf(resp));
                 List<ScalableTarget> targets = resp.scalableTargets();
                 for (ScalableTarget target : targets) {
                     ScalableDimension dim = target.scalableDimension();
@@ -664,37 +644,6 @@ public class MetricServiceDAL {
         return metricValueList;
     }
 
-    //create partition for Athena table
-    public void addAthenaPartition() throws Exception {
-        final long start = System.currentTimeMillis();
-        LOGGER.info("addAthenaPartition: Start");
-        if (Utils.isBlank(ACCESS_LOGS_PATH)) {
-            throw new IllegalStateException("Missing required environment variable ACCESS_LOGS_PATH");
-        }
-
-        //System.out.println(DATE_TIME_FORMATTER.format(new Date().toInstant()));
-        Instant today = Instant.now();
-        String formatPartitionDate = DateTimeFormatter.ofPattern("yyyy/MM/dd").withZone(ZoneId.systemDefault())
-                .format(today); //"2019/08/01";
-        String dateTimeFormat =  DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault())
-                .format(today); //"2019-08-01";
-        String queryString = "ALTER TABLE \"" + ACCESS_LOGS_TABLE + "\" ADD IF NOT EXISTS PARTITION "
-                + "(time='" + dateTimeFormat + "') LOCATION '" + ACCESS_LOGS_PATH + "/" + formatPartitionDate + "/';";
-        LOGGER.info("addAthenaPartition: Query for partition: {}", queryString);
-        String queryExecutionId = MetricHelper.submitAthenaQuery(
-                athenaClient,
-                queryString,
-                S3_ATHENA_OUTPUT_PATH,
-                ATHENA_DATABASE
-        );
-        MetricHelper.waitForQueryToComplete(athenaClient, queryExecutionId);
-
-        //get return data
-        //List<MetricValue> metricValueList= MetricHelper.processResultRows(athenaClient, queryExecutionId);
-        LOGGER.info("addAthenaPartition: Executed in: " + (System.currentTimeMillis() - start) + " ms");
-        //return metricValueList;
-    }
-
     public void publishAccessLogMetrics(String s3FileName, Enum<TimeRange> timeRangeName, String metric) {
         final long startTimeMillis = System.currentTimeMillis();
         try {
@@ -0,0 +1,175 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class AccessLogQueryTest {
+
+    // Two minutes before midnight, so the last ALB file of the window is filed under the next day
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2022-08-31T23:58:00Z"), ZoneOffset.UTC);
+    private static final Pattern LOG_KEY = Pattern.compile(
+            ".*/elasticloadbalancing/[a-z0-9-]+/(\\d{4}/\\d{2}/\\d{2})/.*_(\\d{8}T\\d{4}Z)_.*");
+    private static final DateTimeFormatter KEY_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmX");
+    private static final List<LogFile> LOG_FILES = new ArrayList<>();
+
+    private static final class LogFile {
+        private final String day;
+        private final Instant intervalEnd;
+        private final long size;
+
+        private LogFile(String day, Instant intervalEnd, long size) {
+            this.day = day;
+            this.intervalEnd = intervalEnd;
+            this.size = size;
+        }
+    }
+
+    @BeforeClass
+    public static void loadLogKeys() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                AccessLogQueryTest.class.getClassLoader().getResourceAsStream("alb-log-keys.txt"),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] keyAndSize = line.split(" ");
+                Matcher matcher = LOG_KEY.matcher(keyAndSize[0]);
+                assertTrue(keyAndSize[0], matcher.matches());
+                LOG_FILES.add(new LogFile(matcher.group(1), KEY_TIME.parse(matcher.group(2), Instant::from),
+                        Long.parseLong(keyAndSize[1])));
+            }
+        }
+        assertFalse(LOG_FILES.isEmpty());
+    }
+
+    private static AccessLogQuery query(String timeRange) {
+        return AccessLogQuery.builder()
+                .table("sb_test_access_logs")
+                .timeRange(timeRange)
+                .metricType("PATH_REQUEST_COUNT")
+                .clock(CLOCK)
+                .build();
+    }
+
+    // The files Athena lists for the query, resolved the same way as storage.location.template
+    private static List<LogFile> scanned(AccessLogQuery query) {
+        List<String> partitions = query.getPartitions();
+        List<LogFile> scanned = new ArrayList<>();
+        for (LogFile logFile : LOG_FILES) {
+            if (partitions.contains(logFile.day)) {
+                scanned.add(logFile);
+            }
+        }
+        return scanned;
+    }
+
+    private static long bytes(List<LogFile> logFiles) {
+        return logFiles.stream().mapToLong(logFile -> logFile.size).sum();
+    }
+
+    @Test
+    public void testPartitionsCoverEveryLogFileInWindow() {
+        for (TimeRange timeRange : TimeRange.values()) {
+            AccessLogQuery query = query(timeRange.name());
+            List<LogFile> scanned = scanned(query);
+            for (LogFile logFile : LOG_FILES) {
+                boolean inWindow = logFile.intervalEnd.isAfter(query.getStart())
+                        && !logFile.intervalEnd.minus(AccessLogQuery.DELIVERY_INTERVAL).isAfter(query.getEnd());
+                if (inWindow) {
+                    assertTrue(timeRange + " misses " + logFile.day, scanned.contains(logFile));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScanIsBoundedByWindow() {
+        long total = bytes(LOG_FILES);
+        long lastHour = bytes(scanned(query("HOUR_1")));
+        long lastWeek = bytes(scanned(query("DAY_7")));
+        long lastMonth = bytes(scanned(query("DAY_30")));
+
+        assertEquals(List.of("2022/08/31", "2022/09/01"), query("HOUR_1").getPartitions());
+        assertEquals(9, query("DAY_7").getPartitions().size());
+        assertEquals(32, query("DAY_30").getPartitions().size());
+        assertTrue(lastHour < lastWeek);
+        assertTrue(lastWeek < lastMonth);
+        assertTrue(lastMonth < total);
+        // Roughly one day of files per partition, nothing from outside the window
+        assertTrue(lastHour * 3 < lastWeek);
+        assertTrue(lastWeek * 3 < lastMonth);
+    }
+
+    @Test
+    public void testQueryIsParameterized() {
+        AccessLogQuery query = AccessLogQuery.builder()
+                .table("sb_test_access_logs")
+                .timeRange("TODAY")
+                .metricType("path_response_time")
+                .loadBalancer("app/tenant-6f2b1a/50dc6c495c0c9188' OR '1'='1")
+                .clock(CLOCK)
+                .build();
+
+        assertTrue(query.getSql().contains("WHERE day >= ? AND day <= ?\nAND time >= ? AND time <= ?\n"));
+        assertTrue(query.getSql().contains("AND elb = ?\n"));
+        assertFalse(query.getSql().contains("2022"));
+        assertEquals(List.of("2022/08/31", "2022/09/01", "2022-08-31T00:00:00.000000Z",
+                "2022-08-31T23:58:00.000000Z", "app/tenant-6f2b1a/50dc6c495c0c9188' OR '1'='1"),
+                query.getParameters());
+        String queryString = query.toQueryString();
+        assertTrue(queryString.contains("WHERE day >= '2022/08/31' AND day <= '2022/09/01'\n"));
+        assertTrue(queryString.contains("AND elb = 'app/tenant-6f2b1a/50dc6c495c0c9188'' OR ''1''=''1'\n"));
+        assertTrue(queryString.contains("avg(target_processing_time) AS avg_target_time"));
+    }
+
+    @Test
+    public void testInvalidQuery() {
+        assertThrows(IllegalArgumentException.class, () -> AccessLogQuery.builder()
+                .table("sb_test_access_logs")
+                .timeRange("HOUR_1")
+                .metricType("PATH_BYTES")
+                .build());
+        assertThrows(IllegalArgumentException.class, () -> AccessLogQuery.builder()
+                .table("logs\"; DROP TABLE x; --")
+                .timeRange("HOUR_1")
+                .metricType("PATH_REQUEST_COUNT")
+                .build());
+        assertThrows(IllegalArgumentException.class, () -> AccessLogQuery.builder()
+                .table("sb_test_access_logs")
+                .metricType("PATH_REQUEST_COUNT")
+                .build());
+    }
+}
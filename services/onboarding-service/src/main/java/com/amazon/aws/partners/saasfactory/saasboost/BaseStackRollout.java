@@ -0,0 +1,296 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Rolls a base stack update out across tenants in waves. Tenants in the canary tiers go first, everyone else
+ * follows in a second wave. Within a wave at most {@code concurrency} updates are in flight. A tenant only
+ * counts as done or failed once its stack update has finished, so the next wave doesn't start until every
+ * canary stack has settled. The rollout pauses once the share of failed updates passes {@code maxFailureRate}
+ * and stops starting new updates when the deadline is reached, leaving the progress to be saved and resumed.
+ * Updates still in progress at the deadline are picked up again by the next run.
+ */
+public class BaseStackRollout {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaseStackRollout.class);
+    private static final int DEFAULT_CONCURRENCY = 5;
+    private static final double DEFAULT_MAX_FAILURE_RATE = 0.2d;
+    private static final long DEFAULT_POLL_INTERVAL_MILLIS = 5000L;
+
+    public enum Outcome {
+        // The stack update finished, or there was nothing to update
+        updated,
+        // The stack update was accepted and hasn't finished yet
+        started,
+        // The tenant has no base stack to update
+        skipped,
+        failed
+    }
+
+    @FunctionalInterface
+    public interface TenantUpdate {
+        Outcome update(Map<String, Object> tenant);
+    }
+
+    /**
+     * Where a started stack update stands now: {@code started} while it's still in progress.
+     */
+    @FunctionalInterface
+    public interface UpdateStatus {
+        Outcome poll(Map<String, Object> tenant);
+    }
+
+    private final int concurrency;
+    private final double maxFailureRate;
+    private final Set<String> canaryTiers;
+    private final long pollIntervalMillis;
+
+    public BaseStackRollout(int concurrency, double maxFailureRate, Set<String> canaryTiers) {
+        this(concurrency, maxFailureRate, canaryTiers, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    // Package private for testing
+    BaseStackRollout(int concurrency, double maxFailureRate, Set<String> canaryTiers, long pollIntervalMillis) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Rollout concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        this.maxFailureRate = maxFailureRate;
+        this.canaryTiers = canaryTiers != null ? canaryTiers : Collections.emptySet();
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Maps a CloudFormation stack status to the outcome of the update that put the stack there.
+     */
+    public static Outcome outcomeOf(String stackStatus) {
+        if ("UPDATE_COMPLETE".equals(stackStatus) || "UPDATE_COMPLETE_CLEANUP_IN_PROGRESS".equals(stackStatus)) {
+            return Outcome.updated;
+        }
+        if (stackStatus != null && stackStatus.endsWith("_IN_PROGRESS") && !stackStatus.contains("ROLLBACK")) {
+            return Outcome.started;
+        }
+        // Rolling back counts as failed already, there's no need to wait for the rollback to finish
+        return Outcome.failed;
+    }
+
+    /**
+     * Settings from ROLLOUT_CONCURRENCY, ROLLOUT_MAX_FAILURE_RATE and ROLLOUT_CANARY_TIERS (comma separated).
+     */
+    public static BaseStackRollout fromEnvironment() {
+        int concurrency = Utils.intFromEnvironment("ROLLOUT_CONCURRENCY", DEFAULT_CONCURRENCY);
+        double maxFailureRate = DEFAULT_MAX_FAILURE_RATE;
+        String setting = System.getenv("ROLLOUT_MAX_FAILURE_RATE");
+        if (Utils.isNotBlank(setting)) {
+            try {
+                maxFailureRate = Double.parseDouble(setting.trim());
+            } catch (NumberFormatException nfe) {
+                LOGGER.warn("Ignoring invalid ROLLOUT_MAX_FAILURE_RATE {}", setting);
+            }
+        }
+        Set<String> canaryTiers = Collections.emptySet();
+        setting = System.getenv("ROLLOUT_CANARY_TIERS");
+        if (Utils.isNotBlank(setting)) {
+            canaryTiers = Arrays.stream(setting.split(","))
+                    .map(String::trim)
+                    .filter(Utils::isNotBlank)
+                    .collect(Collectors.toSet());
+        }
+        return new BaseStackRollout(concurrency, maxFailureRate, canaryTiers);
+    }
+
+    public RolloutProgress run(RolloutProgress progress, List<Map<String, Object>> tenants, TenantUpdate update,
+                               UpdateStatus status, BooleanSupplier deadlineReached) {
+        final long startTimeMillis = System.currentTimeMillis();
+        AtomicInteger attempted = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Utils.daemonThreadPool(concurrency, "base-stack-rollout");
+        try {
+            // Updates the last run left in progress settle before anything new starts
+            Set<String> tenantIds = tenants.stream()
+                    .map(tenant -> (String) tenant.get("id"))
+                    .collect(Collectors.toSet());
+            progress.getInFlight().retainAll(tenantIds);
+            List<Map<String, Object>> inFlight = tenants.stream()
+                    .filter(tenant -> progress.getInFlight().contains((String) tenant.get("id")))
+                    .collect(Collectors.toList());
+            if (!inFlight.isEmpty()) {
+                runWave(inFlight, progress, tenant -> Outcome.started, status, deadlineReached, executor, attempted,
+                        failed);
+            }
+            if (progress.getInFlight().isEmpty() && progress.getStatus() == RolloutProgress.Status.running) {
+                for (List<Map<String, Object>> wave : waves(tenants, progress)) {
+                    runWave(wave, progress, update, status, deadlineReached, executor, attempted, failed);
+                    if (progress.getStatus() != RolloutProgress.Status.running) {
+                        break;
+                    }
+                    // A wave still waiting on stack updates at the deadline gates the next one
+                    if (!progress.getInFlight().isEmpty() || deadlineReached.getAsBoolean()) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (progress.getStatus() == RolloutProgress.Status.running && progress.getInFlight().isEmpty()
+                && remaining(tenants, progress).isEmpty()) {
+            progress.setStatus(progress.getFailed().isEmpty()
+                    ? RolloutProgress.Status.complete
+                    : RolloutProgress.Status.paused);
+        }
+        LOGGER.info("BaseStackRollout::run {} {} attempted {} failed {} done {} of {} exec {}",
+                progress.getRolloutId(), progress.getStatus(), attempted.get(), failed.get(),
+                progress.getDone().size(), tenants.size(), System.currentTimeMillis() - startTimeMillis);
+        return progress;
+    }
+
+    private void runWave(List<Map<String, Object>> wave, RolloutProgress progress, TenantUpdate update,
+                         UpdateStatus status, BooleanSupplier deadlineReached, ExecutorService executor,
+                         AtomicInteger attempted, AtomicInteger failed) {
+        Semaphore window = new Semaphore(concurrency);
+        for (Map<String, Object> tenant : wave) {
+            try {
+                window.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (failureRateExceeded(attempted.get(), failed.get(), concurrency)) {
+                LOGGER.error("Pausing rollout {} after {} of {} tenant updates failed", progress.getRolloutId(),
+                        failed.get(), attempted.get());
+                progress.setStatus(RolloutProgress.Status.paused);
+                window.release();
+                break;
+            }
+            if (deadlineReached.getAsBoolean()) {
+                window.release();
+                break;
+            }
+            final String tenantId = (String) tenant.get("id");
+            executor.execute(() -> {
+                Outcome outcome;
+                try {
+                    outcome = update.update(tenant);
+                    if (outcome == Outcome.started) {
+                        synchronized (progress) {
+                            progress.getInFlight().add(tenantId);
+                        }
+                        outcome = awaitUpdate(tenant, status, deadlineReached);
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("Base stack update failed for tenant {}", tenantId);
+                    LOGGER.error(Utils.getFullStackTrace(e));
+                    outcome = Outcome.failed;
+                }
+                synchronized (progress) {
+                    if (outcome != Outcome.started) {
+                        progress.getInFlight().remove(tenantId);
+                    }
+                    if (outcome == Outcome.failed) {
+                        progress.getFailed().add(tenantId);
+                    } else if (outcome != Outcome.started) {
+                        progress.getFailed().remove(tenantId);
+                        progress.getDone().add(tenantId);
+                    }
+                }
+                // Updates still in progress are counted by the run that sees them finish
+                if (outcome != Outcome.started) {
+                    if (outcome == Outcome.failed) {
+                        failed.incrementAndGet();
+                    }
+                    attempted.incrementAndGet();
+                }
+                window.release();
+            });
+        }
+        // Let this wave finish before the next one starts
+        window.acquireUninterruptibly(concurrency);
+        window.release(concurrency);
+        if (progress.getStatus() == RolloutProgress.Status.running
+                && failureRateExceeded(attempted.get(), failed.get(), 1)) {
+            LOGGER.error("Pausing rollout {} after {} of {} tenant updates failed", progress.getRolloutId(),
+                    failed.get(), attempted.get());
+            progress.setStatus(RolloutProgress.Status.paused);
+        }
+    }
+
+    // Polls until the stack update finishes, or returns started if the deadline comes first
+    private Outcome awaitUpdate(Map<String, Object> tenant, UpdateStatus status, BooleanSupplier deadlineReached) {
+        while (true) {
+            Outcome outcome = status.poll(tenant);
+            if (outcome != Outcome.started || deadlineReached.getAsBoolean()) {
+                return outcome;
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return Outcome.started;
+            }
+        }
+    }
+
+    // Mid wave, don't judge the failure rate on fewer samples than one full window
+    boolean failureRateExceeded(int attempted, int failed, int minSample) {
+        return failed > 0 && attempted >= minSample && ((double) failed / attempted) > maxFailureRate;
+    }
+
+    List<List<Map<String, Object>>> waves(List<Map<String, Object>> tenants, RolloutProgress progress) {
+        List<Map<String, Object>> canary = new ArrayList<>();
+        List<Map<String, Object>> rest = new ArrayList<>();
+        for (Map<String, Object> tenant : remaining(tenants, progress)) {
+            if (canaryTiers.contains(String.valueOf(tenant.get("tier")))) {
+                canary.add(tenant);
+            } else {
+                rest.add(tenant);
+            }
+        }
+        List<List<Map<String, Object>>> waves = new ArrayList<>();
+        if (!canary.isEmpty()) {
+            waves.add(canary);
+        }
+        if (!rest.isEmpty()) {
+            waves.add(rest);
+        }
+        return waves;
+    }
+
+    // Failed tenants wait for the rollout to be resumed rather than being retried by every continuation
+    private static List<Map<String, Object>> remaining(List<Map<String, Object>> tenants, RolloutProgress progress) {
+        return tenants.stream()
+                .filter(tenant -> !progress.getDone().contains((String) tenant.get("id")))
+                .filter(tenant -> !progress.getFailed().contains((String) tenant.get("id")))
+                .filter(tenant -> !progress.getInFlight().contains((String) tenant.get("id")))
+                .collect(Collectors.toList());
+    }
+}
@@ -33,6 +33,7 @@ public class Onboarding {
     private List<OnboardingStack> stacks = new ArrayList<>();
     private String zipFile;
     private boolean ecsClusterLocked;
+    private List<String> pendingServices = new ArrayList<>();
 
     public Onboarding() {
     }
@@ -126,6 +127,28 @@ public class Onboarding {
         this.ecsClusterLocked = locked;
     }
 
+    /**
+     * New application services whose stacks can't be created until the app stacks that are currently
+     * updating have finished. The stack status listener creates them once every stack is complete.
+     */
+    public List<String> getPendingServices() {
+        return pendingServices;
+    }
+
+    public void setPendingServices(List<String> pendingServices) {
+        this.pendingServices = pendingServices != null ? new ArrayList<>(pendingServices) : new ArrayList<>();
+    }
+
+    public void addPendingService(String service) {
+        if (service != null && !this.pendingServices.contains(service)) {
+            this.pendingServices.add(service);
+        }
+    }
+
+    public boolean hasPendingServices() {
+        return !getPendingServices().isEmpty();
+    }
+
     public boolean hasBaseStacks() {
         return !getStacks()
                 .stream()
@@ -37,8 +37,6 @@ import software.amazon.awssdk.services.directory.model.DescribeDirectoriesRespon
 import software.amazon.awssdk.services.directory.model.DirectoryDescription;
 import software.amazon.awssdk.services.ecr.EcrClient;
 import software.amazon.awssdk.services.ecr.model.EcrException;
-import software.amazon.awssdk.services.ecr.model.ImageIdentifier;
-import software.amazon.awssdk.services.ecr.model.ListImagesResponse;
 import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
 import software.amazon.awssdk.services.route53.Route53Client;
 import software.amazon.awssdk.services.route53.model.*;
@@ -56,6 +54,9 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 public class OnboardingService {
@@ -79,6 +80,11 @@ public class OnboardingService {
     private static final String RESOURCES_BUCKET = System.getenv("RESOURCES_BUCKET");
     private static final String TENANT_CONFIG_DLQ = System.getenv("TENANT_CONFIG_DLQ");
     private static final String RESOURCES_BUCKET_TEMP_FOLDER = "00temp/";
+    // Leaves room for the last stack status poll and saving the rollout progress
+    private static final long ROLLOUT_DEADLINE_MARGIN_MILLIS = 20000L;
+    private static final int MAX_UPDATE_STACK_ATTEMPTS = 5;
+    private static final long UPDATE_STACK_RETRY_BASE_MILLIS = 500L;
+    private static final int DEFAULT_VALIDATION_CONCURRENCY = 10;
     private final OnboardingServiceDAL dal;
     private final CloudFormationClient cfn;
     private final EventBridgeClient eventBridge;
@@ -119,6 +125,21 @@ public class OnboardingService {
         this.ds = Utils.sdkClient(DirectoryClient.builder(), DirectoryClient.SERVICE_NAME);
     }
 
+    // Package private for testing
+    OnboardingService(OnboardingServiceDAL dal, CloudFormationClient cfn, EventBridgeClient eventBridge,
+                      S3Client s3) {
+        this.dal = dal;
+        this.cfn = cfn;
+        this.eventBridge = eventBridge;
+        this.s3 = s3;
+        this.ecr = null;
+        this.presigner = null;
+        this.route53 = null;
+        this.sqs = null;
+        this.codePipeline = null;
+        this.ds = null;
+    }
+
     /**
      * Get an onboarding record by id. Integration for GET /onboarding/{id} endpoint.
      * @param event API Gateway proxy request event containing an id path parameter
@@ -149,10 +170,12 @@ public class OnboardingService {
     }
 
     /**
-     * Get all onboarding records. Integration for GET /onboarding endpoint
+     * Get all onboarding records. Integration for GET /onboarding endpoint. Supports optional
+     * tenantId, status, limit and nextToken query parameters. Passing limit or nextToken returns
+     * a single page with the token for the next one.
      * @param event API Gateway proxy request event
      * @param context
-     * @return List of onboarding objects
+     * @return List of onboarding objects, or a page of them when paging was requested
      */
     public APIGatewayProxyResponseEvent getOnboardings(Map<String, Object> event, Context context) {
         if (Utils.warmup(event)) {
@@ -162,18 +185,35 @@ public class OnboardingService {
 
         //Utils.logRequestEvent(event);
         APIGatewayProxyResponseEvent response;
-        List<Onboarding> onboardings;
         Map<String, String> queryParams = (Map<String, String>) event.get("queryStringParameters");
-        if (queryParams != null && queryParams.containsKey("tenantId")
-                && Utils.isNotBlank(queryParams.get("tenantId"))) {
-            onboardings = Collections.singletonList(dal.getOnboardingByTenantId(queryParams.get("tenantId")));
-        } else {
-            onboardings = dal.getOnboardings();
+        if (queryParams == null) {
+            queryParams = Collections.emptyMap();
+        }
+        try {
+            Object onboardings;
+            OnboardingStatus status = Utils.isNotBlank(queryParams.get("status"))
+                    ? OnboardingStatus.valueOf(queryParams.get("status")) : null;
+            if (Utils.isNotBlank(queryParams.get("tenantId"))) {
+                onboardings = Collections.singletonList(dal.getOnboardingByTenantId(queryParams.get("tenantId")));
+            } else if (Utils.isNotBlank(queryParams.get("limit")) || Utils.isNotBlank(queryParams.get("nextToken"))) {
+                // Callers asking for pages get an items + nextToken envelope, everyone else keeps the plain list
+                Integer limit = Utils.isNotBlank(queryParams.get("limit"))
+                        ? Integer.valueOf(queryParams.get("limit")) : null;
+                onboardings = dal.getOnboardings(status, limit, queryParams.get("nextToken"));
+            } else {
+                onboardings = dal.getOnboardings(status);
+            }
+            response = new APIGatewayProxyResponseEvent()
+                    .withHeaders(CORS)
+                    .withStatusCode(200)
+                    .withBody(Utils.toJson(onboardings));
+        } catch (IllegalArgumentException badRequest) {
+            // Also covers NumberFormatException for a malformed limit
+            response = new APIGatewayProxyResponseEvent()
+                    .withHeaders(CORS)
+                    .withStatusCode(400)
+                    .withBody(Utils.toJson(Map.of("message", String.valueOf(badRequest.getMessage()))));
         }
-        response = new APIGatewayProxyResponseEvent()
-                .withHeaders(CORS)
-                .withStatusCode(200)
-                .withBody(Utils.toJson(onboardings));
 
         return response;
     }
@@ -366,6 +406,10 @@ public class OnboardingService {
                         LOGGER.info("Handling Onboarding Base Updated");
                         handleOnboardingBaseUpdated(event, context);
                         break;
+                    case ONBOARDING_BASE_ROLLOUT_CONTINUED:
+                        LOGGER.info("Handling Onboarding Base Rollout Continued");
+                        handleUpdateTenantBaseInfrastructure(event, context);
+                        break;
                     case ONBOARDING_PROVISIONED:
                         LOGGER.info("Handling Onboarding Provisioning Complete");
                         handleOnboardingProvisioned(event, context);
@@ -678,6 +722,10 @@ public class OnboardingService {
                                             Map.of("onboardingId", onboarding.getId())
                                     );
                                 }
+                            } else if (!stack.isBaseStack() && onboarding.stacksComplete()
+                                    && onboarding.hasPendingServices()) {
+                                // The stack updates that new services were waiting on are done
+                                createPendingAppStacks(onboarding, context);
                             } else if (!stack.isBaseStack() && onboarding.stacksComplete()) {
                                 LOGGER.info("All onboarding stacks provisioned");
                                 Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, "saas-boost",
@@ -691,6 +739,13 @@ public class OnboardingService {
                         } else if (stack.isBaseStack() && stack.isDeleted()) {
                             onboarding.setStatus(OnboardingStatus.deleted);
                             dal.updateOnboarding(onboarding);
+                            // The tenant VPC is gone, so its CIDR block can go back in the pool
+                            try {
+                                dal.releaseCidrBlock(tenantId);
+                            } catch (Exception e) {
+                                LOGGER.error("Could not release CIDR block for tenant {}", tenantId);
+                                LOGGER.error(Utils.getFullStackTrace(e));
+                            }
                             // Let the tenant service know the onboarding status
                             Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
                                     "Tenant Onboarding Status Changed",
@@ -819,11 +874,36 @@ public class OnboardingService {
                 Map<String, Integer> pathPriority = getPathPriority(appConfig);
 
                 // We may need to update the service discovery environment variables if private services were added
-                Properties serviceDiscovery = new Properties();
+                Properties serviceDiscovery = loadPropertiesFileFromS3(s3, RESOURCES_BUCKET, "ServiceDiscovery.env",
+                        onboarding.getTenantId().toString());
+
+                // New services are the ones without an app stack yet
+                List<Map.Entry<String, Object>> newServices = new ArrayList<>();
+                boolean publicUpdates = false;
+                for (Map.Entry<String, Object> serviceConfig : services.entrySet()) {
+                    boolean found = onboarding.getStacks().stream().anyMatch(stack -> !stack.isBaseStack()
+                            && serviceConfig.getKey().equals(stack.getService()));
+                    if (!found) {
+                        newServices.add(serviceConfig);
+                    } else if ((Boolean) ((Map<String, Object>) serviceConfig.getValue()).get("public")) {
+                        publicUpdates = true;
+                    }
+                }
+                // Creating a new service stack now would race the public service stacks we're about to
+                // update for load balancer rule priorities, and the stack status listener could mark the
+                // onboarding provisioned before the new stack exists. Record the new services before the
+                // first update starts and let the listener create them once every stack is complete.
+                final boolean deferNewServices = publicUpdates && !newServices.isEmpty();
+                if (deferNewServices) {
+                    List<String> pending = newServices.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+                    LOGGER.info("Deferring new services {} for tenant {} until stack updates complete", pending,
+                            onboarding.getTenantId());
+                    dal.addPendingServices(onboarding.getId(), pending);
+                }
 
                 List<String> update = new ArrayList<>();
+                List<String> updating = new ArrayList<>();
                 for (Map.Entry<String, Object> serviceConfig : services.entrySet()) {
-                    int found = 0;
                     String serviceName = serviceConfig.getKey();
                     Map<String, Object> service = (Map<String, Object>) serviceConfig.getValue();
                     for (OnboardingStack stack : onboarding.getStacks()) {
@@ -832,7 +912,6 @@ public class OnboardingService {
                             continue;
                         }
                         if (serviceName.equals(stack.getService())) {
-                            found++;
                             if ((Boolean) service.get("public")) {
                                 Integer publicPathRulePriority = pathPriority.get(serviceName);
                                 // TODO this will break if there's an existing ALB listener rule with this priority
@@ -855,6 +934,7 @@ public class OnboardingService {
                                     }
                                     stack.setStatus("UPDATE_IN_PROGRESS");
                                     update.add(stackId);
+                                    updating.add(stackId);
                                     onboarding.setStatus(OnboardingStatus.updating);
                                     dal.updateOnboarding(onboarding);
                                 } catch (SdkServiceException cfnError) {
@@ -875,52 +955,33 @@ public class OnboardingService {
                     if (update.isEmpty()) {
                         LOGGER.warn("No publicly addressable services found to update");
                     }
+                }
 
-                    if (found == 0) {
-                        // New service config
-                        LOGGER.info("Adding new service {} for tenant {}", serviceName, onboarding.getTenantId());
-                        OnboardingAppStackParameters parameters = new OnboardingAppStackParameters();
-                        parameters.setProperty("Environment", SAAS_BOOST_ENV);
-                        parameters.setProperty("OnboardingDdbTable", ONBOARDING_TABLE);
-                        parameters.setProperty("EventBus", SAAS_BOOST_EVENT_BUS);
-                        parameters.setProperty("MetricsStream", SAAS_BOOST_METRICS_STREAM);
-
-                        // First get the tenant specific parameters created during base provisioning.
-                        // This requires a call to the Tenant Service.
-                        try {
-                            onboardingAppStackTenantParams(onboarding, parameters, context);
-                        } catch (RuntimeException e) {
-                            LOGGER.error(e.getMessage());
-                            LOGGER.error(Utils.getFullStackTrace(e));
-                            failOnboarding(onboarding.getId(), e.getMessage());
-                            return;
-                        }
-                        if (!update.isEmpty()) {
-                            // If we had to update existing public services, we really should wait for
-                            // those stacks to be in UPDATE_COMPLETE prior to creating any new service
-                            // stacks to avoid race conditions on the load balancer rule priority values.
-                            //for (String updatingStack : update) {
-                            //    cfn.waiter().waitUntilStackUpdateComplete(request -> request
-                            //            .stackName(updatingStack));
-                            //}
-                            // However, due to our current stack status change listener, we'd mark the
-                            // onboarding record provisioned prematurely because it won't have the new
-                            // service stack in it yet (happens has part of createOnboardingAppStack call
-                            // below) but all of the non base stacks will be in a completed state.
-                            // TODO create a more fine grained set of events to track this use case specifically
-                            try {
-                                // For now we'll arbitrarily give the update stack calls a head start
-                                LOGGER.info("Pausing new service stack creation for existing services to update");
-                                Thread.sleep(10000 * update.size());
-                            } catch (InterruptedException cantSleep) {
-                                LOGGER.error("Unable to pause thread");
-                                Thread.currentThread().interrupt();
-                            }
-                        }
-                        OnboardingStack newServiceStack = createOnboardingAppStack(onboarding, serviceConfig,
-                                pathPriority, parameters, serviceDiscovery, context);
-                        update.add(newServiceStack.getArn());
+                // Deferred services are created by createPendingAppStacks instead
+                List<Map.Entry<String, Object>> createNow = deferNewServices ? Collections.emptyList() : newServices;
+                for (Map.Entry<String, Object> serviceConfig : createNow) {
+                    String serviceName = serviceConfig.getKey();
+                    // New service config
+                    LOGGER.info("Adding new service {} for tenant {}", serviceName, onboarding.getTenantId());
+                    OnboardingAppStackParameters parameters = new OnboardingAppStackParameters();
+                    parameters.setProperty("Environment", SAAS_BOOST_ENV);
+                    parameters.setProperty("OnboardingDdbTable", ONBOARDING_TABLE);
+                    parameters.setProperty("EventBus", SAAS_BOOST_EVENT_BUS);
+                    parameters.setProperty("MetricsStream", SAAS_BOOST_METRICS_STREAM);
+
+                    // First get the tenant specific parameters created during base provisioning.
+                    // This requires a call to the Tenant Service.
+                    try {
+                        onboardingAppStackTenantParams(onboarding, parameters, context);
+                    } catch (RuntimeException e) {
+                        LOGGER.error(e.getMessage());
+                        LOGGER.error(Utils.getFullStackTrace(e));
+                        failOnboarding(onboarding.getId(), e.getMessage());
+                        return;
                     }
+                    OnboardingStack newServiceStack = createOnboardingAppStack(onboarding, serviceConfig,
+                            pathPriority, parameters, serviceDiscovery, context);
+                    update.add(newServiceStack.getArn());
                 }
 
                 // Write the application-wide environment variables to S3 so each service container can load it up
@@ -934,6 +995,14 @@ public class OnboardingService {
                     return;
                 }
 
+                if (deferNewServices && updating.isEmpty()) {
+                    // None of the public service stacks needed an update after all, so no stack events will
+                    // come along to create the pending services
+                    for (OnboardingStack newServiceStack : createPendingAppStacks(onboarding, context)) {
+                        update.add(newServiceStack.getArn());
+                    }
+                }
+
                 if (!update.isEmpty()) {
                     onboarding.setStatus(OnboardingStatus.updating);
                     dal.updateOnboarding(onboarding);
@@ -1143,179 +1212,48 @@ public class OnboardingService {
         if (Utils.isBlank(ONBOARDING_VALIDATION_DLQ)) {
             throw new IllegalStateException("Missing required environment variable ONBOARDING_VALIDATION_DLQ");
         }
+        final long startTimeMillis = System.currentTimeMillis();
         List<SQSBatchResponse.BatchItemFailure> retry = new ArrayList<>();
         List<SQSEvent.SQSMessage> fatal = new ArrayList<>();
-        sqsMessageLoop:
-        for (SQSEvent.SQSMessage message : event.getRecords()) {
-            String messageId = message.getMessageId();
-            String messageBody = message.getBody();
-
-            LinkedHashMap<String, Object> detail = Utils.fromJson(messageBody, LinkedHashMap.class);
-            String onboardingId = (String) detail.get("onboardingId");
-            LOGGER.info("Processing onboarding validation for {}", onboardingId);
-            Onboarding onboarding = dal.getOnboarding(onboardingId);
-            OnboardingRequest onboardingRequest = onboarding.getRequest();
-            if (onboardingRequest == null) {
-                LOGGER.error("No onboarding request data for {}", onboardingId);
-                fatal.add(message);
-                failOnboarding(onboardingId, "Onboarding record has no request content");
-            } else if (OnboardingStatus.validating != onboarding.getStatus()) {
-                LOGGER.warn("Onboarding in unexpected state for validation {} {}", onboardingId, onboarding.getStatus());
-                fatal.add(message);
-                failOnboarding(onboardingId, "Onboarding can't be validated when in state "
-                        + onboarding.getStatus());
-            } else {
-                Map<String, Object> appConfig = getAppConfig(context);
-                // Check to see if there are any images in the ECR repo before allowing onboarding
-                Map<String, Object> services = (Map<String, Object>) appConfig.get("services");
-                if (services.isEmpty()) {
-                    LOGGER.warn("No application services defined in AppConfig");
+        List<SQSEvent.SQSMessage> messages = event.getRecords();
+        // Validate the whole batch at once. Requests wait on separate threads from the lookups they
+        // share so a full pool of waiting requests can't starve the ECR and Route53 calls.
+        int concurrency = Math.min(Utils.intFromEnvironment("VALIDATION_CONCURRENCY", DEFAULT_VALIDATION_CONCURRENCY),
+                messages.size());
+        ExecutorService validators = Utils.daemonThreadPool(concurrency, "onboarding-validation");
+        ExecutorService lookupExecutor = Utils.daemonThreadPool(concurrency, "onboarding-validation-lookup");
+        try {
+            ValidationLookups lookups = new ValidationLookups(ecr, route53, lookupExecutor);
+            CompletableFuture<Map<String, Object>> appConfig = lookups.submit(() -> getAppConfig(context));
+            List<CompletableFuture<ValidationResult>> results = new ArrayList<>();
+            for (SQSEvent.SQSMessage message : messages) {
+                results.add(CompletableFuture.supplyAsync(
+                        () -> validateOnboarding(message, appConfig, lookups, context), validators));
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                SQSEvent.SQSMessage message = messages.get(i);
+                ValidationResult result;
+                try {
+                    result = await(results.get(i));
+                } catch (Exception e) {
+                    // One bad message shouldn't fail the whole batch. The queue's redrive policy moves
+                    // it to the DLQ if it keeps failing.
+                    LOGGER.error("Unexpected error validating message {}", message.getMessageId());
+                    LOGGER.error(Utils.getFullStackTrace(e));
+                    result = ValidationResult.retry;
+                }
+                if (ValidationResult.retry == result) {
                     retry.add(SQSBatchResponse.BatchItemFailure.builder()
-                            .withItemIdentifier(messageId)
+                            .withItemIdentifier(message.getMessageId())
                             .build()
                     );
-                } else {
-                    int missingImages = 0;
-                    for (Map.Entry<String, Object> serviceConfig : services.entrySet()) {
-                        String serviceName = serviceConfig.getKey();
-                        Map<String, Object> service = (Map<String, Object>) serviceConfig.getValue();
-                        Map<String, Object> serviceCompute = (Map<String, Object>) service.get("compute");
-                        String ecrRepo = (String) serviceCompute.get("containerRepo");
-                        String imageTag = (String) serviceCompute.getOrDefault("containerTag", "latest");
-                        if (Utils.isNotBlank(ecrRepo)) {
-                            try {
-                                ListImagesResponse dockerImages = ecr.listImages(request -> request
-                                        .repositoryName(ecrRepo));
-                                boolean imageAvailable = false;
-                                // ListImagesResponse::hasImageIds will return true if the imageIds object is not null
-                                if (dockerImages.hasImageIds()) {
-                                    for (ImageIdentifier image : dockerImages.imageIds()) {
-                                        if (imageTag.equals(image.imageTag())) {
-                                            imageAvailable = true;
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (!imageAvailable) {
-                                    // Not valid yet, no container image to deploy
-                                    LOGGER.warn("Application Service {} does not have an image tagged {}",
-                                            serviceName, imageTag);
-                                    missingImages++;
-                                }
-                            } catch (EcrException ecrError) {
-                                LOGGER.error("ecr:ListImages error {}", ecrError.awsErrorDetails().errorMessage());
-                                LOGGER.error(Utils.getFullStackTrace(ecrError));
-                                // TODO do we bail here or retry?
-                                failOnboarding(onboardingId, "Can't list images from ECR "
-                                        + ecrError.awsErrorDetails().errorMessage());
-                                fatal.add(message);
-                                continue sqsMessageLoop;
-                            }
-                        } else {
-                            // TODO no repo defined for this service yet...
-                            LOGGER.warn("Application Service {} has no container image repository defined",
-                                    serviceName);
-                            missingImages++;
-                        }
-                    }
-                    if (missingImages > 0) {
-                        retry.add(SQSBatchResponse.BatchItemFailure.builder()
-                                .withItemIdentifier(messageId)
-                                .build()
-                        );
-                        continue;
-                    }
-
-                    // Do we have any CIDR blocks left for a new tenant VPC
-                    if (!dal.availableCidrBlock()) {
-                        LOGGER.error("No CIDR blocks available for new VPC");
-                        failOnboarding(onboardingId, "No CIDR blocks available for new VPC");
-                        fatal.add(message);
-                        continue;
-                    }
-
-                    // Make sure we're using a unique subdomain per tenant
-                    String subdomain = onboardingRequest.getSubdomain();
-                    if (Utils.isNotBlank(subdomain)) {
-                        String hostedZoneId = (String) appConfig.get("hostedZone");
-                        String domainName = (String) appConfig.get("domainName");
-                        if (Utils.isBlank(hostedZoneId) || Utils.isBlank(domainName)) {
-                            LOGGER.error("Can't onboard a subdomain without domain name and hosted zone");
-                            failOnboarding(onboardingId, "Can't define tenant subdomain " + subdomain
-                                    + " without a domain name and hosted zone.");
-                            fatal.add(message);
-                            continue;
-                        } else {
-                            // Ask Route53 for all the records of this hosted zone
-                            try {
-                                ListResourceRecordSetsResponse recordSets = route53.listResourceRecordSets(r -> r
-                                        .hostedZoneId(hostedZoneId)
-                                );
-                                if (recordSets.hasResourceRecordSets()) {
-                                    boolean duplicateSubdomain = false;
-                                    for (ResourceRecordSet recordSet : recordSets.resourceRecordSets()) {
-                                        if (RRType.A == recordSet.type()) {
-                                            // Hosted Zone alias for the tenant subdomain
-                                            String recordSetName = recordSet.name();
-                                            String existingSubdomain = recordSetName.substring(0,
-                                                    recordSetName.indexOf(domainName) - 1);
-                                            if (subdomain.equalsIgnoreCase(existingSubdomain)) {
-                                                duplicateSubdomain = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                    if (duplicateSubdomain) {
-                                        LOGGER.error("Tenant subdomain " + subdomain
-                                                + " is already in use for this hosted zone.");
-                                        failOnboarding(onboardingId, "Tenant subdomain " + subdomain
-                                                + " is already in use for this hosted zone.");
-                                        fatal.add(message);
-                                        continue;
-                                    }
-                                }
-                            } catch (Route53Exception route53Error) {
-                                LOGGER.error("route53:ListResourceRecordSets error", route53Error);
-                                LOGGER.error(Utils.getFullStackTrace(route53Error));
-                                failOnboarding(onboardingId, "Can't list Route53 record sets "
-                                        + route53Error.awsErrorDetails().errorMessage());
-                                fatal.add(message);
-                                continue;
-                            }
-                        }
-                    }
-
-                    // Check if Quotas will be exceeded.
-                    try {
-                        Map<String, Object> retMap = checkLimits(context);
-                        Boolean passed = (Boolean) retMap.get("passed");
-                        String quotaMessage = (String) retMap.get("message");
-                        if (!passed) {
-                            LOGGER.error("Provisioning will exceed limits. {}", quotaMessage);
-                            failOnboarding(onboardingId, "Provisioning will exceed limits " + quotaMessage);
-                            fatal.add(message);
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        LOGGER.warn("Error checking Service Quotas with Private API quotas/check", e);
-                        LOGGER.warn((Utils.getFullStackTrace(e)));
-                        // TODO retry here and see if Quotas comes back online?
-                        retry.add(SQSBatchResponse.BatchItemFailure.builder()
-                                .withItemIdentifier(messageId)
-                                .build()
-                        );
-                        continue;
-                    }
-
-                    // If we made it to the end without continuing on to the next SQS message,
-                    // this message is valid
-                    LOGGER.info("Onboarding request validated for {}", onboardingId);
-                    Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, "saas-boost",
-                            OnboardingEvent.ONBOARDING_VALID.detailType(),
-                            Map.of("onboardingId", onboarding.getId())
-                    );
+                } else if (ValidationResult.fatal == result) {
+                    fatal.add(message);
                 }
             }
+        } finally {
+            validators.shutdown();
+            lookupExecutor.shutdown();
         }
         if (!fatal.isEmpty()) {
             LOGGER.info("Moving non-recoverable failures to DLQ");
@@ -1332,9 +1270,163 @@ public class OnboardingService {
             );
             LOGGER.info(dlq.toString());
         }
+        LOGGER.info("OnboardingService::processValidateOnboardingQueue {} messages {} retry {} fatal exec {}",
+                messages.size(), retry.size(), fatal.size(), System.currentTimeMillis() - startTimeMillis);
         return SQSBatchResponse.builder().withBatchItemFailures(retry).build();
     }
 
+    private ValidationResult validateOnboarding(SQSEvent.SQSMessage message,
+                                                CompletableFuture<Map<String, Object>> appConfigLookup,
+                                                ValidationLookups lookups, Context context) {
+        LinkedHashMap<String, Object> detail = Utils.fromJson(message.getBody(), LinkedHashMap.class);
+        String onboardingId = (String) detail.get("onboardingId");
+        LOGGER.info("Processing onboarding validation for {}", onboardingId);
+        Onboarding onboarding = dal.getOnboarding(onboardingId);
+        if (onboarding == null) {
+            LOGGER.error("No onboarding record for {}", onboardingId);
+            return ValidationResult.fatal;
+        }
+        OnboardingRequest onboardingRequest = onboarding.getRequest();
+        if (onboardingRequest == null) {
+            LOGGER.error("No onboarding request data for {}", onboardingId);
+            failOnboarding(onboardingId, "Onboarding record has no request content");
+            return ValidationResult.fatal;
+        }
+        if (OnboardingStatus.validating != onboarding.getStatus()) {
+            LOGGER.warn("Onboarding in unexpected state for validation {} {}", onboardingId, onboarding.getStatus());
+            failOnboarding(onboardingId, "Onboarding can't be validated when in state "
+                    + onboarding.getStatus());
+            return ValidationResult.fatal;
+        }
+        Map<String, Object> appConfig = await(appConfigLookup);
+        Map<String, Object> services = (Map<String, Object>) appConfig.get("services");
+        if (services.isEmpty()) {
+            LOGGER.warn("No application services defined in AppConfig");
+            return ValidationResult.retry;
+        }
+
+        // None of the checks depend on each other, so start all of them before waiting on any
+        int missingImages = 0;
+        Map<String, CompletableFuture<Set<String>>> imageTags = new LinkedHashMap<>();
+        Map<String, String> expectedTags = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> serviceConfig : services.entrySet()) {
+            String serviceName = serviceConfig.getKey();
+            Map<String, Object> service = (Map<String, Object>) serviceConfig.getValue();
+            Map<String, Object> serviceCompute = (Map<String, Object>) service.get("compute");
+            String ecrRepo = (String) serviceCompute.get("containerRepo");
+            if (Utils.isNotBlank(ecrRepo)) {
+                imageTags.put(serviceName, lookups.imageTags(ecrRepo));
+                expectedTags.put(serviceName, (String) serviceCompute.getOrDefault("containerTag", "latest"));
+            } else {
+                // TODO no repo defined for this service yet...
+                LOGGER.warn("Application Service {} has no container image repository defined", serviceName);
+                missingImages++;
+            }
+        }
+        final CompletableFuture<Boolean> cidrBlockAvailable = lookups.submit(dal::availableCidrBlock);
+        final CompletableFuture<Map<String, Object>> quotas = lookups.submit(() -> checkLimits(context));
+        String subdomain = onboardingRequest.getSubdomain();
+        String hostedZoneId = (String) appConfig.get("hostedZone");
+        String domainName = (String) appConfig.get("domainName");
+        CompletableFuture<List<ResourceRecordSet>> recordSets = null;
+        if (Utils.isNotBlank(subdomain) && Utils.isNotBlank(hostedZoneId) && Utils.isNotBlank(domainName)) {
+            recordSets = lookups.recordSets(hostedZoneId);
+        }
+
+        // Check to see if there are any images in the ECR repo before allowing onboarding
+        for (Map.Entry<String, CompletableFuture<Set<String>>> serviceImages : imageTags.entrySet()) {
+            String serviceName = serviceImages.getKey();
+            String imageTag = expectedTags.get(serviceName);
+            try {
+                if (!await(serviceImages.getValue()).contains(imageTag)) {
+                    // Not valid yet, no container image to deploy
+                    LOGGER.warn("Application Service {} does not have an image tagged {}", serviceName, imageTag);
+                    missingImages++;
+                }
+            } catch (EcrException ecrError) {
+                LOGGER.error("ecr:ListImages error {}", ecrError.awsErrorDetails().errorMessage());
+                LOGGER.error(Utils.getFullStackTrace(ecrError));
+                if (SdkRetry.isThrottledOrServerError(ecrError)) {
+                    return ValidationResult.retry;
+                }
+                // TODO do we bail here or retry?
+                failOnboarding(onboardingId, "Can't list images from ECR "
+                        + ecrError.awsErrorDetails().errorMessage());
+                return ValidationResult.fatal;
+            }
+        }
+        if (missingImages > 0) {
+            return ValidationResult.retry;
+        }
+
+        // Do we have any CIDR blocks left for a new tenant VPC
+        if (!await(cidrBlockAvailable)) {
+            LOGGER.error("No CIDR blocks available for new VPC");
+            failOnboarding(onboardingId, "No CIDR blocks available for new VPC");
+            return ValidationResult.fatal;
+        }
+
+        // Make sure we're using a unique subdomain per tenant
+        if (Utils.isNotBlank(subdomain)) {
+            if (recordSets == null) {
+                LOGGER.error("Can't onboard a subdomain without domain name and hosted zone");
+                failOnboarding(onboardingId, "Can't define tenant subdomain " + subdomain
+                        + " without a domain name and hosted zone.");
+                return ValidationResult.fatal;
+            }
+            try {
+                if (ValidationLookups.subdomainInUse(await(recordSets), domainName, subdomain)) {
+                    LOGGER.error("Tenant subdomain " + subdomain + " is already in use for this hosted zone.");
+                    failOnboarding(onboardingId, "Tenant subdomain " + subdomain
+                            + " is already in use for this hosted zone.");
+                    return ValidationResult.fatal;
+                }
+            } catch (Route53Exception route53Error) {
+                LOGGER.error("route53:ListResourceRecordSets error", route53Error);
+                LOGGER.error(Utils.getFullStackTrace(route53Error));
+                if (SdkRetry.isThrottledOrServerError(route53Error)) {
+                    return ValidationResult.retry;
+                }
+                failOnboarding(onboardingId, "Can't list Route53 record sets "
+                        + route53Error.awsErrorDetails().errorMessage());
+                return ValidationResult.fatal;
+            }
+        }
+
+        // Check if Quotas will be exceeded.
+        try {
+            Map<String, Object> retMap = await(quotas);
+            Boolean passed = (Boolean) retMap.get("passed");
+            String quotaMessage = (String) retMap.get("message");
+            if (!passed) {
+                LOGGER.error("Provisioning will exceed limits. {}", quotaMessage);
+                failOnboarding(onboardingId, "Provisioning will exceed limits " + quotaMessage);
+                return ValidationResult.fatal;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Error checking Service Quotas with Private API quotas/check", e);
+            LOGGER.warn((Utils.getFullStackTrace(e)));
+            // TODO retry here and see if Quotas comes back online?
+            return ValidationResult.retry;
+        }
+
+        // Only one request per batch gets a subdomain that isn't in Route53 yet
+        if (Utils.isNotBlank(subdomain) && !lookups.claimSubdomain(hostedZoneId, subdomain)) {
+            LOGGER.error("Tenant subdomain " + subdomain + " is already requested by another onboarding.");
+            failOnboarding(onboardingId, "Tenant subdomain " + subdomain
+                    + " is already in use for this hosted zone.");
+            return ValidationResult.fatal;
+        }
+
+        // If we made it to the end without returning early, this message is valid
+        LOGGER.info("Onboarding request validated for {}", onboardingId);
+        Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, "saas-boost",
+                OnboardingEvent.ONBOARDING_VALID.detailType(),
+                Map.of("onboardingId", onboarding.getId())
+        );
+        return ValidationResult.valid;
+    }
+
     public SQSBatchResponse processTenantConfigQueue(SQSEvent event, Context context) {
         LOGGER.info(Utils.toJson(event));
         if (Utils.isBlank(TENANT_CONFIG_DLQ)) {
@@ -1507,65 +1599,136 @@ public class OnboardingService {
                     )
             );
 
-            for (Map<String, Object> tenant : provisionedTenants) {
-                Onboarding onboarding = dal.getOnboardingByTenantId((String) tenant.get("id"));
-                if (onboarding != null) {
-                    OnboardingStack baseStack = onboarding.baseStack();
-                    if (baseStack != null) {
-                        boolean update = false;
-                        String stackName = baseStack.getName();
-                        LOGGER.info("Calling cloudFormation update-stack --stack-name {}", stackName);
-                        try {
-                            cfn.updateStack(UpdateStackRequest.builder()
-                                    .stackName(stackName)
-                                    .usePreviousTemplate(Boolean.TRUE)
-                                    .capabilitiesWithStrings("CAPABILITY_NAMED_IAM", "CAPABILITY_AUTO_EXPAND")
-                                    .parameters(parameters)
-                                    .build()
-                            );
-                            baseStack.setStatus("UPDATE_IN_PROGRESS");
-                            onboarding.setStatus(OnboardingStatus.updating);
-                            dal.updateOnboarding(onboarding);
-                            update = true;
-                        } catch (SdkServiceException cfnError) {
-                            // CloudFormation throws a 400 error if it doesn't detect any resources in a stack
-                            // need to be updated.
-                            if (cfnError.getMessage().contains("No updates are to be performed")) {
-                                LOGGER.warn("cloudformation::updateStack {}", cfnError.getMessage());
-                                // However, there may be changes to the updated app config that effect
-                                // the services, so we need to publish that the base stack has been
-                                // updated successfully
-                                Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
-                                        OnboardingEvent.ONBOARDING_BASE_UPDATED.detailType(),
-                                        Map.of("onboardingId", onboarding.getId())
-                                );
-                            } else {
-                                LOGGER.error("cloudformation::updateStack {}", cfnError.getMessage());
-                                LOGGER.error(Utils.getFullStackTrace(cfnError));
-                                throw cfnError;
-                            }
-                        }
+            // A continuation picks up where the previous invocation ran out of time, as long as the app config
+            // hasn't changed since. Anything else is a new app config update, which resumes an unfinished or
+            // paused rollout of the same parameters or starts over.
+            String fingerprint = Integer.toHexString(parameters.toString().hashCode());
+            RolloutProgress progress = dal.getRolloutProgress();
+            if (OnboardingEvent.ONBOARDING_BASE_ROLLOUT_CONTINUED.detailType().equals(event.get("detail-type"))) {
+                Map<String, Object> detail = (Map<String, Object>) event.get("detail");
+                if (progress == null || !progress.getRolloutId().equals(detail.get("rolloutId"))
+                        || progress.getStatus() != RolloutProgress.Status.running) {
+                    LOGGER.info("Rollout {} is no longer running", detail.get("rolloutId"));
+                    return;
+                }
+                if (!fingerprint.equals(progress.getFingerprint())) {
+                    LOGGER.info("Rollout {} was superseded by a newer app config", progress.getRolloutId());
+                    return;
+                }
+            } else if (progress != null && fingerprint.equals(progress.getFingerprint())
+                    && progress.getStatus() != RolloutProgress.Status.complete) {
+                LOGGER.info("Resuming {} rollout {}", progress.getStatus(), progress.getRolloutId());
+                progress.resume();
+            } else {
+                long version = progress != null ? progress.getVersion() : 0L;
+                progress = RolloutProgress.start(fingerprint);
+                progress.setVersion(version);
+            }
 
-                        if (update) {
-                            // Let the tenant service know the onboarding status
-                            Utils.publishEvent(eventBridge, SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
-                                    "Tenant Onboarding Status Changed",
-                                    Map.of(
-                                            "tenantId", tenant.get("id"),
-                                            "onboardingStatus",  onboarding.getStatus()
-                                    )
-                            );
-                        }
-                    } else {
-                        LOGGER.error("Can't find base stack in onboarding record for tenant {}", tenant.get("id"));
-                    }
-                } else {
-                    LOGGER.error("Can't find onboarding record for tenant {}", tenant.get("id"));
+            // Claim the rollout before touching any stacks so two invocations never run it at the same time
+            if (!dal.saveRolloutProgress(progress)) {
+                LOGGER.info("Rollout {} is being run by another invocation", progress.getRolloutId());
+                return;
+            }
+
+            // Batch the per-tenant events instead of one PutEvents call per tenant
+            try (EventBridgePublisher publisher = new EventBridgePublisher(eventBridge)) {
+                progress = BaseStackRollout.fromEnvironment().run(progress, provisionedTenants,
+                        tenant -> updateTenantBaseStack(tenant, parameters, publisher),
+                        this::baseStackUpdateStatus,
+                        () -> context.getRemainingTimeInMillis() < ROLLOUT_DEADLINE_MARGIN_MILLIS
+                );
+                if (!dal.saveRolloutProgress(progress)) {
+                    LOGGER.error("Rollout {} was taken over by another invocation", progress.getRolloutId());
+                    return;
+                }
+                if (progress.getStatus() == RolloutProgress.Status.running) {
+                    LOGGER.info("Continuing rollout {} in a new invocation", progress.getRolloutId());
+                    publisher.publish(SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
+                            OnboardingEvent.ONBOARDING_BASE_ROLLOUT_CONTINUED.detailType(),
+                            Map.of("rolloutId", progress.getRolloutId())
+                    );
+                } else if (progress.getStatus() == RolloutProgress.Status.paused) {
+                    LOGGER.error("Rollout {} paused with failed tenants {}", progress.getRolloutId(),
+                            progress.getFailed());
                 }
             }
         }
     }
 
+    protected BaseStackRollout.Outcome updateTenantBaseStack(Map<String, Object> tenant, List<Parameter> parameters,
+                                                             EventBridgePublisher publisher) {
+        Onboarding onboarding = dal.getOnboardingByTenantId((String) tenant.get("id"));
+        if (onboarding == null) {
+            LOGGER.error("Can't find onboarding record for tenant {}", tenant.get("id"));
+            return BaseStackRollout.Outcome.skipped;
+        }
+        OnboardingStack baseStack = onboarding.baseStack();
+        if (baseStack == null) {
+            LOGGER.error("Can't find base stack in onboarding record for tenant {}", tenant.get("id"));
+            return BaseStackRollout.Outcome.skipped;
+        }
+        String stackName = baseStack.getName();
+        LOGGER.info("Calling cloudFormation update-stack --stack-name {}", stackName);
+        try {
+            SdkRetry.call(() -> cfn.updateStack(UpdateStackRequest.builder()
+                    .stackName(stackName)
+                    .usePreviousTemplate(Boolean.TRUE)
+                    .capabilitiesWithStrings("CAPABILITY_NAMED_IAM", "CAPABILITY_AUTO_EXPAND")
+                    .parameters(parameters)
+                    .build()
+            ), SdkRetry::isThrottled, MAX_UPDATE_STACK_ATTEMPTS, UPDATE_STACK_RETRY_BASE_MILLIS);
+        } catch (SdkServiceException cfnError) {
+            // CloudFormation throws a 400 error if it doesn't detect any resources in a stack
+            // need to be updated.
+            if (cfnError.getMessage().contains("No updates are to be performed")) {
+                LOGGER.warn("cloudformation::updateStack {}", cfnError.getMessage());
+                // However, there may be changes to the updated app config that effect
+                // the services, so we need to publish that the base stack has been
+                // updated successfully
+                publisher.publish(SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
+                        OnboardingEvent.ONBOARDING_BASE_UPDATED.detailType(),
+                        Map.of("onboardingId", onboarding.getId())
+                );
+                return BaseStackRollout.Outcome.updated;
+            }
+            LOGGER.error("cloudformation::updateStack {}", cfnError.getMessage());
+            LOGGER.error(Utils.getFullStackTrace(cfnError));
+            return BaseStackRollout.Outcome.failed;
+        }
+        baseStack.setStatus("UPDATE_IN_PROGRESS");
+        onboarding.setStatus(OnboardingStatus.updating);
+        dal.updateOnboarding(onboarding);
+
+        // Let the tenant service know the onboarding status
+        publisher.publish(SAAS_BOOST_EVENT_BUS, EVENT_SOURCE,
+                "Tenant Onboarding Status Changed",
+                Map.of(
+                        "tenantId", tenant.get("id"),
+                        "onboardingStatus",  onboarding.getStatus()
+                )
+        );
+        // The rollout polls the stack until the update finishes
+        return BaseStackRollout.Outcome.started;
+    }
+
+    protected BaseStackRollout.Outcome baseStackUpdateStatus(Map<String, Object> tenant) {
+        Onboarding onboarding = dal.getOnboardingByTenantId((String) tenant.get("id"));
+        OnboardingStack baseStack = onboarding != null ? onboarding.baseStack() : null;
+        if (baseStack == null) {
+            LOGGER.error("Can't find base stack in onboarding record for tenant {}", tenant.get("id"));
+            return BaseStackRollout.Outcome.failed;
+        }
+        String stackStatus = SdkRetry.call(() -> cfn.describeStacks(request -> request
+                .stackName(baseStack.getName())
+        ).stacks().get(0).stackStatusAsString(), SdkRetry::isThrottled);
+        BaseStackRollout.Outcome outcome = BaseStackRollout.outcomeOf(stackStatus);
+        if (outcome == BaseStackRollout.Outcome.failed) {
+            LOGGER.error("Base stack update for tenant {} ended in {}", tenant.get("id"), stackStatus);
+        }
+        return outcome;
+    }
+
     protected void handleTenantEvent(Map<String, Object> event, Context context) {
         String detailType = (String) event.get("detail-type");
         if ("Tenant Deleted".equals(detailType)) {
@@ -1760,6 +1923,22 @@ public class OnboardingService {
         }
     }
 
+    private enum ValidationResult {
+        valid, retry, fatal
+    }
+
+    // Rethrow whatever the task threw instead of the CompletionException wrapper
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        }
+    }
+
     protected void failOnboarding(String onboardingId, String message) {
         failOnboarding(UUID.fromString(onboardingId), message);
     }
@@ -2196,6 +2375,56 @@ public class OnboardingService {
         }
     }
 
+    protected List<OnboardingStack> createPendingAppStacks(Onboarding onboarding, Context context) {
+        List<OnboardingStack> created = new ArrayList<>();
+        List<String> pending = dal.claimPendingServices(onboarding.getId());
+        onboarding.setPendingServices(null);
+        if (pending.isEmpty()) {
+            // Another stack status event got here first
+            return created;
+        }
+        LOGGER.info("Creating deferred service stacks {} for tenant {}", pending, onboarding.getTenantId());
+        Map<String, Object> appConfig = getAppConfig(context);
+        Map<String, Object> services = (Map<String, Object>) appConfig.get("services");
+        Map<String, Integer> pathPriority = getPathPriority(appConfig);
+        // Add to the service discovery variables already written for this tenant's other services
+        String tenantId = onboarding.getTenantId().toString();
+        Properties serviceDiscovery = loadPropertiesFileFromS3(s3, RESOURCES_BUCKET, "ServiceDiscovery.env",
+                tenantId);
+        for (Map.Entry<String, Object> serviceConfig : services.entrySet()) {
+            if (!pending.contains(serviceConfig.getKey())) {
+                continue;
+            }
+            OnboardingAppStackParameters parameters = new OnboardingAppStackParameters();
+            parameters.setProperty("Environment", SAAS_BOOST_ENV);
+            parameters.setProperty("OnboardingDdbTable", ONBOARDING_TABLE);
+            parameters.setProperty("EventBus", SAAS_BOOST_EVENT_BUS);
+            parameters.setProperty("MetricsStream", SAAS_BOOST_METRICS_STREAM);
+            try {
+                onboardingAppStackTenantParams(onboarding, parameters, context);
+            } catch (RuntimeException e) {
+                LOGGER.error(e.getMessage());
+                LOGGER.error(Utils.getFullStackTrace(e));
+                failOnboarding(onboarding.getId(), e.getMessage());
+                return created;
+            }
+            OnboardingStack stack = createOnboardingAppStack(onboarding, serviceConfig, pathPriority, parameters,
+                    serviceDiscovery, context);
+            if (stack == null) {
+                return created;
+            }
+            created.add(stack);
+        }
+        try {
+            savePropertiesFileToS3(s3, RESOURCES_BUCKET, "ServiceDiscovery.env", tenantId, serviceDiscovery);
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage());
+            LOGGER.error(Utils.getFullStackTrace(e));
+            failOnboarding(onboarding.getId(), e.getMessage());
+        }
+        return created;
+    }
+
     protected OnboardingStack createOnboardingAppStack(Onboarding onboarding,
                                             Map.Entry<String, Object> serviceConfig,
                                             Map<String, Integer> pathPriority,
@@ -2267,6 +2496,24 @@ public class OnboardingService {
         return stack;
     }
 
+    protected Properties loadPropertiesFileFromS3(S3Client s3, String bucket, String filename, String tenantId) {
+        String environmentFile = "tenants/" + tenantId + "/" + filename;
+        Properties properties = new Properties();
+        try (InputStream contents = s3.getObject(request -> request
+                .bucket(bucket)
+                .key(environmentFile)
+                .build()
+        )) {
+            properties.load(new InputStreamReader(contents, StandardCharsets.UTF_8));
+        } catch (NoSuchKeyException noFile) {
+            LOGGER.info("No existing {} for tenant {}", filename, tenantId);
+        } catch (IOException ioe) {
+            LOGGER.error("Error reading data from input stream");
+            throw new RuntimeException(ioe);
+        }
+        return properties;
+    }
+
     protected void savePropertiesFileToS3(S3Client s3, String bucket, String filename,
                                           String tenantId, Properties properties) {
         // Write the application-wide environment variables to S3 so each service container can load it up
@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
@@ -32,7 +33,28 @@ public class OnboardingServiceDAL {
     private static final Logger LOGGER = LoggerFactory.getLogger(OnboardingServiceDAL.class);
     private static final String ONBOARDING_TABLE = System.getenv("ONBOARDING_TABLE");
     private static final String CIDR_BLOCK_TABLE = System.getenv("CIDR_BLOCK_TABLE");
+    private static final String ROLLOUT_TABLE = System.getenv("ROLLOUT_TABLE");
+    static final String TENANT_BASE_STACK_ROLLOUT = "tenant-base-stacks";
+    static final String ONBOARDING_TENANT_INDEX = "tenant_id-index";
+    // Every CIDR row carries an allocation key. Free rows are spread over a fixed set of
+    // available#<shard> keys so lookups don't all land on one partition, and assigned rows
+    // use tenant#<tenantId> so the same index answers which block a tenant owns.
+    static final String CIDR_ALLOCATION_INDEX = "allocation-index";
+    static final String CIDR_AVAILABLE_PREFIX = "available#";
+    static final String CIDR_TENANT_PREFIX = "tenant#";
+    static final int CIDR_AVAILABLE_SHARDS = 8;
+    private static final int CIDR_CANDIDATES = 10;
+    private static final int CIDR_ASSIGN_ATTEMPTS = 5;
+    private static final Random RANDOM = new Random();
+    // The attributes an onboarding record update replaces. Anything else on the item belongs to
+    // someone else, like the ECS cluster lease that CapacityProviderLock keeps on the record, or is
+    // only changed with its own targeted update, like pending_services.
+    static final List<String> REPLACED_ATTRIBUTES = List.of("created", "modified", "status", "tenant_id",
+            "zip_file", "request", "stacks");
     private final DynamoDbClient ddb;
+    private final String onboardingTable;
+    private final String cidrBlockTable;
+    private final String rolloutTable;
 
     public OnboardingServiceDAL() {
         final long startTimeMillis = System.currentTimeMillis();
@@ -40,27 +62,78 @@ public class OnboardingServiceDAL {
             throw new IllegalStateException("Missing required environment variable ONBOARDING_TABLE");
         }
         this.ddb = Utils.sdkClient(DynamoDbClient.builder(), DynamoDbClient.SERVICE_NAME);
+        this.onboardingTable = ONBOARDING_TABLE;
+        this.cidrBlockTable = CIDR_BLOCK_TABLE;
+        this.rolloutTable = ROLLOUT_TABLE;
         // Cold start performance hack -- take the TLS hit for the client in the constructor
-        this.ddb.describeTable(r -> r.tableName(ONBOARDING_TABLE));
+        this.ddb.describeTable(r -> r.tableName(onboardingTable));
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    OnboardingServiceDAL(DynamoDbClient ddb, String onboardingTable, String cidrBlockTable) {
+        this(ddb, onboardingTable, cidrBlockTable, null);
+    }
+
+    // Package private for testing
+    OnboardingServiceDAL(DynamoDbClient ddb, String onboardingTable, String cidrBlockTable, String rolloutTable) {
+        this.ddb = ddb;
+        this.onboardingTable = onboardingTable;
+        this.cidrBlockTable = cidrBlockTable;
+        this.rolloutTable = rolloutTable;
+    }
+
     public List<Onboarding> getOnboardings() {
+        return getOnboardings(null);
+    }
+
+    public List<Onboarding> getOnboardings(OnboardingStatus status) {
         final long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("OnboardingServiceDAL::getOnboardings");
         List<Onboarding> onboardings = new ArrayList<>();
+        String nextToken = null;
+        do {
+            OnboardingPage page = getOnboardings(status, null, nextToken);
+            onboardings.addAll(page.getItems());
+            nextToken = page.getNextToken();
+        } while (nextToken != null);
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("OnboardingServiceDAL::getOnboardings exec " + totalTimeMillis);
+        return onboardings;
+    }
+
+    /**
+     * Reads a single page of onboarding records. The limit is applied by DynamoDB before the
+     * status filter, so a filtered page can hold fewer than limit items and still have a next token.
+     * @param status only return onboardings in this status, or all onboardings when null
+     * @param limit maximum number of records to evaluate, or null for a full 1 MB page
+     * @param nextToken token from the previous page, or null to start from the beginning
+     * @return the page of onboarding records
+     */
+    public OnboardingPage getOnboardings(OnboardingStatus status, Integer limit, String nextToken) {
+        List<Onboarding> onboardings = new ArrayList<>();
+        String pageToken;
         try {
-            ScanResponse response = ddb.scan(request -> request.tableName(ONBOARDING_TABLE));
+            ScanRequest.Builder request = ScanRequest.builder()
+                    .tableName(onboardingTable)
+                    .limit(limit)
+                    .exclusiveStartKey(fromNextToken(nextToken));
+            if (status != null) {
+                request.filterExpression("#status = :status")
+                        .expressionAttributeNames(Map.of("#status", "status"))
+                        .expressionAttributeValues(Map.of(":status", AttributeValue.builder()
+                                .s(status.toString()).build()));
+            }
+            ScanResponse response = ddb.scan(request.build());
             response.items().forEach(item ->
                     onboardings.add(fromAttributeValueMap(item))
             );
+            pageToken = toNextToken(response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null);
         } catch (DynamoDbException e) {
             LOGGER.error("OnboardingServiceDAL::getOnboardings " + Utils.getFullStackTrace(e));
             throw new RuntimeException(e);
         }
-        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
-        LOGGER.info("OnboardingServiceDAL::getOnboardings exec " + totalTimeMillis);
-        return onboardings;
+        return new OnboardingPage(onboardings, pageToken);
     }
 
     public Onboarding getOnboarding(UUID onboardingId) {
@@ -74,7 +147,7 @@ public class OnboardingServiceDAL {
         try {
             Map<String, AttributeValue> key = new HashMap<>();
             key.put("id", AttributeValue.builder().s(onboardingId).build());
-            GetItemResponse response = ddb.getItem(request -> request.tableName(ONBOARDING_TABLE).key(key));
+            GetItemResponse response = ddb.getItem(request -> request.tableName(onboardingTable).key(key));
             item = response.item();
         } catch (DynamoDbException e) {
             LOGGER.error("OnboardingServiceDAL::getOnboarding " + Utils.getFullStackTrace(e));
@@ -86,31 +159,114 @@ public class OnboardingServiceDAL {
         return onboarding;
     }
 
+    public RolloutProgress getRolloutProgress() {
+        final long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("OnboardingServiceDAL::getRolloutProgress");
+        if (Utils.isBlank(rolloutTable)) {
+            throw new IllegalStateException("Missing required environment variable ROLLOUT_TABLE");
+        }
+        RolloutProgress progress = null;
+        try {
+            GetItemResponse response = ddb.getItem(request -> request
+                    .tableName(rolloutTable)
+                    .key(Map.of("id", AttributeValue.builder().s(TENANT_BASE_STACK_ROLLOUT).build()))
+                    .consistentRead(Boolean.TRUE)
+            );
+            if (response.hasItem()) {
+                progress = Utils.fromJson(response.item().get("progress").s(), RolloutProgress.class);
+                progress.setVersion(Long.parseLong(response.item().get("version").n()));
+            }
+        } catch (DynamoDbException e) {
+            LOGGER.error("OnboardingServiceDAL::getRolloutProgress " + Utils.getFullStackTrace(e));
+            throw e;
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("OnboardingServiceDAL::getRolloutProgress exec " + totalTimeMillis);
+        return progress;
+    }
+
+    /**
+     * Saves the rollout progress only if nobody else saved it since it was read, and bumps its version.
+     *
+     * @return false if another invocation saved the rollout first
+     */
+    public boolean saveRolloutProgress(RolloutProgress progress) {
+        final long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("OnboardingServiceDAL::saveRolloutProgress");
+        if (Utils.isBlank(rolloutTable)) {
+            throw new IllegalStateException("Missing required environment variable ROLLOUT_TABLE");
+        }
+        final long expected = progress.getVersion();
+        boolean saved = true;
+        try {
+            Map<String, AttributeValue> values = new HashMap<>();
+            values.put(":version", AttributeValue.builder().n(Long.toString(expected + 1)).build());
+            values.put(":progress", AttributeValue.builder().s(Utils.toJson(progress)).build());
+            String condition = "attribute_not_exists(id)";
+            if (expected > 0) {
+                condition = "#version = :expected";
+                values.put(":expected", AttributeValue.builder().n(Long.toString(expected)).build());
+            }
+            ddb.updateItem(UpdateItemRequest.builder()
+                    .tableName(rolloutTable)
+                    .key(Map.of("id", AttributeValue.builder().s(TENANT_BASE_STACK_ROLLOUT).build()))
+                    .updateExpression("SET #version = :version, #progress = :progress")
+                    .conditionExpression(condition)
+                    .expressionAttributeNames(Map.of("#version", "version", "#progress", "progress"))
+                    .expressionAttributeValues(values)
+                    .build()
+            );
+            progress.setVersion(expected + 1);
+        } catch (ConditionalCheckFailedException ccfe) {
+            LOGGER.warn("Rollout {} was saved by someone else since version {}", progress.getRolloutId(), expected);
+            saved = false;
+        } catch (DynamoDbException e) {
+            LOGGER.error("OnboardingServiceDAL::saveRolloutProgress " + Utils.getFullStackTrace(e));
+            throw e;
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("OnboardingServiceDAL::saveRolloutProgress exec " + totalTimeMillis);
+        return saved;
+    }
+
     public Onboarding getOnboardingByTenantId(String tenantId) {
         final long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("OnboardingServiceDAL::getOnboardingByTenantId");
         Onboarding onboarding = null;
         try {
             final int uuidLength = 36;
-            String filter;
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
             if (tenantId.length() < uuidLength) {
-                filter = "begins_with(tenant_id, :tenantId)";
+                // Partial tenant ids can't be served by the index, fall back to a filtered scan
+                Map<String, AttributeValue> lastEvaluatedKey = null;
+                do {
+                    final Map<String, AttributeValue> exclusiveStartKey = lastEvaluatedKey;
+                    ScanResponse scan = ddb.scan(request -> request
+                            .tableName(onboardingTable)
+                            .filterExpression("begins_with(tenant_id, :tenantId)")
+                            .expressionAttributeValues(
+                                    Collections.singletonMap(":tenantId", AttributeValue.builder().s(tenantId).build())
+                            )
+                            .exclusiveStartKey(exclusiveStartKey)
+                    );
+                    items.addAll(scan.items());
+                    lastEvaluatedKey = scan.hasLastEvaluatedKey() ? scan.lastEvaluatedKey() : null;
+                } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
             } else {
-                filter = "tenant_id = :tenantId";
+                QueryResponse query = ddb.query(request -> request
+                        .tableName(onboardingTable)
+                        .indexName(ONBOARDING_TENANT_INDEX)
+                        .keyConditionExpression("tenant_id = :tenantId")
+                        .expressionAttributeValues(
+                                Collections.singletonMap(":tenantId", AttributeValue.builder().s(tenantId).build())
+                        )
+                );
+                items.addAll(query.items());
             }
-            ScanResponse scan = ddb.scan(ScanRequest.builder()
-                    .tableName(ONBOARDING_TABLE)
-                    .filterExpression(filter)
-                    .expressionAttributeValues(
-                            Collections.singletonMap(":tenantId", AttributeValue.builder().s(tenantId).build())
-                    )
-                    .build()
-            );
-            if (1 == scan.items().size()) {
-                LOGGER.info("Scanning onboarding for tenant id " + tenantId);
-                onboarding = fromAttributeValueMap(scan.items().get(0));
+            if (1 == items.size()) {
+                onboarding = fromAttributeValueMap(items.get(0));
             } else {
-                LOGGER.info("Onboarding scan for tenant id " + tenantId + " returned " + scan.items().size() + " results");
+                LOGGER.info("Onboarding lookup for tenant id " + tenantId + " returned " + items.size() + " results");
             }
         } catch (DynamoDbException e) {
             LOGGER.error("OnboardingServiceDAL::getOnboardingByTenantId " + Utils.getFullStackTrace(e));
@@ -122,8 +278,33 @@ public class OnboardingServiceDAL {
         return onboarding;
     }
 
+    // The onboarding table's only key attribute is id, so that's all a page token has to carry
+    static String toNextToken(Map<String, AttributeValue> lastEvaluatedKey) {
+        String nextToken = null;
+        if (lastEvaluatedKey != null && lastEvaluatedKey.containsKey("id")) {
+            nextToken = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    lastEvaluatedKey.get("id").s().getBytes(StandardCharsets.UTF_8));
+        }
+        return nextToken;
+    }
+
+    static Map<String, AttributeValue> fromNextToken(String nextToken) {
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        if (Utils.isNotBlank(nextToken)) {
+            try {
+                String id = new String(Base64.getUrlDecoder().decode(nextToken), StandardCharsets.UTF_8);
+                exclusiveStartKey = Map.of("id", AttributeValue.builder().s(id).build());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid nextToken " + nextToken);
+            }
+        }
+        return exclusiveStartKey;
+    }
+
     // Choosing to do a replacement update as you might do in a RDBMS by
-    // setting columns = NULL when they do not exist in the updated value
+    // setting columns = NULL when they do not exist in the updated value.
+    // This is an UpdateItem rather than a PutItem so that attributes we don't
+    // own, like the ECS cluster lock, survive the write.
     public Onboarding updateOnboarding(Onboarding onboarding) {
         final long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("OnboardingServiceDAL::updateOnboarding");
@@ -131,8 +312,8 @@ public class OnboardingServiceDAL {
             // Created and Modified are owned by the DAL since they reflect when the
             // object was persisted
             onboarding.setModified(LocalDateTime.now());
-            Map<String, AttributeValue> item = toAttributeValueMap(onboarding);
-            ddb.putItem(request -> request.tableName(ONBOARDING_TABLE).item(item));
+            UpdateItemRequest request = replaceAttributesRequest(onboardingTable, toAttributeValueMap(onboarding));
+            ddb.updateItem(request);
         } catch (DynamoDbException e) {
             LOGGER.error("OnboardingServiceDAL::updateOnboarding " + Utils.getFullStackTrace(e));
             throw e;
@@ -158,7 +339,7 @@ public class OnboardingServiceDAL {
             Map<String, AttributeValue> key = new HashMap<>();
             key.put("id", AttributeValue.builder().s(onboardingId.toString()).build());
             UpdateItemResponse response = ddb.updateItem(request -> request
-                    .tableName(ONBOARDING_TABLE)
+                    .tableName(onboardingTable)
                     .key(key)
                     .updateExpression("SET #status = :status, modified = :modified")
                     .expressionAttributeNames(Map.of("#status", "status"))
@@ -178,6 +359,67 @@ public class OnboardingServiceDAL {
         return updated;
     }
 
+    /**
+     * Adds services to the onboarding record's pending set without touching the rest of the record, so
+     * it can be saved before the stack updates the services are waiting on start.
+     */
+    public void addPendingServices(UUID onboardingId, Collection<String> services) {
+        final long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("OnboardingServiceDAL::addPendingServices");
+        try {
+            ddb.updateItem(UpdateItemRequest.builder()
+                    .tableName(onboardingTable)
+                    .key(Map.of("id", AttributeValue.builder().s(onboardingId.toString()).build()))
+                    .updateExpression("ADD pending_services :services SET modified = :modified")
+                    .expressionAttributeValues(Map.of(
+                            ":services", AttributeValue.builder().ss(services).build(),
+                            ":modified", AttributeValue.builder()
+                                    .s(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).build()))
+                    .build()
+            );
+        } catch (DynamoDbException e) {
+            LOGGER.error("OnboardingServiceDAL::addPendingServices " + Utils.getFullStackTrace(e));
+            throw e;
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("OnboardingServiceDAL::addPendingServices exec " + totalTimeMillis);
+    }
+
+    /**
+     * Atomically takes the pending services off the onboarding record so that only one of several
+     * concurrent stack status events goes on to create their stacks.
+     *
+     * @return the pending services, or an empty list if another caller already claimed them
+     */
+    public List<String> claimPendingServices(UUID onboardingId) {
+        final long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("OnboardingServiceDAL::claimPendingServices");
+        List<String> pending = new ArrayList<>();
+        try {
+            UpdateItemResponse response = ddb.updateItem(UpdateItemRequest.builder()
+                    .tableName(onboardingTable)
+                    .key(Map.of("id", AttributeValue.builder().s(onboardingId.toString()).build()))
+                    .updateExpression("REMOVE pending_services SET modified = :modified")
+                    .conditionExpression("attribute_exists(pending_services)")
+                    .expressionAttributeValues(Map.of(":modified", AttributeValue.builder()
+                            .s(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).build()))
+                    .returnValues(ReturnValue.ALL_OLD)
+                    .build()
+            );
+            if (response.hasAttributes() && response.attributes().containsKey("pending_services")) {
+                pending.addAll(response.attributes().get("pending_services").ss());
+            }
+        } catch (ConditionalCheckFailedException ccfe) {
+            LOGGER.info("No pending services left to claim for onboarding {}", onboardingId);
+        } catch (DynamoDbException e) {
+            LOGGER.error("OnboardingServiceDAL::claimPendingServices " + Utils.getFullStackTrace(e));
+            throw e;
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("OnboardingServiceDAL::claimPendingServices exec " + totalTimeMillis);
+        return pending;
+    }
+
     public Onboarding insertOnboarding(Onboarding onboarding) {
         final long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("OnboardingServiceDAL::insertOnboarding");
@@ -199,7 +441,7 @@ public class OnboardingServiceDAL {
         onboarding.setModified(now);
         Map<String, AttributeValue> item = toAttributeValueMap(onboarding);
         try {
-            ddb.putItem(request -> request.tableName(ONBOARDING_TABLE).item(item));
+            ddb.putItem(request -> request.tableName(onboardingTable).item(item));
             long putItemTimeMillis = System.currentTimeMillis() - startTimeMillis;
             LOGGER.info("OnboardingServiceDAL::insertOnboarding PutItem exec " + putItemTimeMillis);
         } catch (DynamoDbException e) {
@@ -216,44 +458,39 @@ public class OnboardingServiceDAL {
     }
 
     public String getCidrBlock(String tenantId) {
-        if (Utils.isBlank(CIDR_BLOCK_TABLE)) {
+        if (Utils.isBlank(cidrBlockTable)) {
             throw new IllegalStateException("Missing required environment variable CIDR_BLOCK_TABLE");
         }
         String cidrBlock = null;
         try {
-            ScanResponse scan = ddb.scan(r -> r.tableName(CIDR_BLOCK_TABLE));
-            if (!scan.items().isEmpty()) {
-                for (Map<String, AttributeValue> item : scan.items()) {
-                    if (item.containsKey("tenant_id") && item.get("tenant_id").s().equals(tenantId)) {
-                        cidrBlock = item.get("cidr_block").s();
-                    }
-                }
+            // Each tenant's allocation key is unique, so the index holds exactly one entry per tenant
+            QueryResponse query = ddb.query(r -> r
+                    .tableName(cidrBlockTable)
+                    .indexName(CIDR_ALLOCATION_INDEX)
+                    .keyConditionExpression("allocation = :allocation")
+                    .expressionAttributeValues(Map.of(":allocation", AttributeValue.builder()
+                            .s(tenantAllocation(tenantId)).build()))
+            );
+            if (query.hasItems() && !query.items().isEmpty()) {
+                cidrBlock = query.items().get(0).get("cidr_block").s();
             }
         } catch (DynamoDbException ddbError) {
-            LOGGER.error("dynamodb:Scan error", ddbError);
+            LOGGER.error("dynamodb:Query error", ddbError);
             LOGGER.error(Utils.getFullStackTrace(ddbError));
             throw ddbError;
-        } catch (Exception e) {
-            LOGGER.error("Unexpected error", e);
-            LOGGER.error(Utils.getFullStackTrace(e));
-            throw new RuntimeException(e);
         }
         return cidrBlock;
     }
 
     public boolean availableCidrBlock() {
-        if (Utils.isBlank(CIDR_BLOCK_TABLE)) {
+        if (Utils.isBlank(cidrBlockTable)) {
             throw new IllegalStateException("Missing required environment variable CIDR_BLOCK_TABLE");
         }
         boolean available;
         try {
-            ScanResponse scan = ddb.scan(r -> r
-                    .tableName(CIDR_BLOCK_TABLE)
-                    .filterExpression("attribute_not_exists(tenant_id)")
-            );
-            available = scan.hasItems() && !scan.items().isEmpty();
+            available = !freeCidrBlocks(1).isEmpty();
         } catch (DynamoDbException ddbError) {
-            LOGGER.error("dynamodb:Scan error", ddbError);
+            LOGGER.error("dynamodb:Query error", ddbError);
             LOGGER.error(Utils.getFullStackTrace(ddbError));
             throw ddbError;
         }
@@ -261,57 +498,148 @@ public class OnboardingServiceDAL {
     }
 
     public String assignCidrBlock(String tenantId) {
-        if (Utils.isBlank(CIDR_BLOCK_TABLE)) {
+        if (Utils.isBlank(cidrBlockTable)) {
             throw new IllegalStateException("Missing required environment variable CIDR_BLOCK_TABLE");
         }
-        String cidrBlock;
+        // Make sure we're not trying to assign a CIDR block to a tenant that already has one
+        if (getCidrBlock(tenantId) != null) {
+            throw new RuntimeException("CIDR block already assigned for tenant " + tenantId);
+        }
+        String cidrBlock = null;
         try {
-            long scanStartTimeMillis = System.currentTimeMillis();
-            List<String> availableCidrBlocks = new ArrayList<>();
-            ScanResponse fullScan = ddb.scan(r -> r.tableName(CIDR_BLOCK_TABLE));
-            if (!fullScan.items().isEmpty()) {
-                for (Map<String, AttributeValue> item : fullScan.items()) {
-                    // Make sure we're not trying to assign a CIDR block to a tenant that already has one
-                    if (item.containsKey("tenant_id") && tenantId.equals(item.get("tenant_id").s())) {
-                        throw new RuntimeException("CIDR block already assigned for tenant " + tenantId);
-                    }
-                    if (!item.containsKey("tenant_id")) {
-                        availableCidrBlocks.add(item.get("cidr_block").s());
-                    }
-                }
+            for (int attempt = 1; attempt <= CIDR_ASSIGN_ATTEMPTS && cidrBlock == null; attempt++) {
+                long queryStartTimeMillis = System.currentTimeMillis();
+                List<String> candidates = freeCidrBlocks(CIDR_CANDIDATES);
+                long queryTotalTimeMillis = System.currentTimeMillis() - queryStartTimeMillis;
+                LOGGER.info("OnboardingServiceDAL::assignCidrBlock query " + queryTotalTimeMillis);
                 // Make sure we have an open CIDR block left to assign
-                if (availableCidrBlocks.isEmpty()) {
+                if (candidates.isEmpty()) {
                     throw new RuntimeException("No remaining CIDR blocks");
                 }
+
+                // Picking from a handful of free blocks keeps concurrent onboardings from all
+                // racing for the same row. The index is eventually consistent, so the conditional
+                // update is still what actually guarantees exclusive ownership.
+                long updateStartTimeMillis = System.currentTimeMillis();
+                String cidr = candidates.get(RANDOM.nextInt(candidates.size()));
+                try {
+                    UpdateItemResponse update = ddb.updateItem(r -> r
+                            .tableName(cidrBlockTable)
+                            .key(Map.of("cidr_block", AttributeValue.builder().s(cidr).build()))
+                            .updateExpression("SET tenant_id = :tenantId, allocation = :allocation")
+                            .expressionAttributeValues(Map.of(
+                                    ":tenantId", AttributeValue.builder().s(tenantId).build(),
+                                    ":allocation", AttributeValue.builder().s(tenantAllocation(tenantId)).build())
+                            )
+                            .conditionExpression("attribute_not_exists(tenant_id)")
+                            .returnValues(ReturnValue.ALL_NEW)
+                    );
+                    cidrBlock = update.attributes().get("cidr_block").s();
+                } catch (ConditionalCheckFailedException ccfe) {
+                    LOGGER.warn("CIDR block {} was claimed by another tenant, attempt {} of {}", cidr, attempt,
+                            CIDR_ASSIGN_ATTEMPTS);
+                }
+                long updateTotalTimeMillis = System.currentTimeMillis() - updateStartTimeMillis;
+                LOGGER.info("OnboardingServiceDAL::assignCidrBlock update " + updateTotalTimeMillis);
             }
-            long scanTotalTimeMillis = System.currentTimeMillis() - scanStartTimeMillis;
-            LOGGER.info("OnboardingServiceDAL::assignCidrBlock scan " + scanTotalTimeMillis);
+        } catch (DynamoDbException e) {
+            LOGGER.error("OnboardingServiceDAL::assignCidrBlock " + Utils.getFullStackTrace(e));
+            throw e;
+        }
+        if (cidrBlock == null) {
+            throw new RuntimeException("Unable to claim a CIDR block for tenant " + tenantId);
+        }
+        return cidrBlock;
+    }
 
-            long updateStartTimeMillis = System.currentTimeMillis();
-            String cidr = availableCidrBlocks.get((int) (Math.random() * availableCidrBlocks.size()));
-            // Claim this one for this tenant
-            Map<String, AttributeValue> key = new HashMap<>();
-            key.put("cidr_block", AttributeValue.builder().s(cidr).build());
-            UpdateItemResponse update = ddb.updateItem(r -> r
-                    .tableName(CIDR_BLOCK_TABLE)
-                    .key(key)
-                    .updateExpression("SET tenant_id = :tenantId")
-                    .expressionAttributeValues(
-                            Collections.singletonMap(":tenantId", AttributeValue.builder().s(tenantId).build())
+    public void releaseCidrBlock(String tenantId) {
+        if (Utils.isBlank(cidrBlockTable)) {
+            throw new IllegalStateException("Missing required environment variable CIDR_BLOCK_TABLE");
+        }
+        String cidrBlock = getCidrBlock(tenantId);
+        if (cidrBlock == null) {
+            LOGGER.warn("No CIDR block assigned to tenant {} to release", tenantId);
+            return;
+        }
+        try {
+            ddb.updateItem(r -> r
+                    .tableName(cidrBlockTable)
+                    .key(Map.of("cidr_block", AttributeValue.builder().s(cidrBlock).build()))
+                    .updateExpression("SET allocation = :allocation REMOVE tenant_id")
+                    .conditionExpression("tenant_id = :tenantId")
+                    .expressionAttributeValues(Map.of(
+                            ":allocation", AttributeValue.builder().s(availableAllocation(cidrBlock)).build(),
+                            ":tenantId", AttributeValue.builder().s(tenantId).build())
                     )
-                    .conditionExpression("attribute_not_exists(tenant_id)")
-                    .returnValues(ReturnValue.ALL_NEW)
             );
-            Map<String, AttributeValue> updated = update.attributes();
-            cidrBlock = updated.get("cidr_block").s();
-            long updateTotalTimeMillis = System.currentTimeMillis() - updateStartTimeMillis;
-            LOGGER.info("OnboardingServiceDAL::assignCidrBlock update " + updateTotalTimeMillis);
+            LOGGER.info("Released CIDR block {} from tenant {}", cidrBlock, tenantId);
+        } catch (ConditionalCheckFailedException ccfe) {
+            LOGGER.warn("CIDR block {} is no longer assigned to tenant {}", cidrBlock, tenantId);
         } catch (DynamoDbException e) {
-            LOGGER.error("OnboardingServiceDAL::assignCidrBlock " + Utils.getFullStackTrace(e));
+            LOGGER.error("OnboardingServiceDAL::releaseCidrBlock " + Utils.getFullStackTrace(e));
             throw e;
         }
+    }
 
-        return cidrBlock;
+    // Walks the available shards starting from a random one so concurrent callers spread their reads
+    // and their candidate picks across partitions. Stops at the first shard with any free blocks.
+    private List<String> freeCidrBlocks(int limit) {
+        List<String> free = new ArrayList<>();
+        int firstShard = RANDOM.nextInt(CIDR_AVAILABLE_SHARDS);
+        for (int i = 0; i < CIDR_AVAILABLE_SHARDS && free.isEmpty(); i++) {
+            String allocation = CIDR_AVAILABLE_PREFIX + ((firstShard + i) % CIDR_AVAILABLE_SHARDS);
+            QueryResponse query = ddb.query(r -> r
+                    .tableName(cidrBlockTable)
+                    .indexName(CIDR_ALLOCATION_INDEX)
+                    .keyConditionExpression("allocation = :allocation")
+                    .expressionAttributeValues(Map.of(":allocation", AttributeValue.builder().s(allocation).build()))
+                    .limit(limit)
+            );
+            if (query.hasItems()) {
+                for (Map<String, AttributeValue> item : query.items()) {
+                    free.add(item.get("cidr_block").s());
+                }
+            }
+        }
+        return free;
+    }
+
+    // Must match the seeding and migration in the cidr-dynamodb custom resource
+    static String availableAllocation(String cidrBlock) {
+        return CIDR_AVAILABLE_PREFIX + Math.floorMod(cidrBlock.hashCode(), CIDR_AVAILABLE_SHARDS);
+    }
+
+    static String tenantAllocation(String tenantId) {
+        return CIDR_TENANT_PREFIX + tenantId;
+    }
+
+    // Package private for testing
+    static UpdateItemRequest replaceAttributesRequest(String table, Map<String, AttributeValue> item) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> set = new ArrayList<>();
+        List<String> remove = new ArrayList<>();
+        for (int i = 0; i < REPLACED_ATTRIBUTES.size(); i++) {
+            String attribute = REPLACED_ATTRIBUTES.get(i);
+            names.put("#a" + i, attribute);
+            if (item.containsKey(attribute)) {
+                values.put(":a" + i, item.get(attribute));
+                set.add("#a" + i + " = :a" + i);
+            } else {
+                remove.add("#a" + i);
+            }
+        }
+        String updateExpression = "SET " + String.join(", ", set);
+        if (!remove.isEmpty()) {
+            updateExpression += " REMOVE " + String.join(", ", remove);
+        }
+        return UpdateItemRequest.builder()
+                .tableName(table)
+                .key(Map.of("id", item.get("id")))
+                .updateExpression(updateExpression)
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .build();
     }
 
     public static Map<String, AttributeValue> toAttributeValueMap(Onboarding onboarding) {
@@ -380,7 +708,8 @@ public class OnboardingServiceDAL {
                             stackItem.put("pipeline", AttributeValue.builder().s(stack.getPipeline()).build());
                         }
                         if (stack.getPipelineStatus() != null) {
-                            stackItem.put("pipelineStatus", AttributeValue.builder().s(stack.getPipelineStatus()).build());
+                            stackItem.put("pipelineStatus",
+                                    AttributeValue.builder().s(stack.getPipelineStatus()).build());
                         }
                         return AttributeValue.builder().m(stackItem).build();
                     })
@@ -388,6 +717,9 @@ public class OnboardingServiceDAL {
                     ).build()
             );
         }
+        if (onboarding.hasPendingServices()) {
+            item.put("pending_services", AttributeValue.builder().ss(onboarding.getPendingServices()).build());
+        }
         item.put("ecs_cluster_locked", AttributeValue.builder().bool(onboarding.isEcsClusterLocked()).build());
         return item;
     }
@@ -414,7 +746,8 @@ public class OnboardingServiceDAL {
             }
             if (item.containsKey("created")) {
                 try {
-                    LocalDateTime created = LocalDateTime.parse(item.get("created").s(), DateTimeFormatter.ISO_DATE_TIME);
+                    LocalDateTime created = LocalDateTime.parse(item.get("created").s(),
+                            DateTimeFormatter.ISO_DATE_TIME);
                     onboarding.setCreated(created);
                 } catch (DateTimeParseException e) {
                     LOGGER.error("Failed to parse created date from database: " + item.get("created").s());
@@ -423,7 +756,8 @@ public class OnboardingServiceDAL {
             }
             if (item.containsKey("modified")) {
                 try {
-                    LocalDateTime created = LocalDateTime.parse(item.get("modified").s(), DateTimeFormatter.ISO_DATE_TIME);
+                    LocalDateTime created = LocalDateTime.parse(item.get("modified").s(),
+                            DateTimeFormatter.ISO_DATE_TIME);
                     onboarding.setModified(created);
                 } catch (DateTimeParseException e) {
                     LOGGER.error("Failed to parse created date from database: " + item.get("modified").s());
@@ -477,12 +811,16 @@ public class OnboardingServiceDAL {
                                     .baseStack(stack.containsKey("baseStack") ? stack.get("baseStack").bool() : false)
                                     .status(stack.containsKey("status") ? stack.get("status").s() : null)
                                     .pipeline(stack.containsKey("pipeline") ? stack.get("pipeline").s() : null)
-                                    .pipelineStatus(stack.containsKey("pipelineStatus") ? stack.get("pipelineStatus").s() : null)
+                                    .pipelineStatus(stack.containsKey("pipelineStatus")
+                                            ? stack.get("pipelineStatus").s() : null)
                                     .build();
                         })
                         .collect(Collectors.toList())
                 );
             }
+            if (item.containsKey("pending_services")) {
+                onboarding.setPendingServices(item.get("pending_services").ss());
+            }
             if (item.containsKey("ecs_cluster_locked")) {
                 onboarding.setEcsClusterLocked(item.get("ecs_cluster_locked").bool());
             }
@@ -0,0 +1,118 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Persisted state of a tenant base stack rollout. Tenants in {@code done} are not updated again when the
+ * rollout resumes; tenants in {@code failed} are retried. Tenants in {@code inFlight} have a stack update
+ * in progress that the next run waits on. {@code version} guards the saved copy against concurrent writers.
+ */
+public class RolloutProgress {
+
+    public enum Status {
+        running,
+        paused,
+        complete
+    }
+
+    private String rolloutId;
+    private String fingerprint;
+    private Status status;
+    private Set<String> done = new LinkedHashSet<>();
+    private Set<String> failed = new LinkedHashSet<>();
+    private Set<String> inFlight = new LinkedHashSet<>();
+    private long version;
+
+    public RolloutProgress() {
+    }
+
+    public static RolloutProgress start(String fingerprint) {
+        RolloutProgress progress = new RolloutProgress();
+        progress.setRolloutId(UUID.randomUUID().toString());
+        progress.setFingerprint(fingerprint);
+        progress.setStatus(Status.running);
+        return progress;
+    }
+
+    /**
+     * Picks a paused or interrupted rollout back up. Previously failed tenants get another attempt.
+     */
+    public void resume() {
+        setStatus(Status.running);
+        failed.clear();
+    }
+
+    public String getRolloutId() {
+        return rolloutId;
+    }
+
+    public void setRolloutId(String rolloutId) {
+        this.rolloutId = rolloutId;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Set<String> getDone() {
+        return done;
+    }
+
+    public void setDone(Set<String> done) {
+        this.done = done != null ? new LinkedHashSet<>(done) : new LinkedHashSet<>();
+    }
+
+    public Set<String> getFailed() {
+        return failed;
+    }
+
+    public void setFailed(Set<String> failed) {
+        this.failed = failed != null ? new LinkedHashSet<>(failed) : new LinkedHashSet<>();
+    }
+
+    public Set<String> getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(Set<String> inFlight) {
+        this.inFlight = inFlight != null ? new LinkedHashSet<>(inFlight) : new LinkedHashSet<>();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.ecr.EcrClient;
+import software.amazon.awssdk.services.ecr.model.ImageIdentifier;
+import software.amazon.awssdk.services.route53.Route53Client;
+import software.amazon.awssdk.services.route53.model.RRType;
+import software.amazon.awssdk.services.route53.model.ResourceRecordSet;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * ECR image tags and Route53 record sets read during one drain of the onboarding validation queue.
+ * Every onboarding request in a batch checks the same repositories and hosted zone, so each is loaded
+ * once, on the lookup executor, and shared by all of the requests. Nothing is kept between invocations
+ * because images get pushed and tenant subdomains get created in between. Throttling and server errors
+ * are retried inside the lookup, and a lookup that still fails is dropped so the next request tries again.
+ */
+final class ValidationLookups {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationLookups.class);
+    private static final int MAX_LOOKUP_ATTEMPTS = 3;
+    private static final long LOOKUP_RETRY_BASE_DELAY_MILLIS = 200L;
+
+    private final Function<String, Set<String>> imageTagLoader;
+    private final Function<String, List<ResourceRecordSet>> recordSetLoader;
+    private final Executor executor;
+    private final Map<String, CompletableFuture<Set<String>>> imageTags = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<List<ResourceRecordSet>>> recordSets = new ConcurrentHashMap<>();
+    private final Set<String> claimedSubdomains = ConcurrentHashMap.newKeySet();
+
+    ValidationLookups(EcrClient ecr, Route53Client route53, Executor executor) {
+        this(repo -> listImageTags(ecr, repo), hostedZoneId -> listAliasRecordSets(route53, hostedZoneId),
+                executor);
+    }
+
+    // Package private for testing
+    ValidationLookups(Function<String, Set<String>> imageTagLoader,
+                      Function<String, List<ResourceRecordSet>> recordSetLoader, Executor executor) {
+        this.imageTagLoader = withRetries(imageTagLoader);
+        this.recordSetLoader = withRetries(recordSetLoader);
+        this.executor = executor;
+    }
+
+    /**
+     * The tags of every image in the repository.
+     */
+    CompletableFuture<Set<String>> imageTags(String repo) {
+        return cached(imageTags, repo, imageTagLoader);
+    }
+
+    CompletableFuture<List<ResourceRecordSet>> recordSets(String hostedZoneId) {
+        return cached(recordSets, hostedZoneId, recordSetLoader);
+    }
+
+    private <T> CompletableFuture<T> cached(Map<String, CompletableFuture<T>> cache, String key,
+                                            Function<String, T> loader) {
+        CompletableFuture<T> lookup = cache.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(
+                () -> loader.apply(k), executor));
+        // Requests already waiting on a failed lookup see the failure, later ones load it again
+        lookup.whenComplete((result, error) -> {
+            if (error != null) {
+                cache.remove(key, lookup);
+            }
+        });
+        return lookup;
+    }
+
+    private static <T> Function<String, T> withRetries(Function<String, T> loader) {
+        return key -> SdkRetry.call(() -> loader.apply(key), SdkRetry::isThrottledOrServerError,
+                MAX_LOOKUP_ATTEMPTS, LOOKUP_RETRY_BASE_DELAY_MILLIS);
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<T> lookup) {
+        return CompletableFuture.supplyAsync(lookup, executor);
+    }
+
+    /**
+     * Reserves a subdomain for one onboarding request in this drain. Route53 won't show a subdomain
+     * until the tenant stack creates it, so two requests in the same batch would otherwise both pass.
+     */
+    boolean claimSubdomain(String hostedZoneId, String subdomain) {
+        return claimedSubdomains.add(hostedZoneId + "/" + subdomain.toLowerCase(Locale.ROOT));
+    }
+
+    static boolean subdomainInUse(List<ResourceRecordSet> recordSets, String domainName, String subdomain) {
+        // Route53 returns fully qualified names with the trailing dot
+        String fqdn = subdomain + "." + domainName;
+        for (ResourceRecordSet recordSet : recordSets) {
+            if (RRType.A == recordSet.type()) {
+                String recordSetName = recordSet.name();
+                if (recordSetName.endsWith(".")) {
+                    recordSetName = recordSetName.substring(0, recordSetName.length() - 1);
+                }
+                if (fqdn.equalsIgnoreCase(recordSetName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static Set<String> listImageTags(EcrClient ecr, String repo) {
+        final long startTimeMillis = System.currentTimeMillis();
+        Set<String> tags = ecr.listImagesPaginator(request -> request.repositoryName(repo))
+                .imageIds()
+                .stream()
+                .map(ImageIdentifier::imageTag)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        LOGGER.info("ValidationLookups::listImageTags {} {} tags exec {}", repo, tags.size(),
+                System.currentTimeMillis() - startTimeMillis);
+        return tags;
+    }
+
+    static List<ResourceRecordSet> listAliasRecordSets(Route53Client route53, String hostedZoneId) {
+        final long startTimeMillis = System.currentTimeMillis();
+        // Only the A records can be tenant subdomains, no need to hold on to the rest of a large zone
+        List<ResourceRecordSet> recordSets = route53.listResourceRecordSetsPaginator(request -> request
+                        .hostedZoneId(hostedZoneId))
+                .resourceRecordSets()
+                .stream()
+                .filter(recordSet -> RRType.A == recordSet.type())
+                .collect(Collectors.toList());
+        LOGGER.info("ValidationLookups::listAliasRecordSets {} {} records exec {}", hostedZoneId,
+                recordSets.size(), System.currentTimeMillis() - startTimeMillis);
+        return recordSets;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BaseStackRolloutTest {
+
+    // For updates that finish right away and never need their stack status polled
+    private static final BaseStackRollout.UpdateStatus NOT_POLLED = tenant -> {
+        throw new AssertionError("Unexpected poll for " + tenant.get("id"));
+    };
+
+    private static List<Map<String, Object>> tenants(int count, String tier) {
+        List<Map<String, Object>> tenants = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tenants.add(Map.of("id", tier + "-" + i, "tier", tier));
+        }
+        return tenants;
+    }
+
+    @Test
+    public void testRolloutCompletesWithinConcurrencyWindow() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        BaseStackRollout rollout = new BaseStackRollout(3, 0.2d, Collections.emptySet());
+        RolloutProgress progress = rollout.run(RolloutProgress.start("abc"), tenants(20, "default"), tenant -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            return BaseStackRollout.Outcome.updated;
+        }, NOT_POLLED, () -> false);
+
+        assertEquals(RolloutProgress.Status.complete, progress.getStatus());
+        assertEquals(20, progress.getDone().size());
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void testCanaryTiersGoFirst() {
+        List<Map<String, Object>> tenants = new ArrayList<>(tenants(4, "default"));
+        tenants.addAll(tenants(2, "free"));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        BaseStackRollout rollout = new BaseStackRollout(2, 0.2d, Set.of("free"));
+        rollout.run(RolloutProgress.start("abc"), tenants, tenant -> {
+            order.add((String) tenant.get("tier"));
+            return BaseStackRollout.Outcome.updated;
+        }, NOT_POLLED, () -> false);
+
+        assertEquals(List.of("free", "free", "default", "default", "default", "default"), order);
+    }
+
+    @Test
+    public void testFailedCanaryPausesBeforeNextWave() {
+        List<Map<String, Object>> tenants = new ArrayList<>(tenants(4, "default"));
+        tenants.addAll(tenants(2, "free"));
+        AtomicInteger calls = new AtomicInteger();
+        BaseStackRollout rollout = new BaseStackRollout(2, 0.2d, Set.of("free"));
+        RolloutProgress progress = rollout.run(RolloutProgress.start("abc"), tenants, tenant -> {
+            calls.incrementAndGet();
+            return "free-0".equals(tenant.get("id"))
+                    ? BaseStackRollout.Outcome.failed
+                    : BaseStackRollout.Outcome.updated;
+        }, NOT_POLLED, () -> false);
+
+        assertEquals(RolloutProgress.Status.paused, progress.getStatus());
+        assertEquals(2, calls.get());
+        assertEquals(Set.of("free-0"), progress.getFailed());
+        assertEquals(Set.of("free-1"), progress.getDone());
+    }
+
+    @Test
+    public void testResumeSkipsDoneAndRetriesFailed() {
+        RolloutProgress progress = RolloutProgress.start("abc");
+        progress.getDone().add("default-0");
+        progress.getDone().add("default-1");
+        progress.getFailed().add("default-2");
+        progress.setStatus(RolloutProgress.Status.paused);
+        progress.resume();
+
+        List<String> updated = Collections.synchronizedList(new ArrayList<>());
+        new BaseStackRollout(2, 0.2d, Collections.emptySet()).run(progress, tenants(4, "default"), tenant -> {
+            updated.add((String) tenant.get("id"));
+            return BaseStackRollout.Outcome.updated;
+        }, NOT_POLLED, () -> false);
+
+        assertEquals(Set.of("default-2", "default-3"), Set.copyOf(updated));
+        assertEquals(RolloutProgress.Status.complete, progress.getStatus());
+        assertTrue(progress.getFailed().isEmpty());
+    }
+
+    @Test
+    public void testDeadlineLeavesRolloutRunning() {
+        AtomicInteger calls = new AtomicInteger();
+        RolloutProgress progress = new BaseStackRollout(1, 0.2d, Collections.emptySet()).run(
+                RolloutProgress.start("abc"), tenants(10, "default"), tenant -> {
+                    calls.incrementAndGet();
+                    return BaseStackRollout.Outcome.updated;
+                }, NOT_POLLED, () -> calls.get() >= 4);
+
+        assertEquals(RolloutProgress.Status.running, progress.getStatus());
+        assertEquals(4, progress.getDone().size());
+    }
+
+    @Test
+    public void testFailureRate() {
+        BaseStackRollout rollout = new BaseStackRollout(5, 0.2d, Collections.emptySet());
+        assertFalse(rollout.failureRateExceeded(0, 0, 5));
+        assertFalse("Too few samples", rollout.failureRateExceeded(2, 1, 5));
+        assertTrue(rollout.failureRateExceeded(5, 2, 5));
+        assertFalse(rollout.failureRateExceeded(10, 2, 5));
+        assertTrue(rollout.failureRateExceeded(2, 1, 1));
+    }
+
+    @Test
+    public void testProgressJsonRoundTrip() {
+        RolloutProgress progress = RolloutProgress.start("abc");
+        progress.getDone().add("t1");
+        progress.getFailed().add("t2");
+        progress.getInFlight().add("t3");
+        RolloutProgress read = Utils.fromJson(Utils.toJson(progress), RolloutProgress.class);
+        assertEquals(progress.getRolloutId(), read.getRolloutId());
+        assertEquals("abc", read.getFingerprint());
+        assertEquals(RolloutProgress.Status.running, read.getStatus());
+        assertEquals(Set.of("t1"), read.getDone());
+        assertEquals(Set.of("t2"), read.getFailed());
+        assertEquals(Set.of("t3"), read.getInFlight());
+    }
+
+    @Test
+    public void testCanaryWaitsForStackUpdatesToFinish() {
+        List<Map<String, Object>> tenants = new ArrayList<>(tenants(2, "default"));
+        tenants.addAll(tenants(2, "free"));
+        Map<String, Integer> polls = new ConcurrentHashMap<>();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        BaseStackRollout rollout = new BaseStackRollout(2, 0.2d, Set.of("free"), 0L);
+        RolloutProgress progress = rollout.run(RolloutProgress.start("abc"), tenants, tenant -> {
+            order.add("update " + tenant.get("id"));
+            return BaseStackRollout.Outcome.started;
+        }, tenant -> {
+            // Each stack reports in progress twice before it completes
+            int poll = polls.merge((String) tenant.get("id"), 1, Integer::sum);
+            if (poll == 3) {
+                order.add("complete " + tenant.get("id"));
+                return BaseStackRollout.Outcome.updated;
+            }
+            return BaseStackRollout.Outcome.started;
+        }, () -> false);
+
+        assertEquals(RolloutProgress.Status.complete, progress.getStatus());
+        assertEquals(4, progress.getDone().size());
+        assertTrue(progress.getInFlight().isEmpty());
+        // Both canaries finished before the first default tenant was updated
+        int firstDefault = order.indexOf("update default-0");
+        assertTrue(order.indexOf("complete free-0") < firstDefault);
+        assertTrue(order.indexOf("complete free-1") < firstDefault);
+    }
+
+    @Test
+    public void testCanaryRollbackPausesBeforeNextWave() {
+        List<Map<String, Object>> tenants = new ArrayList<>(tenants(4, "default"));
+        tenants.addAll(tenants(2, "free"));
+        AtomicInteger updates = new AtomicInteger();
+        BaseStackRollout rollout = new BaseStackRollout(2, 0.2d, Set.of("free"), 0L);
+        RolloutProgress progress = rollout.run(RolloutProgress.start("abc"), tenants, tenant -> {
+            // CloudFormation accepts every update, the failure only shows up in the stack status
+            updates.incrementAndGet();
+            return BaseStackRollout.Outcome.started;
+        }, tenant -> "free-0".equals(tenant.get("id"))
+                ? BaseStackRollout.outcomeOf("UPDATE_ROLLBACK_IN_PROGRESS")
+                : BaseStackRollout.outcomeOf("UPDATE_COMPLETE"), () -> false);
+
+        assertEquals(RolloutProgress.Status.paused, progress.getStatus());
+        assertEquals(2, updates.get());
+        assertEquals(Set.of("free-0"), progress.getFailed());
+        assertEquals(Set.of("free-1"), progress.getDone());
+    }
+
+    @Test
+    public void testDeadlineKeepsUnfinishedCanariesInFlight() {
+        List<Map<String, Object>> tenants = new ArrayList<>(tenants(2, "default"));
+        tenants.addAll(tenants(1, "free"));
+        AtomicBoolean deadline = new AtomicBoolean();
+        List<String> updated = Collections.synchronizedList(new ArrayList<>());
+        BaseStackRollout rollout = new BaseStackRollout(2, 0.2d, Set.of("free"), 0L);
+        RolloutProgress progress = rollout.run(RolloutProgress.start("abc"), tenants, tenant -> {
+            updated.add((String) tenant.get("id"));
+            return BaseStackRollout.Outcome.started;
+        }, tenant -> {
+            deadline.set(true);
+            return BaseStackRollout.Outcome.started;
+        }, deadline::get);
+
+        assertEquals(RolloutProgress.Status.running, progress.getStatus());
+        assertEquals(List.of("free-0"), updated);
+        assertEquals(Set.of("free-0"), progress.getInFlight());
+        assertTrue(progress.getDone().isEmpty());
+
+        // The continuation settles the canary without updating it again, then moves on
+        updated.clear();
+        progress = rollout.run(progress, tenants, tenant -> {
+            updated.add((String) tenant.get("id"));
+            return BaseStackRollout.Outcome.updated;
+        }, tenant -> BaseStackRollout.Outcome.updated, () -> false);
+
+        assertEquals(RolloutProgress.Status.complete, progress.getStatus());
+        assertEquals(Set.of("default-0", "default-1"), Set.copyOf(updated));
+        assertEquals(Set.of("free-0", "default-0", "default-1"), progress.getDone());
+        assertTrue(progress.getInFlight().isEmpty());
+    }
+
+    @Test
+    public void testOutcomeOfStackStatus() {
+        assertEquals(BaseStackRollout.Outcome.updated, BaseStackRollout.outcomeOf("UPDATE_COMPLETE"));
+        assertEquals(BaseStackRollout.Outcome.updated,
+                BaseStackRollout.outcomeOf("UPDATE_COMPLETE_CLEANUP_IN_PROGRESS"));
+        assertEquals(BaseStackRollout.Outcome.started, BaseStackRollout.outcomeOf("UPDATE_IN_PROGRESS"));
+        assertEquals(BaseStackRollout.Outcome.failed, BaseStackRollout.outcomeOf("UPDATE_ROLLBACK_IN_PROGRESS"));
+        assertEquals(BaseStackRollout.Outcome.failed, BaseStackRollout.outcomeOf("UPDATE_ROLLBACK_COMPLETE"));
+        assertEquals(BaseStackRollout.Outcome.failed, BaseStackRollout.outcomeOf("UPDATE_FAILED"));
+    }
+}
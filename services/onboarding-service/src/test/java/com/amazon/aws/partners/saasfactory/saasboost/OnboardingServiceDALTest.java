@@ -18,14 +18,19 @@ package com.amazon.aws.partners.saasfactory.saasboost;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 public class OnboardingServiceDALTest {
 
@@ -56,6 +61,7 @@ public class OnboardingServiceDALTest {
         onboarding.setStacks(stacks);
         onboarding.setZipFile("foobar");
         onboarding.setEcsClusterLocked(false);
+        onboarding.setPendingServices(List.of("NewService"));
 
         Map<String, AttributeValue> expected = new HashMap<>();
         expected.put("id", AttributeValue.builder().s(onboardingId.toString()).build());
@@ -75,6 +81,7 @@ public class OnboardingServiceDALTest {
                 )).build())
                 .collect(Collectors.toList())
         ).build());
+        expected.put("pending_services", AttributeValue.builder().ss("NewService").build());
         expected.put("ecs_cluster_locked", AttributeValue.builder().bool(false).build());
 
         Map<String, AttributeValue> actual = OnboardingServiceDAL.toAttributeValueMap(onboarding);
@@ -93,4 +100,277 @@ public class OnboardingServiceDALTest {
                     assertTrue("Class property '" + key + "' does not exist in DynamoDB attribute map", actual.containsKey(key));
                 });
     }
+
+    @Test
+    public void testPendingServicesRoundTrip() {
+        Onboarding onboarding = new Onboarding();
+        onboarding.setId(onboardingId);
+        assertFalse(OnboardingServiceDAL.toAttributeValueMap(onboarding).containsKey("pending_services"));
+        assertFalse(OnboardingServiceDAL.fromAttributeValueMap(
+                OnboardingServiceDAL.toAttributeValueMap(onboarding)).hasPendingServices());
+
+        onboarding.addPendingService("foo");
+        onboarding.addPendingService("bar");
+        onboarding.addPendingService("foo");
+        Onboarding read = OnboardingServiceDAL.fromAttributeValueMap(OnboardingServiceDAL.toAttributeValueMap(onboarding));
+        assertEquals(Set.of("foo", "bar"), new HashSet<>(read.getPendingServices()));
+    }
+
+    @Test
+    public void testNextTokenRoundTrip() {
+        assertNull(OnboardingServiceDAL.toNextToken(null));
+        assertNull(OnboardingServiceDAL.fromNextToken(null));
+
+        Map<String, AttributeValue> lastEvaluatedKey = Map.of("id", AttributeValue.builder()
+                .s(onboardingId.toString()).build());
+        String nextToken = OnboardingServiceDAL.toNextToken(lastEvaluatedKey);
+        assertNotNull(nextToken);
+        assertEquals(lastEvaluatedKey, OnboardingServiceDAL.fromNextToken(nextToken));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNextToken() {
+        OnboardingServiceDAL.fromNextToken("not*base64");
+    }
+
+    @Test
+    public void testGetCidrBlockQueriesTenantAllocation() {
+        DynamoDbClient ddb = cidrTable(Map.of(OnboardingServiceDAL.tenantAllocation("tenant-1"), List.of("10.7.0.0")));
+        OnboardingServiceDAL dal = new OnboardingServiceDAL(ddb, "onboarding", "cidr");
+        assertEquals("10.7.0.0", dal.getCidrBlock("tenant-1"));
+        assertNull(dal.getCidrBlock("tenant-2"));
+        verify(ddb, never()).scan(any(Consumer.class));
+        verify(ddb, never()).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAssignCidrBlockClaimsFreeBlock() {
+        String cidr = "10.3.0.0";
+        DynamoDbClient ddb = cidrTable(Map.of(OnboardingServiceDAL.availableAllocation(cidr), List.of(cidr)));
+        when(ddb.updateItem(any(Consumer.class))).thenReturn(UpdateItemResponse.builder()
+                .attributes(Map.of("cidr_block", AttributeValue.builder().s(cidr).build()))
+                .build());
+        OnboardingServiceDAL dal = new OnboardingServiceDAL(ddb, "onboarding", "cidr");
+
+        assertEquals(cidr, dal.assignCidrBlock("tenant-1"));
+
+        ArgumentCaptor<Consumer<UpdateItemRequest.Builder>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(ddb).updateItem(captor.capture());
+        UpdateItemRequest.Builder builder = UpdateItemRequest.builder();
+        captor.getValue().accept(builder);
+        UpdateItemRequest update = builder.build();
+        assertEquals("cidr", update.tableName());
+        assertEquals("attribute_not_exists(tenant_id)", update.conditionExpression());
+        assertEquals("tenant#tenant-1", update.expressionAttributeValues().get(":allocation").s());
+    }
+
+    @Test
+    public void testAssignCidrBlockExhaustedPoolNeverScans() {
+        DynamoDbClient ddb = cidrTable(Map.of());
+        OnboardingServiceDAL dal = new OnboardingServiceDAL(ddb, "onboarding", "cidr");
+        try {
+            dal.assignCidrBlock("tenant-1");
+            fail("Expected RuntimeException with no free CIDR blocks");
+        } catch (RuntimeException e) {
+            assertEquals("No remaining CIDR blocks", e.getMessage());
+        }
+        assertFalse(dal.availableCidrBlock());
+        // One tenant lookup plus one query per shard for each of the two free block checks
+        verify(ddb, times(1 + 2 * OnboardingServiceDAL.CIDR_AVAILABLE_SHARDS)).query(any(Consumer.class));
+        verify(ddb, never()).scan(any(Consumer.class));
+        verify(ddb, never()).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    public void testAvailableCidrBlockStopsAtFirstFreeShard() {
+        // Every shard has a free block, so the first query always answers
+        Map<String, List<String>> index = new HashMap<>();
+        for (int shard = 0; shard < OnboardingServiceDAL.CIDR_AVAILABLE_SHARDS; shard++) {
+            index.put(OnboardingServiceDAL.CIDR_AVAILABLE_PREFIX + shard, List.of("10." + shard + ".0.0"));
+        }
+        DynamoDbClient ddb = cidrTable(index);
+        assertTrue(new OnboardingServiceDAL(ddb, "onboarding", "cidr").availableCidrBlock());
+        verify(ddb, times(1)).query(any(Consumer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReleaseCidrBlockReturnsBlockToItsShard() {
+        String cidr = "10.42.0.0";
+        DynamoDbClient ddb = cidrTable(Map.of(OnboardingServiceDAL.tenantAllocation("tenant-1"), List.of(cidr)));
+        new OnboardingServiceDAL(ddb, "onboarding", "cidr").releaseCidrBlock("tenant-1");
+
+        ArgumentCaptor<Consumer<UpdateItemRequest.Builder>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(ddb).updateItem(captor.capture());
+        UpdateItemRequest.Builder builder = UpdateItemRequest.builder();
+        captor.getValue().accept(builder);
+        UpdateItemRequest update = builder.build();
+        assertEquals("tenant_id = :tenantId", update.conditionExpression());
+        assertEquals(OnboardingServiceDAL.availableAllocation(cidr),
+                update.expressionAttributeValues().get(":allocation").s());
+    }
+
+    @Test
+    public void testUpdateOnboardingLeavesLockAttributesAlone() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        Onboarding onboarding = new Onboarding();
+        onboarding.setId(onboardingId);
+        onboarding.setStatus(OnboardingStatus.provisioning);
+        onboarding.setTenantId(tenantId);
+        new OnboardingServiceDAL(ddb, "onboarding", "cidr").updateOnboarding(onboarding);
+
+        verify(ddb, never()).putItem(any(PutItemRequest.class));
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(ddb).updateItem(captor.capture());
+        UpdateItemRequest update = captor.getValue();
+        assertEquals("onboarding", update.tableName());
+        assertEquals(onboardingId.toString(), update.key().get("id").s());
+        Collection<String> touched = update.expressionAttributeNames().values();
+        assertTrue(touched.containsAll(List.of("status", "tenant_id", "modified", "zip_file")));
+        for (String attribute : touched) {
+            assertFalse(attribute, attribute.startsWith("ecs_cluster_lock"));
+        }
+        assertTrue(update.updateExpression().startsWith("SET "));
+        assertTrue(update.updateExpression().contains(" REMOVE "));
+        // Attributes the record doesn't have are removed, the ones it has are set
+        Map<String, String> names = update.expressionAttributeNames();
+        names.forEach((placeholder, attribute) -> {
+            boolean set = update.expressionAttributeValues().containsKey(":" + placeholder.substring(1));
+            assertEquals(attribute, Set.of("status", "tenant_id", "modified").contains(attribute), set);
+        });
+    }
+
+    @Test
+    public void testUpdateOnboardingLeavesPendingServicesAlone() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        Onboarding onboarding = new Onboarding();
+        onboarding.setId(onboardingId);
+        onboarding.setStatus(OnboardingStatus.updating);
+        onboarding.setTenantId(tenantId);
+        new OnboardingServiceDAL(ddb, "onboarding", "cidr").updateOnboarding(onboarding);
+
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(ddb).updateItem(captor.capture());
+        // A stale copy of the record must not clear services another writer deferred
+        assertFalse(captor.getValue().expressionAttributeNames().containsValue("pending_services"));
+    }
+
+    @Test
+    public void testAddPendingServices() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        new OnboardingServiceDAL(ddb, "onboarding", "cidr").addPendingServices(onboardingId, List.of("foo", "bar"));
+
+        verify(ddb, never()).putItem(any(PutItemRequest.class));
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(ddb).updateItem(captor.capture());
+        UpdateItemRequest update = captor.getValue();
+        assertEquals("onboarding", update.tableName());
+        assertEquals(onboardingId.toString(), update.key().get("id").s());
+        assertTrue(update.updateExpression().startsWith("ADD pending_services :services"));
+        assertEquals(List.of("foo", "bar"), update.expressionAttributeValues().get(":services").ss());
+    }
+
+    @Test
+    public void testClaimPendingServices() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        when(ddb.updateItem(any(UpdateItemRequest.class))).thenReturn(UpdateItemResponse.builder()
+                .attributes(Map.of("pending_services", AttributeValue.builder().ss("foo", "bar").build()))
+                .build());
+        List<String> claimed = new OnboardingServiceDAL(ddb, "onboarding", "cidr").claimPendingServices(onboardingId);
+        assertEquals(List.of("foo", "bar"), claimed);
+
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(ddb).updateItem(captor.capture());
+        UpdateItemRequest update = captor.getValue();
+        assertTrue(update.updateExpression().startsWith("REMOVE pending_services"));
+        assertEquals("attribute_exists(pending_services)", update.conditionExpression());
+        assertEquals(ReturnValue.ALL_OLD, update.returnValues());
+    }
+
+    @Test
+    public void testClaimPendingServicesAlreadyClaimed() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        when(ddb.updateItem(any(UpdateItemRequest.class)))
+                .thenThrow(ConditionalCheckFailedException.builder().message("claimed").build());
+        assertTrue(new OnboardingServiceDAL(ddb, "onboarding", "cidr").claimPendingServices(onboardingId).isEmpty());
+    }
+
+    @Test
+    public void testSaveNewRolloutProgress() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        RolloutProgress progress = RolloutProgress.start("abc");
+        assertTrue(new OnboardingServiceDAL(ddb, "onboarding", "cidr", "rollouts").saveRolloutProgress(progress));
+
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(ddb).updateItem(captor.capture());
+        UpdateItemRequest update = captor.getValue();
+        assertEquals("rollouts", update.tableName());
+        assertEquals(OnboardingServiceDAL.TENANT_BASE_STACK_ROLLOUT, update.key().get("id").s());
+        assertEquals("attribute_not_exists(id)", update.conditionExpression());
+        assertEquals("1", update.expressionAttributeValues().get(":version").n());
+        assertEquals(1L, progress.getVersion());
+    }
+
+    @Test
+    public void testSaveRolloutProgressChecksVersion() {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        when(ddb.updateItem(any(UpdateItemRequest.class)))
+                .thenReturn(UpdateItemResponse.builder().build())
+                .thenThrow(ConditionalCheckFailedException.builder().message("version").build());
+        OnboardingServiceDAL dal = new OnboardingServiceDAL(ddb, "onboarding", "cidr", "rollouts");
+        RolloutProgress progress = RolloutProgress.start("abc");
+        progress.setVersion(4L);
+        assertTrue(dal.saveRolloutProgress(progress));
+        assertEquals(5L, progress.getVersion());
+        // Someone else saved version 6 in the meantime
+        assertFalse(dal.saveRolloutProgress(progress));
+        assertEquals(5L, progress.getVersion());
+
+        ArgumentCaptor<UpdateItemRequest> captor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(ddb, times(2)).updateItem(captor.capture());
+        UpdateItemRequest first = captor.getAllValues().get(0);
+        assertEquals("#version = :expected", first.conditionExpression());
+        assertEquals("4", first.expressionAttributeValues().get(":expected").n());
+        assertEquals("5", first.expressionAttributeValues().get(":version").n());
+        assertEquals("5", captor.getAllValues().get(1).expressionAttributeValues().get(":expected").n());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetRolloutProgress() {
+        RolloutProgress saved = RolloutProgress.start("abc");
+        saved.getInFlight().add("t1");
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        when(ddb.getItem(any(Consumer.class))).thenReturn(GetItemResponse.builder()
+                .item(Map.of(
+                        "id", AttributeValue.builder().s(OnboardingServiceDAL.TENANT_BASE_STACK_ROLLOUT).build(),
+                        "version", AttributeValue.builder().n("7").build(),
+                        "progress", AttributeValue.builder().s(Utils.toJson(saved)).build()))
+                .build());
+        RolloutProgress progress = new OnboardingServiceDAL(ddb, "onboarding", "cidr", "rollouts")
+                .getRolloutProgress();
+        assertEquals(saved.getRolloutId(), progress.getRolloutId());
+        assertEquals(Set.of("t1"), progress.getInFlight());
+        assertEquals(7L, progress.getVersion());
+    }
+
+    // Answers allocation-index queries from an in-memory map of allocation key to CIDR blocks
+    @SuppressWarnings("unchecked")
+    private static DynamoDbClient cidrTable(Map<String, List<String>> index) {
+        DynamoDbClient ddb = mock(DynamoDbClient.class);
+        when(ddb.query(any(Consumer.class))).thenAnswer(invocation -> {
+            QueryRequest.Builder builder = QueryRequest.builder();
+            ((Consumer<QueryRequest.Builder>) invocation.getArgument(0)).accept(builder);
+            QueryRequest request = builder.build();
+            assertEquals(OnboardingServiceDAL.CIDR_ALLOCATION_INDEX, request.indexName());
+            String allocation = request.expressionAttributeValues().get(":allocation").s();
+            return QueryResponse.builder()
+                    .items(index.getOrDefault(allocation, List.of()).stream()
+                            .map(cidr -> Map.of("cidr_block", AttributeValue.builder().s(cidr).build()))
+                            .collect(Collectors.toList()))
+                    .build();
+        });
+        return ddb;
+    }
 }
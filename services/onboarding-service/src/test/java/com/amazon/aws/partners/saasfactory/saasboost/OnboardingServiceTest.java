@@ -16,30 +16,44 @@
 
 package com.amazon.aws.partners.saasfactory.saasboost;
 
+import com.amazonaws.services.lambda.runtime.Context;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import software.amazon.awssdk.services.cloudformation.CloudFormationClient;
 import software.amazon.awssdk.services.cloudformation.model.CloudFormationException;
 import software.amazon.awssdk.services.cloudformation.model.DescribeStackResourceRequest;
 import software.amazon.awssdk.services.cloudformation.model.DescribeStackResourceResponse;
+import software.amazon.awssdk.services.cloudformation.model.DescribeStacksRequest;
+import software.amazon.awssdk.services.cloudformation.model.DescribeStacksResponse;
+import software.amazon.awssdk.services.cloudformation.model.Stack;
+import software.amazon.awssdk.services.cloudformation.model.StackStatus;
 import software.amazon.awssdk.services.cloudformation.model.StackResourceDetail;
+import software.amazon.awssdk.services.cloudformation.model.UpdateStackRequest;
+import software.amazon.awssdk.services.cloudformation.model.UpdateStackResponse;
+import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
+import software.amazon.awssdk.services.eventbridge.model.PutEventsResponse;
 import software.amazon.awssdk.services.route53.Route53Client;
 import software.amazon.awssdk.services.route53.model.HostedZone;
 import software.amazon.awssdk.services.route53.model.HostedZoneConfig;
 import software.amazon.awssdk.services.route53.model.ListHostedZonesByNameRequest;
 import software.amazon.awssdk.services.route53.model.ListHostedZonesByNameResponse;
+import software.amazon.awssdk.services.s3.S3Client;
 
 import java.io.InputStream;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class OnboardingServiceTest {
 
@@ -116,4 +130,153 @@ public class OnboardingServiceTest {
             assertEquals("Value mismatch for '" + key + "'", expected.get(key), actual.get(key));
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBaseUpdatedSavesPendingServicesBeforeUpdatingStacks() {
+        OnboardingServiceDAL dal = mock(OnboardingServiceDAL.class);
+        CloudFormationClient cfn = mock(CloudFormationClient.class);
+        when(cfn.updateStack(any(UpdateStackRequest.class)))
+                .thenReturn(UpdateStackResponse.builder().stackId("arn:web").build());
+        BaseUpdatedService service = new BaseUpdatedService(dal, cfn);
+        when(dal.getOnboarding(ONBOARDING_ID.toString())).thenReturn(onboardingWithWebStack());
+
+        service.handleOnboardingBaseUpdated(baseUpdatedEvent(), null);
+
+        InOrder order = inOrder(dal, cfn);
+        order.verify(dal).addPendingServices(ONBOARDING_ID, List.of("api"));
+        order.verify(cfn).updateStack(any(UpdateStackRequest.class));
+        // The stack status listener creates the deferred service once the update completes
+        assertTrue(service.created.isEmpty());
+        assertFalse(service.claimed);
+    }
+
+    @Test
+    public void testBaseUpdatedCreatesPendingServicesWhenNothingToUpdate() {
+        OnboardingServiceDAL dal = mock(OnboardingServiceDAL.class);
+        CloudFormationClient cfn = mock(CloudFormationClient.class);
+        when(cfn.updateStack(any(UpdateStackRequest.class))).thenThrow(CloudFormationException.builder()
+                .message("No updates are to be performed.").build());
+        BaseUpdatedService service = new BaseUpdatedService(dal, cfn);
+        when(dal.getOnboarding(ONBOARDING_ID.toString())).thenReturn(onboardingWithWebStack());
+
+        service.handleOnboardingBaseUpdated(baseUpdatedEvent(), null);
+
+        // No stack events will follow, so the pending services have to be created right away
+        verify(dal).addPendingServices(ONBOARDING_ID, List.of("api"));
+        assertTrue(service.claimed);
+    }
+
+    @Test
+    public void testBaseUpdatedCreatesNewServiceWithoutPublicUpdates() {
+        OnboardingServiceDAL dal = mock(OnboardingServiceDAL.class);
+        CloudFormationClient cfn = mock(CloudFormationClient.class);
+        BaseUpdatedService service = new BaseUpdatedService(dal, cfn);
+        Onboarding onboarding = onboardingWithWebStack();
+        onboarding.setStacks(new ArrayList<>(List.of(onboarding.getStacks().get(0))));
+        when(dal.getOnboarding(ONBOARDING_ID.toString())).thenReturn(onboarding);
+
+        service.handleOnboardingBaseUpdated(baseUpdatedEvent(), null);
+
+        verify(dal, never()).addPendingServices(any(), any());
+        verify(cfn, never()).updateStack(any(UpdateStackRequest.class));
+        assertEquals(List.of("web", "api"), service.created);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBaseStackUpdateStatus() {
+        OnboardingServiceDAL dal = mock(OnboardingServiceDAL.class);
+        CloudFormationClient cfn = mock(CloudFormationClient.class);
+        when(dal.getOnboardingByTenantId("t1")).thenReturn(onboardingWithWebStack());
+        List<String> described = new ArrayList<>();
+        when(cfn.describeStacks(any(Consumer.class))).thenAnswer(invocation -> {
+            DescribeStacksRequest.Builder request = DescribeStacksRequest.builder();
+            ((Consumer<DescribeStacksRequest.Builder>) invocation.getArgument(0)).accept(request);
+            described.add(request.build().stackName());
+            StackStatus status = described.size() == 1 ? StackStatus.UPDATE_IN_PROGRESS
+                    : StackStatus.UPDATE_ROLLBACK_IN_PROGRESS;
+            return DescribeStacksResponse.builder().stacks(Stack.builder().stackStatus(status).build()).build();
+        });
+        OnboardingService service = new OnboardingService(dal, cfn, null, null);
+
+        assertEquals(BaseStackRollout.Outcome.started, service.baseStackUpdateStatus(Map.of("id", "t1")));
+        assertEquals(BaseStackRollout.Outcome.failed, service.baseStackUpdateStatus(Map.of("id", "t1")));
+        assertEquals(List.of("base", "base"), described);
+        // A tenant without an onboarding record can't be waited on
+        assertEquals(BaseStackRollout.Outcome.failed, service.baseStackUpdateStatus(Map.of("id", "t2")));
+    }
+
+    private static final UUID ONBOARDING_ID = UUID.fromString("f11cadd8-9c3c-40be-9106-4d64e2478daf");
+
+    private static Onboarding onboardingWithWebStack() {
+        Onboarding onboarding = new Onboarding();
+        onboarding.setId(ONBOARDING_ID);
+        onboarding.setTenantId(UUID.fromString("c9a437c5-68bc-47ab-a4d5-4e6bbd089914"));
+        onboarding.setStatus(OnboardingStatus.updating);
+        onboarding.addStack(OnboardingStack.builder().baseStack(true).name("base").arn("arn:base").build());
+        onboarding.addStack(OnboardingStack.builder().baseStack(false).service("web").name("web").arn("arn:web")
+                .build());
+        return onboarding;
+    }
+
+    private static Map<String, Object> baseUpdatedEvent() {
+        return Map.of("detail", Map.of("onboardingId", ONBOARDING_ID.toString()));
+    }
+
+    // Stubs out the settings service, S3 and stack creation around handleOnboardingBaseUpdated
+    private static class BaseUpdatedService extends OnboardingService {
+        final List<String> created = new ArrayList<>();
+        boolean claimed;
+
+        BaseUpdatedService(OnboardingServiceDAL dal, CloudFormationClient cfn) {
+            super(dal, cfn, eventBridge(), null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static EventBridgeClient eventBridge() {
+            EventBridgeClient eventBridge = mock(EventBridgeClient.class);
+            when(eventBridge.putEvents(any(Consumer.class))).thenReturn(PutEventsResponse.builder().build());
+            return eventBridge;
+        }
+
+        @Override
+        protected Map<String, Object> getAppConfig(Context context) {
+            Map<String, Object> services = new LinkedHashMap<>();
+            services.put("web", Map.of("public", Boolean.TRUE, "path", "/*"));
+            services.put("api", Map.of("public", Boolean.TRUE, "path", "/api*"));
+            return Map.of("services", services);
+        }
+
+        @Override
+        protected Properties loadPropertiesFileFromS3(S3Client s3, String bucket, String filename, String tenantId) {
+            return new Properties();
+        }
+
+        @Override
+        protected void savePropertiesFileToS3(S3Client s3, String bucket, String filename, String tenantId,
+                                              Properties properties) {
+        }
+
+        @Override
+        protected void onboardingAppStackTenantParams(Onboarding onboarding, OnboardingAppStackParameters parameters,
+                                                      Context context) {
+        }
+
+        @Override
+        protected OnboardingStack createOnboardingAppStack(Onboarding onboarding,
+                                                           Map.Entry<String, Object> serviceConfig,
+                                                           Map<String, Integer> pathPriority,
+                                                           OnboardingAppStackParameters parameters,
+                                                           Properties serviceDiscovery, Context context) {
+            created.add(serviceConfig.getKey());
+            return OnboardingStack.builder().service(serviceConfig.getKey()).arn("arn:" + serviceConfig.getKey())
+                    .build();
+        }
+
+        @Override
+        protected List<OnboardingStack> createPendingAppStacks(Onboarding onboarding, Context context) {
+            claimed = true;
+            return List.of(OnboardingStack.builder().service("api").arn("arn:api").build());
+        }
+    }
+}
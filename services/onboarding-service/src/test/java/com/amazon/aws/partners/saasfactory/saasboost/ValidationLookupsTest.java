@@ -0,0 +1,129 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.route53.model.RRType;
+import software.amazon.awssdk.services.route53.model.ResourceRecordSet;
+import software.amazon.awssdk.services.route53.model.Route53Exception;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ValidationLookupsTest {
+
+    private static ResourceRecordSet record(String name, RRType type) {
+        return ResourceRecordSet.builder().name(name).type(type).build();
+    }
+
+    @Test
+    public void testEachRepoAndHostedZoneLoadedOncePerDrain() {
+        AtomicInteger imageLoads = new AtomicInteger();
+        AtomicInteger recordLoads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ValidationLookups lookups = new ValidationLookups(repo -> {
+                imageLoads.incrementAndGet();
+                return Set.of(repo + "-latest");
+            }, hostedZoneId -> {
+                recordLoads.incrementAndGet();
+                return List.of(record("acme.example.com.", RRType.A));
+            }, executor);
+
+            List<CompletableFuture<Set<String>>> images = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                images.add(lookups.imageTags("web"));
+                images.add(lookups.imageTags("api"));
+            }
+            for (int i = 0; i < 10; i++) {
+                lookups.recordSets("Z123").join();
+            }
+            CompletableFuture.allOf(images.toArray(new CompletableFuture[0])).join();
+
+            assertEquals(2, imageLoads.get());
+            assertEquals(1, recordLoads.get());
+            assertEquals(Set.of("web-latest"), lookups.imageTags("web").join());
+            assertEquals(1, lookups.recordSets("Z123").join().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedLookupIsLoadedAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        ValidationLookups lookups = new ValidationLookups(repo -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("not retried");
+            }
+            return Set.of("latest");
+        }, hostedZoneId -> List.of(), Runnable::run);
+
+        assertTrue(lookups.imageTags("web").isCompletedExceptionally());
+        assertEquals(Set.of("latest"), lookups.imageTags("web").join());
+        assertEquals(Set.of("latest"), lookups.imageTags("web").join());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testThrottledLookupIsRetried() {
+        AtomicInteger loads = new AtomicInteger();
+        ValidationLookups lookups = new ValidationLookups(repo -> Set.of(), hostedZoneId -> {
+            if (loads.incrementAndGet() == 1) {
+                throw Route53Exception.builder().statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("Throttling").build())
+                        .build();
+            }
+            return List.of(record("acme.example.com.", RRType.A));
+        }, Runnable::run);
+
+        assertEquals(1, lookups.recordSets("Z123").join().size());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testSubdomainInUse() {
+        List<ResourceRecordSet> recordSets = List.of(
+                record("example.com.", RRType.A),
+                record("example.com.", RRType.NS),
+                record("acme.example.com.", RRType.A),
+                record("mail.example.com.", RRType.MX),
+                record("other.example.org.", RRType.A)
+        );
+        assertTrue(ValidationLookups.subdomainInUse(recordSets, "example.com", "acme"));
+        assertTrue(ValidationLookups.subdomainInUse(recordSets, "example.com", "ACME"));
+        assertFalse(ValidationLookups.subdomainInUse(recordSets, "example.com", "mail"));
+        assertFalse(ValidationLookups.subdomainInUse(recordSets, "example.com", "other"));
+        assertFalse(ValidationLookups.subdomainInUse(recordSets, "example.com", "globex"));
+    }
+
+    @Test
+    public void testClaimSubdomainOncePerHostedZone() {
+        ValidationLookups lookups = new ValidationLookups(repo -> Set.of(), hostedZoneId -> List.of(), Runnable::run);
+        assertTrue(lookups.claimSubdomain("Z123", "acme"));
+        assertFalse(lookups.claimSubdomain("Z123", "Acme"));
+        assertTrue(lookups.claimSubdomain("Z456", "acme"));
+    }
+}
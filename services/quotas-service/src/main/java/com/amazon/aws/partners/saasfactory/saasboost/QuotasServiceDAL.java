@@ -22,7 +22,6 @@ import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.*;
 import software.amazon.awssdk.services.ec2.Ec2Client;
-import software.amazon.awssdk.services.ec2.model.DescribeNatGatewaysResponse;
 import software.amazon.awssdk.services.ec2.model.NatGateway;
 import software.amazon.awssdk.services.ec2.model.NatGatewayState;
 import software.amazon.awssdk.services.elasticloadbalancingv2.ElasticLoadBalancingV2Client;
@@ -34,18 +33,36 @@ import software.amazon.awssdk.services.servicequotas.model.ListServiceQuotasRequ
 import software.amazon.awssdk.services.servicequotas.model.ListServiceQuotasResponse;
 import software.amazon.awssdk.services.servicequotas.model.ServiceQuota;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 
 public class QuotasServiceDAL {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QuotasServiceDAL.class);
+    private static final Duration DEFAULT_QUOTA_CACHE_TTL = Duration.ofHours(1);
+    // Enough threads for every lookup in checkQuotas to be in flight at the same time
+    private static final int CHECK_CONCURRENCY = 12;
+    // GetMetricData query ids
+    private static final String FARGATE_ON_DEMAND = "fargate";
+    private static final String FARGATE_SPOT = "fargatespot";
+    private static final String EC2_ON_DEMAND = "vcpu";
     private final ElasticLoadBalancingV2Client elb;
     private final Ec2Client ec2;
     private final ServiceQuotasClient serviceQuotas;
     private final RdsClient rds;
     private final CloudWatchClient cloudWatch;
+    private final ExecutorService executor;
+    private final Map<String, CachedQuotas> quotaCache = new ConcurrentHashMap<>();
+    private final Duration quotaCacheTtl;
+    private final Clock clock;
 
     public QuotasServiceDAL() {
         final long startTimeMillis = System.currentTimeMillis();
@@ -54,72 +71,126 @@ public class QuotasServiceDAL {
         this.serviceQuotas = Utils.sdkClient(ServiceQuotasClient.builder(), ServiceQuotasClient.SERVICE_NAME);
         this.rds = Utils.sdkClient(RdsClient.builder(), RdsClient.SERVICE_NAME);
         this.cloudWatch = Utils.sdkClient(CloudWatchClient.builder(), CloudWatchClient.SERVICE_NAME);
+        this.executor = Utils.daemonThreadPool(CHECK_CONCURRENCY, "quota-check");
+        this.quotaCacheTtl = Utils.durationFromEnvironment("QUOTA_CACHE_TTL_SECONDS", DEFAULT_QUOTA_CACHE_TTL);
+        this.clock = Clock.systemUTC();
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    QuotasServiceDAL(ServiceQuotasClient serviceQuotas, Duration quotaCacheTtl, Clock clock) {
+        this.elb = null;
+        this.ec2 = null;
+        this.serviceQuotas = serviceQuotas;
+        this.rds = null;
+        this.cloudWatch = null;
+        this.executor = null;
+        this.quotaCacheTtl = quotaCacheTtl;
+        this.clock = clock;
+    }
+
     public QuotaCheck checkQuotas() {
+        final long startTimeMillis = System.currentTimeMillis();
+        // None of these lookups depend on each other, so run them all at once and only
+        // pay for the slowest one instead of the sum of them
+        CompletableFuture<Integer> rdsClusters = async(this::getRdsClusters);
+        CompletableFuture<Integer> rdsInstances = async(this::getRdsInstances);
+        CompletableFuture<Integer> albs = async(this::getAlbs);
+        CompletableFuture<Integer> vpcs = async(this::getVpcs);
+        CompletableFuture<Integer> internetGateways = async(this::getInternetGateways);
+        CompletableFuture<Integer> natGateways = async(this::getNatGateways);
+        CompletableFuture<Map<String, Double>> vcpuUsage = async(this::getVCpuUsage);
+        Map<String, CompletableFuture<Map<String, Double>>> quotas = new LinkedHashMap<>();
+        for (String serviceCode : List.of("rds", "elasticloadbalancing", "fargate", "vpc", "ec2")) {
+            quotas.put(serviceCode, async(() -> getQuotas(serviceCode)));
+        }
+
         String serviceCode;
         Map<String, Double> deployedCountMap = new LinkedHashMap<>();
-        Map<String, Double> quotasMap = new LinkedHashMap<>();
+        Map<String, Double> quotasMap;
         StringBuilder builder = new StringBuilder();
 
         boolean reportBackError = false;
         boolean exceedsLimit = false;
         List<Service> retList = new ArrayList<>();
-        // RDS
-        serviceCode = "rds";
-        deployedCountMap.clear();
-        deployedCountMap.put("DB clusters", Double.valueOf(getRdsClusters()));
-        deployedCountMap.put("DB instances", Double.valueOf(getRdsInstances()));
-        quotasMap = getQuotas(serviceCode);
-        exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
-        reportBackError = reportBackError || exceedsLimit;
-
-        // load balancers
-        serviceCode = "elasticloadbalancing";
-        deployedCountMap.clear();
-        deployedCountMap.put("Application Load Balancers per Region", Double.valueOf(getAlbs()));
-        quotasMap = getQuotas(serviceCode);
-        exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
-        reportBackError = reportBackError || exceedsLimit;
-
-        // fargate
-        serviceCode = "fargate";
-        deployedCountMap.clear();
-        deployedCountMap.put("Fargate On-Demand vCPU resource count", getFargateResourceCount());
-        deployedCountMap.put("Fargate Spot vCPU resource count", getFargateSpotResourceCount());
-        quotasMap = getQuotas(serviceCode);
-        // Remove old on demand quota that have been replaced with the new vCPU quota
-        quotasMap.remove("Fargate On-Demand resource count");
-        quotasMap.remove("Fargate Spot resource count");
-        exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
-        reportBackError = reportBackError || exceedsLimit;
-
-        // vpc
-        serviceCode = "vpc";
-        deployedCountMap.clear();
-        deployedCountMap.put("VPCs per Region", Double.valueOf(getVpcs()));
-        deployedCountMap.put("Internet gateways per Region", Double.valueOf(getInternetGateways()));
-        deployedCountMap.put("NAT gateways per Availability Zone", Double.valueOf(getNatGateways()));
-        quotasMap = getQuotas(serviceCode);
-        exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
-        reportBackError = reportBackError || exceedsLimit;
-
-        // ec2 vCPU
-        serviceCode = "ec2";
-        deployedCountMap.clear();
-        deployedCountMap.put("Running On-Demand Standard (A, C, D, H, I, M, R, T, Z) instances", getVCpuCount());
-        quotasMap = getQuotas(serviceCode);
-        exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
-        reportBackError = reportBackError || exceedsLimit;
+        try {
+            // RDS
+            serviceCode = "rds";
+            deployedCountMap.clear();
+            deployedCountMap.put("DB clusters", Double.valueOf(rdsClusters.join()));
+            deployedCountMap.put("DB instances", Double.valueOf(rdsInstances.join()));
+            quotasMap = quotas.get(serviceCode).join();
+            exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
+            reportBackError = exceeded(serviceCode, exceedsLimit) || reportBackError;
+
+            // load balancers
+            serviceCode = "elasticloadbalancing";
+            deployedCountMap.clear();
+            deployedCountMap.put("Application Load Balancers per Region", Double.valueOf(albs.join()));
+            quotasMap = quotas.get(serviceCode).join();
+            exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
+            reportBackError = exceeded(serviceCode, exceedsLimit) || reportBackError;
+
+            // fargate
+            serviceCode = "fargate";
+            deployedCountMap.clear();
+            deployedCountMap.put("Fargate On-Demand vCPU resource count", vcpuUsage.join().get(FARGATE_ON_DEMAND));
+            deployedCountMap.put("Fargate Spot vCPU resource count", vcpuUsage.join().get(FARGATE_SPOT));
+            // Copy before editing, the quotas map is shared through the cache
+            quotasMap = new LinkedHashMap<>(quotas.get(serviceCode).join());
+            // Remove old on demand quota that have been replaced with the new vCPU quota
+            quotasMap.remove("Fargate On-Demand resource count");
+            quotasMap.remove("Fargate Spot resource count");
+            exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
+            reportBackError = exceeded(serviceCode, exceedsLimit) || reportBackError;
+
+            // vpc
+            serviceCode = "vpc";
+            deployedCountMap.clear();
+            deployedCountMap.put("VPCs per Region", Double.valueOf(vpcs.join()));
+            deployedCountMap.put("Internet gateways per Region", Double.valueOf(internetGateways.join()));
+            deployedCountMap.put("NAT gateways per Availability Zone", Double.valueOf(natGateways.join()));
+            quotasMap = quotas.get(serviceCode).join();
+            exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
+            reportBackError = exceeded(serviceCode, exceedsLimit) || reportBackError;
+
+            // ec2 vCPU
+            serviceCode = "ec2";
+            deployedCountMap.clear();
+            deployedCountMap.put("Running On-Demand Standard (A, C, D, H, I, M, R, T, Z) instances",
+                    vcpuUsage.join().get(EC2_ON_DEMAND));
+            quotasMap = quotas.get(serviceCode).join();
+            exceedsLimit = compareValues(retList, deployedCountMap, serviceCode, quotasMap, builder);
+            reportBackError = exceeded(serviceCode, exceedsLimit) || reportBackError;
+        } catch (CompletionException ce) {
+            // Surface the SDK error the same way the serial implementation did
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        }
 
         QuotaCheck quotaCheck = new QuotaCheck();
         quotaCheck.setPassed(!reportBackError);
         quotaCheck.setServiceList(retList);
         quotaCheck.setMessage(builder.toString());
+        LOGGER.info("QuotasServiceDAL::checkQuotas exec {}", System.currentTimeMillis() - startTimeMillis);
         return quotaCheck;
     }
 
+    private <T> CompletableFuture<T> async(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
+    // A failed check is usually followed by a limit increase request, so don't let a cached
+    // quota keep failing onboarding after the increase has been approved
+    private boolean exceeded(String serviceCode, boolean exceedsLimit) {
+        if (exceedsLimit) {
+            invalidateQuotas(serviceCode);
+        }
+        return exceedsLimit;
+    }
+
     private static boolean compareValues(List<Service> retList, Map<String, Double> deployedCountMap, String serviceCode, Map<String, Double> quotasMap, StringBuilder builder) {
         //now compare and build list of messages
         boolean exceedsLimit = false;
@@ -156,7 +227,7 @@ public class QuotasServiceDAL {
     private int getRdsClusters() {
         int clusters = 0;
         try {
-            clusters = rds.describeDBClusters().dbClusters().size();
+            clusters = (int) rds.describeDBClustersPaginator().dbClusters().stream().count();
         } catch (SdkServiceException rdsError) {
             LOGGER.error("rds::DescribeClusters", rdsError);
             LOGGER.error(Utils.getFullStackTrace(rdsError));
@@ -168,7 +239,7 @@ public class QuotasServiceDAL {
     private int getRdsInstances() {
         int instances = 0;
         try {
-            instances = rds.describeDBInstances().dbInstances().size();
+            instances = (int) rds.describeDBInstancesPaginator().dbInstances().stream().count();
         } catch (SdkServiceException rdsError) {
             LOGGER.error("rds::DescribeDBInstances", rdsError);
             LOGGER.error(Utils.getFullStackTrace(rdsError));
@@ -180,7 +251,7 @@ public class QuotasServiceDAL {
     private int getAlbs() {
         int loadBalancers = 0;
         try {
-            loadBalancers = elb.describeLoadBalancers().loadBalancers().size();
+            loadBalancers = (int) elb.describeLoadBalancersPaginator().loadBalancers().stream().count();
         } catch (SdkServiceException elbError) {
             LOGGER.error("elasticloadbalancing::DescribeLoadBalancers", elbError);
             LOGGER.error(Utils.getFullStackTrace(elbError));
@@ -192,7 +263,7 @@ public class QuotasServiceDAL {
     private int getVpcs() {
         int vpcs = 0;
         try {
-            vpcs = ec2.describeVpcs().vpcs().size();
+            vpcs = (int) ec2.describeVpcsPaginator().vpcs().stream().count();
         } catch (SdkServiceException ec2Error) {
             LOGGER.error("ec2::DescribeVpcs", ec2Error);
             LOGGER.error(Utils.getFullStackTrace(ec2Error));
@@ -204,7 +275,7 @@ public class QuotasServiceDAL {
     private int getInternetGateways() {
         int gateways = 0;
         try {
-            gateways = ec2.describeInternetGateways().internetGateways().size();
+            gateways = (int) ec2.describeInternetGatewaysPaginator().internetGateways().stream().count();
         } catch (SdkServiceException ec2Error) {
             LOGGER.error("ec2::DescribeInternetGateways", ec2Error);
             LOGGER.error(Utils.getFullStackTrace(ec2Error));
@@ -216,13 +287,10 @@ public class QuotasServiceDAL {
     private int getNatGateways() {
         int natGateways = 0;
         try {
-            DescribeNatGatewaysResponse response = ec2.describeNatGateways();
-            if (response.hasNatGateways()) {
-                for (NatGateway natGateway : response.natGateways()) {
-                    if (NatGatewayState.AVAILABLE == natGateway.state()
-                            || NatGatewayState.PENDING == natGateway.state()) {
-                        natGateways++;
-                    }
+            for (NatGateway natGateway : ec2.describeNatGatewaysPaginator().natGateways()) {
+                if (NatGatewayState.AVAILABLE == natGateway.state()
+                        || NatGatewayState.PENDING == natGateway.state()) {
+                    natGateways++;
                 }
             }
         } catch (SdkServiceException ec2Error) {
@@ -233,49 +301,31 @@ public class QuotasServiceDAL {
         return natGateways;
     }
 
-    private Double getFargateResourceCount() {
+    private Map<String, Double> getVCpuUsage() {
         final long startTime = System.currentTimeMillis();
-        Double count = 0d;
+        Map<String, Double> usage = new HashMap<>();
         try {
-            Metric metric = Metric.builder()
-                    .metricName("ResourceCount")
-                    .namespace("AWS/Usage")
-                    .dimensions(Arrays.asList(
-                            Dimension.builder().name("Type").value("Resource").build(),
-                            Dimension.builder().name("Resource").value("vCPU").build(),
-                            Dimension.builder().name("Service").value("Fargate").build(),
-                            Dimension.builder().name("Class").value("Standard/OnDemand").build()
-                    ))
-                    .build();
-
-            MetricStat metricStat = MetricStat.builder()
-                    .stat("Maximum")
-                    .period(600)
-                    .metric(metric)
-                    .build();
-
-            MetricDataQuery dataQuery = MetricDataQuery.builder()
-                    .metricStat(metricStat)
-                    .id("fargate")
-                    .returnData(true)
-                    .build();
-
             Instant end = Instant.now();
             Instant start = end.minus(600, ChronoUnit.SECONDS);
 
+            // One GetMetricData call covers all three usage metrics instead of a round trip each
             GetMetricDataRequest getMetricDataRequest = GetMetricDataRequest.builder()
                     .maxDatapoints(10000)
                     .startTime(start)
                     .endTime(end)
-                    .metricDataQueries(Arrays.asList(dataQuery))
+                    .metricDataQueries(
+                            vcpuUsageQuery(FARGATE_ON_DEMAND, "Fargate", "Standard/OnDemand"),
+                            vcpuUsageQuery(FARGATE_SPOT, "Fargate", "Standard/Spot"),
+                            vcpuUsageQuery(EC2_ON_DEMAND, "EC2", "Standard/OnDemand")
+                    )
                     .build();
 
-            GetMetricDataResponse response = cloudWatch.getMetricData(getMetricDataRequest);
-            for (MetricDataResult item : response.metricDataResults()) {
-                //get the last value as it is the most current
-                if (!item.values().isEmpty()) {
-                    count = item.values().get(item.values().size() - 1);
-                    break;
+            for (GetMetricDataResponse response : cloudWatch.getMetricDataPaginator(getMetricDataRequest)) {
+                for (MetricDataResult item : response.metricDataResults()) {
+                    //get the last value as it is the most current
+                    if (!item.values().isEmpty()) {
+                        usage.put(item.id(), item.values().get(item.values().size() - 1));
+                    }
                 }
             }
             LOGGER.info("Time to process: " + (System.currentTimeMillis() - startTime));
@@ -284,117 +334,59 @@ public class QuotasServiceDAL {
             LOGGER.error(Utils.getFullStackTrace(cloudWatchError));
             throw cloudWatchError;
         }
-        return count;
+        for (String id : List.of(FARGATE_ON_DEMAND, FARGATE_SPOT, EC2_ON_DEMAND)) {
+            usage.putIfAbsent(id, 0d);
+        }
+        return usage;
     }
-    private Double getFargateSpotResourceCount() {
-        final long startTime = System.currentTimeMillis();
-        Double count = 0d;
-        try {
-            Metric metric = Metric.builder()
-                    .metricName("ResourceCount")
-                    .namespace("AWS/Usage")
-                    .dimensions(Arrays.asList(
-                            Dimension.builder().name("Type").value("Resource").build(),
-                            Dimension.builder().name("Resource").value("vCPU").build(),
-                            Dimension.builder().name("Service").value("Fargate").build(),
-                            Dimension.builder().name("Class").value("Standard/Spot").build()
-                    ))
-                    .build();
-
-            MetricStat metricStat = MetricStat.builder()
-                    .stat("Maximum")
-                    .period(600)
-                    .metric(metric)
-                    .build();
-
-            MetricDataQuery dataQuery = MetricDataQuery.builder()
-                    .metricStat(metricStat)
-                    .id("fargate")
-                    .returnData(true)
-                    .build();
 
-            Instant end = Instant.now();
-            Instant start = end.minus(600, ChronoUnit.SECONDS);
-
-            GetMetricDataRequest getMetricDataRequest = GetMetricDataRequest.builder()
-                    .maxDatapoints(10000)
-                    .startTime(start)
-                    .endTime(end)
-                    .metricDataQueries(Arrays.asList(dataQuery))
-                    .build();
+    private static MetricDataQuery vcpuUsageQuery(String id, String service, String usageClass) {
+        Metric metric = Metric.builder()
+                .metricName("ResourceCount")
+                .namespace("AWS/Usage")
+                .dimensions(Arrays.asList(
+                        Dimension.builder().name("Type").value("Resource").build(),
+                        Dimension.builder().name("Resource").value("vCPU").build(),
+                        Dimension.builder().name("Service").value(service).build(),
+                        Dimension.builder().name("Class").value(usageClass).build()
+                ))
+                .build();
+
+        MetricStat metricStat = MetricStat.builder()
+                .stat("Maximum")
+                .period(600)
+                .metric(metric)
+                .build();
+
+        return MetricDataQuery.builder()
+                .metricStat(metricStat)
+                .id(id)
+                .returnData(true)
+                .build();
+    }
 
-            GetMetricDataResponse response = cloudWatch.getMetricData(getMetricDataRequest);
-            for (MetricDataResult item : response.metricDataResults()) {
-                //get the last value as it is the most current
-                if (!item.values().isEmpty()) {
-                    count = item.values().get(item.values().size() - 1);
-                    break;
-                }
-            }
-            LOGGER.info("Time to process: " + (System.currentTimeMillis() - startTime));
-        } catch (CloudWatchException cloudWatchError) {
-            LOGGER.error("cloudwatch::GetMetricData", cloudWatchError);
-            LOGGER.error(Utils.getFullStackTrace(cloudWatchError));
-            throw cloudWatchError;
+    // Quota values only change when someone files a limit increase, so serve them from the
+    // warm container until the TTL runs out
+    // Package private for testing
+    Map<String, Double> getQuotas(String serviceCode) {
+        CachedQuotas cached = quotaCache.get(serviceCode);
+        if (cached != null && clock.instant().isBefore(cached.expires)) {
+            return cached.quotas;
         }
-        return count;
+        Map<String, Double> quotas = Collections.unmodifiableMap(listQuotas(serviceCode));
+        quotaCache.put(serviceCode, new CachedQuotas(quotas, clock.instant().plus(quotaCacheTtl)));
+        return quotas;
     }
-    private Double getVCpuCount() {
-        final long startTime = System.currentTimeMillis();
-        Double count = 0d;
-        try {
-            Metric metric = Metric.builder()
-                    .metricName("ResourceCount")
-                    .namespace("AWS/Usage")
-                    .dimensions(Arrays.asList(
-                            Dimension.builder().name("Type").value("Resource").build(),
-                            Dimension.builder().name("Resource").value("vCPU").build(),
-                            Dimension.builder().name("Service").value("EC2").build(),
-                            Dimension.builder().name("Class").value("Standard/OnDemand").build()
-                    ))
-                    .build();
-
-            MetricStat metricStat = MetricStat.builder()
-                    .stat("Maximum")
-                    .period(600)
-                    .metric(metric)
-                    .build();
 
-            MetricDataQuery dataQuery = MetricDataQuery.builder()
-                    .metricStat(metricStat)
-                    .id("vcpu")
-                    .returnData(true)
-                    .build();
-
-            Instant end = Instant.now();
-            Instant start = end.minus(600, ChronoUnit.SECONDS);
-
-            GetMetricDataRequest getMetricDataRequest = GetMetricDataRequest.builder()
-                    .maxDatapoints(10000)
-                    .startTime(start)
-                    .endTime(end)
-                    .metricDataQueries(Arrays.asList(dataQuery))
-                    .build();
-
-            GetMetricDataResponse response = cloudWatch.getMetricData(getMetricDataRequest);
-            for (MetricDataResult item : response.metricDataResults()) {
-                //get the last value as it is the most current
-                if (!item.values().isEmpty()) {
-                    count = item.values().get(item.values().size() - 1);
-                    break;
-                }
-            }
-            LOGGER.info("Time to process: " + (System.currentTimeMillis() - startTime));
-        } catch (CloudWatchException cloudWatchError) {
-            LOGGER.error("cloudwatch::GetMetricData", cloudWatchError);
-            LOGGER.error(Utils.getFullStackTrace(cloudWatchError));
-            throw cloudWatchError;
+    // Package private for testing
+    void invalidateQuotas(String serviceCode) {
+        if (quotaCache.remove(serviceCode) != null) {
+            LOGGER.info("Invalidated cached quotas for {}", serviceCode);
         }
-        return count;
     }
 
     // Get the Quota
-    private Map<String, Double> getQuotas(String serviceCode) {
+    private Map<String, Double> listQuotas(String serviceCode) {
         // Possible language parameters: "en" (English), "ja" (Japanese), "fr" (French), "zh" (Chinese)
         Map<String, Double> retVals = new LinkedHashMap<>();
         String nextToken = null;
@@ -516,6 +508,16 @@ public class QuotasServiceDAL {
 //        } while (nextToken != null && !nextToken.isEmpty());
 //    }
 
+    private static final class CachedQuotas {
+        private final Map<String, Double> quotas;
+        private final Instant expires;
+
+        private CachedQuotas(Map<String, Double> quotas, Instant expires) {
+            this.quotas = quotas;
+            this.expires = expires;
+        }
+    }
+
     public static class Service {
         private String serviceCode;
         private String serviceName;
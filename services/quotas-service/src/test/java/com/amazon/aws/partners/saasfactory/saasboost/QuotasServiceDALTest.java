@@ -0,0 +1,113 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.servicequotas.ServiceQuotasClient;
+import software.amazon.awssdk.services.servicequotas.model.ListServiceQuotasRequest;
+import software.amazon.awssdk.services.servicequotas.model.ListServiceQuotasResponse;
+import software.amazon.awssdk.services.servicequotas.model.ServiceQuota;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class QuotasServiceDALTest {
+
+    private static final Instant START = Instant.parse("2022-03-01T12:00:00Z");
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @Test
+    public void testCachedQuotasServedUntilExpiry() {
+        ServiceQuotasClient serviceQuotas = serviceQuotas();
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START, START.plus(TTL).minusSeconds(1), START.plus(TTL),
+                START.plus(TTL));
+        QuotasServiceDAL dal = new QuotasServiceDAL(serviceQuotas, TTL, clock);
+
+        // Miss, then a hit just before the TTL runs out
+        assertEquals(Map.of("VPCs per Region", 5.0), dal.getQuotas("vpc"));
+        assertEquals(Map.of("VPCs per Region", 5.0), dal.getQuotas("vpc"));
+        verify(serviceQuotas, times(1)).listServiceQuotas(any(ListServiceQuotasRequest.class));
+
+        // Expired at exactly the TTL
+        assertEquals(Map.of("VPCs per Region", 10.0), dal.getQuotas("vpc"));
+        verify(serviceQuotas, times(2)).listServiceQuotas(any(ListServiceQuotasRequest.class));
+    }
+
+    @Test
+    public void testCacheIsPerServiceCode() {
+        ServiceQuotasClient serviceQuotas = serviceQuotas();
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        QuotasServiceDAL dal = new QuotasServiceDAL(serviceQuotas, TTL, clock);
+
+        dal.getQuotas("vpc");
+        dal.getQuotas("rds");
+        dal.getQuotas("vpc");
+        verify(serviceQuotas, times(2)).listServiceQuotas(any(ListServiceQuotasRequest.class));
+    }
+
+    @Test
+    public void testInvalidateQuotas() {
+        ServiceQuotasClient serviceQuotas = serviceQuotas();
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        QuotasServiceDAL dal = new QuotasServiceDAL(serviceQuotas, TTL, clock);
+
+        dal.getQuotas("vpc");
+        dal.getQuotas("rds");
+        dal.invalidateQuotas("vpc");
+        // Invalidating something that was never cached is harmless
+        dal.invalidateQuotas("ec2");
+
+        // An approved limit increase shows up on the next read inside the TTL. The rds lookup
+        // took the second response, so vpc now sees the third.
+        assertEquals(Map.of("VPCs per Region", 15.0), dal.getQuotas("vpc"));
+        dal.getQuotas("rds");
+        verify(serviceQuotas, times(3)).listServiceQuotas(any(ListServiceQuotasRequest.class));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedQuotasAreReadOnly() {
+        ServiceQuotasClient serviceQuotas = serviceQuotas();
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        new QuotasServiceDAL(serviceQuotas, TTL, clock).getQuotas("vpc").remove("VPCs per Region");
+    }
+
+    // Each call to ListServiceQuotas returns a higher VPC quota than the last
+    private static ServiceQuotasClient serviceQuotas() {
+        ServiceQuotasClient serviceQuotas = mock(ServiceQuotasClient.class);
+        when(serviceQuotas.listServiceQuotas(any(ListServiceQuotasRequest.class)))
+                .thenReturn(response(5.0))
+                .thenReturn(response(10.0))
+                .thenReturn(response(15.0));
+        return serviceQuotas;
+    }
+
+    private static ListServiceQuotasResponse response(double vpcs) {
+        return ListServiceQuotasResponse.builder()
+                .quotas(ServiceQuota.builder().quotaName("VPCs per Region").value(vpcs).build())
+                .build();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * Read-through, time bounded cache of a single options lookup. The settings service Lambda
+ * keeps one of these per backend so a warm container only goes back to DynamoDB, ACM or
+ * Route53 once the entry has expired.
+ */
+public class OptionsCache<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OptionsCache.class);
+
+    private final String name;
+    private final Supplier<T> loader;
+    private final Duration ttl;
+    private final Clock clock;
+    private T value;
+    private Instant expiresAt = Instant.MIN;
+
+    public OptionsCache(String name, Supplier<T> loader, Duration ttl) {
+        this(name, loader, ttl, Clock.systemUTC());
+    }
+
+    // Package private for testing
+    OptionsCache(String name, Supplier<T> loader, Duration ttl, Clock clock) {
+        if (loader == null || ttl == null || ttl.isNegative()) {
+            throw new IllegalArgumentException("OptionsCache requires a loader and a non-negative ttl");
+        }
+        this.name = name;
+        this.loader = loader;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    public synchronized T get() {
+        Instant now = clock.instant();
+        if (value == null || !now.isBefore(expiresAt)) {
+            final long startTimeMillis = System.currentTimeMillis();
+            value = loader.get();
+            expiresAt = now.plus(ttl);
+            LOGGER.info("OptionsCache::get {} reloaded in {} ms", name, System.currentTimeMillis() - startTimeMillis);
+        }
+        return value;
+    }
+
+    public synchronized void invalidate() {
+        value = null;
+        expiresAt = Instant.MIN;
+    }
+}
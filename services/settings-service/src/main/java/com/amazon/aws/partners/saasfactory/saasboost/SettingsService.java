@@ -25,7 +25,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.acm.model.CertificateSummary;
 import software.amazon.awssdk.services.eventbridge.EventBridgeClient;
+import software.amazon.awssdk.services.route53.model.HostedZone;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
@@ -33,8 +35,14 @@ import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequ
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 public class SettingsService implements RequestHandler<Map<String, Object>, APIGatewayProxyResponseEvent> {
@@ -73,6 +81,10 @@ public class SettingsService implements RequestHandler<Map<String, Object>, APIG
     private final EventBridgeClient eventBridge;
     private final S3Client s3;
     private final S3Presigner presigner;
+    private final ExecutorService optionsExecutor;
+    private final OptionsCache<List<Map<String, Object>>> rdsOptionsCache;
+    private final OptionsCache<List<CertificateSummary>> acmOptionsCache;
+    private final OptionsCache<List<HostedZone>> hostedZoneOptionsCache;
 
     public SettingsService() {
         final long startTimeMillis = System.currentTimeMillis();
@@ -81,6 +93,14 @@ public class SettingsService implements RequestHandler<Map<String, Object>, APIG
         }
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
         this.dal = new SettingsServiceDAL();
+        // RDS instance classes almost never change, certificates get issued and validated far more often
+        this.rdsOptionsCache = new OptionsCache<>("rdsOptions", dal::rdsOptions,
+                Utils.durationFromEnvironment("RDS_OPTIONS_TTL_SECONDS", Duration.ofHours(6)));
+        this.acmOptionsCache = new OptionsCache<>("acmCertificateOptions", dal::acmCertificateOptions,
+                Utils.durationFromEnvironment("ACM_OPTIONS_TTL_SECONDS", Duration.ofMinutes(1)));
+        this.hostedZoneOptionsCache = new OptionsCache<>("hostedZoneOptions", dal::hostedZoneOptions,
+                Utils.durationFromEnvironment("HOSTED_ZONE_OPTIONS_TTL_SECONDS", Duration.ofMinutes(5)));
+        this.optionsExecutor = Utils.daemonThreadPool(3, "settings-options");
 
         this.eventBridge = Utils.sdkClient(EventBridgeClient.builder(), EventBridgeClient.SERVICE_NAME);
         this.s3 = Utils.sdkClient(S3Client.builder(), S3Client.SERVICE_NAME);
@@ -293,25 +313,84 @@ public class SettingsService implements RequestHandler<Map<String, Object>, APIG
         LOGGER.info("SettingsService::configOptions");
         //Utils.logRequestEvent(event);
 
-        Map<String, Object> options = new HashMap<>();
-        options.put("osOptions", Arrays.stream(OperatingSystem.values())
-                .collect(
-                        Collectors.toMap(OperatingSystem::name, OperatingSystem::getDescription)
-                ));
-        options.put("dbOptions", dal.rdsOptions());
-        options.put("acmOptions", dal.acmCertificateOptions());
-        options.put("hostedZoneOptions", dal.hostedZoneOptions());
+        // The three lookups are independent, so the page loads in the time of the slowest
+        // one (or not at all when they're all still cached) instead of the sum of them.
+        CompletableFuture<List<Map<String, Object>>> dbOptions = CompletableFuture.supplyAsync(
+                rdsOptionsCache::get, optionsExecutor);
+        CompletableFuture<List<CertificateSummary>> acmOptions = CompletableFuture.supplyAsync(
+                acmOptionsCache::get, optionsExecutor);
+        CompletableFuture<List<HostedZone>> hostedZoneOptions = CompletableFuture.supplyAsync(
+                hostedZoneOptionsCache::get, optionsExecutor);
 
-        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
-                .withStatusCode(200)
-                .withHeaders(CORS)
-                .withBody(Utils.toJson(options));
+        APIGatewayProxyResponseEvent response;
+        try {
+            Map<String, Object> options = new HashMap<>();
+            options.put("osOptions", Arrays.stream(OperatingSystem.values())
+                    .collect(
+                            Collectors.toMap(OperatingSystem::name, OperatingSystem::getDescription)
+                    ));
+            options.put("dbOptions", dbOptions.join());
+            options.put("acmOptions", acmOptions.join());
+            options.put("hostedZoneOptions", hostedZoneOptions.join());
+
+            String body = Utils.toJson(options);
+            String etag = etag(body);
+            Map<String, String> headers = new HashMap<>(CORS);
+            headers.put("ETag", etag);
+            headers.put("Cache-Control", "no-cache");
+            if (etag.equals(requestHeader(event, "If-None-Match"))) {
+                LOGGER.info("Options unchanged since ETag {}", etag);
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(304)
+                        .withHeaders(headers);
+            } else {
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(200)
+                        .withHeaders(headers)
+                        .withBody(body);
+            }
+        } catch (CompletionException ce) {
+            LOGGER.error("Error loading config options", ce.getCause());
+            LOGGER.error(Utils.getFullStackTrace(ce));
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(500)
+                    .withHeaders(CORS)
+                    .withBody("{\"message\":\"Error loading config options\"}");
+        }
 
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("SettingsService::configOptions exec " + totalTimeMillis);
         return response;
     }
 
+    // Package private for testing
+    static String etag(String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(body.getBytes(StandardCharsets.UTF_8));
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + "\"";
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM is required to support SHA-256
+            throw new RuntimeException(nsae);
+        }
+    }
+
+    // Package private for testing
+    static String requestHeader(Map<String, Object> event, String headerName) {
+        String value = null;
+        if (event != null && event.get("headers") instanceof Map) {
+            Map<String, Object> headers = (Map<String, Object>) event.get("headers");
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                // HTTP header names are case insensitive and API Gateway passes them through as sent
+                if (headerName.equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                    value = String.valueOf(header.getValue());
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
     public APIGatewayProxyResponseEvent getAppConfig(Map<String, Object> event, Context context) {
         if (Utils.warmup(event)) {
             //LOGGER.info("Warming up");
@@ -31,7 +31,6 @@ import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.route53.Route53Client;
 import software.amazon.awssdk.services.route53.model.HostedZone;
 import software.amazon.awssdk.services.route53.model.ListHostedZonesRequest;
-import software.amazon.awssdk.services.route53.model.ListHostedZonesResponse;
 import software.amazon.awssdk.services.ssm.SsmClient;
 import software.amazon.awssdk.services.ssm.model.*;
 
@@ -163,21 +162,30 @@ public class SettingsServiceDAL {
 
     public List<Map<String, Object>> rdsOptions() {
         List<Map<String, Object>> orderableOptionsByRegion = new ArrayList<>();
-        QueryResponse response = ddb.query(request -> request
-                .tableName(OPTIONS_TABLE)
-                .keyConditionExpression("#region = :region")
-                .expressionAttributeNames(Stream
-                        .of(new AbstractMap.SimpleEntry<>("#region", "region"))
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-                )
-                .expressionAttributeValues(Stream
-                        .of(new AbstractMap.SimpleEntry<>(":region", AttributeValue.builder().s(AWS_REGION).build()))
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-                )
-        );
-        response.items().forEach(item ->
-                orderableOptionsByRegion.add(fromAttributeValueMap(item))
-        );
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            // Options rows are large (every instance class for every engine version) so the query
+            // can exceed the 1 MB page size. Keep reading until DynamoDB stops handing us a cursor.
+            final Map<String, AttributeValue> exclusiveStartKey = lastEvaluatedKey;
+            QueryResponse response = ddb.query(request -> request
+                    .tableName(OPTIONS_TABLE)
+                    .keyConditionExpression("#region = :region")
+                    .expressionAttributeNames(Stream
+                            .of(new AbstractMap.SimpleEntry<>("#region", "region"))
+                            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
+                    )
+                    .expressionAttributeValues(Stream
+                            .of(new AbstractMap.SimpleEntry<>(":region",
+                                    AttributeValue.builder().s(AWS_REGION).build()))
+                            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
+                    )
+                    .exclusiveStartKey(exclusiveStartKey)
+            );
+            response.items().forEach(item ->
+                    orderableOptionsByRegion.add(fromAttributeValueMap(item))
+            );
+            lastEvaluatedKey = response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null;
+        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
         return orderableOptionsByRegion;
     }
 
@@ -206,23 +214,16 @@ public class SettingsServiceDAL {
 
     public List<HostedZone> hostedZoneOptions() {
         List<HostedZone> allHostedZones = new ArrayList<>();
-        String marker = null;
-        do {
-            ListHostedZonesResponse response = route53.listHostedZones(ListHostedZonesRequest.builder()
-                    .marker(marker)
-                    .build());
-            LOGGER.info("Listed hostedZones: {}", response);
-            if (response.hasHostedZones() && response.hostedZones() != null) {
-                // we only want to list public zones, since we attaching them to an internet-facing
-                // ApplicationLoadBalancer for the tenant
-                for (HostedZone zone : response.hostedZones()) {
-                    if (zone.config() != null && !zone.config().privateZone()) {
-                        allHostedZones.add(zone);
-                    }
-                }
+        // The paginator follows NextMarker until the listing is no longer truncated
+        for (HostedZone zone : route53.listHostedZonesPaginator(ListHostedZonesRequest.builder().build())
+                .hostedZones()) {
+            // we only want to list public zones, since we attaching them to an internet-facing
+            // ApplicationLoadBalancer for the tenant
+            if (zone.config() != null && !zone.config().privateZone()) {
+                allHostedZones.add(zone);
             }
-            marker = response.marker();
-        } while (marker != null);
+        }
+        LOGGER.info("Listed {} public hostedZones", allHostedZones.size());
         return allHostedZones;
     }
 
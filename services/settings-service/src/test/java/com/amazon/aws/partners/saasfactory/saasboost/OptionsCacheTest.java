@@ -0,0 +1,61 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OptionsCacheTest {
+
+    @Test
+    public void testGetLoadsOnceWithinTtl() {
+        AtomicInteger loads = new AtomicInteger();
+        OptionsCache<Integer> cache = new OptionsCache<>("test", loads::incrementAndGet, Duration.ofMinutes(5));
+        assertEquals(Integer.valueOf(1), cache.get());
+        assertEquals(Integer.valueOf(1), cache.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testGetReloadsAfterTtl() {
+        AtomicInteger loads = new AtomicInteger();
+        Instant start = Instant.parse("2022-01-01T00:00:00Z");
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(start, start.plus(Duration.ofMinutes(4)), start.plus(Duration.ofMinutes(5)));
+        OptionsCache<Integer> cache = new OptionsCache<>("test", loads::incrementAndGet, Duration.ofMinutes(5), clock);
+        assertEquals(Integer.valueOf(1), cache.get());
+        assertEquals(Integer.valueOf(1), cache.get());
+        assertEquals(Integer.valueOf(2), cache.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        AtomicInteger loads = new AtomicInteger();
+        OptionsCache<Integer> cache = new OptionsCache<>("test", loads::incrementAndGet, Duration.ofHours(1));
+        cache.get();
+        cache.invalidate();
+        assertEquals(Integer.valueOf(2), cache.get());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SettingsServiceTest {
+
+    @Test
+    public void testEtagIsStableAndQuoted() {
+        String etag = SettingsService.etag("{\"dbOptions\":[]}");
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, SettingsService.etag("{\"dbOptions\":[]}"));
+        assertNotEquals(etag, SettingsService.etag("{\"dbOptions\":[{}]}"));
+    }
+
+    @Test
+    public void testRequestHeaderIsCaseInsensitive() {
+        Map<String, Object> event = Map.of("headers", Map.of("if-none-match", "\"abc\""));
+        assertEquals("\"abc\"", SettingsService.requestHeader(event, "If-None-Match"));
+        assertNull(SettingsService.requestHeader(Map.of(), "If-None-Match"));
+    }
+}
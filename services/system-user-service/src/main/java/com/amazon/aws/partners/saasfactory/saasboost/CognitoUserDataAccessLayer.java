@@ -30,6 +30,8 @@ public class CognitoUserDataAccessLayer implements SystemUserDataAccessLayer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CognitoUserDataAccessLayer.class);
     private static final String COGNITO_USER_POOL = System.getenv("COGNITO_USER_POOL");
+    // Cognito ListUsers returns at most 60 users per call
+    private static final int MAX_PAGE_SIZE = 60;
     private final CognitoIdentityProviderClient cognito;
 
     public CognitoUserDataAccessLayer() {
@@ -64,6 +66,33 @@ public class CognitoUserDataAccessLayer implements SystemUserDataAccessLayer {
         return users;
     }
 
+    public SystemUserPage getUsers(Map<String, Object> event, Integer limit, String nextToken) {
+        LOGGER.info("UserServiceDAL::getUsers page");
+        int pageSize = limit != null ? Math.min(limit, MAX_PAGE_SIZE) : MAX_PAGE_SIZE;
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid limit " + limit);
+        }
+        try {
+            ListUsersResponse response = cognito.listUsers(ListUsersRequest.builder()
+                    .userPoolId(COGNITO_USER_POOL)
+                    .limit(pageSize)
+                    .paginationToken(Utils.isNotBlank(nextToken) ? nextToken : null)
+                    .build()
+            );
+            List<SystemUser> users = new ArrayList<>();
+            for (UserType userType : response.users()) {
+                users.add(fromUserType(userType));
+            }
+            return new SystemUserPage(users, response.paginationToken());
+        } catch (InvalidParameterException badToken) {
+            throw new IllegalArgumentException("Invalid nextToken " + nextToken);
+        } catch (SdkServiceException cognitoError) {
+            LOGGER.error("cognito-idp:ListUsers", cognitoError);
+            LOGGER.error(Utils.getFullStackTrace(cognitoError));
+            throw cognitoError;
+        }
+    }
+
     public SystemUser getUser(Map<String, Object> event, String username) {
         LOGGER.info("UserServiceDAL::getUser");
         SystemUser user = null;
@@ -7,6 +7,14 @@ public interface SystemUserDataAccessLayer {
 
     List<SystemUser> getUsers(Map<String, Object> event);
 
+    /**
+     * Returns one page of users. Pass the previous page's next token to continue, or null to start from the
+     * beginning. The limit is capped by the identity provider's maximum page size and defaults to it when null.
+     *
+     * @throws IllegalArgumentException if the limit is less than 1 or the next token is not valid
+     */
+    SystemUserPage getUsers(Map<String, Object> event, Integer limit, String nextToken);
+
     SystemUser getUser(Map<String, Object> event, String username);
 
     SystemUser updateUser(Map<String, Object> event, SystemUser user);
@@ -0,0 +1,53 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of system users. The next token is opaque to callers and is null on the last page.
+ */
+public class SystemUserPage {
+
+    private List<SystemUser> items = new ArrayList<>();
+    private String nextToken;
+
+    public SystemUserPage() {
+    }
+
+    public SystemUserPage(List<SystemUser> items, String nextToken) {
+        setItems(items);
+        this.nextToken = nextToken;
+    }
+
+    public List<SystemUser> getItems() {
+        return items;
+    }
+
+    public void setItems(List<SystemUser> items) {
+        this.items = items != null ? items : new ArrayList<>();
+    }
+
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public void setNextToken(String nextToken) {
+        this.nextToken = nextToken;
+    }
+}
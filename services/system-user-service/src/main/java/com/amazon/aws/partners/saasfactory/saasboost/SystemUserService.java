@@ -22,6 +22,7 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -63,12 +64,30 @@ public class SystemUserService implements RequestHandler<Map<String, Object>, AP
         LOGGER.info("UserService::getUsers");
         //Utils.logRequestEvent(event);
         APIGatewayProxyResponseEvent response;
+        Map<String, String> queryParams = (Map<String, String>) event.get("queryStringParameters");
+        if (queryParams == null) {
+            queryParams = Collections.emptyMap();
+        }
         try {
-            List<SystemUser> users = dal.getUsers(event);
+            Object users;
+            if (Utils.isNotBlank(queryParams.get("limit")) || Utils.isNotBlank(queryParams.get("nextToken"))) {
+                // Callers asking for pages get an items + nextToken envelope, everyone else keeps the plain list
+                Integer limit = Utils.isNotBlank(queryParams.get("limit"))
+                        ? Integer.valueOf(queryParams.get("limit")) : null;
+                users = dal.getUsers(event, limit, queryParams.get("nextToken"));
+            } else {
+                users = dal.getUsers(event);
+            }
             response = new APIGatewayProxyResponseEvent()
                     .withStatusCode(200)
                     .withHeaders(CORS)
                     .withBody(Utils.toJson(users));
+        } catch (IllegalArgumentException badRequest) {
+            // Also covers NumberFormatException for a malformed limit
+            response = new APIGatewayProxyResponseEvent()
+                    .withHeaders(CORS)
+                    .withStatusCode(400)
+                    .withBody(Utils.toJson(Map.of("message", String.valueOf(badRequest.getMessage()))));
         } catch (Exception e) {
             LOGGER.error(Utils.getFullStackTrace(e));
             response = new APIGatewayProxyResponseEvent()
@@ -17,11 +17,15 @@
 package com.amazon.aws.partners.saasfactory.saasboost.keycloak;
 
 import com.amazon.aws.partners.saasfactory.saasboost.Utils;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URLEncoder;
@@ -31,8 +35,6 @@ import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +48,8 @@ public class KeycloakApi {
     private static final String KEYCLOAK_USER_ENDPOINT_TEMPLATE = "%s/admin/realms/%s/users";
     // "host/admin/realms/realm/groups"
     private static final String KEYCLOAK_GROUP_ENDPOINT_TEMPLATE = "%s/admin/realms/%s/groups";
+    private static final int USER_PAGE_SIZE = 100;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
     
     private final HttpClient client;
     private final String userEndpoint;
@@ -68,27 +72,43 @@ public class KeycloakApi {
     }
 
     public List<UserRepresentation> listUsers(Map<String, Object> event) {
+        // Keycloak caps unbounded user queries server side, so walk the realm a page at a time
+        List<UserRepresentation> users = new ArrayList<>();
+        int first = 0;
+        List<UserRepresentation> page;
+        do {
+            page = listUsers(event, first, USER_PAGE_SIZE);
+            users.addAll(page);
+            first += page.size();
+        } while (page.size() == USER_PAGE_SIZE);
+        return users;
+    }
+
+    public List<UserRepresentation> listUsers(Map<String, Object> event, int first, int max) {
+        if (first < 0 || max < 1) {
+            throw new IllegalArgumentException("Invalid user page first " + first + " max " + max);
+        }
         try {
-            HttpRequest getUsers = keycloakRequest(event, userEndpoint()).GET().build();
+            HttpRequest getUsers = keycloakRequest(event, userPageEndpoint(first, max)).GET().build();
             LOGGER.info("Invoking Keycloak realm users endpoint {}", getUsers.uri());
-            HttpResponse<String> response = client.send(getUsers,
-                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-            if (HttpURLConnection.HTTP_OK == response.statusCode()) {
-                LOGGER.info("listUsers response: {}", response.body());
-                List<Map<String, Object>> users = Utils.fromJson(response.body(), ArrayList.class);
-                LOGGER.info("listUsers parsed users: {}", users);
-                if (users != null) {
-                    return users.stream()
-                            .map(KeycloakApi::toKeycloakUser)
-                            .collect(Collectors.toList());
+            HttpResponse<InputStream> response = client.send(getUsers, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (HttpURLConnection.HTTP_OK == response.statusCode()) {
+                    List<UserRepresentation> users = parseUsers(body);
+                    if (users != null) {
+                        LOGGER.info("listUsers parsed {} users", users.size());
+                        return users;
+                    } else {
+                        LOGGER.error("Can't parse realm users response from {}", getUsers.uri());
+                        throw new RuntimeException("Invalid response from " + getUsers.uri());
+                    }
                 } else {
-                    LOGGER.error("Can't parse realm users response {}", response.body());
-                    throw new RuntimeException("Invalid response from " + getUsers.uri());
+                    LOGGER.error("Received HTTP status " + response.statusCode());
+                    if (body != null) {
+                        LOGGER.error(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                    throw new RuntimeException("Keycloak realm users failed HTTP " + response.statusCode());
                 }
-            } else {
-                LOGGER.error("Received HTTP status " + response.statusCode());
-                LOGGER.error(response.body());
-                throw new RuntimeException("Keycloak realm users failed HTTP " + response.statusCode());
             }
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
@@ -135,8 +155,16 @@ public class KeycloakApi {
             if (HttpURLConnection.HTTP_CREATED == response.statusCode()) {
                 LOGGER.info("Succcessfully created user " + user.getUsername());
                 // If the POST to create user succeeds we just get back a HTTP 201 with no body
-                // We need to GET the newly created user to return it with the created id
-                return getUser(event, user.getUsername());
+                // and the new user's URL in the Location header, which ends with the created id
+                String location = response.headers().firstValue("Location").orElse(null);
+                if (Utils.isBlank(location)) {
+                    LOGGER.warn("No Location header in create user response, reading user back");
+                    return getUser(event, user.getUsername());
+                }
+                user.setId(location.substring(location.lastIndexOf('/') + 1));
+                // Don't hand the temporary password back to callers
+                user.setCredentials(null);
+                return user;
             } else {
                 LOGGER.error("Received HTTP status " + response.statusCode());
                 LOGGER.error(response.body());
@@ -221,45 +249,24 @@ public class KeycloakApi {
     }
 
     // VisibleForTesting
-    static UserRepresentation toKeycloakUser(Map<String, Object> user) {
-        if (user != null) {
-            final UserRepresentation keycloakUser = new UserRepresentation();
-            // for each "set" function in UserRepresentation, parse the mapped value from user
-            Arrays.stream(UserRepresentation.class.getMethods())
-                    .filter(method -> method.getName().toLowerCase().startsWith("set"))
-                    .forEach(setMethod -> {
-                        try {
-                            String capitalizedAttributeName = setMethod.getName().substring("set".length());
-                            // we need to "lowercase" the first character when we pull the attribute name this way
-                            char[] cs = capitalizedAttributeName.toCharArray();
-                            cs[0] = Character.toLowerCase(cs[0]);
-                            String attributeName = new String(cs);
-                            Class attributeType = setMethod.getParameterTypes()[0];
-                            if (user.containsKey(attributeName)) {
-                                if (attributeType == Long.class) {
-                                    // createdTimestamp is parsed by Jackson as an Integer
-                                    // but stored in UserRepresentation as a Long
-                                    setMethod.invoke(keycloakUser, Long.parseLong(user.get(attributeName).toString()));
-                                } else if (attributeType == Set.class) {
-                                    // disableableCredentialTypes is parsed by Jackson as an
-                                    // ArrayList<String> but stored in UserRepresentation as a Set<String>
-                                    setMethod.invoke(keycloakUser, 
-                                            new HashSet<String>((ArrayList<String>) user.get(attributeName)));
-                                } else {
-                                    setMethod.invoke(keycloakUser, attributeType.cast(user.get(attributeName)));
-                                }
-                            } else {
-                                LOGGER.info("User JSON map does not contain {}, skipping.", attributeName);
-                            }
-                        } catch (Exception e) {
-                            LOGGER.error("Error converting user map to keycloak user");
-                            LOGGER.error(Utils.getFullStackTrace(e));
-                            throw new RuntimeException(e);
-                        }
-                    });
-            return keycloakUser;
+    static List<UserRepresentation> parseUsers(InputStream json) throws IOException {
+        // Stream the JSON array one user object at a time rather than buffering the whole page
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return null;
+            }
+            List<UserRepresentation> users = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, Object> user = MAPPER.readValue(parser, Map.class);
+                users.add(toKeycloakUser(user));
+            }
+            return users;
         }
-        return null;
+    }
+
+    // VisibleForTesting
+    static UserRepresentation toKeycloakUser(Map<String, Object> user) {
+        return KeycloakUserMapper.toKeycloakUser(user);
     }
 
     /*
@@ -306,6 +313,10 @@ public class KeycloakApi {
         return URI.create(userEndpoint);
     }
 
+    private URI userPageEndpoint(int first, int max) {
+        return URI.create(userEndpoint + "?first=" + first + "&max=" + max);
+    }
+
     private URI groupSearchEndpoint(String groupName) {
         return URI.create(groupEndpoint + "?search=" + groupName);
     }
@@ -18,16 +18,19 @@ package com.amazon.aws.partners.saasfactory.saasboost.keycloak;
 
 import com.amazon.aws.partners.saasfactory.saasboost.SystemUser;
 import com.amazon.aws.partners.saasfactory.saasboost.SystemUserDataAccessLayer;
+import com.amazon.aws.partners.saasfactory.saasboost.SystemUserPage;
 import com.amazon.aws.partners.saasfactory.saasboost.Utils;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -35,6 +38,7 @@ import java.util.stream.Collectors;
 public class KeycloakUserDataAccessLayer implements SystemUserDataAccessLayer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KeycloakUserDataAccessLayer.class);
+    private static final int MAX_PAGE_SIZE = 100;
 
     private final KeycloakApi keycloak;
 
@@ -53,6 +57,25 @@ public class KeycloakUserDataAccessLayer implements SystemUserDataAccessLayer {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public SystemUserPage getUsers(Map<String, Object> event, Integer limit, String nextToken) {
+        int pageSize = limit != null ? Math.min(limit, MAX_PAGE_SIZE) : MAX_PAGE_SIZE;
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid limit " + limit);
+        }
+        int first = fromNextToken(nextToken);
+        // Ask for one more user than we return so we know whether there is another page
+        List<UserRepresentation> users = keycloak.listUsers(event, first, pageSize + 1);
+        String next = null;
+        if (users.size() > pageSize) {
+            users = users.subList(0, pageSize);
+            next = toNextToken(first + pageSize);
+        }
+        return new SystemUserPage(users.stream()
+                .map(KeycloakUserDataAccessLayer::toSystemUser)
+                .collect(Collectors.toList()), next);
+    }
+
     @Override
     public SystemUser getUser(Map<String, Object> event, String username) {
         return toSystemUser(keycloak.getUser(event, username));
@@ -104,6 +127,29 @@ public class KeycloakUserDataAccessLayer implements SystemUserDataAccessLayer {
         keycloak.deleteUser(event, username);
     }
 
+    // VisibleForTesting
+    static String toNextToken(int first) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.valueOf(first).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // VisibleForTesting
+    static int fromNextToken(String nextToken) {
+        if (Utils.isBlank(nextToken)) {
+            return 0;
+        }
+        try {
+            int first = Integer.parseInt(new String(Base64.getUrlDecoder().decode(nextToken), StandardCharsets.UTF_8));
+            if (first < 0) {
+                throw new IllegalArgumentException("Invalid nextToken " + nextToken);
+            }
+            return first;
+        } catch (IllegalArgumentException e) {
+            // Covers both bad base64 and NumberFormatException
+            throw new IllegalArgumentException("Invalid nextToken " + nextToken);
+        }
+    }
+
     // VisibleForTesting
     static SystemUser toSystemUser(UserRepresentation keycloakUser) {
         SystemUser user = null;
@@ -0,0 +1,127 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost.keycloak;
+
+import com.amazon.aws.partners.saasfactory.saasboost.Utils;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Maps the JSON map form of a Keycloak user onto a {@link UserRepresentation}.
+ *
+ * Every public single argument setter on UserRepresentation is resolved to a {@link MethodHandle} once when this
+ * class loads, so new attributes added by Keycloak upgrades are still picked up, but mapping a user is a map lookup
+ * and a direct handle call per attribute rather than a reflective method scan per user.
+ */
+final class KeycloakUserMapper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeycloakUserMapper.class);
+    private static final Map<String, Setter> SETTERS = setters();
+
+    private KeycloakUserMapper() {
+    }
+
+    static UserRepresentation toKeycloakUser(Map<String, Object> user) {
+        if (user == null) {
+            return null;
+        }
+        final UserRepresentation keycloakUser = new UserRepresentation();
+        for (Map.Entry<String, Object> attribute : user.entrySet()) {
+            Setter setter = SETTERS.get(attribute.getKey());
+            if (setter != null) {
+                setter.set(keycloakUser, attribute.getValue());
+            } else {
+                LOGGER.debug("UserRepresentation has no attribute {}, skipping.", attribute.getKey());
+            }
+        }
+        return keycloakUser;
+    }
+
+    private static Map<String, Setter> setters() {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Map<String, Setter> setters = new HashMap<>();
+        for (Method method : UserRepresentation.class.getMethods()) {
+            if (!method.getName().startsWith("set") || method.getName().length() == "set".length()
+                    || method.getParameterCount() != 1 || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            // setFirstName -> firstName
+            char[] cs = method.getName().substring("set".length()).toCharArray();
+            cs[0] = Character.toLowerCase(cs[0]);
+            String attributeName = new String(cs);
+            Class<?> attributeType = method.getParameterTypes()[0];
+            try {
+                MethodHandle handle = lookup.unreflect(method)
+                        .asType(MethodType.methodType(void.class, UserRepresentation.class, Object.class));
+                setters.put(attributeName, new Setter(attributeName, handle, converter(attributeType)));
+            } catch (IllegalAccessException e) {
+                LOGGER.error(Utils.getFullStackTrace(e));
+                throw new RuntimeException(e);
+            }
+        }
+        return Collections.unmodifiableMap(setters);
+    }
+
+    private static Function<Object, Object> converter(Class<?> attributeType) {
+        if (attributeType == Long.class) {
+            // createdTimestamp is parsed by Jackson as an Integer but stored in UserRepresentation as a Long
+            return value -> value != null ? Long.valueOf(value.toString()) : null;
+        } else if (attributeType == Set.class) {
+            // disableableCredentialTypes is parsed by Jackson as an ArrayList<String>
+            // but stored in UserRepresentation as a Set<String>
+            return value -> value != null ? new HashSet<>((Collection<?>) value) : null;
+        }
+        return Function.identity();
+    }
+
+    private static final class Setter {
+        private final String attributeName;
+        private final MethodHandle handle;
+        private final Function<Object, Object> converter;
+
+        Setter(String attributeName, MethodHandle handle, Function<Object, Object> converter) {
+            this.attributeName = attributeName;
+            this.handle = handle;
+            this.converter = converter;
+        }
+
+        void set(UserRepresentation keycloakUser, Object value) {
+            try {
+                handle.invokeExact(keycloakUser, converter.apply(value));
+            } catch (Throwable t) {
+                // invokeExact declares Throwable, but a setter can only throw unchecked exceptions
+                RuntimeException e = new RuntimeException(t);
+                LOGGER.error("Error converting user map attribute {} to keycloak user", attributeName);
+                LOGGER.error(Utils.getFullStackTrace(e));
+                throw e;
+            }
+        }
+    }
+}
@@ -22,7 +22,9 @@ import org.junit.Test;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.mockito.ArgumentCaptor;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
@@ -34,6 +36,7 @@ import java.net.http.HttpResponse.BodySubscriber;
 import java.net.http.HttpResponse.BodySubscribers;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +53,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public final class KeycloakApiTest {
     private static final String TEST_HOST = "http://subdomain.domain.org";
@@ -74,23 +79,51 @@ public final class KeycloakApiTest {
         UserRepresentation user1 = mockKeycloakUser("user1");
         UserRepresentation user2 = mockKeycloakUser("user2");
         List<UserRepresentation> expectedUsers = List.of(user1, user2);
-        doReturn(mockResponse(HttpURLConnection.HTTP_OK, Utils.toJson(expectedUsers)))
+        doReturn(mockStreamResponse(HttpURLConnection.HTTP_OK, Utils.toJson(expectedUsers)))
                 .when(mockClient).send(requestCaptor.capture(), any(BodyHandler.class));
         List<UserRepresentation> actualUsers = api.listUsers(TEST_EVENT);
-        assertRequest(requestCaptor.getValue(), "GET", endpoint("/users"), null);
+        assertRequest(requestCaptor.getValue(), "GET", endpoint("/users?first=0&max=100"), null);
+        assertUserListsEqual(expectedUsers, actualUsers);
+    }
+
+    @Test
+    public void listUsers_allPages() throws IOException, InterruptedException {
+        List<UserRepresentation> firstPage = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            firstPage.add(mockKeycloakUser("user" + i));
+        }
+        List<UserRepresentation> secondPage = List.of(mockKeycloakUser("user100"));
+        doReturn(mockStreamResponse(HttpURLConnection.HTTP_OK, Utils.toJson(firstPage)))
+                .when(mockClient).send(argThat((request) -> request != null
+                        && request.uri().toString().endsWith("first=0&max=100")), any(BodyHandler.class));
+        doReturn(mockStreamResponse(HttpURLConnection.HTTP_OK, Utils.toJson(secondPage)))
+                .when(mockClient).send(argThat((request) -> request != null
+                        && request.uri().toString().endsWith("first=100&max=100")), any(BodyHandler.class));
+        List<UserRepresentation> actualUsers = api.listUsers(TEST_EVENT);
+        assertEquals(101, actualUsers.size());
+        assertUsersEqual(secondPage.get(0), actualUsers.get(100));
+    }
+
+    @Test
+    public void listUsers_page() throws IOException, InterruptedException {
+        List<UserRepresentation> expectedUsers = List.of(mockKeycloakUser("user1"));
+        doReturn(mockStreamResponse(HttpURLConnection.HTTP_OK, Utils.toJson(expectedUsers)))
+                .when(mockClient).send(requestCaptor.capture(), any(BodyHandler.class));
+        List<UserRepresentation> actualUsers = api.listUsers(TEST_EVENT, 20, 10);
+        assertRequest(requestCaptor.getValue(), "GET", endpoint("/users?first=20&max=10"), null);
         assertUserListsEqual(expectedUsers, actualUsers);
     }
 
     @Test(expected = RuntimeException.class)
     public void listUsers_wrongStatusCode() throws IOException, InterruptedException {
-        doReturn(mockResponse(HttpURLConnection.HTTP_BAD_GATEWAY, null))
+        doReturn(mockStreamResponse(HttpURLConnection.HTTP_BAD_GATEWAY, null))
                 .when(mockClient).send(any(HttpRequest.class), any(BodyHandler.class));
         api.listUsers(TEST_EVENT);
     }
 
     @Test(expected = RuntimeException.class)
     public void listUsers_invalidResponse() throws IOException, InterruptedException {
-        doReturn(mockResponse(HttpURLConnection.HTTP_OK, Utils.toJson(null)))
+        doReturn(mockStreamResponse(HttpURLConnection.HTTP_OK, Utils.toJson(null)))
                 .when(mockClient).send(any(HttpRequest.class), any(BodyHandler.class));
         api.listUsers(TEST_EVENT);
     }
@@ -146,6 +179,20 @@ public final class KeycloakApiTest {
         assertUsersEqual(expected, actual);
     }
 
+    @Test
+    public void createUser_location() throws IOException, InterruptedException {
+        UserRepresentation user = mockKeycloakUser("user");
+        final String createdId = user.getId();
+        user.setId(null);
+        HttpResponse<String> created = mockResponse(HttpURLConnection.HTTP_CREATED, null,
+                Map.of("Location", List.of(endpoint("/users/" + createdId))));
+        doReturn(created).when(mockClient).send(requestCaptor.capture(), any(BodyHandler.class));
+        UserRepresentation actual = api.createUser(TEST_EVENT, user);
+        verify(mockClient, times(1)).send(any(HttpRequest.class), any(BodyHandler.class));
+        assertEquals("Created id should come from the Location header", createdId, actual.getId());
+        assertEquals(user.getUsername(), actual.getUsername());
+    }
+
     @Test(expected = RuntimeException.class)
     public void createUser_wrongStatusCode() throws IOException, InterruptedException {
         doReturn(mockResponse(HttpURLConnection.HTTP_BAD_GATEWAY, null))
@@ -254,9 +301,22 @@ public final class KeycloakApiTest {
     
 
     private HttpResponse<String> mockResponse(int statusCode, String body) {
+        return mockResponse(statusCode, body, Map.of());
+    }
+
+    private HttpResponse<String> mockResponse(int statusCode, String body, Map<String, List<String>> headers) {
         HttpResponse<String> mockResponse = mock(HttpResponse.class);
         doReturn(statusCode).when(mockResponse).statusCode();
         doReturn(body).when(mockResponse).body();
+        doReturn(HttpHeaders.of(headers, (name, value) -> true)).when(mockResponse).headers();
+        return mockResponse;
+    }
+
+    private HttpResponse<InputStream> mockStreamResponse(int statusCode, String body) {
+        HttpResponse<InputStream> mockResponse = mock(HttpResponse.class);
+        doReturn(statusCode).when(mockResponse).statusCode();
+        doReturn(new ByteArrayInputStream(body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0]))
+                .when(mockResponse).body();
         return mockResponse;
     }
 
@@ -17,6 +17,7 @@
 package com.amazon.aws.partners.saasfactory.saasboost.keycloak;
 
 import com.amazon.aws.partners.saasfactory.saasboost.SystemUser;
+import com.amazon.aws.partners.saasfactory.saasboost.SystemUserPage;
 import org.junit.Before;
 import org.junit.Test;
 import org.keycloak.representations.idm.UserRepresentation;
@@ -33,8 +34,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
@@ -98,6 +101,28 @@ public final class KeycloakUserDataAccessLayerTest {
         assertEquals("Created user should have admin group", capturedUser.getGroups().get(0), groupPath);
     }
 
+    @Test
+    public void getUsersPageTest() {
+        List<UserRepresentation> users = List.of(
+                mockKeycloakUser("user1"), mockKeycloakUser("user2"), mockKeycloakUser("user3"));
+        doReturn(users).when(mockApi).listUsers(any(Map.class), eq(0), eq(3));
+        SystemUserPage page = dal.getUsers(Map.of(), 2, null);
+        assertEquals("Page should be trimmed to the limit", 2, page.getItems().size());
+        assertEquals(users.get(1).getUsername(), page.getItems().get(1).getUsername());
+        assertEquals(2, KeycloakUserDataAccessLayer.fromNextToken(page.getNextToken()));
+
+        doReturn(users.subList(2, 3)).when(mockApi).listUsers(any(Map.class), eq(2), eq(3));
+        page = dal.getUsers(Map.of(), 2, page.getNextToken());
+        assertEquals(1, page.getItems().size());
+        assertEquals(users.get(2).getUsername(), page.getItems().get(0).getUsername());
+        assertNull("Last page should not have a next token", page.getNextToken());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getUsersInvalidNextTokenTest() {
+        dal.getUsers(Map.of(), 10, "not-a-token");
+    }
+
     @Test
     public void toSystemUserTest() {
         UserRepresentation keycloakUser = mockKeycloakUser("user");
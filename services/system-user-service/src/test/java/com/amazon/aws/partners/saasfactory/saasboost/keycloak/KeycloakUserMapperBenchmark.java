@@ -0,0 +1,121 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost.keycloak;
+
+import com.amazon.aws.partners.saasfactory.saasboost.Utils;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static com.amazon.aws.partners.saasfactory.saasboost.keycloak.KeycloakTestUtils.mockKeycloakUser;
+
+/**
+ * Compares {@link KeycloakUserMapper} with the per-user reflection mapping it replaced for a 10k user list call.
+ * Not run by the build; run main from the test classpath when changing the mapper.
+ *
+ * <p>This is a plain warmup-then-measure harness rather than a JMH benchmark because JMH isn't available to
+ * the build. Treat the numbers as a relative comparison between the two mappers on the same JVM, not as
+ * absolute timings.
+ */
+public final class KeycloakUserMapperBenchmark {
+    private static final int USERS = 10_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+    // Published so the JIT can't prove the mapping results are unused and drop the work
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        List<Map<String, Object>> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add((Map<String, Object>) Utils.fromJson(Utils.toJson(mockKeycloakUser("user" + i)), HashMap.class));
+        }
+        // Only compare mappers that agree, otherwise the faster one may just be doing less
+        for (Map<String, Object> user : users.subList(0, 10)) {
+            String expected = Utils.toJson(reflectiveToKeycloakUser(user));
+            if (!expected.equals(Utils.toJson(KeycloakUserMapper.toKeycloakUser(user)))) {
+                throw new IllegalStateException("Mappers disagree for " + user.get("username"));
+            }
+        }
+        run("reflection", users, KeycloakUserMapperBenchmark::reflectiveToKeycloakUser);
+        run("method handles", users, KeycloakUserMapper::toKeycloakUser);
+    }
+
+    private static void run(String name, List<Map<String, Object>> users,
+                            Function<Map<String, Object>, UserRepresentation> mapper) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += mapAll(users, mapper);
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += mapAll(users, mapper);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        System.out.printf("%-15s best %8.2f ms, mean %8.2f ms per %d users%n", name, best / 1_000_000.0,
+                total / (MEASURED_ROUNDS * 1_000_000.0), USERS);
+    }
+
+    private static long mapAll(List<Map<String, Object>> users,
+                               Function<Map<String, Object>, UserRepresentation> mapper) {
+        long count = 0;
+        for (Map<String, Object> user : users) {
+            if (mapper.apply(user).getUsername() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // The previous KeycloakApi.toKeycloakUser implementation, kept here as the baseline
+    private static UserRepresentation reflectiveToKeycloakUser(Map<String, Object> user) {
+        final UserRepresentation keycloakUser = new UserRepresentation();
+        Arrays.stream(UserRepresentation.class.getMethods())
+                .filter(method -> method.getName().toLowerCase().startsWith("set"))
+                .forEach(setMethod -> {
+                    try {
+                        String capitalizedAttributeName = setMethod.getName().substring("set".length());
+                        char[] cs = capitalizedAttributeName.toCharArray();
+                        cs[0] = Character.toLowerCase(cs[0]);
+                        String attributeName = new String(cs);
+                        Class attributeType = setMethod.getParameterTypes()[0];
+                        if (user.containsKey(attributeName)) {
+                            if (attributeType == Long.class) {
+                                setMethod.invoke(keycloakUser, Long.parseLong(user.get(attributeName).toString()));
+                            } else if (attributeType == Set.class) {
+                                setMethod.invoke(keycloakUser,
+                                        new HashSet<String>((ArrayList<String>) user.get(attributeName)));
+                            } else {
+                                setMethod.invoke(keycloakUser, attributeType.cast(user.get(attributeName)));
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+        return keycloakUser;
+    }
+}
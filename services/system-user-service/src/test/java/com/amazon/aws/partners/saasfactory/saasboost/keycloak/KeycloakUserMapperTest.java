@@ -0,0 +1,70 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost.keycloak;
+
+import com.amazon.aws.partners.saasfactory.saasboost.Utils;
+import org.junit.Test;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.amazon.aws.partners.saasfactory.saasboost.keycloak.KeycloakTestUtils.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class KeycloakUserMapperTest {
+
+    @Test
+    public void toKeycloakUser_roundTrip() {
+        UserRepresentation expected = mockKeycloakUser("user");
+        expected.setDisableableCredentialTypes(Set.of("otp"));
+        expected.setCreatedTimestamp(1667260800000L);
+        UserRepresentation actual = KeycloakUserMapper.toKeycloakUser(
+                (Map<String, Object>) Utils.fromJson(Utils.toJson(expected), HashMap.class));
+        assertUsersEqual(expected, actual);
+        assertEquals(expected.getDisableableCredentialTypes(), actual.getDisableableCredentialTypes());
+        assertEquals(expected.getNotBefore(), actual.getNotBefore());
+        assertEquals(expected.getAccess(), actual.getAccess());
+    }
+
+    @Test
+    public void toKeycloakUser_convertsJacksonTypes() {
+        Map<String, Object> user = new HashMap<>();
+        // Jackson parses small epoch millis as an Integer and JSON arrays as Lists
+        user.put("createdTimestamp", 42);
+        user.put("disableableCredentialTypes", List.of("password", "otp"));
+        user.put("notAKeycloakAttribute", "ignored");
+        user.put("email", null);
+        UserRepresentation actual = KeycloakUserMapper.toKeycloakUser(user);
+        assertEquals(Long.valueOf(42L), actual.getCreatedTimestamp());
+        assertEquals(Set.of("password", "otp"), actual.getDisableableCredentialTypes());
+        assertNull(actual.getEmail());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void toKeycloakUser_wrongType() {
+        KeycloakUserMapper.toKeycloakUser(Map.of("username", 12));
+    }
+
+    @Test
+    public void toKeycloakUser_null() {
+        assertNull(KeycloakUserMapper.toKeycloakUser(null));
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.amazon.aws.partners.saasfactory.saasboost;
 
+import com.amazon.aws.partners.saasfactory.saasboost.dal.CachingTierDataStore;
 import com.amazon.aws.partners.saasfactory.saasboost.dal.TierDataStore;
 import com.amazon.aws.partners.saasfactory.saasboost.dal.ddb.DynamoTierDataStore;
 import com.amazon.aws.partners.saasfactory.saasboost.dal.exception.TierNotFoundException;
@@ -27,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -34,9 +36,13 @@ import java.util.stream.Collectors;
 public class TierService implements RequestHandler<Map<String, Object>, APIGatewayProxyResponseEvent> {
     private static final Logger LOGGER = LoggerFactory.getLogger(TierService.class);
     private static final String TIERS_TABLE = System.getenv("TIERS_TABLE");
+    private static final Duration DEFAULT_TIER_CACHE_TTL = Duration.ofMinutes(1);
     private static final Map<String, String> CORS = Map.of("Access-Control-Allow-Origin", "*");
 
-    private final TierDataStore store;
+    // Reads for API responses come from the cache. Anything that reads before it writes goes
+    // to the uncached store so decisions like default tier enforcement never act on a stale snapshot.
+    private final CachingTierDataStore store;
+    private final TierDataStore uncached;
 
     public TierService() {
         final long startTimeMillis = System.currentTimeMillis();
@@ -45,13 +51,20 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
         }
         LOGGER.info("Version Info: {}", Utils.version(this.getClass()));
 
-        this.store = new DynamoTierDataStore(
-                Utils.sdkClient(DynamoDbClient.builder(), DynamoDbClient.SERVICE_NAME),
-                TIERS_TABLE);
+        this.uncached = new DynamoTierDataStore(
+                Utils.sdkClient(DynamoDbClient.builder(), DynamoDbClient.SERVICE_NAME), TIERS_TABLE);
+        this.store = new CachingTierDataStore(uncached,
+                Utils.durationFromEnvironment("TIER_CACHE_TTL_SECONDS", DEFAULT_TIER_CACHE_TTL));
 
         LOGGER.info("Constructor init: {}", System.currentTimeMillis() - startTimeMillis);
     }
 
+    // Package private for testing
+    TierService(TierDataStore uncached, Duration cacheTtl) {
+        this.uncached = uncached;
+        this.store = new CachingTierDataStore(uncached, cacheTtl);
+    }
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(Map<String, Object> event, Context context) {
         return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
@@ -68,7 +81,7 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
         if (tiers.isEmpty()) {
             // we want to ensure there is always at least a default tier.
             tiers.add(
-                    store.createTier(Tier.builder()
+                    insertTier(Tier.builder()
                             .name("default")
                             .description("Default Tier")
                             .defaultTier(true)
@@ -125,10 +138,7 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
             // Utils.fromJson swallows and logs any exceptions coming from deserialization attempts
             return response.withStatusCode(400).withBody("{\"message\":\"Body should represent a Tier.\"}");
         }
-        Tier createdTier = store.createTier(newTier);
-        if (createdTier.defaultTier()) {
-            enforceSingleDefaultTier(createdTier);
-        }
+        Tier createdTier = insertTier(newTier);
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TierService::createTier exec " + totalTimeMillis);
         return new APIGatewayProxyResponseEvent()
@@ -162,9 +172,9 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
         }
         Tier updatedTier = providedTier;
         try {
-            Tier oldTier = store.getTier(providedTier.getId());
+            Tier oldTier = uncached.getTier(providedTier.getId());
             // TODO validate that user isn't trying to update fields that should not be updated, e.g. created, id
-            updatedTier = store.updateTier(providedTier);
+            updatedTier = uncached.updateTier(providedTier);
             if (!oldTier.defaultTier() && updatedTier.defaultTier()) {
                 // we weren't default but now we are, this means all other default
                 // Tiers should be updated to no longer be default,
@@ -176,6 +186,8 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
                     .withHeaders(CORS)
                     .withStatusCode(404)
                     .withBody("{\"message\":\"Tier not found.\"}");
+        } finally {
+            store.invalidate();
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TierService::updateTier exec " + totalTimeMillis);
@@ -195,12 +207,14 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
         Utils.logRequestEvent(event);
         Map<String, String> pathParams = (Map<String, String>) event.get("pathParameters");
         try {
-            store.deleteTier(pathParams.get("id"));
+            uncached.deleteTier(pathParams.get("id"));
         } catch (TierNotFoundException tnfe) {
             return new APIGatewayProxyResponseEvent()
                     .withHeaders(CORS)
                     .withStatusCode(404)
                     .withBody("{\"message\":\"Tier not found.\"}");
+        } finally {
+            store.invalidate();
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TierService::deleteTier exec " + totalTimeMillis);
@@ -209,8 +223,20 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
                 .withStatusCode(200);
     }
 
+    private Tier insertTier(Tier tier) {
+        try {
+            Tier createdTier = uncached.createTier(tier);
+            if (createdTier.defaultTier()) {
+                enforceSingleDefaultTier(createdTier);
+            }
+            return createdTier;
+        } finally {
+            store.invalidate();
+        }
+    }
+
     public void enforceSingleDefaultTier(Tier defaultTier) {
-        List<Tier> defaultTiers = store.listTiers().stream()
+        List<Tier> defaultTiers = uncached.listTiers().stream()
                 .filter(tier -> tier.defaultTier())
                 .collect(Collectors.toList());
         for (Tier t : defaultTiers) {
@@ -218,7 +244,7 @@ public class TierService implements RequestHandler<Map<String, Object>, APIGatew
                 try {
                     // TODO in the event that multiple users try to update tiers at the same time, different
                     // TODO lambda invocations may step on each other. to get around this use DDB TransactWriteItems
-                    store.updateTier(Tier.builder(t).defaultTier(false).build());
+                    uncached.updateTier(Tier.builder(t).defaultTier(false).build());
                 } catch (TierNotFoundException tnfe) {
                     // race condition between the list we just pulled and the update
                     LOGGER.error("Could not enforce a single default tier."
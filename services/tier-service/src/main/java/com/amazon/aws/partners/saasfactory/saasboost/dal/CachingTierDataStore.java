@@ -0,0 +1,132 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost.dal;
+
+import com.amazon.aws.partners.saasfactory.saasboost.dal.exception.TierNotFoundException;
+import com.amazon.aws.partners.saasfactory.saasboost.model.Tier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CachingTierDataStore decorates another {@link TierDataStore} with a read-through snapshot of all Tiers.
+ *
+ * Tiers change rarely but are read on every onboarding and every tier lookup, so reads are served from the
+ * snapshot until it expires. Writes through this store invalidate the snapshot immediately. Writes made by
+ * other containers become visible once the snapshot expires, or earlier if {@link #invalidate()} is called.
+ */
+public class CachingTierDataStore implements TierDataStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingTierDataStore.class);
+
+    private final TierDataStore delegate;
+    private final Duration ttl;
+    private final Clock clock;
+    private Map<String, Tier> snapshot;
+    private Instant expiresAt = Instant.MIN;
+
+    public CachingTierDataStore(TierDataStore delegate, Duration ttl) {
+        this(delegate, ttl, Clock.systemUTC());
+    }
+
+    // Package private for testing
+    CachingTierDataStore(TierDataStore delegate, Duration ttl, Clock clock) {
+        if (delegate == null || ttl == null || ttl.isNegative()) {
+            throw new IllegalArgumentException("CachingTierDataStore requires a delegate and a non-negative ttl");
+        }
+        this.delegate = delegate;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    @Override
+    public Tier getTier(String id) {
+        if (id == null) {
+            throw new TierNotFoundException(String.format("No Tier found with id: %s", id));
+        }
+        Tier tier = snapshot().get(id);
+        if (tier == null) {
+            // The Tier may have been created by another container since we took the snapshot
+            tier = delegate.getTier(id);
+            invalidate();
+        }
+        return tier;
+    }
+
+    @Override
+    public List<Tier> listTiers() {
+        // Callers are free to modify the returned list
+        return new ArrayList<>(snapshot().values());
+    }
+
+    @Override
+    public Tier createTier(Tier tier) {
+        try {
+            return delegate.createTier(tier);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void deleteTier(String id) {
+        try {
+            delegate.deleteTier(id);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public Tier updateTier(Tier newTier) {
+        try {
+            return delegate.updateTier(newTier);
+        } finally {
+            invalidate();
+        }
+    }
+
+    /**
+     * Discards the current snapshot so the next read goes back to the underlying store.
+     */
+    public synchronized void invalidate() {
+        snapshot = null;
+        expiresAt = Instant.MIN;
+    }
+
+    private synchronized Map<String, Tier> snapshot() {
+        Instant now = clock.instant();
+        if (snapshot == null || !now.isBefore(expiresAt)) {
+            final long startTimeMillis = System.currentTimeMillis();
+            Map<String, Tier> tiers = new LinkedHashMap<>();
+            for (Tier tier : delegate.listTiers()) {
+                tiers.put(tier.getId(), tier);
+            }
+            snapshot = tiers;
+            expiresAt = now.plus(ttl);
+            LOGGER.info("CachingTierDataStore::snapshot loaded {} tiers in {} ms", tiers.size(),
+                    System.currentTimeMillis() - startTimeMillis);
+        }
+        return snapshot;
+    }
+}
@@ -26,9 +26,10 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 public class DynamoTierDataStore implements TierDataStore {
     private static final Logger LOGGER = LoggerFactory.getLogger(DynamoTierDataStore.class);
@@ -61,10 +62,19 @@ public class DynamoTierDataStore implements TierDataStore {
     @Override
     public List<Tier> listTiers() {
         // TODO this doesn't do any ddb error checking
-        return ddb.scan(request -> request
-                        .tableName(tableName)).items().stream()
-                .map(DynamoTier::fromAttributes)
-                .collect(Collectors.toList());
+        List<Tier> tiers = new ArrayList<>();
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            final Map<String, AttributeValue> startKey = exclusiveStartKey;
+            ScanResponse scanResponse = ddb.scan(request -> request
+                    .tableName(tableName)
+                    .exclusiveStartKey(startKey));
+            scanResponse.items().stream()
+                    .map(DynamoTier::fromAttributes)
+                    .forEach(tiers::add);
+            exclusiveStartKey = scanResponse.lastEvaluatedKey();
+        } while (exclusiveStartKey != null && !exclusiveStartKey.isEmpty());
+        return tiers;
     }
 
     @Override
@@ -0,0 +1,107 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost;
+
+import com.amazon.aws.partners.saasfactory.saasboost.dal.TierDataStore;
+import com.amazon.aws.partners.saasfactory.saasboost.model.Tier;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TierServiceTest {
+    private static final LocalDateTime NOW = LocalDateTime.now();
+
+    private TierDataStore delegate;
+    private TierService service;
+
+    @Before
+    public void setup() {
+        delegate = mock(TierDataStore.class);
+        when(delegate.updateTier(any(Tier.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(delegate.createTier(any(Tier.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        service = new TierService(delegate, Duration.ofHours(1));
+    }
+
+    @Test
+    public void updateTierReadsPastStaleCache() {
+        // Warm the cache while silver is still the default
+        when(delegate.listTiers()).thenReturn(new ArrayList<>(List.of(tier("gold", false), tier("silver", true))));
+        service.getTiers(new HashMap<>(), null);
+
+        // Another container moved the default to gold
+        when(delegate.getTier("silver")).thenReturn(tier("silver", false));
+        when(delegate.listTiers()).thenReturn(new ArrayList<>(List.of(tier("gold", true), tier("silver", false))));
+
+        APIGatewayProxyResponseEvent response = service.updateTier(updateEvent(tier("silver", true)), null);
+        assertEquals(200, response.getStatusCode().intValue());
+
+        // The stale snapshot says silver was already default, which would have skipped enforcement
+        verify(delegate).getTier("silver");
+        verify(delegate).updateTier(tier("gold", false));
+        verify(delegate, times(2)).listTiers();
+    }
+
+    @Test
+    public void writesInvalidateCache() {
+        when(delegate.listTiers()).thenReturn(new ArrayList<>(List.of(tier("gold", true))));
+        service.getTiers(new HashMap<>(), null);
+        service.getTiers(new HashMap<>(), null);
+        verify(delegate, times(1)).listTiers();
+
+        Map<String, Object> create = new HashMap<>();
+        create.put("body", Utils.toJson(tier("silver", false)));
+        service.createTier(create, null);
+        service.getTiers(new HashMap<>(), null);
+        verify(delegate, times(2)).listTiers();
+
+        Map<String, Object> delete = new HashMap<>();
+        delete.put("pathParameters", Map.of("id", "silver"));
+        service.deleteTier(delete, null);
+        verify(delegate).deleteTier("silver");
+        service.getTiers(new HashMap<>(), null);
+        verify(delegate, times(3)).listTiers();
+    }
+
+    private static Map<String, Object> updateEvent(Tier tier) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("pathParameters", Map.of("id", tier.getId()));
+        event.put("body", Utils.toJson(tier));
+        return event;
+    }
+
+    private static Tier tier(String id, boolean defaultTier) {
+        return Tier.builder()
+                .id(id)
+                .name(id)
+                .description(id + " tier")
+                .created(NOW)
+                .modified(NOW)
+                .defaultTier(defaultTier)
+                .build();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.aws.partners.saasfactory.saasboost.dal;
+
+import com.amazon.aws.partners.saasfactory.saasboost.dal.exception.TierNotFoundException;
+import com.amazon.aws.partners.saasfactory.saasboost.model.Tier;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CachingTierDataStoreTest {
+    private static final Duration TTL = Duration.ofMinutes(1);
+    private static final Instant START = Instant.parse("2022-01-01T00:00:00Z");
+    private static final LocalDateTime NOW = LocalDateTime.now();
+    private static final Tier GOLD = tier("gold", true);
+    private static final Tier SILVER = tier("silver", false);
+
+    private TierDataStore mockStore;
+    private Clock clock;
+    private CachingTierDataStore cachingStore;
+
+    @Before
+    public void setup() {
+        mockStore = mock(TierDataStore.class);
+        when(mockStore.listTiers()).thenAnswer(invocation -> new ArrayList<>(List.of(GOLD, SILVER)));
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        cachingStore = new CachingTierDataStore(mockStore, TTL, clock);
+    }
+
+    @Test
+    public void readsAreServedFromSnapshot() {
+        assertEquals(List.of(GOLD, SILVER), cachingStore.listTiers());
+        assertEquals(SILVER, cachingStore.getTier("silver"));
+        assertEquals(GOLD, cachingStore.getTier("gold"));
+        verify(mockStore, times(1)).listTiers();
+        verify(mockStore, never()).getTier(anyString());
+    }
+
+    @Test
+    public void snapshotExpires() {
+        when(clock.instant()).thenReturn(START, START.plus(TTL).minusSeconds(1), START.plus(TTL));
+        cachingStore.listTiers();
+        cachingStore.listTiers();
+        verify(mockStore, times(1)).listTiers();
+        cachingStore.listTiers();
+        verify(mockStore, times(2)).listTiers();
+    }
+
+    @Test
+    public void writesInvalidateSnapshot() {
+        cachingStore.listTiers();
+        cachingStore.createTier(SILVER);
+        cachingStore.listTiers();
+        cachingStore.updateTier(SILVER);
+        cachingStore.listTiers();
+        cachingStore.deleteTier("silver");
+        cachingStore.listTiers();
+        verify(mockStore, times(4)).listTiers();
+    }
+
+    @Test
+    public void missFallsThroughToDelegate() {
+        Tier bronze = tier("bronze", false);
+        when(mockStore.getTier("bronze")).thenReturn(bronze);
+        assertEquals(bronze, cachingStore.getTier("bronze"));
+        verify(mockStore).getTier("bronze");
+    }
+
+    @Test(expected = TierNotFoundException.class)
+    public void missingTierNotFound() {
+        when(mockStore.getTier("missing")).thenThrow(new TierNotFoundException("missing"));
+        cachingStore.getTier("missing");
+    }
+
+    @Test
+    public void listTiersReturnsMutableCopy() {
+        List<Tier> tiers = cachingStore.listTiers();
+        tiers.clear();
+        assertEquals(2, cachingStore.listTiers().size());
+    }
+
+    private static Tier tier(String id, boolean defaultTier) {
+        return Tier.builder()
+                .id(id)
+                .name(id)
+                .description(id + " tier")
+                .created(NOW)
+                .modified(NOW)
+                .defaultTier(defaultTier)
+                .build();
+    }
+}